@@ -58,7 +58,7 @@ public final class LocalCacheSelectorCode {
   }
 
   private LocalCacheSelectorCode removalListener() {
-    block.beginControlFlow("if (builder.removalListener != null)")
+    block.beginControlFlow("if (builder.hasRemovalListener())")
             .addStatement("sb.append('L')")
         .endControlFlow();
     return this;
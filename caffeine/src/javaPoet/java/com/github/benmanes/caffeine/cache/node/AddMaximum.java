@@ -53,15 +53,16 @@ public final class AddMaximum extends NodeRule {
   }
 
   private void addWeight() {
-    if (!context.generateFeatures.contains(Feature.MAXIMUM_WEIGHT)) {
-      return;
+    if (context.generateFeatures.contains(Feature.MAXIMUM_WEIGHT)) {
+      context.nodeSubtype.addField(int.class, "weight")
+          .addMethod(newGetter(Strength.STRONG, TypeName.INT, "weight", Visibility.IMMEDIATE))
+          .addMethod(newSetter(TypeName.INT, "weight", Visibility.IMMEDIATE));
+      context.constructorByKey.addStatement("this.$N = $N", "weight", "weight");
+      context.constructorByKeyRef.addStatement("this.$N = $N", "weight", "weight");
     }
-    context.nodeSubtype.addField(int.class, "weight")
-        .addMethod(newGetter(Strength.STRONG, TypeName.INT, "weight", Visibility.IMMEDIATE))
-        .addMethod(newSetter(TypeName.INT, "weight", Visibility.IMMEDIATE));
-    context.constructorByKey.addStatement("this.$N = $N", "weight", "weight");
-    context.constructorByKeyRef.addStatement("this.$N = $N", "weight", "weight");
 
+    // The policy weight starts at zero until the node is added, so that the sizes are reconciled
+    // by the node's own state regardless of whether it carries a weight
     context.nodeSubtype.addField(int.class, "policyWeight")
         .addMethod(newGetter(Strength.STRONG, TypeName.INT, "policyWeight", Visibility.IMMEDIATE))
         .addMethod(newSetter(TypeName.INT, "policyWeight", Visibility.IMMEDIATE));
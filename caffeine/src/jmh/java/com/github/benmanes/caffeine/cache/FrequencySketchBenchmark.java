@@ -16,6 +16,7 @@
 package com.github.benmanes.caffeine.cache;
 
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -34,7 +35,13 @@ import site.ycsb.generator.ScrambledZipfianGenerator;
 public class FrequencySketchBenchmark {
   private static final int SIZE = (2 << 14);
   private static final int MASK = SIZE - 1;
-  private static final int ITEMS = SIZE / 3;
+
+  // A sketch that fits within the processor's caches and one that is dominated by cache misses
+  @Param({"10922", "4194304"})
+  int items;
+
+  @Param({"false", "true"})
+  boolean blocked;
 
   int index = 0;
   Integer[] ints;
@@ -43,10 +50,10 @@ public class FrequencySketchBenchmark {
   @Setup
   public void setup() {
     ints = new Integer[SIZE];
-    sketch = new FrequencySketch<>();
-    sketch.ensureCapacity(ITEMS);
+    sketch = new FrequencySketch<>(/* doorkeeper */ false, blocked);
+    sketch.ensureCapacity(items);
 
-    NumberGenerator generator = new ScrambledZipfianGenerator(ITEMS);
+    NumberGenerator generator = new ScrambledZipfianGenerator(items);
     for (int i = 0; i < SIZE; i++) {
       ints[i] = generator.nextValue().intValue();
       sketch.increment(i);
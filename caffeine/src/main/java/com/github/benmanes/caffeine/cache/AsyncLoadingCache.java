@@ -82,6 +82,28 @@ public interface AsyncLoadingCache<K, V> extends AsyncCache<K, V> {
   @NonNull
   CompletableFuture<Map<K, V>> getAll(@NonNull Iterable<? extends @NonNull K> keys);
 
+  /**
+   * Loads a new value for each of the {@code keys}, asynchronously, as a single batch. Entries
+   * whose value is currently being loaded are skipped. A new value replaces the previous value in
+   * the cache only if the entry was not modified while the batch was in flight; otherwise the new
+   * value is discarded.
+   * <p>
+   * Caches loaded by a {@link AsyncCacheLoader} supporting bulk loading will issue a single request
+   * to {@link AsyncCacheLoader#asyncLoadAll} for all of the keys. Caches that do not use a
+   * {@link AsyncCacheLoader} with an optimized bulk load implementation will call
+   * {@link AsyncCacheLoader#asyncReload} or {@link AsyncCacheLoader#asyncLoad} for each key. See
+   * {@link LoadingCache#refreshAll} for the full semantics.
+   *
+   * @param keys the keys whose associated values are to be reloaded
+   * @return the future containing an unmodifiable mapping of keys to the new values that were
+   *         stored in this cache
+   * @throws NullPointerException if the specified collection is null or contains a null element
+   */
+  @NonNull
+  default CompletableFuture<Map<K, V>> refreshAll(@NonNull Iterable<? extends @NonNull K> keys) {
+    return synchronous().refreshAll(keys);
+  }
+
   /**
    * Returns a view of the entries stored in this cache as a thread-safe map. Modifications made to
    * the map directly affect the cache.
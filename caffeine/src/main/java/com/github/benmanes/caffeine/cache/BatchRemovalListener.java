@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * An object that can receive the notifications of many entries being removed from a cache at once.
+ * Unlike a {@link RemovalListener}, which is notified by a separate task for every removal, the
+ * removals are accumulated and delivered in chunks by a single task. This reduces the overhead on
+ * the executor when many entries are removed in a burst, such as due to a large eviction or an
+ * invalidation of all of the entries.
+ * <p>
+ * An instance may be called concurrently if it is shared by multiple caches, but the notifications
+ * of a single cache are delivered by at most one task at a time. Implementations of this interface
+ * should avoid performing blocking calls or synchronizing on shared resources.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ * @param <K> the most general type of keys this listener can listen for; for example {@code Object}
+ *        if any key is acceptable
+ * @param <V> the most general type of values this listener can listen for; for example
+ *        {@code Object} if any value is acceptable
+ */
+@FunctionalInterface
+public interface BatchRemovalListener<K, V> {
+
+  /**
+   * Notifies the listener that the removals occurred at some point in the past. The notifications
+   * are in the order that they were recorded, which is approximately the order of the removals.
+   * <p>
+   * This does not always signify that a key is now absent from the cache, as it may have already
+   * been re-added.
+   *
+   * @param notifications the removed entries and the reasons for which they were removed
+   */
+  void onRemoval(@NonNull List<RemovalNotification<K, V>> notifications);
+}
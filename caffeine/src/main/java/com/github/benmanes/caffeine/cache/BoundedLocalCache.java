@@ -26,19 +26,24 @@ import static com.github.benmanes.caffeine.cache.Node.PROTECTED;
 import static com.github.benmanes.caffeine.cache.Node.WINDOW;
 import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.nio.file.Path;
 import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -112,6 +117,15 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
    * asynchronously to minimize the request latency and uses a state machine to determine when to
    * schedule this work on an executor.
    *
+   * An insertion or removal is recorded by offering the entry itself to the write buffer, so that a
+   * write does not allocate a task in addition to the entry, unless a custom eviction policy
+   * requires that the removed entry's key is retained. The operation is determined when the buffer
+   * is drained by whether the entry is still alive: an alive entry is added to the policy and a
+   * retired entry is removed from it. An update that changes the entry's weight or write order is
+   * recorded as a task, while other updates are recorded in the read buffer. The policy tracks the
+   * weight that it has accounted for separately from the entry's, so that the pending operations
+   * reconcile the two regardless of the order in which they are applied.
+   *
    * Due to a lack of a strict ordering guarantee, a task can be executed out-of-order, such as a
    * removal followed by its addition. The state of the entry is encoded using the key field to
    * avoid additional memory. An entry is "alive" if it is in both the hash table and the page
@@ -192,6 +206,10 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   static final int WRITE_BUFFER_RETRIES = 100;
   /** The maximum weighted capacity of the map. */
   static final long MAXIMUM_CAPACITY = Long.MAX_VALUE - Integer.MAX_VALUE;
+  /** The maximum number of victims to compare a heavy candidate against when admitting it. */
+  static final int WEIGHTED_ADMISSION_SCAN_LIMIT = 64;
+  /** The maximum number of absent victims that an eviction policy may select in one pass. */
+  static final int EVICTION_POLICY_ABSENT_LIMIT = 1_024;
   /** The initial percent of the maximum weighted capacity dedicated to the main space. */
   static final double PERCENT_MAIN = 0.99d;
   /** The percent of the maximum weighted capacity dedicated to the main's protected space. */
@@ -208,8 +226,20 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   static final long EXPIRE_WRITE_TOLERANCE = TimeUnit.SECONDS.toNanos(1);
   /** The maximum duration before an entry expires. */
   static final long MAXIMUM_EXPIRY = (Long.MAX_VALUE >> 1); // 150 years
+  /** The weight of an entry's frequency relative to each level of its load penalty. */
+  static final int LOAD_PENALTY_BASE = 4;
+  /** The multiple of the scaled load time beyond which an early refresh is improbable. */
+  static final int EARLY_REFRESH_HORIZON = 32;
+  /** The maximum number of entries that a snapshot copies while holding the eviction lock. */
+  static final int SNAPSHOT_BATCH_SIZE = 1_024;
 
   final ConcurrentHashMap<Object, Node<K, V>> data;
+  @Nullable final OffHeapVictimTier<K, V> victimTier;
+  @Nullable final EvictionPolicy<K> evictionPolicy;
+  @Nullable final Climber climber;
+  @Nullable final RefreshBatcher<K, V> refreshBatcher;
+  @Nullable final LoadPenaltySketch<K> loadPenalties;
+  @Nullable final HotKeySummary<K> hotKeys;
   @Nullable final CacheLoader<K, V> cacheLoader;
   final PerformCleanupTask drainBuffersTask;
   final Consumer<Node<K, V>> accessPolicy;
@@ -217,14 +247,28 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   final NodeFactory<K, V> nodeFactory;
   final ReentrantLock evictionLock;
   final CacheWriter<K, V> writer;
+  final boolean writesAll;
+  final boolean deletesAll;
   final Weigher<K, V> weigher;
+  final boolean weightAwareAdmission;
+  final double earlyRefreshBeta;
+  final long staleWhileRevalidateNanos;
+  final long staleIfErrorNanos;
+  final long maintenanceTimeSliceNanos;
+  final Ticker maintenanceTicker;
   final Executor executor;
   final boolean isAsync;
 
+  @GuardedBy("evictionLock")
+  long maintenanceDeadline;
+  volatile long averageLoadTime;
+
   // The collection views
   @Nullable transient Set<K> keySet;
   @Nullable transient Collection<V> values;
   @Nullable transient Set<Entry<K, V>> entrySet;
+  @Nullable volatile ConcurrentMap<Object, CompletableFuture<?>> refreshes;
+  @Nullable final ConcurrentMap<Object, Long> failedReloads;
 
   /** Creates an instance based on the builder's configuration. */
   protected BoundedLocalCache(Caffeine<K, V> builder,
@@ -233,8 +277,25 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     this.cacheLoader = cacheLoader;
     executor = builder.getExecutor();
     writer = builder.getCacheWriter();
+    writesAll = LocalCache.hasWriteAll(writer);
+    deletesAll = LocalCache.hasDeleteAll(writer);
     evictionLock = new ReentrantLock();
     weigher = builder.getWeigher(isAsync);
+    victimTier = builder.newVictimTier();
+    evictionPolicy = builder.newEvictionPolicy();
+    climber = builder.newClimber();
+    refreshBatcher = builder.newRefreshBatcher(cacheLoader);
+    loadPenalties = builder.hasLoadPenaltyAdmission() ? new LoadPenaltySketch<>() : null;
+    hotKeys = builder.newHotKeySummary();
+    weightAwareAdmission = builder.hasWeightAwareAdmission();
+    earlyRefreshBeta = builder.getEarlyRefreshBeta();
+    staleWhileRevalidateNanos = Math.min(builder.getStaleWhileRevalidateNanos(), MAXIMUM_EXPIRY);
+    staleIfErrorNanos = Math.min(builder.getStaleIfErrorNanos(), MAXIMUM_EXPIRY);
+    failedReloads = (staleIfErrorNanos > staleWhileRevalidateNanos)
+        ? new ConcurrentHashMap<>()
+        : null;
+    maintenanceTimeSliceNanos = builder.getMaintenanceTimeSliceNanos();
+    maintenanceTicker = builder.getMaintenanceTicker();
     drainBuffersTask = new PerformCleanupTask(this);
     nodeFactory = NodeFactory.newFactory(builder, isAsync);
     data = new ConcurrentHashMap<>(builder.getInitialCapacity());
@@ -280,7 +341,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     return false;
   }
 
-  protected MpscGrowableArrayQueue<Runnable> writeBuffer() {
+  protected MpscGrowableArrayQueue<Object> writeBuffer() {
     throw new UnsupportedOperationException();
   }
 
@@ -294,6 +355,44 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     return (writer != CacheWriter.disabledWriter());
   }
 
+  /* --------------- Victim Tier Support --------------- */
+
+  /** Stores the evicted entry in the victim tier, ignoring it if the value cannot be serialized. */
+  final void demote(K key, V value) {
+    try {
+      requireNonNull(victimTier).offer(key, value);
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Exception thrown when demoting to the victim tier", t);
+    }
+  }
+
+  /** Discards the demoted copy of the entry, if present, because it is being superseded. */
+  final void discardVictim(Object key) {
+    if (victimTier != null) {
+      victimTier.invalidate(key);
+    }
+  }
+
+  /**
+   * Returns the mapping function decorated to first promote the entry from the victim tier, if
+   * present, before computing the value.
+   */
+  final Function<? super K, ? extends V> promoteVictim(
+      Function<? super K, ? extends V> mappingFunction, boolean recordStats) {
+    if (victimTier == null) {
+      return mappingFunction;
+    }
+    return key -> {
+      V value = victimTier.poll(key);
+      if (value == null) {
+        return mappingFunction.apply(key);
+      } else if (recordStats) {
+        statsCounter().recordHits(1);
+      }
+      return value;
+    };
+  }
+
   /* --------------- Stats Support --------------- */
 
   @Override
@@ -306,11 +405,65 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     return StatsCounter.disabledStatsCounter();
   }
 
+  @Override
+  public void recordLoadPenalty(Object key, long loadTime) {
+    if (earlyRefreshBeta > 0) {
+      // A racy update may lose a sample, which is tolerable for an estimate
+      long average = averageLoadTime;
+      averageLoadTime = (average == 0) ? loadTime : (average + ((loadTime - average) >> 3));
+    }
+    if ((loadPenalties != null) && buffersWrites()) {
+      // The sample is dropped if the write buffer is full, which is tolerable for an estimate. The
+      // maintenance work is requested rather than performed, as a load may be performed while
+      // holding the entry's lock, so the sample is applied by the next drain of the buffers.
+      @SuppressWarnings("unchecked")
+      K castedKey = (K) key;
+      if (writeBuffer().offer(new LoadPenaltyTask(castedKey, loadTime))
+          && (drainStatus() == IDLE)) {
+        casDrainStatus(IDLE, REQUIRED);
+      }
+    }
+  }
+
   @Override
   public Ticker statsTicker() {
     return Ticker.disabledTicker();
   }
 
+  @Override
+  public ConcurrentMap<Object, CompletableFuture<?>> refreshes() {
+    ConcurrentMap<Object, CompletableFuture<?>> pending = refreshes;
+    if (pending == null) {
+      synchronized (this) {
+        pending = refreshes;
+        if (pending == null) {
+          refreshes = pending = new ConcurrentHashMap<>();
+        }
+      }
+    }
+    return pending;
+  }
+
+  @Override
+  public Object referenceKey(K key) {
+    return nodeFactory.newLookupKey(key);
+  }
+
+  @Override
+  public CacheWriter<K, V> writer() {
+    return writer;
+  }
+
+  @Override
+  public boolean writesAll() {
+    return writesAll;
+  }
+
+  @Override
+  public boolean deletesAll() {
+    return deletesAll;
+  }
+
   /* --------------- Removal Listener Support --------------- */
 
   @Override
@@ -325,8 +478,19 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public void notifyRemoval(@Nullable K key, @Nullable V value, RemovalCause cause) {
     requireState(hasRemovalListener(), "Notification should be guarded with a check");
+    if (removalListener() instanceof RemovalNotificationBatcher<?, ?>) {
+      // Defer the delivery of a removal during the maintenance until the cycle completes
+      RemovalNotificationBatcher<K, V> batcher =
+          (RemovalNotificationBatcher<K, V>) removalListener();
+      batcher.add(key, value, cause);
+      if (!evictionLock.isHeldByCurrentThread()) {
+        batcher.schedule();
+      }
+      return;
+    }
     Runnable task = () -> {
       try {
         removalListener().onRemoval(key, value, cause);
@@ -595,9 +759,13 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     setMissesInSample(0);
     setStepSize(-HILL_CLIMBER_STEP_PERCENT * max);
 
-    if ((frequencySketch() != null) && !isWeighted() && (weightedSize() >= (max >>> 1))) {
+    if ((frequencySketch() != null) && (evictionPolicy == null)
+        && !isWeighted() && (weightedSize() >= (max >>> 1))) {
       // Lazily initialize when close to the maximum size
       frequencySketch().ensureCapacity(max);
+      if (loadPenalties != null) {
+        loadPenalties.ensureCapacity(max);
+      }
     }
   }
 
@@ -606,11 +774,49 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   void evictEntries() {
     if (!evicts()) {
       return;
+    } else if (evictionPolicy != null) {
+      evictFromPolicy(evictionPolicy);
+      return;
     }
     int candidates = evictFromWindow();
     evictFromMain(candidates);
   }
 
+  /**
+   * Evicts the victims selected by the custom eviction policy while the cache exceeds the maximum.
+   * A victim that is absent from the cache is forgotten by the policy, as its removal may still be
+   * pending in the write buffer. A policy that selects too many absent victims in one pass is
+   * assumed to be ignoring its removals, so the pass is abandoned rather than spinning while the
+   * eviction lock is held and the eviction is retried by the next maintenance cycle.
+   *
+   * @param policy the page replacement policy that selects the victims
+   */
+  @GuardedBy("evictionLock")
+  void evictFromPolicy(EvictionPolicy<K> policy) {
+    int absent = 0;
+    while ((weightedSize() > maximum()) && !exceedsTimeSlice()) {
+      K key = policy.selectVictim();
+      if (key == null) {
+        return;
+      }
+
+      // The victim may have been removed and be pending its removal from the policy
+      Node<K, V> node = data.get(nodeFactory.newLookupKey(key));
+      if (node == null) {
+        policy.onRemove(key);
+        if (++absent > EVICTION_POLICY_ABSENT_LIMIT) {
+          logger.log(Level.WARNING, "Abandoned eviction as the policy selected too many victims "
+              + "that are not in the cache: " + policy.getClass().getName());
+          return;
+        }
+      } else if (!evictEntry(node, RemovalCause.SIZE, 0L)) {
+        // The entry is no longer eligible for eviction, so it is restored to the policy
+        policy.onWrite(key, node.getPolicyWeight());
+        return;
+      }
+    }
+  }
+
   /**
    * Evicts entries from the window space into the main space while the window size exceeds a
    * maximum.
@@ -651,7 +857,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
    * The window space candidates were previously placed in the MRU position and the eviction
    * policy's victim is at the LRU position. The two ends of the queue are evaluated while an
    * eviction is required. The number of remaining candidates is provided and decremented on
-   * eviction, so that when there are no more candidates the victim is evicted.
+   * eviction, so that when there are no more candidates the victim is evicted. If the admission is
+   * weight aware then a candidate that is heavier than the victim is evaluated against all of the
+   * victims that it would displace.
    *
    * @param candidates the number of candidate entries evicted from the window space
    */
@@ -660,7 +868,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     int victimQueue = PROBATION;
     Node<K, V> victim = accessOrderProbationDeque().peekFirst();
     Node<K, V> candidate = accessOrderProbationDeque().peekLast();
-    while (weightedSize() > maximum()) {
+    while ((weightedSize() > maximum()) && !exceedsTimeSlice()) {
       // Stop trying to evict candidates and always prefer the victim
       if (candidates == 0) {
         candidate = null;
@@ -735,7 +943,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
       // Evict the entry with the lowest frequency
       candidates--;
-      if (admit(candidateKey, victimKey)) {
+      if (admit(candidateKey, victimKey) && (!weightAwareAdmission
+          || (candidate.getPolicyWeight() <= victim.getPolicyWeight())
+          || admitByWeight(candidate, candidateKey, victim))) {
         Node<K, V> evict = victim;
         victim = victim.getNextInAccessOrder();
         evictEntry(evict, RemovalCause.SIZE, 0L);
@@ -752,7 +962,10 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
    * Determines if the candidate should be accepted into the main space, as determined by its
    * frequency relative to the victim. A small amount of randomness is used to protect against hash
    * collision attacks, where the victim's frequency is artificially raised so that no new entries
-   * are admitted.
+   * are admitted. If the load penalties are tracked then each frequency is weighted by the
+   * estimated cost of reloading the entry, so that an expensive entry is retained over a cheap one
+   * that is used about as often. The weight is bounded so that a rarely used entry cannot displace
+   * a frequently used one regardless of its cost.
    *
    * @param candidateKey the key for the entry being proposed for long term retention
    * @param victimKey the key for the entry chosen by the eviction policy for replacement
@@ -760,20 +973,67 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
    */
   @GuardedBy("evictionLock")
   boolean admit(K candidateKey, K victimKey) {
-    int victimFreq = frequencySketch().frequency(victimKey);
-    int candidateFreq = frequencySketch().frequency(candidateKey);
-    if (candidateFreq > victimFreq) {
+    int victimWeight = LOAD_PENALTY_BASE;
+    int candidateWeight = LOAD_PENALTY_BASE;
+    if (loadPenalties != null) {
+      // The frequency is scaled by (4 + level) / 4, so an entry that is costly to reload is favored
+      // only by up to 4.75x and must still be used at least a fraction as often as a cheap one
+      victimWeight += loadPenalties.level(victimKey);
+      candidateWeight += loadPenalties.level(candidateKey);
+    }
+    int victimScore = victimWeight * frequencySketch().frequency(victimKey);
+    int candidateScore = candidateWeight * frequencySketch().frequency(candidateKey);
+    if (candidateScore > victimScore) {
       return true;
-    } else if (candidateFreq <= 5) {
+    } else if (candidateScore <= (5 * LOAD_PENALTY_BASE)) {
       // The maximum frequency is 15 and halved to 7 after a reset to age the history. An attack
       // exploits that a hot candidate is rejected in favor of a hot victim. The threshold of a warm
       // candidate reduces the number of random acceptances to minimize the impact on the hit rate.
+      // The threshold applies to the weighted score, which is four times the frequency by default.
       return false;
     }
     int random = ThreadLocalRandom.current().nextInt();
     return ((random & 127) == 0);
   }
 
+  /**
+   * Determines if a candidate that is heavier than the victim should be accepted into the main
+   * space, as determined by its frequency relative to all of the victims that it would displace.
+   * The victims are visited in eviction order until their combined weight covers the candidate's,
+   * and the candidate is rejected if it is not used more often than those victims are in total.
+   * The scan is bounded because it ends once the victims are used as often as the candidate, so a
+   * long scan implies that the candidate displaces only entries that are rarely used.
+   *
+   * @param candidate the entry being proposed for long term retention
+   * @param candidateKey the key for the entry being proposed for long term retention
+   * @param victim the entry chosen by the eviction policy for replacement
+   * @return if the candidate should be admitted and the victims ejected
+   */
+  @GuardedBy("evictionLock")
+  boolean admitByWeight(Node<K, V> candidate, K candidateKey, Node<K, V> victim) {
+    int candidateFreq = frequencySketch().frequency(candidateKey);
+    int candidateWeight = candidate.getPolicyWeight();
+    int victimsFreq = 0;
+    long victimsWeight = 0;
+    int scanned = 0;
+
+    Node<K, V> node = victim;
+    while ((node != null) && (node != candidate) && (victimsWeight < candidateWeight)
+        && (scanned < WEIGHTED_ADMISSION_SCAN_LIMIT)) {
+      K key = node.getKey();
+      if (key != null) {
+        victimsWeight += node.getPolicyWeight();
+        victimsFreq += frequencySketch().frequency(key);
+        if (victimsFreq >= candidateFreq) {
+          return false;
+        }
+      }
+      node = node.getNextInAccessOrder();
+      scanned++;
+    }
+    return true;
+  }
+
   /** Expires entries that have expired by access, write, or variable. */
   @GuardedBy("evictionLock")
   void expireEntries() {
@@ -811,7 +1071,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     long duration = expiresAfterAccessNanos();
     for (;;) {
       Node<K, V> node = accessOrderDeque.peekFirst();
-      if ((node == null) || ((now - node.getAccessTime()) < duration)) {
+      if ((node == null) || ((now - node.getAccessTime()) < duration) || exceedsTimeSlice()) {
         return;
       }
       evictEntry(node, RemovalCause.EXPIRED, now);
@@ -824,10 +1084,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     if (!expiresAfterWrite()) {
       return;
     }
-    long duration = expiresAfterWriteNanos();
     for (;;) {
       final Node<K, V> node = writeOrderDeque().peekFirst();
-      if ((node == null) || ((now - node.getWriteTime()) < duration)) {
+      if ((node == null) || !isPastGracePeriod(node, now) || exceedsTimeSlice()) {
         break;
       }
       evictEntry(node, RemovalCause.EXPIRED, now);
@@ -865,7 +1124,13 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     if (expiresAfterWrite()) {
       Node<K, V> node = writeOrderDeque().peekFirst();
       if (node != null) {
-        delay = Math.min(delay, expiresAfterWriteNanos() - (now - node.getWriteTime()));
+        long remaining = expiresAfterWriteNanos() - (now - node.getWriteTime());
+        if (staleWhileRevalidateNanos > 0) {
+          remaining += hasFailedReload(node)
+              ? Math.max(staleWhileRevalidateNanos, staleIfErrorNanos)
+              : staleWhileRevalidateNanos;
+        }
+        delay = Math.min(delay, remaining);
       }
     }
     if (expiresVariable()) {
@@ -882,6 +1147,52 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         | (expiresVariable() && (now - node.getVariableTime() >= 0));
   }
 
+  /**
+   * Returns if the entry has expired. A retrieval that reloads a stale value may serve an entry
+   * that expired after write until its grace period has elapsed, whereas every other operation
+   * treats the entry as absent once it has expired.
+   *
+   * @param node the entry in the cache
+   * @param now the current time, in nanoseconds
+   * @param servesStale if an entry that expired after write may be served during its grace period
+   * @return if the entry has expired
+   */
+  @SuppressWarnings("ShortCircuitBoolean")
+  boolean hasExpired(Node<K, V> node, long now, boolean servesStale) {
+    if (!servesStale || (staleWhileRevalidateNanos == 0)) {
+      return hasExpired(node, now);
+    }
+    return (expiresAfterAccess() && (now - node.getAccessTime() >= expiresAfterAccessNanos()))
+        | (expiresAfterWrite() && isPastGracePeriod(node, now))
+        | (expiresVariable() && (now - node.getVariableTime() >= 0));
+  }
+
+  /**
+   * Returns if the entry has expired since it was written and may be removed. When stale values
+   * are served, the entry is retained for the grace period past its expiration time, or for the
+   * longer stale-if-error period if its most recent reload failed.
+   */
+  boolean isPastGracePeriod(Node<K, V> node, long now) {
+    long age = now - node.getWriteTime();
+    if ((age < expiresAfterWriteNanos()) || (staleWhileRevalidateNanos == 0)) {
+      return (age >= expiresAfterWriteNanos());
+    }
+    long staleness = age - expiresAfterWriteNanos();
+    if (staleness < staleWhileRevalidateNanos) {
+      return false;
+    }
+    return (staleness >= staleIfErrorNanos) || !hasFailedReload(node);
+  }
+
+  /** Returns if the most recent reload of the entry's current value failed. */
+  boolean hasFailedReload(Node<K, V> node) {
+    if (failedReloads == null) {
+      return false;
+    }
+    Long writeTime = failedReloads.get(node.getKeyReference());
+    return (writeTime != null) && (writeTime == node.getWriteTime());
+  }
+
   /**
    * Attempts to evict the entry based on the given removal cause. A removal due to expiration or
    * size may be ignored if the entry was updated and is no longer eligible for eviction.
@@ -915,7 +1226,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
             expired |= ((now - n.getAccessTime()) >= expiresAfterAccessNanos());
           }
           if (expiresAfterWrite()) {
-            expired |= ((now - n.getWriteTime()) >= expiresAfterWriteNanos());
+            expired |= isPastGracePeriod(n, now);
           }
           if (expiresVariable()) {
             expired |= (n.getVariableTime() <= now);
@@ -937,6 +1248,10 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         }
         makeDead(n);
       }
+      if ((victimTier != null) && (actualCause[0] == RemovalCause.SIZE)) {
+        // Demoted while the key's bin is locked so that a concurrent write discards it afterwards
+        demote(key, value[0]);
+      }
       removed[0] = true;
       return null;
     });
@@ -965,6 +1280,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     }
 
     if (removed[0]) {
+      onPolicyRemoval(key);
       statsCounter().recordEviction(node.getWeight(), actualCause[0]);
       if (hasRemovalListener()) {
         // Notify the listener only if the entry was evicted. This must be performed as the last
@@ -983,7 +1299,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   /** Adapts the eviction policy to towards the optimal recency / frequency configuration. */
   @GuardedBy("evictionLock")
   void climb() {
-    if (!evicts()) {
+    if (!evicts() || (evictionPolicy != null)) {
       return;
     }
 
@@ -1010,7 +1326,10 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     }
 
     int requestCount = hitsInSample() + missesInSample();
-    if (requestCount < frequencySketch().sampleSize) {
+    if (climber != null) {
+      adjustFromClimber(climber, requestCount);
+      return;
+    } else if (requestCount < frequencySketch().sampleSize) {
       return;
     }
 
@@ -1027,6 +1346,21 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     setHitsInSample(0);
   }
 
+  /** Calculates the amount to adapt the window by using the configured {@link WindowClimber}. */
+  @GuardedBy("evictionLock")
+  void adjustFromClimber(Climber climber, int requestCount) {
+    if (requestCount < climber.sampleSize(maximum())) {
+      return;
+    }
+
+    double hitRate = (double) hitsInSample() / requestCount;
+    double amount = climber.adjust(hitRate, previousSampleHitRate(), maximum());
+    setPreviousSampleHitRate(hitRate);
+    setAdjustment((long) amount);
+    setMissesInSample(0);
+    setHitsInSample(0);
+  }
+
   /**
    * Increases the size of the admission window by shrinking the portion allocated to the main
    * space. As the main space is partitioned into probation and protected regions (80% / 20%), for
@@ -1159,7 +1493,8 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
   /** Returns if the cache should bypass the read buffer. */
   boolean skipReadBuffer() {
-    return fastpath() && frequencySketch().isNotInitialized();
+    return fastpath() && frequencySketch().isNotInitialized()
+        && (hotKeys == null) && (evictionPolicy == null);
   }
 
   /**
@@ -1168,47 +1503,119 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
    * @param node the entry in the cache to refresh
    * @param now the current time, in nanoseconds
    */
-  @SuppressWarnings("FutureReturnValueIgnored")
   void refreshIfNeeded(Node<K, V> node, long now) {
-    if (!refreshAfterWrite()) {
+    if (!refreshAfterWrite() && (earlyRefreshBeta == 0) && (staleWhileRevalidateNanos == 0)) {
       return;
     }
     K key;
     V oldValue;
     long oldWriteTime = node.getWriteTime();
     long refreshWriteTime = (now + ASYNC_EXPIRY);
-    if (((now - oldWriteTime) > refreshAfterWriteNanos())
+    if (refreshAfterWrite() && ((now - oldWriteTime) > refreshAfterWriteNanos())
         && ((key = node.getKey()) != null) && ((oldValue = node.getValue()) != null)
         && node.casWriteTime(oldWriteTime, refreshWriteTime)) {
-      try {
-        CompletableFuture<V> refreshFuture;
-        long startTime = statsTicker().read();
-        if (isAsync) {
-          @SuppressWarnings("unchecked")
-          CompletableFuture<V> future = (CompletableFuture<V>) oldValue;
-          if (Async.isReady(future)) {
-            @SuppressWarnings("NullAway")
-            CompletableFuture<V> refresh = future.thenCompose(value ->
-              cacheLoader.asyncReload(key, value, executor));
-            refreshFuture = refresh;
-          } else {
-            // no-op if load is pending
-            node.casWriteTime(refreshWriteTime, oldWriteTime);
-            return;
-          }
-        } else {
-          @SuppressWarnings("NullAway")
-          CompletableFuture<V> refresh = cacheLoader.asyncReload(key, oldValue, executor);
-          refreshFuture = refresh;
-        }
-        refreshFuture.whenComplete((newValue, error) -> {
+      refresh(node, key, oldValue, oldWriteTime, refreshWriteTime, now);
+    } else if ((isStale(oldWriteTime, now) || refreshesEarly(oldWriteTime, now))
+        && ((key = node.getKey()) != null) && ((oldValue = node.getValue()) != null)) {
+      // The write time is left unchanged so that the entry still expires on schedule
+      refresh(node, key, oldValue, oldWriteTime, oldWriteTime, now);
+    }
+  }
+
+  /**
+   * Returns if the entry is being served past its expiration time and should be revalidated.
+   *
+   * @param writeTime the time that the entry was last written, in nanoseconds
+   * @param now the current time, in nanoseconds
+   * @return if the entry should be reloaded
+   */
+  boolean isStale(long writeTime, long now) {
+    return (staleWhileRevalidateNanos > 0) && ((now - writeTime) >= expiresAfterWriteNanos());
+  }
+
+  /**
+   * Returns if the entry should be reloaded ahead of its expiration. This follows the XFetch
+   * algorithm, where the remaining lifetime is compared against the load time scaled by a random
+   * factor drawn from an exponential distribution, so that the probability of a reload increases
+   * exponentially as the expiration approaches.
+   *
+   * @param writeTime the time that the entry was last written, in nanoseconds
+   * @param now the current time, in nanoseconds
+   * @return if the entry should be reloaded
+   */
+  boolean refreshesEarly(long writeTime, long now) {
+    if ((earlyRefreshBeta == 0) || !expiresAfterWrite()) {
+      return false;
+    }
+    long remaining = expiresAfterWriteNanos() - (now - writeTime);
+    double loadTime = earlyRefreshBeta * averageLoadTime;
+    if ((remaining <= 0) || (loadTime <= 0)
+        || (remaining > EARLY_REFRESH_HORIZON * loadTime)) {
+      return false;
+    }
+    double random = ThreadLocalRandom.current().nextDouble();
+    return (-loadTime * Math.log(random)) >= remaining;
+  }
+
+  /**
+   * Asynchronously reloads the entry and replaces its value, unless it was modified meanwhile.
+   *
+   * @param node the entry in the cache to refresh
+   * @param key the entry's key
+   * @param oldValue the entry's current value
+   * @param oldWriteTime the entry's write time prior to the refresh
+   * @param refreshWriteTime the entry's write time while the refresh is in flight
+   * @param now the current time, in nanoseconds
+   */
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void refresh(Node<K, V> node, K key, V oldValue,
+      long oldWriteTime, long refreshWriteTime, long now) {
+    try {
+      if (isAsync && !Async.isReady((CompletableFuture<?>) oldValue)) {
+        // no-op if load is pending
+        restoreWriteTime(node, oldWriteTime, refreshWriteTime);
+        return;
+      }
+
+      boolean[] refreshed = new boolean[1];
+      Object keyReference = referenceKey(key);
+      long startTime = statsTicker().read();
+      @SuppressWarnings("unchecked")
+      CompletableFuture<V> refreshFuture = (CompletableFuture<V>) refreshes().computeIfAbsent(
+          keyReference, k -> {
+            refreshed[0] = true;
+            if (isAsync) {
+              @SuppressWarnings({"unchecked", "NullAway"})
+              CompletableFuture<V> future = ((CompletableFuture<V>) oldValue)
+                  .thenCompose(value -> reload(key, value, now));
+              return future;
+            }
+            return reload(key, oldValue, now);
+          });
+      if (!refreshed[0]) {
+        // join the in-flight refresh
+        restoreWriteTime(node, oldWriteTime, refreshWriteTime);
+        return;
+      }
+
+      refreshFuture.whenComplete((newValue, error) -> {
+        try {
           long loadTime = statsTicker().read() - startTime;
           if (error != null) {
             logger.log(Level.WARNING, "Exception thrown during refresh", error);
-            node.casWriteTime(refreshWriteTime, oldWriteTime);
+            restoreWriteTime(node, oldWriteTime, refreshWriteTime);
             statsCounter().recordLoadFailure(loadTime);
+            if (failedReloads != null) {
+              failedReloads.put(keyReference, oldWriteTime);
+              if (!node.isAlive()) {
+                failedReloads.remove(keyReference, oldWriteTime);
+              }
+            }
             return;
           }
+          if (failedReloads != null) {
+            failedReloads.remove(keyReference);
+          }
 
           @SuppressWarnings("unchecked")
           V value = (isAsync && (newValue != null)) ? (V) refreshFuture : newValue;
@@ -1217,7 +1624,8 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
           compute(key, (k, currentValue) -> {
             if (currentValue == null) {
               return value;
-            } else if ((currentValue == oldValue) && (node.getWriteTime() == refreshWriteTime)) {
+            } else if ((currentValue == oldValue)
+                && (node.getWriteTime() == refreshWriteTime)) {
               return value;
             }
             discard[0] = true;
@@ -1231,15 +1639,45 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
             statsCounter().recordLoadFailure(loadTime);
           } else {
             statsCounter().recordLoadSuccess(loadTime);
+            recordLoadPenalty(key, loadTime);
           }
-        });
-      } catch (Throwable t) {
-        node.casWriteTime(refreshWriteTime, oldWriteTime);
-        logger.log(Level.SEVERE, "Exception thrown when submitting refresh task", t);
-      }
+        } finally {
+          refreshes().remove(keyReference, refreshFuture);
+        }
+      });
+    } catch (Throwable t) {
+      restoreWriteTime(node, oldWriteTime, refreshWriteTime);
+      logger.log(Level.SEVERE, "Exception thrown when submitting refresh task", t);
     }
   }
 
+  /**
+   * Restores the entry's write time if it was advanced while the refresh is in flight. A stale or
+   * early reload leaves the write time unchanged, which does not require the entry to support a
+   * refresh after write.
+   */
+  static void restoreWriteTime(Node<?, ?> node, long oldWriteTime, long refreshWriteTime) {
+    if (refreshWriteTime != oldWriteTime) {
+      node.casWriteTime(refreshWriteTime, oldWriteTime);
+    }
+  }
+
+  /**
+   * Returns a future for the entry's new value, which is loaded individually or coalesced with
+   * other automatic refreshes into a bulk load.
+   *
+   * @param key the key of the entry to reload
+   * @param oldValue the current value of the entry
+   * @param now the current time, in nanoseconds
+   * @return the future that will be completed with the reloaded value
+   */
+  @SuppressWarnings("NullAway")
+  CompletableFuture<V> reload(K key, V oldValue, long now) {
+    return (refreshBatcher == null)
+        ? cacheLoader.asyncReload(key, oldValue, executor)
+        : refreshBatcher.reload(key, now);
+  }
+
   /**
    * Returns the expiration time for the entry after being created.
    *
@@ -1347,9 +1785,10 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   /**
    * Performs the post-processing work required after a write.
    *
-   * @param task the pending operation to be applied
+   * @param task the pending operation to be applied, either the node that was inserted or removed
+   *     or a {@link Runnable} that updates the policy
    */
-  void afterWrite(Runnable task) {
+  void afterWrite(Object task) {
     if (buffersWrites()) {
       for (int i = 0; i < WRITE_BUFFER_RETRIES; i++) {
         if (writeBuffer().offer(task)) {
@@ -1441,14 +1880,26 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
    *
    * @param task an additional pending task to run, or {@code null} if not present
    */
-  void performCleanUp(@Nullable Runnable task) {
+  void performCleanUp(@Nullable Object task) {
     evictionLock.lock();
     try {
       maintenance(task);
     } finally {
       evictionLock.unlock();
     }
-    if ((drainStatus() == REQUIRED) && (executor == ForkJoinPool.commonPool())) {
+    rescheduleCleanUpIfIncomplete();
+  }
+
+  /**
+   * Schedules the maintenance task if work remains after a pass. This is done for the common pool
+   * and, if the work per pass is bounded by a time slice, so that a pass which yielded continues
+   * asynchronously. If the lock is still held then the pass was run on the calling thread by the
+   * executor, so the next pass is left to be triggered by a subsequent operation instead of
+   * recursing until all of the work is done.
+   */
+  void rescheduleCleanUpIfIncomplete() {
+    if ((drainStatus() == REQUIRED) && ((executor == ForkJoinPool.commonPool())
+        || ((maintenanceTimeSliceNanos > 0) && !evictionLock.isHeldByCurrentThread()))) {
       scheduleDrainBuffers();
     }
   }
@@ -1456,20 +1907,24 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   /**
    * Performs the pending maintenance work and sets the state flags during processing to avoid
    * excess scheduling attempts. The read buffer, write buffer, and reference queues are
-   * drained, followed by expiration, and size-based eviction.
+   * drained, followed by expiration, and size-based eviction. If the work per pass is bounded by a
+   * time slice then the pass yields once it is used up and the remaining work is left as required.
    *
    * @param task an additional pending task to run, or {@code null} if not present
    */
   @GuardedBy("evictionLock")
-  void maintenance(@Nullable Runnable task) {
+  void maintenance(@Nullable Object task) {
     lazySetDrainStatus(PROCESSING_TO_IDLE);
+    if (maintenanceTimeSliceNanos > 0) {
+      maintenanceDeadline = maintenanceTicker.read() + maintenanceTimeSliceNanos;
+    }
 
     try {
       drainReadBuffer();
 
       drainWriteBuffer();
       if (task != null) {
-        task.run();
+        runWriteTask(task);
       }
 
       drainKeyReferences();
@@ -1479,10 +1934,41 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       evictEntries();
 
       climb();
+      flushRefreshes();
     } finally {
       if ((drainStatus() != PROCESSING_TO_IDLE) || !casDrainStatus(PROCESSING_TO_IDLE, IDLE)) {
         lazySetDrainStatus(REQUIRED);
       }
+      flushRemovalNotifications();
+    }
+  }
+
+  /** Schedules the delivery of the removals that were batched while holding the eviction lock. */
+  void flushRemovalNotifications() {
+    if (removalListener() instanceof RemovalNotificationBatcher<?, ?>) {
+      ((RemovalNotificationBatcher<?, ?>) removalListener()).schedule();
+    }
+  }
+
+  /**
+   * Returns if the maintenance pass has used up its time slice, in which case the pass stops early
+   * and is marked so that a subsequent pass continues the remaining work.
+   */
+  @GuardedBy("evictionLock")
+  boolean exceedsTimeSlice() {
+    if ((maintenanceTimeSliceNanos <= 0)
+        || ((maintenanceTicker.read() - maintenanceDeadline) < 0)) {
+      return false;
+    }
+    lazySetDrainStatus(PROCESSING_TO_REQUIRED);
+    return true;
+  }
+
+  /** Sends the coalesced refreshes to the loader if the batch has waited for the maximum delay. */
+  @GuardedBy("evictionLock")
+  void flushRefreshes() {
+    if (refreshBatcher != null) {
+      refreshBatcher.flushIfDue(expirationTicker().read());
     }
   }
 
@@ -1493,7 +1979,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       return;
     }
     Reference<? extends K> keyRef;
-    while ((keyRef = keyReferenceQueue().poll()) != null) {
+    while (!exceedsTimeSlice() && ((keyRef = keyReferenceQueue().poll()) != null)) {
       Node<K, V> node = data.get(keyRef);
       if (node != null) {
         evictEntry(node, RemovalCause.COLLECTED, 0L);
@@ -1508,7 +1994,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       return;
     }
     Reference<? extends V> valueRef;
-    while ((valueRef = valueReferenceQueue().poll()) != null) {
+    while (!exceedsTimeSlice() && ((valueRef = valueReferenceQueue().poll()) != null)) {
       @SuppressWarnings("unchecked")
       InternalReference<V> ref = (InternalReference<V>) valueRef;
       Node<K, V> node = data.get(ref.getKeyReference());
@@ -1522,6 +2008,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
   @GuardedBy("evictionLock")
   void drainReadBuffer() {
     if (!skipReadBuffer()) {
+      if (hotKeys != null) {
+        hotKeys.advance();
+      }
       readBuffer.drainTo(accessPolicy);
     }
   }
@@ -1533,8 +2022,14 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       K key = node.getKey();
       if (key == null) {
         return;
+      } else if (evictionPolicy == null) {
+        frequencySketch().increment(key);
+      } else if (node.isAlive()) {
+        evictionPolicy.onAccess(key);
+      }
+      if (hotKeys != null) {
+        hotKeys.increment(key);
       }
-      frequencySketch().increment(key);
       if (node.inWindow()) {
         reorder(accessOrderWindowDeque(), node);
       } else if (node.inMainProbation()) {
@@ -1586,16 +2081,41 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       return;
     }
 
-    for (int i = 0; i < WRITE_BUFFER_MAX; i++) {
-      Runnable task = writeBuffer().poll();
+    for (int i = 0; (i < WRITE_BUFFER_MAX) && !exceedsTimeSlice(); i++) {
+      Object task = writeBuffer().poll();
       if (task == null) {
         return;
       }
-      task.run();
+      runWriteTask(task);
     }
     lazySetDrainStatus(PROCESSING_TO_REQUIRED);
   }
 
+  /**
+   * Applies the pending write to the page replacement policy. A node is added to the policy if it
+   * is still alive, or otherwise it was removed from the map and is removed from the policy.
+   *
+   * @param task the node that was inserted or removed, or a task that updates the policy
+   */
+  @GuardedBy("evictionLock")
+  void runWriteTask(Object task) {
+    if (task instanceof Node<?, ?>) {
+      @SuppressWarnings("unchecked")
+      Node<K, V> node = (Node<K, V>) task;
+      boolean isAlive;
+      synchronized (node) {
+        isAlive = node.isAlive();
+      }
+      if (isAlive) {
+        onAdd(node);
+      } else {
+        onRemove(node);
+      }
+    } else {
+      ((Runnable) task).run();
+    }
+  }
+
   /**
    * Atomically transitions the node to the <tt>dead</tt> state and decrements the
    * <tt>weightedSize</tt>.
@@ -1609,137 +2129,192 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         return;
       }
       if (evicts()) {
-        // The node's policy weight may be out of sync due to a pending update waiting to be
-        // processed. At this point the node's weight is finalized, so the weight can be safely
-        // taken from the node's perspective and the sizes will be adjusted correctly.
+        // The node's weight may be out of sync due to a pending update waiting to be processed.
+        // The sizes are adjusted by the weight that the policy has accounted for, as the pending
+        // operations on a dead node are ignored rather than reconciled.
         if (node.inWindow()) {
-          setWindowWeightedSize(windowWeightedSize() - node.getWeight());
+          setWindowWeightedSize(windowWeightedSize() - node.getPolicyWeight());
         } else if (node.inMainProtected()) {
-          setMainProtectedWeightedSize(mainProtectedWeightedSize() - node.getWeight());
+          setMainProtectedWeightedSize(mainProtectedWeightedSize() - node.getPolicyWeight());
         }
-        setWeightedSize(weightedSize() - node.getWeight());
+        setWeightedSize(weightedSize() - node.getPolicyWeight());
+      }
+      if (failedReloads != null) {
+        failedReloads.remove(node.getKeyReference(), node.getWriteTime());
       }
       node.die();
     }
   }
 
   /** Adds the node to the page replacement policy. */
-  final class AddTask implements Runnable {
-    final Node<K, V> node;
-    final int weight;
-
-    AddTask(Node<K, V> node, int weight) {
-      this.weight = weight;
-      this.node = node;
-    }
-
-    @Override
-    @GuardedBy("evictionLock")
-    @SuppressWarnings("FutureReturnValueIgnored")
-    public void run() {
-      if (evicts()) {
-        long weightedSize = weightedSize();
-        setWeightedSize(weightedSize + weight);
-        setWindowWeightedSize(windowWeightedSize() + weight);
-        node.setPolicyWeight(node.getPolicyWeight() + weight);
+  @GuardedBy("evictionLock")
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void onAdd(Node<K, V> node) {
+    if (evicts()) {
+      long weightedSize = weightedSize();
+      int weightDifference = reconcileWeight(node);
+      setWeightedSize(weightedSize + weightDifference);
+      setWindowWeightedSize(windowWeightedSize() + weightDifference);
 
+      K key = node.getKey();
+      if (evictionPolicy != null) {
+        if (key != null) {
+          evictionPolicy.onWrite(key, node.getPolicyWeight());
+        }
+      } else {
         long maximum = maximum();
         if (weightedSize >= (maximum >>> 1)) {
           // Lazily initialize when close to the maximum
           long capacity = isWeighted() ? data.mappingCount() : maximum;
           frequencySketch().ensureCapacity(capacity);
+          if (loadPenalties != null) {
+            loadPenalties.ensureCapacity(capacity);
+          }
         }
-
-        K key = node.getKey();
         if (key != null) {
           frequencySketch().increment(key);
         }
-
-        setMissesInSample(missesInSample() + 1);
       }
 
-      // ignore out-of-order write operations
-      boolean isAlive;
+      setMissesInSample(missesInSample() + 1);
+    }
+
+    if (expiresAfterWrite()) {
+      writeOrderDeque().add(node);
+    }
+    if (evicts() || expiresAfterAccess()) {
+      accessOrderWindowDeque().add(node);
+    }
+    if (expiresVariable()) {
+      timerWheel().schedule(node);
+    }
+
+    // Ensure that in-flight async computation cannot expire (reset on a completion callback)
+    if (isComputingAsync(node)) {
       synchronized (node) {
-        isAlive = node.isAlive();
-      }
-      if (isAlive) {
-        if (expiresAfterWrite()) {
-          writeOrderDeque().add(node);
-        }
-        if (evicts() || expiresAfterAccess()) {
-          accessOrderWindowDeque().add(node);
-        }
-        if (expiresVariable()) {
-          timerWheel().schedule(node);
+        if (!Async.isReady((CompletableFuture<?>) node.getValue())) {
+          long expirationTime = expirationTicker().read() + ASYNC_EXPIRY;
+          setVariableTime(node, expirationTime);
+          setAccessTime(node, expirationTime);
+          setWriteTime(node, expirationTime);
         }
       }
+    }
+  }
 
-      // Ensure that in-flight async computation cannot expire (reset on a completion callback)
-      if (isComputingAsync(node)) {
-        synchronized (node) {
-          if (!Async.isReady((CompletableFuture<?>) node.getValue())) {
-            long expirationTime = expirationTicker().read() + ASYNC_EXPIRY;
-            setVariableTime(node, expirationTime);
-            setAccessTime(node, expirationTime);
-            setWriteTime(node, expirationTime);
-          }
-        }
-      }
+  /**
+   * Returns the pending write that removes the node from the page replacement policy. The node's
+   * key is retained for a custom eviction policy, as it is cleared when the node is retired.
+   *
+   * @param node the entry that was removed from the map
+   * @param key the key of the entry
+   * @return the node itself or a task that removes it
+   */
+  Object removalOf(Node<K, V> node, @Nullable K key) {
+    return (evictionPolicy == null) ? node : new RemovalTask(node, key);
+  }
+
+  /**
+   * Reports the removal of the key to the custom eviction policy, unless the key was since mapped
+   * to a new entry whose insertion will be reported as an update.
+   */
+  @GuardedBy("evictionLock")
+  void onPolicyRemoval(@Nullable K key) {
+    if ((evictionPolicy != null) && (key != null)
+        && (data.get(nodeFactory.newLookupKey(key)) == null)) {
+      evictionPolicy.onRemove(key);
     }
   }
 
   /** Removes a node from the page replacement policy. */
+  @GuardedBy("evictionLock")
+  void onRemove(Node<K, V> node) {
+    // add may not have been processed yet
+    if (node.inWindow() && (evicts() || expiresAfterAccess())) {
+      accessOrderWindowDeque().remove(node);
+    } else if (evicts()) {
+      if (node.inMainProbation()) {
+        accessOrderProbationDeque().remove(node);
+      } else {
+        accessOrderProtectedDeque().remove(node);
+      }
+    }
+    if (expiresAfterWrite()) {
+      writeOrderDeque().remove(node);
+    } else if (expiresVariable()) {
+      timerWheel().deschedule(node);
+    }
+    makeDead(node);
+  }
+
+  /**
+   * Sets the node's policy weight to the entry's current weight.
+   *
+   * @param node the entry in the page replacement policy
+   * @return the difference that the policy's sizes should be adjusted by
+   */
+  @GuardedBy("evictionLock")
+  int reconcileWeight(Node<K, V> node) {
+    int weight;
+    synchronized (node) {
+      weight = node.getWeight();
+    }
+    int weightDifference = weight - node.getPolicyWeight();
+    node.setPolicyWeight(weight);
+    return weightDifference;
+  }
+
+  /** Removes a node from the page replacement policy and reports its key's removal. */
   final class RemovalTask implements Runnable {
     final Node<K, V> node;
+    final @Nullable K key;
 
-    RemovalTask(Node<K, V> node) {
+    public RemovalTask(Node<K, V> node, @Nullable K key) {
       this.node = node;
+      this.key = key;
     }
 
     @Override
     @GuardedBy("evictionLock")
     public void run() {
-      // add may not have been processed yet
-      if (node.inWindow() && (evicts() || expiresAfterAccess())) {
-        accessOrderWindowDeque().remove(node);
-      } else if (evicts()) {
-        if (node.inMainProbation()) {
-          accessOrderProbationDeque().remove(node);
-        } else {
-          accessOrderProtectedDeque().remove(node);
-        }
-      }
-      if (expiresAfterWrite()) {
-        writeOrderDeque().remove(node);
-      } else if (expiresVariable()) {
-        timerWheel().deschedule(node);
-      }
-      makeDead(node);
+      onRemove(node);
+      onPolicyRemoval(key);
     }
   }
 
-  /** Updates the weighted size. */
+  /** Updates the node's weight and position in the page replacement policy. */
   final class UpdateTask implements Runnable {
-    final int weightDifference;
     final Node<K, V> node;
 
-    public UpdateTask(Node<K, V> node, int weightDifference) {
-      this.weightDifference = weightDifference;
+    public UpdateTask(Node<K, V> node) {
       this.node = node;
     }
 
     @Override
     @GuardedBy("evictionLock")
     public void run() {
+      boolean isAlive;
+      synchronized (node) {
+        isAlive = node.isAlive();
+      }
+      if (!isAlive) {
+        // the pending removal releases the weight that the policy accounted for
+        return;
+      }
+
       if (evicts()) {
+        int weightDifference = reconcileWeight(node);
         if (node.inWindow()) {
           setWindowWeightedSize(windowWeightedSize() + weightDifference);
         } else if (node.inMainProtected()) {
-          setMainProtectedWeightedSize(mainProtectedMaximum() + weightDifference);
+          setMainProtectedWeightedSize(mainProtectedWeightedSize() + weightDifference);
         }
         setWeightedSize(weightedSize() + weightDifference);
-        node.setPolicyWeight(node.getPolicyWeight() + weightDifference);
+
+        K key = node.getKey();
+        if ((evictionPolicy != null) && (weightDifference != 0) && (key != null)) {
+          evictionPolicy.onWrite(key, node.getPolicyWeight());
+        }
       }
       if (evicts() || expiresAfterAccess()) {
         onAccess(node);
@@ -1752,6 +2327,23 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     }
   }
 
+  /** Records the time taken to load the key's value in the load penalty sketch. */
+  final class LoadPenaltyTask implements Runnable {
+    final K key;
+    final long loadTime;
+
+    public LoadPenaltyTask(K key, long loadTime) {
+      this.key = key;
+      this.loadTime = loadTime;
+    }
+
+    @Override
+    @GuardedBy("evictionLock")
+    public void run() {
+      loadPenalties.record(key, loadTime);
+    }
+  }
+
   /* --------------- Concurrent Map Support --------------- */
 
   @Override
@@ -1777,9 +2369,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       long now = expirationTicker().read();
 
       // Apply all pending writes
-      Runnable task;
+      Object task;
       while (buffersWrites() && (task = writeBuffer().poll()) != null) {
-        task.run();
+        runWriteTask(task);
       }
 
       // Discard all entries
@@ -1789,9 +2381,15 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
       // Discard all pending reads
       readBuffer.drainTo(e -> {});
+
+      // Discard all demoted entries
+      if (victimTier != null) {
+        victimTier.clear();
+      }
     } finally {
       evictionLock.unlock();
     }
+    flushRemovalNotifications();
   }
 
   @GuardedBy("evictionLock")
@@ -1840,8 +2438,11 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       timerWheel().deschedule(node);
     }
 
-    if ((cause[0] != null) && hasRemovalListener()) {
-      notifyRemoval(key, value[0], cause[0]);
+    if (cause[0] != null) {
+      onPolicyRemoval(key);
+      if (hasRemovalListener()) {
+        notifyRemoval(key, value[0], cause[0]);
+      }
     }
   }
 
@@ -1867,13 +2468,24 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
   @Override
   public @Nullable V get(Object key) {
-    return getIfPresent(key, /* recordStats */ false);
+    return getIfPresent(key, /* recordStats */ false, /* servesStale */ false);
   }
 
   @Override
-  public @Nullable V getIfPresent(Object key, boolean recordStats) {
+  public @Nullable V getIfPresent(Object key, boolean recordStats, boolean servesStale) {
     Node<K, V> node = data.get(nodeFactory.newLookupKey(key));
     if (node == null) {
+      V victim = (victimTier == null) ? null : victimTier.poll(key);
+      if (victim != null) {
+        if (recordStats) {
+          statsCounter().recordHits(1);
+        }
+        @SuppressWarnings("unchecked")
+        K castedKey = (K) key;
+        V prior = put(castedKey, victim, expiry(),
+            /* notifyWriter */ false, /* onlyIfAbsent */ true);
+        return (prior == null) ? victim : prior;
+      }
       if (recordStats) {
         statsCounter().recordMisses(1);
       }
@@ -1885,7 +2497,8 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
     V value = node.getValue();
     long now = expirationTicker().read();
-    if (hasExpired(node, now) || (collectValues() && (value == null))) {
+    if (hasExpired(node, now, servesStale)
+        || (collectValues() && (value == null))) {
       if (recordStats) {
         statsCounter().recordMisses(1);
       }
@@ -1955,6 +2568,11 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     return put(key, value, expiry(), /* notifyWriter */ true, /* onlyIfAbsent */ false);
   }
 
+  @Override
+  public void putAll(Map<? extends K, ? extends V> map) {
+    putAllWithWriter(map);
+  }
+
   @Override
   public @Nullable V put(K key, V value, boolean notifyWriter) {
     return put(key, value, expiry(), notifyWriter, /* onlyIfAbsent */ false);
@@ -1986,6 +2604,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     for (;;) {
       Node<K, V> prior = data.get(nodeFactory.newLookupKey(key));
       if (prior == null) {
+        discardVictim(key);
         if (node == null) {
           node = nodeFactory.newNode(key, keyReferenceQueue(),
               value, valueReferenceQueue(), newWeight, now);
@@ -1998,13 +2617,13 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
             return computed;
           });
           if (prior == node) {
-            afterWrite(new AddTask(node, newWeight));
+            afterWrite(node);
             return null;
           }
         } else {
           prior = data.putIfAbsent(node.getKeyReference(), node);
           if (prior == null) {
-            afterWrite(new AddTask(node, newWeight));
+            afterWrite(node);
             return null;
           }
         }
@@ -2074,9 +2693,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
       int weightedDifference = mayUpdate ? (newWeight - oldWeight) : 0;
       if ((oldValue == null) || (weightedDifference != 0) || expired) {
-        afterWrite(new UpdateTask(prior, weightedDifference));
+        afterWrite(new UpdateTask(prior));
       } else if (!onlyIfAbsent && expiresAfterWrite() && exceedsTolerance) {
-        afterWrite(new UpdateTask(prior, weightedDifference));
+        afterWrite(new UpdateTask(prior));
       } else {
         if (mayUpdate) {
           setWriteTime(prior, now);
@@ -2114,9 +2733,10 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       node[0] = n;
       return null;
     });
+    discardVictim(key);
 
     if (cause[0] != null) {
-      afterWrite(new RemovalTask(node[0]));
+      afterWrite(removalOf(node[0], castKey));
       if (hasRemovalListener()) {
         notifyRemoval(castKey, oldValue[0], cause[0]);
       }
@@ -2126,6 +2746,11 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
   @Override
   public boolean remove(Object key, Object value) {
+    return remove(key, value, /* notifyWriter */ true);
+  }
+
+  @Override
+  public boolean remove(Object key, @Nullable Object value, boolean notifyWriter) {
     requireNonNull(key);
     if (value == null) {
       return false;
@@ -2152,7 +2777,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         } else {
           return node;
         }
-        writer.delete(oldKey[0], oldValue[0], cause[0]);
+        if (notifyWriter) {
+          writer.delete(oldKey[0], oldValue[0], cause[0]);
+        }
         removed[0] = node;
         node.retire();
         return null;
@@ -2164,7 +2791,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     } else if (hasRemovalListener()) {
       notifyRemoval(oldKey[0], oldValue[0], cause[0]);
     }
-    afterWrite(new RemovalTask(removed[0]));
+    afterWrite(removalOf(removed[0], oldKey[0]));
     return (cause[0] == RemovalCause.EXPLICIT);
   }
 
@@ -2211,7 +2838,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
     int weightedDifference = (weight - oldWeight[0]);
     if (expiresAfterWrite() || (weightedDifference != 0)) {
-      afterWrite(new UpdateTask(node, weightedDifference));
+      afterWrite(new UpdateTask(node));
     } else {
       afterRead(node, now[0], /* recordHit */ false);
     }
@@ -2267,7 +2894,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
     int weightedDifference = (weight - oldWeight[0]);
     if (expiresAfterWrite() || (weightedDifference != 0)) {
-      afterWrite(new UpdateTask(node, weightedDifference));
+      afterWrite(new UpdateTask(node));
     } else {
       afterRead(node, now[0], /* recordHit */ false);
     }
@@ -2298,7 +2925,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
   @Override
   public @Nullable V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction,
-      boolean recordStats, boolean recordLoad) {
+      boolean recordStats, boolean recordLoad, boolean servesStale) {
     requireNonNull(key);
     requireNonNull(mappingFunction);
     long now = expirationTicker().read();
@@ -2307,7 +2934,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     Node<K, V> node = data.get(nodeFactory.newLookupKey(key));
     if (node != null) {
       V value = node.getValue();
-      if ((value != null) && !hasExpired(node, now)) {
+      if ((value != null) && !hasExpired(node, now, servesStale)) {
         if (!isComputingAsync(node)) {
           tryExpireAfterRead(node, key, value, expiry(), now);
           setAccessTime(node, now);
@@ -2320,13 +2947,16 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     if (recordStats) {
       mappingFunction = statsAware(mappingFunction, recordLoad);
     }
+    mappingFunction = promoteVictim(mappingFunction, recordStats);
     Object keyRef = nodeFactory.newReferenceKey(key, keyReferenceQueue());
-    return doComputeIfAbsent(key, keyRef, mappingFunction, new long[] { now }, recordStats);
+    return doComputeIfAbsent(key, keyRef, mappingFunction,
+        new long[] { now }, recordStats, servesStale);
   }
 
   /** Returns the current value from a computeIfAbsent invocation. */
   @Nullable V doComputeIfAbsent(K key, Object keyRef,
-      Function<? super K, ? extends V> mappingFunction, long[/* 1 */] now, boolean recordStats) {
+      Function<? super K, ? extends V> mappingFunction, long[/* 1 */] now,
+      boolean recordStats, boolean servesStale) {
     @SuppressWarnings("unchecked")
     V[] oldValue = (V[]) new Object[1];
     @SuppressWarnings("unchecked")
@@ -2358,7 +2988,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         oldValue[0] = n.getValue();
         if ((nodeKey[0] == null) || (oldValue[0] == null)) {
           cause[0] = RemovalCause.COLLECTED;
-        } else if (hasExpired(n, now[0])) {
+        } else if (hasExpired(n, now[0], servesStale)) {
           cause[0] = RemovalCause.EXPIRED;
         } else {
           return n;
@@ -2385,7 +3015,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
 
     if (node == null) {
       if (removed[0] != null) {
-        afterWrite(new RemovalTask(removed[0]));
+        afterWrite(removalOf(removed[0], key));
       }
       return null;
     }
@@ -2405,10 +3035,9 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       return oldValue[0];
     }
     if ((oldValue[0] == null) && (cause[0] == null)) {
-      afterWrite(new AddTask(node, weight[1]));
+      afterWrite(node);
     } else {
-      int weightedDifference = (weight[1] - weight[0]);
-      afterWrite(new UpdateTask(node, weightedDifference));
+      afterWrite(new UpdateTask(node));
     }
 
     return newValue[0];
@@ -2501,6 +3130,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         if (!computeIfAbsent) {
           return null;
         }
+        discardVictim(key);
         newValue[0] = remappingFunction.apply(key, null);
         if (newValue[0] == null) {
           return null;
@@ -2570,15 +3200,15 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     }
 
     if (removed[0] != null) {
-      afterWrite(new RemovalTask(removed[0]));
+      afterWrite(removalOf(removed[0], key));
     } else if (node == null) {
       // absent and not computable
     } else if ((oldValue[0] == null) && (cause[0] == null)) {
-      afterWrite(new AddTask(node, weight[1]));
+      afterWrite(node);
     } else {
       int weightedDifference = weight[1] - weight[0];
       if (expiresAfterWrite() || (weightedDifference != 0)) {
-        afterWrite(new UpdateTask(node, weightedDifference));
+        afterWrite(new UpdateTask(node));
       } else {
         if (cause[0] == null) {
           if (!isComputingAsync(node)) {
@@ -2613,6 +3243,57 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     return (es == null) ? (entrySet = new EntrySetView<>(this)) : es;
   }
 
+  /**
+   * Returns the most frequently read keys within the hot key window, mapped to their approximate
+   * read counts and ordered from the hottest to the coolest.
+   *
+   * @param limit the maximum number of keys to return
+   * @return an unmodifiable snapshot of the hottest keys
+   */
+  Map<K, Long> hotKeys(int limit) {
+    requireNonNull(hotKeys);
+    requireArgument(limit >= 0);
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      return hotKeys.top(limit);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /** Returns a copy of the popularity history, or null if the cache is not size-bounded. */
+  @Nullable FrequencySketch<K> copyOfFrequencySketch() {
+    if (!evicts()) {
+      return null;
+    }
+    evictionLock.lock();
+    try {
+      return frequencySketch().copy();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the popularity history with one that was captured from a cache of the same maximum.
+   *
+   * @param sketch the popularity history to restore
+   * @return if the history was restored
+   */
+  boolean restoreFrequencySketch(FrequencySketch<?> sketch) {
+    if (!evicts() || sketch.isNotInitialized()) {
+      return false;
+    }
+    evictionLock.lock();
+    try {
+      frequencySketch().ensureCapacity(isWeighted() ? sketch.capacity() : maximum());
+      return frequencySketch().restore(sketch);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
   /**
    * Returns an unmodifiable snapshot map ordered in eviction order, either ascending or descending.
    * Beware that obtaining the mappings is <em>NOT</em> a constant-time operation.
@@ -2714,6 +3395,8 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     try {
       maintenance(/* ignored */ null);
 
+      // Skips the expired entries that are retained while they may be served as stale values
+      long now = expirationTicker().read();
       int initialCapacity = Math.min(limit, size());
       Iterator<Node<K, V>> iterator = iteratorSupplier.get();
       Map<K, V> map = new LinkedHashMap<>(initialCapacity);
@@ -2721,7 +3404,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         Node<K, V> node = iterator.next();
         K key = node.getKey();
         V value = transformer.apply(node.getValue());
-        if ((key != null) && (value != null) && node.isAlive()) {
+        if ((key != null) && (value != null) && node.isAlive() && !hasExpired(node, now)) {
           map.put(key, value);
         }
       }
@@ -3188,6 +3871,203 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     }
   }
 
+  /**
+   * An iterator over the entries from the hottest to the coldest, as determined by the eviction
+   * policy, or from the most to the least recently used if the cache only expires after access.
+   * The policy is traversed in batches that each hold the eviction lock, so that a snapshot of a
+   * large cache neither blocks the maintenance work nor copies all of the entries at once. If the
+   * cache does not maintain an order then its entries are iterated without the lock.
+   * <p>
+   * The traversal is weakly consistent, as the policy may reorder the entries while the lock is
+   * released. Each deque is resumed from the entry that follows the last one returned, so an entry
+   * that is moved concurrently may be skipped or returned again. An entry that is added after the
+   * traversal began may not be returned, and at most as many entries as were present when it
+   * began are visited.
+   */
+  static final class SnapshotIterator<K, V> implements Iterator<Entry<K, V>> {
+    final List<Entry<K, V>> batch;
+    final BoundedLocalCache<K, V> cache;
+    final Function<V, V> transformer;
+    final @Nullable Iterator<Node<K, V>> unordered;
+    final @Nullable SnapshotCursor<K, V> primary;
+    final @Nullable SnapshotCursor<K, V> probation;
+    final @Nullable SnapshotCursor<K, V> window;
+
+    long remaining;
+    int index;
+
+    @SuppressWarnings("GuardedByChecker")
+    SnapshotIterator(BoundedLocalCache<K, V> cache, Function<V, V> transformer) {
+      this.batch = new ArrayList<>();
+      this.transformer = transformer;
+      this.cache = cache;
+      if (cache.evicts()) {
+        primary = new SnapshotCursor<>(cache.accessOrderProtectedDeque(), PROTECTED);
+        probation = new SnapshotCursor<>(cache.accessOrderProbationDeque(), PROBATION);
+        window = new SnapshotCursor<>(cache.accessOrderWindowDeque(), WINDOW);
+        unordered = null;
+      } else if (cache.expiresAfterAccess()) {
+        primary = new SnapshotCursor<>(cache.accessOrderWindowDeque(), WINDOW);
+        probation = window = null;
+        unordered = null;
+      } else {
+        unordered = cache.data.values().iterator();
+        primary = probation = window = null;
+      }
+      remaining = Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (index == batch.size()) {
+        batch.clear();
+        index = 0;
+        if (unordered == null) {
+          fillFromPolicy();
+        } else {
+          fillFromMap(unordered);
+        }
+      }
+      return (index < batch.size());
+    }
+
+    @Override
+    public Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return batch.get(index++);
+    }
+
+    /** Copies the next batch of entries in the policy's order while holding the eviction lock. */
+    @SuppressWarnings("GuardedByChecker")
+    void fillFromPolicy() {
+      if (remaining == 0) {
+        return;
+      }
+      cache.evictionLock.lock();
+      try {
+        if (remaining == Long.MAX_VALUE) {
+          cache.maintenance(/* ignored */ null);
+          remaining = cache.data.mappingCount();
+        }
+        for (SnapshotCursor<K, V> cursor : Arrays.asList(primary, probation, window)) {
+          if (cursor != null) {
+            cursor.resume();
+          }
+        }
+        long now = cache.expirationTicker().read();
+        while ((batch.size() < SNAPSHOT_BATCH_SIZE) && (remaining > 0)) {
+          Node<K, V> node = nextNode();
+          if (node == null) {
+            remaining = 0;
+            break;
+          }
+          remaining--;
+          add(node, now);
+        }
+      } finally {
+        cache.evictionLock.unlock();
+      }
+    }
+
+    /** Copies the next batch of entries from the hash table. */
+    void fillFromMap(Iterator<Node<K, V>> iterator) {
+      long now = cache.expirationTicker().read();
+      while ((batch.size() < SNAPSHOT_BATCH_SIZE) && iterator.hasNext()) {
+        add(iterator.next(), now);
+      }
+    }
+
+    /** Adds the entry to the batch if it is present. */
+    void add(Node<K, V> node, long now) {
+      K key = node.getKey();
+      V value = transformer.apply(node.getValue());
+      if ((key != null) && (value != null) && node.isAlive() && !cache.hasExpired(node, now)) {
+        batch.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+      }
+    }
+
+    /**
+     * Returns the next entry in the policy's order, which is the protected region followed by the
+     * window and probation regions merged by the entry's frequency.
+     */
+    @GuardedBy("cache.evictionLock")
+    @Nullable Node<K, V> nextNode() {
+      if ((primary != null) && (primary.next != null)) {
+        return primary.advance();
+      } else if ((probation == null) || (window == null)) {
+        return null;
+      } else if (probation.next == null) {
+        return (window.next == null) ? null : window.advance();
+      } else if (window.next == null) {
+        return probation.advance();
+      }
+      return (frequencyOf(probation.next) >= frequencyOf(window.next))
+          ? probation.advance()
+          : window.advance();
+    }
+
+    /** Returns the estimated number of occurrences of the entry's key. */
+    int frequencyOf(Node<K, V> node) {
+      K key = node.getKey();
+      return (key == null) ? 0 : cache.frequencySketch().frequency(key);
+    }
+  }
+
+  /** A resumable traversal of a policy deque from its most to its least recently used entry. */
+  static final class SnapshotCursor<K, V> {
+    final AccessOrderDeque<Node<K, V>> deque;
+    final int queueType;
+
+    @Nullable Node<K, V> next;
+    @Nullable Node<K, V> last;
+    boolean started;
+
+    SnapshotCursor(AccessOrderDeque<Node<K, V>> deque, int queueType) {
+      this.queueType = queueType;
+      this.deque = deque;
+    }
+
+    /**
+     * Repositions the cursor after the lock was reacquired. The traversal continues from the next
+     * entry if it is still linked after the last one returned, or otherwise if it was not moved
+     * to the deque's most recently used end. If the next entry was moved then the traversal
+     * continues from the entry that precedes the last one returned, and if neither can be found
+     * then the remainder of the deque is skipped.
+     */
+    void resume() {
+      if (!started) {
+        started = true;
+        next = deque.peekLast();
+        return;
+      } else if (next == null) {
+        return;
+      }
+
+      boolean lastPresent = (last != null) && isPresent(last);
+      if (lastPresent && (deque.getPrevious(last) == next)) {
+        return;
+      } else if (isPresent(next) && (!lastPresent || (next != deque.peekLast()))) {
+        return;
+      }
+      next = (lastPresent && (last != deque.peekLast())) ? deque.getPrevious(last) : null;
+    }
+
+    /** Returns the next entry and advances the cursor towards the least recently used end. */
+    Node<K, V> advance() {
+      Node<K, V> node = requireNonNull(next);
+      next = deque.getPrevious(node);
+      last = node;
+      return node;
+    }
+
+    /** Returns if the entry is still linked in this cursor's deque. */
+    boolean isPresent(Node<K, V> node) {
+      return (node.getQueueType() == queueType) && deque.contains(node);
+    }
+  }
+
   /** An adapter to safely externalize the entry spliterator. */
   static final class EntrySpliterator<K, V> implements Spliterator<Entry<K, V>> {
     final Spliterator<Node<K, V>> spliterator;
@@ -3383,6 +4263,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
     @Nullable Optional<Expiration<K, V>> afterWrite;
     @Nullable Optional<Expiration<K, V>> afterAccess;
     @Nullable Optional<VarExpiration<K, V>> variable;
+    @Nullable Optional<HotKeys<K>> hotKeys;
 
     BoundedPolicy(BoundedLocalCache<K, V> cache, Function<V, V> transformer, boolean isWeighted) {
       this.transformer = transformer;
@@ -3400,6 +4281,34 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       }
       return transformer.apply(node.getValue());
     }
+    @Override public Map<K, CompletableFuture<V>> refreshes() {
+      ConcurrentMap<Object, CompletableFuture<?>> pending = cache.refreshes;
+      if ((pending == null) || pending.isEmpty()) {
+        return Collections.emptyMap();
+      }
+      Map<K, CompletableFuture<V>> inFlight = cache.collectKeys()
+          ? new IdentityHashMap<>(pending.size())
+          : new HashMap<>(pending.size());
+      for (Map.Entry<Object, CompletableFuture<?>> entry : pending.entrySet()) {
+        @SuppressWarnings("unchecked")
+        K key = cache.collectKeys()
+            ? ((InternalReference<K>) entry.getKey()).get()
+            : (K) entry.getKey();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<V> future = (CompletableFuture<V>) entry.getValue();
+        if (key != null) {
+          inFlight.put(key, future);
+        }
+      }
+      return Collections.unmodifiableMap(inFlight);
+    }
+    @Override public long snapshotTo(Path path,
+        Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+      Iterator<Entry<K, V>> entries = new SnapshotIterator<>(cache, transformer);
+      return CacheSnapshot.write(path, entries,
+          Collections.singletonList(cache.copyOfFrequencySketch()),
+          keySerializer, valueSerializer);
+    }
     @Override public Optional<Eviction<K, V>> eviction() {
       return cache.evicts()
           ? (eviction == null) ? (eviction = Optional.of(new BoundedEviction())) : eviction
@@ -3437,6 +4346,14 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
           ? (refreshes = Optional.of(new BoundedRefreshAfterWrite()))
           : refreshes;
     }
+    @Override public Optional<HotKeys<K>> hotKeys() {
+      if (cache.hotKeys == null) {
+        return Optional.empty();
+      }
+      return (hotKeys == null)
+          ? (hotKeys = Optional.of(cache::hotKeys))
+          : hotKeys;
+    }
 
     final class BoundedEviction implements Eviction<K, V> {
       @Override public boolean isWeighted() {
@@ -3482,6 +4399,7 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
         } finally {
           cache.evictionLock.unlock();
         }
+        cache.rescheduleCleanUpIfIncomplete();
       }
       @Override public Map<K, V> coldest(int limit) {
         return cache.evictionOrder(limit, transformer, /* hottest */ false);
@@ -3863,6 +4781,13 @@ abstract class BoundedLocalCache<K, V> extends BLCHeader.DrainStatusRef<K, V>
       @Override public CompletableFuture<V> asyncReload(K key, V oldValue, Executor executor) {
         return loader.asyncReload(key, oldValue, executor);
       }
+      @Override public CompletableFuture<Map<K, V>> asyncLoadAll(
+          Iterable<? extends K> keys, Executor executor) {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Map<K, V>> result =
+            (CompletableFuture<Map<K, V>>) (Object) loader.asyncLoadAll(keys, executor);
+        return result;
+      }
     }
   }
 }
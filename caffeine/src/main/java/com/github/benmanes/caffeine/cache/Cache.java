@@ -163,6 +163,10 @@ public interface Cache<K, V> {
   /**
    * Discards any cached values for the {@code keys}. The behavior of this operation is undefined
    * for an entry that is being loaded (or reloaded) and is otherwise not present.
+   * <p>
+   * If the cache's writer overrides {@link CacheWriter#deleteAll} then the removal of the entries
+   * is not atomic. The writer is notified of the present entries in a single call, and an entry
+   * that is updated concurrently before it is removed is retained.
    *
    * @param keys the keys whose associated values are to be removed
    * @throws NullPointerException if the specified collection is null or contains a null element
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A memory-mapped file that holds a cache's entries so that the cache may be warmed when the
+ * application restarts. The entries are stored from the hottest to the coldest, as determined by
+ * the eviction policy, and are restored in the reverse order so that the hottest entries are the
+ * most recently inserted. The popularity history of a size-bounded cache is stored alongside the
+ * entries so that the admission policy does not need to relearn it.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+final class CacheSnapshot {
+
+  /*
+   * The file begins with a header of a magic number, the format version, and the number of
+   * records. The header is followed by the number of frequency sketches, which is one per eviction
+   * shard, and then by each sketch's section. A section holds the table's length (zero if absent),
+   * the sample size, the sample count, the flags of the sketch's configuration, and the table's
+   * counters. The flags record whether the sketch has a doorkeeper and uses the blocked layout, as
+   * the counters are only meaningful to a sketch that is configured alike. Each record is laid out
+   * as the key's length and serialized form followed by the value's length and serialized form.
+   * The snapshot is limited to the size of a single mapping so that it can be read in one pass, so
+   * when it would exceed that limit the coldest entries are omitted and, if the sketches alone
+   * would exceed half of it, their tables are omitted as well.
+   *
+   * The snapshot is written into a temporary file in regions that are mapped as the file grows,
+   * which is then moved into place so that a failure does not corrupt the previous snapshot.
+   */
+
+  /** The identifier at the start of the file. */
+  static final int MAGIC = 0xCAFE5A9E;
+  /** The version of the file format. */
+  static final int VERSION = 4;
+  /** The number of bytes used by the file's header. */
+  static final int HEADER_SIZE = (2 * Integer.BYTES) + Long.BYTES;
+  /** The maximum number of sketch sections. */
+  static final int MAXIMUM_SKETCHES = 1 << 16;
+  /** The number of bytes used by the sketch section's fields, excluding the table. */
+  static final int SKETCH_HEADER_SIZE = 4 * Integer.BYTES;
+  /** The sketch's flag indicating that it has a doorkeeper. */
+  static final int DOORKEEPER_FLAG = 1;
+  /** The sketch's flag indicating that it uses the blocked layout. */
+  static final int BLOCKED_FLAG = 1 << 1;
+  /** The number of bytes used by a record's length fields. */
+  static final int RECORD_OVERHEAD = 2 * Integer.BYTES;
+  /** The minimum size, in bytes, of a region that is mapped when writing. */
+  static final int REGION_SIZE = 1 << 20; // 1 MiB
+  /** The maximum size, in bytes, of the file. */
+  static final long MAXIMUM_SIZE = Integer.MAX_VALUE;
+
+  private CacheSnapshot() {}
+
+  /**
+   * Writes the entries, in iteration order, to the file.
+   *
+   * @param path the file to write to, which is replaced if it exists
+   * @param entries the entries ordered from the hottest to the coldest, which are consumed lazily
+   * @param sketches the popularity history of each eviction shard, or null if not available
+   * @param keySerializer the serializer for the keys
+   * @param valueSerializer the serializer for the values
+   * @return the number of entries written
+   * @throws IOException if an I/O error occurs
+   */
+  static <K, V> long write(Path path, Iterator<? extends Map.Entry<K, V>> entries,
+      List<@Nullable FrequencySketch<?>> sketches, Serializer<K> keySerializer,
+      Serializer<V> valueSerializer) throws IOException {
+    requireArgument(sketches.size() <= MAXIMUM_SKETCHES,
+        "too many frequency sketches: %s", sketches.size());
+    requireNonNull(keySerializer);
+    requireNonNull(valueSerializer);
+    Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+
+    long count = 0;
+    try (FileChannel channel =
+        FileChannel.open(tempFile, CREATE, READ, WRITE, TRUNCATE_EXISTING)) {
+      boolean omitTables = false;
+      long sketchesSize = Integer.BYTES;
+      for (FrequencySketch<?> sketch : sketches) {
+        sketchesSize += SKETCH_HEADER_SIZE + ((long) Long.BYTES * tableLength(sketch));
+      }
+      if ((HEADER_SIZE + sketchesSize) > (MAXIMUM_SIZE / 2)) {
+        sketchesSize = Integer.BYTES + ((long) SKETCH_HEADER_SIZE * sketches.size());
+        omitTables = true;
+      }
+
+      long regionStart = 0L;
+      MappedByteBuffer header = channel.map(MapMode.READ_WRITE,
+          regionStart, Math.max(REGION_SIZE, HEADER_SIZE + sketchesSize));
+      MappedByteBuffer region = header;
+      region.position(HEADER_SIZE);
+      region.putInt(sketches.size());
+      for (FrequencySketch<?> sketch : sketches) {
+        int length = omitTables ? 0 : tableLength(sketch);
+        if (length == 0) {
+          region.putInt(0).putInt(0).putInt(0).putInt(0);
+        } else {
+          region.putInt(length).putInt(sketch.sampleSize)
+              .putInt(sketch.size).putInt(flagsOf(sketch));
+          region.asLongBuffer().put(sketch.table);
+          region.position(region.position() + (Long.BYTES * length));
+        }
+      }
+
+      while (entries.hasNext()) {
+        Map.Entry<K, V> entry = entries.next();
+        byte[] key = keySerializer.serialize(entry.getKey());
+        byte[] value = valueSerializer.serialize(entry.getValue());
+        long recordSize = (long) RECORD_OVERHEAD + key.length + value.length;
+        long end = regionStart + region.position() + recordSize;
+        if (end > MAXIMUM_SIZE) {
+          break;
+        } else if (region.remaining() < recordSize) {
+          regionStart += region.position();
+          long regionSize = Math.min(Math.max(REGION_SIZE, recordSize), MAXIMUM_SIZE - regionStart);
+          region = channel.map(MapMode.READ_WRITE, regionStart, regionSize);
+        }
+        region.putInt(key.length).put(key).putInt(value.length).put(value);
+        count++;
+      }
+      long size = regionStart + region.position();
+      header.putInt(0, MAGIC).putInt(Integer.BYTES, VERSION).putLong(2 * Integer.BYTES, count);
+      header.force();
+      region.force();
+
+      channel.truncate(size);
+      channel.force(/* metaData */ true);
+    }
+
+    try {
+      Files.move(tempFile, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile, path, REPLACE_EXISTING);
+    }
+    return count;
+  }
+
+  /** Returns the flags that describe the sketch's configuration. */
+  private static int flagsOf(FrequencySketch<?> sketch) {
+    return (sketch.hasDoorkeeper ? DOORKEEPER_FLAG : 0) | (sketch.blocked ? BLOCKED_FLAG : 0);
+  }
+
+  /** Returns the length of the sketch's table, or zero if it is not available. */
+  private static int tableLength(@Nullable FrequencySketch<?> sketch) {
+    return ((sketch == null) || sketch.isNotInitialized()) ? 0 : sketch.table.length;
+  }
+
+  /**
+   * Reads the popularity history, if present, and then the entries from the coldest to the
+   * hottest. If the snapshot holds more entries than the limit then the coldest are skipped, as
+   * otherwise the hottest entries would be replayed into a full cache and may be rejected by its
+   * admission policy.
+   *
+   * @param path the file to read from
+   * @param limit the maximum number of the hottest entries to read
+   * @param keySerializer the serializer for the keys
+   * @param valueSerializer the serializer for the values
+   * @param sketchConsumer the action to perform with the popularity history of each eviction
+   *        shard, where an absent history is null, if any is present
+   * @param consumer the action to perform for each entry
+   * @return the number of entries read
+   * @throws IOException if an I/O error occurs or the file is not a valid snapshot
+   */
+  static <K, V> long read(Path path, long limit, Serializer<K> keySerializer,
+      Serializer<V> valueSerializer, Consumer<List<@Nullable FrequencySketch<?>>> sketchConsumer,
+      BiConsumer<K, V> consumer) throws IOException {
+    requireArgument(limit >= 0, "limit must not be negative: %s", limit);
+    requireNonNull(keySerializer);
+    requireNonNull(valueSerializer);
+    requireNonNull(sketchConsumer);
+    requireNonNull(consumer);
+
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      long size = channel.size();
+      if ((size < HEADER_SIZE) || (size > MAXIMUM_SIZE)) {
+        throw new IOException("Invalid snapshot size: " + size);
+      }
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+      if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+        throw new IOException("Unrecognized snapshot format: " + path);
+      }
+      long count = buffer.getLong();
+      if ((count < 0) || (count > ((size - HEADER_SIZE) / RECORD_OVERHEAD))) {
+        throw new IOException("Invalid snapshot entry count: " + count);
+      }
+      List<@Nullable FrequencySketch<?>> sketches = readSketches(buffer);
+      if (sketches.stream().anyMatch(Objects::nonNull)) {
+        sketchConsumer.accept(sketches);
+      }
+
+      // Locate the records so that they can be replayed from the coldest to the hottest
+      int[] offsets = new int[(int) Math.min(count, limit)];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = buffer.position();
+        skip(buffer);
+        skip(buffer);
+      }
+      for (int i = offsets.length - 1; i >= 0; i--) {
+        buffer.position(offsets[i]);
+        K key = keySerializer.deserialize(next(buffer));
+        V value = valueSerializer.deserialize(next(buffer));
+        consumer.accept(key, value);
+      }
+      return offsets.length;
+    }
+  }
+
+  /** Returns the popularity history of each eviction shard, where an absent history is null. */
+  private static List<@Nullable FrequencySketch<?>> readSketches(
+      ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < Integer.BYTES) {
+      throw new IOException("Truncated snapshot");
+    }
+    int count = buffer.getInt();
+    if ((count < 0) || (count > MAXIMUM_SKETCHES)) {
+      throw new IOException("Invalid snapshot frequency sketch count: " + count);
+    }
+    List<@Nullable FrequencySketch<?>> sketches = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      sketches.add(readSketch(buffer));
+    }
+    return sketches;
+  }
+
+  /** Returns the popularity history, or null if it was not stored. */
+  private static @Nullable FrequencySketch<?> readSketch(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < SKETCH_HEADER_SIZE) {
+      throw new IOException("Truncated snapshot");
+    }
+    int length = buffer.getInt();
+    int sampleSize = buffer.getInt();
+    int sampled = buffer.getInt();
+    int flags = buffer.getInt();
+    boolean doorkeeper = (flags & DOORKEEPER_FLAG) != 0;
+    boolean blocked = (flags & BLOCKED_FLAG) != 0;
+    if (length == 0) {
+      return null;
+    } else if ((length < 0) || (Integer.bitCount(length) != 1)
+        || (length > (buffer.remaining() / Long.BYTES)) || (sampleSize <= 0) || (sampled < 0)
+        || ((flags & ~(DOORKEEPER_FLAG | BLOCKED_FLAG)) != 0)
+        || (blocked && (length < FrequencySketch.BLOCKED_LAYOUT_THRESHOLD))
+        || (doorkeeper && (length > (Integer.MAX_VALUE >>> 1)))) {
+      throw new IOException("Invalid snapshot frequency sketch");
+    }
+
+    FrequencySketch<?> sketch = new FrequencySketch<>(doorkeeper, blocked);
+    sketch.table = new long[length];
+    sketch.tableMask = length - 1;
+    sketch.blocked = blocked;
+    sketch.blockMask = (length >>> 3) - 1;
+    if (doorkeeper) {
+      sketch.doorkeeper = new long[length << 1];
+      sketch.doorkeeperMask = sketch.doorkeeper.length - 1;
+    }
+    sketch.sampleSize = sampleSize;
+    sketch.size = sampled;
+    buffer.asLongBuffer().get(sketch.table);
+    buffer.position(buffer.position() + (Long.BYTES * length));
+    return sketch;
+  }
+
+  /** Advances the buffer past the length-prefixed field. */
+  private static void skip(ByteBuffer buffer) throws IOException {
+    int length = length(buffer);
+    buffer.position(buffer.position() + length);
+  }
+
+  /** Returns the length-prefixed field and advances the buffer past it. */
+  private static byte[] next(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[length(buffer)];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /** Returns the length of the field, validating that it is within the buffer. */
+  private static int length(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < Integer.BYTES) {
+      throw new IOException("Truncated snapshot");
+    }
+    int length = buffer.getInt();
+    if ((length < 0) || (length > buffer.remaining())) {
+      throw new IOException("Invalid snapshot field length: " + length);
+    }
+    return length;
+  }
+}
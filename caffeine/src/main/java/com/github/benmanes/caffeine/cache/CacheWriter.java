@@ -15,6 +15,8 @@
  */
 package com.github.benmanes.caffeine.cache;
 
+import java.util.Map;
+
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -53,6 +55,45 @@ public interface CacheWriter<K, V> {
    */
   void delete(@NonNull K key, @Nullable V value, @NonNull RemovalCause cause);
 
+  /**
+   * Writes the values corresponding to the requested keys to the external resource. The cache
+   * communicates the mappings of a bulk insertion, such as {@link Cache#putAll}, in a single call
+   * before any of them are stored. A mapping to the value that is already present is omitted, as
+   * it would not be written individually.
+   * <p>
+   * This method should be overridden when bulk writing is more efficient than writing each entry
+   * individually. The default implementation calls {@link #write} for each mapping. Unlike
+   * {@link #write}, the cache does not hold the lock of any entry while the writer is called, so
+   * the writes are not atomic with respect to concurrent operations on the same keys.
+   *
+   * @param entries the non-null mappings that should be written
+   * @throws RuntimeException or Error, in which case none of the mappings are stored
+   */
+  default void writeAll(@NonNull Map<? extends K, ? extends V> entries) {
+    entries.forEach(this::write);
+  }
+
+  /**
+   * Deletes the values corresponding to the requested keys from the external resource. The cache
+   * communicates the entries of a bulk removal, such as {@link Cache#invalidateAll(Iterable)}, in
+   * a single call before any of them are removed.
+   * <p>
+   * This method should be overridden when bulk deleting is more efficient than deleting each entry
+   * individually. The default implementation calls {@link #delete} for each mapping. Unlike
+   * {@link #delete}, the cache does not hold the lock of any entry while the writer is called, so
+   * the deletes are not atomic with respect to concurrent operations on the same keys. An entry is
+   * removed afterwards only if it is still mapped to the value that was communicated, so an entry
+   * that was concurrently updated or replaced remains in the cache.
+   *
+   * @param entries the non-null mappings that were removed
+   * @param cause the reason for which the entries were removed
+   * @throws RuntimeException or Error, in which case none of the mappings are removed
+   */
+  default void deleteAll(@NonNull Map<? extends K, ? extends V> entries,
+      @NonNull RemovalCause cause) {
+    entries.forEach((key, value) -> delete(key, value, cause));
+  }
+
   /**
    * Returns a writer that does nothing.
    *
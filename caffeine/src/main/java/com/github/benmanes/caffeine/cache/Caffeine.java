@@ -18,19 +18,26 @@ package com.github.benmanes.caffeine.cache;
 import static java.util.Locale.US;
 import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ConcurrentModificationException;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -148,6 +155,10 @@ public final class Caffeine<K, V> {
   static final int DEFAULT_REFRESH_NANOS = 0;
 
   boolean strictParsing = true;
+  boolean doorkeeper;
+  boolean blockedFrequencySketch;
+  boolean loadPenaltyAdmission;
+  boolean weightAwareAdmission;
 
   long maximumSize = UNSET_INT;
   long maximumWeight = UNSET_INT;
@@ -156,12 +167,33 @@ public final class Caffeine<K, V> {
   long expireAfterWriteNanos = UNSET_INT;
   long expireAfterAccessNanos = UNSET_INT;
   long refreshAfterWriteNanos = UNSET_INT;
+  long refreshBatchDelayNanos = UNSET_INT;
+  long maintenanceTimeSliceNanos = UNSET_INT;
+  long maximumVictimBytes = UNSET_INT;
+  int maximumRefreshBatchSize = UNSET_INT;
+  int evictionShards = UNSET_INT;
+  double earlyRefreshBeta = UNSET_INT;
+  long staleWhileRevalidateNanos = UNSET_INT;
+  long staleIfErrorNanos = UNSET_INT;
+  long maximumNegativeSize = UNSET_INT;
+  long expireAfterAbsentNanos = UNSET_INT;
+  long initialBackoffNanos = UNSET_INT;
+  long maximumBackoffNanos = UNSET_INT;
+  long hotKeyWindowNanos = UNSET_INT;
+  int hotKeyCapacity = UNSET_INT;
 
   @Nullable RemovalListener<? super K, ? super V> removalListener;
+  @Nullable BatchRemovalListener<? super K, ? super V> batchRemovalListener;
   @Nullable Supplier<StatsCounter> statsCounterSupplier;
+  @Nullable Supplier<? extends EvictionPolicy<?>> evictionPolicySupplier;
+  @Nullable WindowClimber windowClimber;
   @Nullable CacheWriter<? super K, ? super V> writer;
   @Nullable Weigher<? super K, ? super V> weigher;
   @Nullable Expiry<? super K, ? super V> expiry;
+  @Nullable Serializer<?> victimSerializer;
+  @Nullable Serializer<?> snapshotKeySerializer;
+  @Nullable Serializer<?> snapshotValueSerializer;
+  @Nullable Path snapshotPath;
   @Nullable Scheduler scheduler;
   @Nullable Executor executor;
   @Nullable Ticker ticker;
@@ -476,6 +508,516 @@ public final class Caffeine<K, V> {
     return isAsync ? (Weigher<K1, V1>) new AsyncWeigher(delegate) : delegate;
   }
 
+  /**
+   * Specifies that the size-based eviction policy should be partitioned into independently
+   * maintained shards. Each shard is selected by the key's hash and has its own eviction lock,
+   * read and write buffers, frequency sketch, and admission window, so that a write-heavy workload
+   * on a machine with many cores does not serialize all of the policy's maintenance behind a
+   * single lock. The cache is still presented as a single {@link Cache}, but its maximum is divided
+   * evenly among the shards so that an entry's eviction is decided against its shard's share rather
+   * than against the whole cache. This reduces the hit rate when the workload's popular entries are
+   * unevenly distributed, so it should only be used when the policy's lock is a measured
+   * bottleneck.
+   * <p>
+   * The orderings provided by the cache's {@link Cache#policy()} are approximate, as they are
+   * interleaved from the shards' orderings, and the shards are resized proportionally when the
+   * maximum is changed. A snapshot written by {@link Policy#snapshotTo} holds each shard's
+   * popularity history, which is restored only into a cache with the same number of shards.
+   * <p>
+   * This feature requires {@link #maximumSize} or {@link #maximumWeight} and cannot be used in
+   * conjunction with {@link #buildAsync}. The maximum must be at least the number of shards, so
+   * that every shard may retain an entry, including when it is later changed through the policy.
+   *
+   * @param shards the number of independently maintained partitions of the eviction policy
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code shards} is not positive
+   * @throws IllegalStateException if the number of shards was already set
+   */
+  @NonNull
+  public Caffeine<K, V> evictionShards(@NonNegative int shards) {
+    requireState(this.evictionShards == UNSET_INT,
+        "eviction shards was already set to %s", this.evictionShards);
+    requireArgument(shards > 0, "eviction shards must be positive: %s", shards);
+    this.evictionShards = shards;
+    return this;
+  }
+
+  boolean isSharded() {
+    return (evictionShards > 1);
+  }
+
+  /**
+   * Returns a copy of this builder that configures the shard at the given index, whose maximum
+   * size, initial capacity, and off-heap victim budget are its share of the whole cache's and
+   * whose statistics are recorded into the shared counter.
+   */
+  Caffeine<K, V> newShardBuilder(int index, StatsCounter statsCounter) {
+    Caffeine<K, V> shard = new Caffeine<>();
+    shard.strictParsing = strictParsing;
+    shard.maximumSize = (maximumSize == UNSET_INT)
+        ? UNSET_INT
+        : shareOf(maximumSize, index, evictionShards);
+    shard.maximumWeight = (maximumWeight == UNSET_INT)
+        ? UNSET_INT
+        : shareOf(maximumWeight, index, evictionShards);
+    shard.initialCapacity = (initialCapacity == UNSET_INT)
+        ? UNSET_INT
+        : (int) shareOf(initialCapacity, index, evictionShards);
+    shard.maximumVictimBytes = (maximumVictimBytes == UNSET_INT)
+        ? UNSET_INT
+        : Math.max(1, shareOf(maximumVictimBytes, index, evictionShards));
+    shard.expireAfterWriteNanos = expireAfterWriteNanos;
+    shard.expireAfterAccessNanos = expireAfterAccessNanos;
+    shard.refreshAfterWriteNanos = refreshAfterWriteNanos;
+    shard.refreshBatchDelayNanos = refreshBatchDelayNanos;
+    shard.maintenanceTimeSliceNanos = maintenanceTimeSliceNanos;
+    shard.maximumRefreshBatchSize = maximumRefreshBatchSize;
+    shard.earlyRefreshBeta = earlyRefreshBeta;
+    shard.staleWhileRevalidateNanos = staleWhileRevalidateNanos;
+    shard.staleIfErrorNanos = staleIfErrorNanos;
+    shard.removalListener = removalListener;
+    shard.batchRemovalListener = batchRemovalListener;
+    shard.statsCounterSupplier = (statsCounterSupplier == null) ? null : () -> statsCounter;
+    shard.evictionPolicySupplier = evictionPolicySupplier;
+    shard.windowClimber = windowClimber;
+    shard.doorkeeper = doorkeeper;
+    shard.blockedFrequencySketch = blockedFrequencySketch;
+    shard.loadPenaltyAdmission = loadPenaltyAdmission;
+    shard.weightAwareAdmission = weightAwareAdmission;
+    shard.hotKeyWindowNanos = hotKeyWindowNanos;
+    shard.hotKeyCapacity = hotKeyCapacity;
+    shard.writer = writer;
+    shard.weigher = weigher;
+    shard.expiry = expiry;
+    shard.victimSerializer = victimSerializer;
+    shard.scheduler = scheduler;
+    shard.executor = executor;
+    shard.ticker = ticker;
+    shard.keyStrength = keyStrength;
+    shard.valueStrength = valueStrength;
+    return shard;
+  }
+
+  /**
+   * Specifies the page replacement policy that selects the entry to evict when the cache exceeds
+   * its maximum, instead of the default Window TinyLfu policy. This allows for using a policy that
+   * better suits the workload, such as one that the simulator shows to have a higher hit rate for
+   * the application's traces. The policy is driven by the cache's maintenance work and is informed
+   * of the reads, writes, and removals that it replays from the cache's buffers, as described by
+   * {@link EvictionPolicy}.
+   * <p>
+   * A new policy instance is obtained from the supplier for every cache that is built, as well as
+   * for every shard if {@link #evictionShards} is specified. The cache continues to maintain the
+   * entries in access order, which is used by the orderings provided by the cache's
+   * {@link Cache#policy()}, but does not adapt this order to the policy's decisions.
+   * <p>
+   * <b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache builder
+   * reference; instead use the reference this method <i>returns</i>. At runtime, these point to the
+   * same instance, but only the returned reference has the correct generic type information so as
+   * to ensure type safety. For best results, use the standard method-chaining idiom illustrated in
+   * the class documentation above, configuring a builder and building your cache in a single
+   * statement. Failure to heed this advice can result in a {@link ClassCastException} being thrown
+   * by a cache operation at some <i>undefined</i> point in the future.
+   * <p>
+   * This feature requires {@link #maximumSize} or {@link #maximumWeight} and cannot be used in
+   * conjunction with {@link #weakKeys()}, as the policy retains the keys strongly.
+   *
+   * @param supplier the supplier of the policy for each cache
+   * @param <K1> key type of the policy
+   * @param <V1> value type of the cache
+   * @return the cache builder reference that should be used instead of {@code this} for any
+   *         remaining configuration and cache building
+   * @throws IllegalStateException if the eviction policy was already set or if the key strength is
+   *         weak
+   * @throws NullPointerException if the specified supplier is null
+   */
+  @NonNull
+  public <K1 extends K, V1 extends V> Caffeine<K1, V1> evictionPolicy(
+      @NonNull Supplier<? extends EvictionPolicy<? super K1>> supplier) {
+    requireNonNull(supplier);
+    requireState(this.evictionPolicySupplier == null,
+        "eviction policy was already set to %s", this.evictionPolicySupplier);
+    requireState(keyStrength == null, "Weak keys may not be used with an eviction policy");
+
+    @SuppressWarnings("unchecked")
+    Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
+    self.evictionPolicySupplier = supplier;
+    return self;
+  }
+
+  @Nullable <K1 extends K> EvictionPolicy<K1> newEvictionPolicy() {
+    @SuppressWarnings("unchecked")
+    EvictionPolicy<K1> policy = (evictionPolicySupplier == null)
+        ? null
+        : (EvictionPolicy<K1>) requireNonNull(evictionPolicySupplier.get());
+    return policy;
+  }
+
+  /**
+   * Specifies the strategy used to adapt the size of the admission window of the default Window
+   * TinyLfu policy. The window captures entries with a high temporal locality, while the larger
+   * main space retains the entries that are frequently used, and the cache continuously resizes the
+   * window based on its sampled hit rate. By default a {@link WindowClimber#HILL_CLIMBER} is used,
+   * but a gradient-based climber may better suit a workload whose access pattern frequently shifts
+   * between favoring recency and frequency. Each cache, or each shard if {@link #evictionShards} is
+   * specified, adapts independently.
+   * <p>
+   * This feature requires {@link #maximumSize} or {@link #maximumWeight} and cannot be used in
+   * conjunction with {@link #evictionPolicy}.
+   *
+   * @param climber the strategy used to adapt the admission window
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalStateException if the window climber was already set
+   * @throws NullPointerException if the specified climber is null
+   */
+  @NonNull
+  public Caffeine<K, V> windowClimber(@NonNull WindowClimber climber) {
+    requireState(this.windowClimber == null,
+        "window climber was already set to %s", this.windowClimber);
+    this.windowClimber = requireNonNull(climber);
+    return this;
+  }
+
+  @Nullable Climber newClimber() {
+    return (windowClimber == null) ? null : windowClimber.newInstance();
+  }
+
+  /**
+   * Specifies that the frequency sketch used by the default Window TinyLfu policy should record the
+   * first occurrence of a key in a doorkeeper, a compact Bloom filter, rather than in its counters.
+   * This suits a very large cache whose traffic is dominated by keys that are requested only once,
+   * as recording such a key then costs a single memory access and the counters are reduced to a
+   * quarter of their default size. The sketch's total footprint is reduced by a quarter, at the
+   * cost of a slightly less accurate estimate for the keys that are seen only a few times.
+   * <p>
+   * This feature requires {@link #maximumSize} or {@link #maximumWeight} and cannot be used in
+   * conjunction with {@link #evictionPolicy}.
+   *
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalStateException if the doorkeeper was already set
+   */
+  @NonNull
+  public Caffeine<K, V> doorkeeper() {
+    requireState(!doorkeeper, "doorkeeper was already set");
+    doorkeeper = true;
+    return this;
+  }
+
+  boolean hasDoorkeeper() {
+    return doorkeeper;
+  }
+
+  /**
+   * Specifies that the frequency sketch used by the default Window TinyLfu policy should confine a
+   * key's counters to a single cache line when the sketch is large. This reduces the number of
+   * cache misses when recording or estimating a key's popularity in a cache whose sketch does not
+   * fit within the processor's caches, at the cost of a slightly higher rate of hash collisions.
+   * <p>
+   * This layout is experimental and its effect on throughput and hit rate has not yet been
+   * evaluated, so the classic layout remains the default. This feature requires
+   * {@link #maximumSize} or {@link #maximumWeight} and cannot be used in conjunction with
+   * {@link #evictionPolicy}.
+   *
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalStateException if the blocked frequency sketch was already set
+   */
+  @NonNull
+  public Caffeine<K, V> blockedFrequencySketch() {
+    requireState(!blockedFrequencySketch, "blocked frequency sketch was already set");
+    blockedFrequencySketch = true;
+    return this;
+  }
+
+  boolean hasBlockedFrequencySketch() {
+    return blockedFrequencySketch;
+  }
+
+  /**
+   * Specifies that the default Window TinyLfu policy should weigh the cost of reloading an entry,
+   * in addition to its frequency, when deciding whether to admit a new entry by evicting another.
+   * The time that it takes to load a value, as measured by the {@link #ticker} used for recording
+   * statistics, is retained in a compact sketch on a logarithmic scale from a millisecond to about
+   * sixteen seconds. An entry's retention value is then estimated as its frequency weighted by the
+   * logarithm of its load time, so that an entry that is expensive to recompute is not evicted in
+   * favor of a cheap one that is used about as often. The weight is bounded so that an expensive
+   * entry which is rarely used does not displace a cheap one that is used frequently.
+   * This suits a cache whose loads vary widely in their latency, where the hit rate alone does not
+   * reflect the cost of the misses.
+   * <p>
+   * The load time is recorded by a successful load or refresh of a single entry. An entry that was
+   * inserted explicitly, or loaded by a bulk operation, is treated as being the least expensive to
+   * reload. Like the frequencies, the recorded costs are aged periodically so that a change in the
+   * latency of a load is reflected over time.
+   * <p>
+   * This feature requires {@link #maximumSize} or {@link #maximumWeight} with
+   * {@link #recordStats()} and cannot be used in conjunction with {@link #evictionPolicy}.
+   *
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalStateException if load penalty admission was already set
+   */
+  @NonNull
+  public Caffeine<K, V> loadPenaltyAdmission() {
+    requireState(!loadPenaltyAdmission, "load penalty admission was already set");
+    loadPenaltyAdmission = true;
+    return this;
+  }
+
+  boolean hasLoadPenaltyAdmission() {
+    return loadPenaltyAdmission;
+  }
+
+  /**
+   * Specifies that the default Window TinyLfu policy should weigh the size of an entry, in addition
+   * to its frequency, when deciding whether to admit a new entry by evicting others. By default a
+   * candidate is compared only against the policy's first victim, so a large entry that is used as
+   * often as a small one may be admitted and then displace many other small and popular entries to
+   * make room for itself. When enabled, a candidate that is heavier than the victim must instead be
+   * used more often than all of the victims whose combined weight it would displace. This favors
+   * the object hit rate of a cache whose entries vary widely in their weights.
+   * <p>
+   * This feature requires {@link #maximumWeight} and cannot be used in conjunction with
+   * {@link #evictionPolicy}.
+   *
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalStateException if weight aware admission was already set
+   */
+  @NonNull
+  public Caffeine<K, V> weightAwareAdmission() {
+    requireState(!weightAwareAdmission, "weight aware admission was already set");
+    weightAwareAdmission = true;
+    return this;
+  }
+
+  boolean hasWeightAwareAdmission() {
+    return weightAwareAdmission;
+  }
+
+  /**
+   * Specifies that the keys that are read most frequently should be recorded, so that they may be
+   * inspected by {@link Policy#hotKeys()}. This allows a hot key to be found, such as to replicate
+   * it elsewhere, before it overloads a single cache or the partition of the backing resource that
+   * serves it. The reads are counted as they are applied to the eviction policy by the cache's
+   * maintenance work, which uses a summary that tracks a fixed number of keys with an approximate
+   * count each. A key that is read more often than the total number of reads divided by the
+   * capacity is guaranteed to be tracked, and the counts are limited to a sliding time window, as
+   * measured by the {@link #ticker}, so that the summary follows a shift in the popularity.
+   * <p>
+   * The tracked keys are strongly referenced, so this feature cannot be used in conjunction with
+   * {@link #weakKeys}. It requires {@link #maximumSize} or {@link #maximumWeight}, as the reads are
+   * otherwise not applied to an eviction policy. The reads are sampled when the cache is heavily
+   * contended, in the same way that they are for the eviction policy.
+   *
+   * @param capacity the maximum number of keys that are tracked
+   * @param window the length of time over which the reads of a key are counted
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code capacity} or {@code window} is not positive
+   * @throws IllegalStateException if the hot key recording was already set
+   */
+  @NonNull
+  public Caffeine<K, V> recordHotKeys(int capacity, @NonNull Duration window) {
+    requireState(hotKeyCapacity == UNSET_INT,
+        "hot key recording was already set to %s keys", hotKeyCapacity);
+    long nanos = saturatedToNanos(window);
+    requireArgument(capacity > 0, "hot key capacity must be positive: %s", capacity);
+    requireArgument(nanos > 0, "hot key window must be positive: %s", window);
+    this.hotKeyWindowNanos = nanos;
+    this.hotKeyCapacity = capacity;
+    return this;
+  }
+
+  boolean recordsHotKeys() {
+    return (hotKeyCapacity != UNSET_INT);
+  }
+
+  @Nullable <K1 extends K> HotKeySummary<K1> newHotKeySummary() {
+    if (!recordsHotKeys()) {
+      return null;
+    }
+    return new HotKeySummary<>(hotKeyCapacity, hotKeyWindowNanos,
+        (ticker == null) ? Ticker.systemTicker() : ticker);
+  }
+
+  /** Returns the portion of the total that is assigned to the shard at the given index. */
+  static long shareOf(long total, int index, int shards) {
+    return (total / shards) + ((index < (total % shards)) ? 1 : 0);
+  }
+
+  /**
+   * Specifies that the entries evicted due to the cache's size constraint should be demoted into a
+   * secondary tier that is stored off of the Java heap, rather than being discarded. A subsequent
+   * miss in the cache consults this tier and, if found, promotes the entry back into the cache
+   * instead of loading it. This allows for retaining a much larger number of entries than fits
+   * within the heap without increasing the garbage collector's workload.
+   * <p>
+   * The victim tier stores the values in a fixed number of direct memory slabs that are recycled in
+   * FIFO order when full. The keys are retained on-heap to index the values, which costs roughly 24
+   * bytes per demoted entry in addition to the key itself. The index is bounded by the number of
+   * records that fit within the tier and by a fixed maximum, beyond which the oldest records are
+   * discarded early. An entry that is demoted is still reported as evicted to the
+   * {@link #removalListener} and {@link #writer}. The tier is consulted only by the
+   * {@link Cache#getIfPresent} and {@link Cache#get} family of methods, and its entries are
+   * discarded when the key is explicitly written to or invalidated.
+   * <p>
+   * <b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache builder
+   * reference; instead use the reference this method <i>returns</i>. At runtime, these point to the
+   * same instance, but only the returned reference has the correct generic type information so as
+   * to ensure type safety. For best results, use the standard method-chaining idiom illustrated in
+   * the class documentation above, configuring a builder and building your cache in a single
+   * statement. Failure to heed this advice can result in a {@link ClassCastException} being thrown
+   * by a cache operation at some <i>undefined</i> point in the future.
+   * <p>
+   * This feature requires {@link #maximumSize} or {@link #maximumWeight} and cannot be used in
+   * conjunction with {@link #weakKeys()}, {@link #buildAsync}, or an expiration policy. A demoted
+   * entry does not retain its timestamps, so a promotion would otherwise serve it past its
+   * expiration time.
+   *
+   * @param maximumBytes the maximum number of bytes of direct memory that the tier may use
+   * @param serializer the serializer used to convert the values to and from their binary form
+   * @param <K1> key type of the serializer
+   * @param <V1> value type of the serializer
+   * @return the cache builder reference that should be used instead of {@code this} for any
+   *         remaining configuration and cache building
+   * @throws IllegalArgumentException if {@code maximumBytes} is not positive
+   * @throws IllegalStateException if the victim tier was already set or if the key strength is
+   *         weak
+   * @throws NullPointerException if the specified serializer is null
+   */
+  @NonNull
+  public <K1 extends K, V1 extends V> Caffeine<K1, V1> offHeapVictims(
+      @NonNegative long maximumBytes, @NonNull Serializer<V1> serializer) {
+    requireNonNull(serializer);
+    requireState(this.victimSerializer == null,
+        "off-heap victims was already set to %s bytes", this.maximumVictimBytes);
+    requireState(keyStrength == null, "Weak keys may not be used with off-heap victims");
+    requireArgument(maximumBytes > 0,
+        "maximum off-heap victim bytes must be positive: %s", maximumBytes);
+
+    @SuppressWarnings("unchecked")
+    Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
+    self.maximumVictimBytes = maximumBytes;
+    self.victimSerializer = serializer;
+    return self;
+  }
+
+  boolean hasVictimTier() {
+    return (victimSerializer != null);
+  }
+
+  @Nullable <K1 extends K, V1 extends V> OffHeapVictimTier<K1, V1> newVictimTier() {
+    @SuppressWarnings("unchecked")
+    Serializer<V1> serializer = (Serializer<V1>) victimSerializer;
+    return (serializer == null) ? null : new OffHeapVictimTier<>(maximumVictimBytes, serializer);
+  }
+
+  /**
+   * Specifies that the cache should be populated from a snapshot, written by
+   * {@link Policy#snapshotTo}, when it is built. The entries are inserted from the coldest to the
+   * hottest so that a size-bounded cache retains the hottest entries and the eviction policy favors
+   * them, and if the cache is bounded by {@link #maximumSize} then the coldest entries that would
+   * exceed it are skipped. The popularity history used by the size-based eviction policy is
+   * restored as well if the snapshot was taken from a cache with the same maximum and number of
+   * {@link #evictionShards}, which requires that the keys have stable {@link Object#hashCode}
+   * implementations across restarts. The restored entries are treated as if newly written, so their
+   * expiration and refresh times start from when the cache is built, and the {@link #writer} is not
+   * notified.
+   * <p>
+   * If the file does not exist then the cache is built empty. If the file cannot be read, is not a
+   * valid snapshot, or an entry cannot be deserialized, then the problem is logged (using
+   * {@link java.util.logging.Logger}) and the cache retains the entries restored prior to it.
+   * <p>
+   * <b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache builder
+   * reference; instead use the reference this method <i>returns</i>. At runtime, these point to the
+   * same instance, but only the returned reference has the correct generic type information so as
+   * to ensure type safety. For best results, use the standard method-chaining idiom illustrated in
+   * the class documentation above, configuring a builder and building your cache in a single
+   * statement. Failure to heed this advice can result in a {@link ClassCastException} being thrown
+   * by a cache operation at some <i>undefined</i> point in the future.
+   *
+   * @param path the file that holds the snapshot
+   * @param keySerializer the serializer used to convert the keys from their binary form
+   * @param valueSerializer the serializer used to convert the values from their binary form
+   * @param <K1> key type of the serializer
+   * @param <V1> value type of the serializer
+   * @return the cache builder reference that should be used instead of {@code this} for any
+   *         remaining configuration and cache building
+   * @throws IllegalStateException if the snapshot was already set
+   * @throws NullPointerException if any of the arguments are null
+   */
+  @NonNull
+  public <K1 extends K, V1 extends V> Caffeine<K1, V1> restoreFrom(@NonNull Path path,
+      @NonNull Serializer<K1> keySerializer, @NonNull Serializer<V1> valueSerializer) {
+    requireNonNull(path);
+    requireNonNull(keySerializer);
+    requireNonNull(valueSerializer);
+    requireState(this.snapshotPath == null, "snapshot was already set to %s", this.snapshotPath);
+
+    @SuppressWarnings("unchecked")
+    Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
+    self.snapshotValueSerializer = valueSerializer;
+    self.snapshotKeySerializer = keySerializer;
+    self.snapshotPath = path;
+    return self;
+  }
+
+  /** Populates the cache with the snapshot's popularity history and entries, if specified. */
+  void restoreSnapshot(LocalCache<?, ?> cache, BiConsumer<K, V> consumer) {
+    if (snapshotPath == null) {
+      return;
+    }
+
+    @SuppressWarnings("unchecked")
+    Serializer<K> keySerializer = (Serializer<K>) requireNonNull(snapshotKeySerializer);
+    @SuppressWarnings("unchecked")
+    Serializer<V> valueSerializer = (Serializer<V>) requireNonNull(snapshotValueSerializer);
+    Consumer<List<@Nullable FrequencySketch<?>>> sketchConsumer = sketches -> {
+      if (!restoreFrequencySketches(cache, sketches)) {
+        logger.log(Level.WARNING, "Ignoring the snapshot's popularity history as it was "
+            + "captured from a cache with a different maximum, number of eviction shards, or "
+            + "frequency sketch configuration");
+      }
+    };
+    try {
+      long limit = (evicts() && !isWeighted()) ? maximumSize : Long.MAX_VALUE;
+      CacheSnapshot.read(snapshotPath, limit,
+          keySerializer, valueSerializer, sketchConsumer, consumer);
+    } catch (NoSuchFileException e) {
+      // cold start
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Exception thrown when restoring the snapshot: " + snapshotPath, e);
+    }
+  }
+
+  /**
+   * Replaces the popularity history of each of the cache's eviction shards with the snapshot's.
+   *
+   * @return false if the cache uses the frequency sketch but it could not be restored
+   */
+  static boolean restoreFrequencySketches(LocalCache<?, ?> cache,
+      List<@Nullable FrequencySketch<?>> sketches) {
+    BoundedLocalCache<?, ?>[] shards;
+    if (cache instanceof ShardedLocalCache<?, ?>) {
+      shards = ((ShardedLocalCache<?, ?>) cache).shards;
+    } else if (cache instanceof BoundedLocalCache<?, ?>) {
+      shards = new BoundedLocalCache<?, ?>[] { (BoundedLocalCache<?, ?>) cache };
+    } else {
+      return true;
+    }
+    if (!shards[0].evicts() || (shards[0].evictionPolicy != null)) {
+      return true;
+    } else if (sketches.size() != shards.length) {
+      return false;
+    }
+
+    boolean restored = true;
+    for (int i = 0; i < shards.length; i++) {
+      FrequencySketch<?> sketch = sketches.get(i);
+      if ((sketch != null) && !shards[i].restoreFrequencySketch(sketch)) {
+        restored = false;
+      }
+    }
+    return restored;
+  }
+
   /**
    * Specifies that each key (not value) stored in the cache should be wrapped in a
    * {@link WeakReference} (by default, strong references are used).
@@ -489,15 +1031,20 @@ public final class Caffeine<K, V> {
    * {@link Cache#estimatedSize()}, but will never be visible to read or write operations; such
    * entries are cleaned up as part of the routine maintenance described in the class javadoc.
    * <p>
-   * This feature cannot be used in conjunction with {@link #writer}.
+   * This feature cannot be used in conjunction with {@link #writer}, {@link #offHeapVictims}, or
+   * {@link #evictionPolicy}.
    *
    * @return this {@code Caffeine} instance (for chaining)
-   * @throws IllegalStateException if the key strength was already set or the writer was set
+   * @throws IllegalStateException if the key strength was already set, the writer was set, the
+   *         off-heap victims were set, or the eviction policy was set
    */
   @NonNull
   public Caffeine<K, V> weakKeys() {
     requireState(keyStrength == null, "Key strength was already set to %s", keyStrength);
     requireState(writer == null, "Weak keys may not be used with CacheWriter");
+    requireState(victimSerializer == null, "Weak keys may not be used with off-heap victims");
+    requireState(evictionPolicySupplier == null,
+        "Weak keys may not be used with an eviction policy");
 
     keyStrength = Strength.WEAK;
     return this;
@@ -796,6 +1343,305 @@ public final class Caffeine<K, V> {
     return refreshAfterWriteNanos != UNSET_INT;
   }
 
+  /**
+   * Specifies that the automatic refreshes should be coalesced into bulk loads. A refresh that is
+   * triggered by {@link #refreshAfterWrite} is buffered until either the batch has reached the
+   * maximum size or the oldest refresh in the batch has waited for the maximum delay, and the batch
+   * is then loaded by a single call to {@link CacheLoader#asyncLoadAll}. This reduces the number of
+   * requests made to the data source when many entries become eligible for refresh at the same
+   * time, at the cost of the refreshes being delayed by up to the maximum delay.
+   * <p>
+   * The bulk load replaces the individual {@link CacheLoader#asyncReload} calls, so an entry whose
+   * key is absent from the returned map is removed as if it had been reloaded to {@code null}. If
+   * the loader does not implement {@link CacheLoader#loadAll} or {@link CacheLoader#asyncLoadAll}
+   * then the entries are refreshed individually. A batch whose delay has elapsed is loaded promptly
+   * if a {@link #scheduler(Scheduler)} is specified, and otherwise when the next refresh is
+   * requested or during the cache's periodic maintenance.
+   * <p>
+   * This feature requires {@link #refreshAfterWrite}.
+   *
+   * @param maximumBatchSize the maximum number of refreshes to coalesce into one bulk load
+   * @param maximumDelay the maximum duration that a refresh may wait for the batch to be loaded
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximumBatchSize} is not positive or if
+   *         {@code maximumDelay} is negative
+   * @throws IllegalStateException if the refresh batching was already set
+   * @throws ArithmeticException for durations greater than +/- approximately 292 years
+   */
+  @NonNull
+  public Caffeine<K, V> refreshBatching(
+      @NonNegative int maximumBatchSize, @NonNull Duration maximumDelay) {
+    requireNonNull(maximumDelay);
+    requireState(this.maximumRefreshBatchSize == UNSET_INT,
+        "refresh batching was already set to %s entries", this.maximumRefreshBatchSize);
+    requireArgument(maximumBatchSize > 0,
+        "maximum refresh batch size must be positive: %s", maximumBatchSize);
+    requireArgument(!maximumDelay.isNegative(),
+        "maximum refresh batch delay must not be negative: %s", maximumDelay);
+    this.refreshBatchDelayNanos = saturatedToNanos(maximumDelay);
+    this.maximumRefreshBatchSize = maximumBatchSize;
+    return this;
+  }
+
+  boolean batchesRefreshes() {
+    return (maximumRefreshBatchSize != UNSET_INT);
+  }
+
+  /**
+   * Specifies that an entry may be reloaded asynchronously shortly before it expires, so that the
+   * popular entries that were written at about the same time do not all expire at once and cause
+   * their readers to wait on the loads together. When an entry is read, the probability that it is
+   * reloaded rises exponentially as its remaining lifetime approaches zero, following the XFetch
+   * algorithm. The time remaining is compared against the load time, as measured by the
+   * {@link #ticker} used for recording statistics, multiplied by {@code beta} and by an
+   * exponentially distributed random factor. An entry that is slow to load is therefore reloaded
+   * earlier than one that is fast, and a larger {@code beta} favors reloading earlier, while a
+   * value of {@code 1.0} is usually a good choice.
+   * <p>
+   * Unlike {@link #refreshAfterWrite}, the entry continues to expire at its original time while
+   * the reload is in flight, so a stale value is never served after it has expired. The reload is
+   * performed by {@link CacheLoader#asyncReload} and replaces the entry only if it was not modified
+   * in the meantime. The load time is estimated as a moving average of the cache's loads.
+   * <p>
+   * This feature requires {@link #expireAfterWrite} with {@link #recordStats()} and is only
+   * applied by a {@link LoadingCache} or an {@link AsyncLoadingCache}.
+   *
+   * @param beta the scaling factor of the load time, where larger values reload earlier
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code beta} is not positive and finite
+   * @throws IllegalStateException if the probabilistic early refresh was already set
+   */
+  @NonNull
+  public Caffeine<K, V> probabilisticEarlyRefresh(double beta) {
+    requireState(earlyRefreshBeta == UNSET_INT,
+        "probabilistic early refresh was already set to %s", earlyRefreshBeta);
+    requireArgument((beta > 0) && !Double.isInfinite(beta), "beta must be positive: %s", beta);
+    this.earlyRefreshBeta = beta;
+    return this;
+  }
+
+  boolean refreshesEarly() {
+    return (earlyRefreshBeta != UNSET_INT);
+  }
+
+  double getEarlyRefreshBeta() {
+    return refreshesEarly() ? earlyRefreshBeta : 0.0;
+  }
+
+  /**
+   * Specifies that an entry continues to be served for a grace period after it has expired, while
+   * it is reloaded asynchronously. When an entry is read after its {@link #expireAfterWrite}
+   * duration has elapsed, but before the grace period has also elapsed, the stale value is returned
+   * and a reload is performed by {@link CacheLoader#asyncReload}, like {@link #refreshAfterWrite}
+   * does. This avoids blocking the readers on a synchronous load when a popular entry expires, at
+   * the cost of serving a value that may be up to the grace period older than its time to live.
+   * An entry that is not read during the grace period is removed and must be loaded again.
+   * <p>
+   * A stale value is served only by the retrievals that trigger its reload, such as
+   * {@link Cache#getIfPresent}, {@link LoadingCache#get}, and their asynchronous counterparts. The
+   * other operations, such as {@link Cache#getAllPresent}, the reads and iteration of the
+   * {@link Cache#asMap()} view, and the inspections provided by {@link Cache#policy()}, treat the
+   * entry as expired, though it is retained until the grace period has elapsed. The reload replaces
+   * the entry only if it was not modified in the meantime, and the failed reloads are logged and
+   * retried by a later read. See {@link #staleIfError} to continue serving the stale value while
+   * the reloads are failing.
+   * <p>
+   * This feature requires {@link #expireAfterWrite} and is only applied by a {@link LoadingCache}
+   * or an {@link AsyncLoadingCache}.
+   *
+   * @param gracePeriod the length of time after an entry expires that its value may be served
+   *        while it is reloaded
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code gracePeriod} is not positive
+   * @throws IllegalStateException if the grace period was already set
+   */
+  @NonNull
+  public Caffeine<K, V> staleWhileRevalidate(@NonNull Duration gracePeriod) {
+    requireState(staleWhileRevalidateNanos == UNSET_INT,
+        "staleWhileRevalidate was already set to %s ns", staleWhileRevalidateNanos);
+    long nanos = saturatedToNanos(gracePeriod);
+    requireArgument(nanos > 0, "grace period must be positive: %s", gracePeriod);
+    this.staleWhileRevalidateNanos = nanos;
+    return this;
+  }
+
+  /**
+   * Specifies that an entry whose reload failed continues to be served for up to a maximum
+   * duration after it has expired. This extends the {@link #staleWhileRevalidate} grace period of
+   * an entry whose most recent reload completed exceptionally, such as while the backing resource
+   * is unavailable, so that the readers observe a degraded freshness instead of the load failures.
+   * A read of the stale value continues to trigger a reload, and the entry is removed once the
+   * maximum duration has elapsed or is replaced when a reload succeeds.
+   * <p>
+   * This feature requires {@link #staleWhileRevalidate} and has no effect if the maximum duration
+   * does not exceed its grace period.
+   *
+   * @param maximum the length of time after an entry expires that its value may be served if
+   *        reloading it failed
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximum} is not positive
+   * @throws IllegalStateException if the maximum duration was already set
+   */
+  @NonNull
+  public Caffeine<K, V> staleIfError(@NonNull Duration maximum) {
+    requireState(staleIfErrorNanos == UNSET_INT,
+        "staleIfError was already set to %s ns", staleIfErrorNanos);
+    long nanos = saturatedToNanos(maximum);
+    requireArgument(nanos > 0, "maximum duration must be positive: %s", maximum);
+    this.staleIfErrorNanos = nanos;
+    return this;
+  }
+
+  boolean servesStale() {
+    return (staleWhileRevalidateNanos != UNSET_INT);
+  }
+
+  long getStaleWhileRevalidateNanos() {
+    return servesStale() ? staleWhileRevalidateNanos : 0L;
+  }
+
+  long getStaleIfErrorNanos() {
+    return (staleIfErrorNanos == UNSET_INT) ? 0L : staleIfErrorNanos;
+  }
+
+  /**
+   * Specifies that the absence of a value, as indicated by the {@link CacheLoader} returning
+   * {@code null}, should be remembered for a fixed duration. While the key's negative entry is
+   * present, a load of the key returns {@code null} without calling the loader, so that requests
+   * for nonexistent keys are served without each going to the backing resource. A negative entry
+   * is discarded once the duration has elapsed or when a load of the key returns a value.
+   * <p>
+   * The negative entries are held apart from the cache's entries and are bounded by their own
+   * maximum size, so they do not count towards and cannot displace the cache's entries in the
+   * {@link #maximumSize} or {@link #maximumWeight} budget. A key's negative entry is discarded
+   * when the key is written, invalidated, or refreshed by the {@link Cache}, {@link LoadingCache},
+   * or {@link AsyncLoadingCache} methods, such as {@link Cache#put}, {@link Cache#invalidateAll},
+   * and {@link LoadingCache#refresh}. A modification through the {@link Cache#asMap()} view does
+   * not discard the negative entries, so the duration should be short if values may be written by
+   * that means. See {@link #failureBackoff} to also remember the loads that failed.
+   * <p>
+   * This feature is only applied by a {@link LoadingCache} or an {@link AsyncLoadingCache}.
+   *
+   * @param maximumSize the maximum number of negative entries that may be retained
+   * @param duration the length of time after a load returned {@code null} that the absence should
+   *        be remembered, or zero if only the failures should be remembered
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximumSize} is not positive or if
+   *         {@code duration} is negative
+   * @throws IllegalStateException if the negative caching was already set
+   */
+  @NonNull
+  public Caffeine<K, V> negativeCaching(long maximumSize, @NonNull Duration duration) {
+    requireState(this.maximumNegativeSize == UNSET_INT,
+        "negative caching was already set to %s entries", this.maximumNegativeSize);
+    requireArgument(maximumSize > 0, "maximum negative size must be positive: %s", maximumSize);
+    requireArgument(!duration.isNegative(),
+        "negative caching duration must not be negative: %s", duration);
+    this.expireAfterAbsentNanos = saturatedToNanos(duration);
+    this.maximumNegativeSize = maximumSize;
+    return this;
+  }
+
+  /**
+   * Specifies that a failed load should be remembered, so that the key is not loaded again until
+   * a backoff delay has elapsed. While the delay has not elapsed, a load of the key fails without
+   * calling the loader by throwing a {@link CompletionException} whose cause is the exception that
+   * was thrown by the most recent attempt. The delay starts at {@code initialDelay} and doubles
+   * with each consecutive failure, up to {@code maximumDelay}, and is reset when a load of the key
+   * succeeds. This protects a failing backing resource from being overwhelmed by retries, as can
+   * happen when a popular key fails to load and each request attempts to load it again.
+   * <p>
+   * The failures are remembered as negative entries and share their maximum size, so this feature
+   * requires {@link #negativeCaching}. Only the failures of {@link CacheLoader#load},
+   * {@link CacheLoader#loadAll}, and their asynchronous counterparts are remembered. An explicit
+   * write, invalidation, or refresh of the key discards the remembered failure.
+   *
+   * @param initialDelay the length of time after the first failure that the key is not loaded
+   * @param maximumDelay the maximum length of time after a failure that the key is not loaded
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code initialDelay} is not positive or if
+   *         {@code maximumDelay} is less than {@code initialDelay}
+   * @throws IllegalStateException if the failure backoff was already set
+   */
+  @NonNull
+  public Caffeine<K, V> failureBackoff(@NonNull Duration initialDelay,
+      @NonNull Duration maximumDelay) {
+    requireState(initialBackoffNanos == UNSET_INT,
+        "failure backoff was already set to %s ns", initialBackoffNanos);
+    long initial = saturatedToNanos(initialDelay);
+    long maximum = saturatedToNanos(maximumDelay);
+    requireArgument(initial > 0, "initial backoff delay must be positive: %s", initialDelay);
+    requireArgument(maximum >= initial,
+        "maximum backoff delay must be at least the initial delay: %s", maximumDelay);
+    this.initialBackoffNanos = initial;
+    this.maximumBackoffNanos = maximum;
+    return this;
+  }
+
+  boolean cachesNegatives() {
+    return (maximumNegativeSize != UNSET_INT);
+  }
+
+  boolean backsOffFailures() {
+    return (initialBackoffNanos != UNSET_INT);
+  }
+
+  @Nullable <K1 extends K, V1 extends V> RefreshBatcher<K1, V1> newRefreshBatcher(
+      @Nullable CacheLoader<K1, V1> loader) {
+    if (!batchesRefreshes() || (loader == null)) {
+      return null;
+    } else if (!RefreshBatcher.canBulkLoad(loader)) {
+      logger.log(Level.WARNING, "ignoring refresh batching as the loader cannot bulk load");
+      return null;
+    }
+    return new RefreshBatcher<>(loader, getExecutor(), getScheduler(),
+        maximumRefreshBatchSize, refreshBatchDelayNanos);
+  }
+
+  /**
+   * Specifies that each pass of the cache's maintenance work should be bounded by a time slice.
+   * The maintenance drains the pending operations, expires entries, and evicts entries under an
+   * exclusive lock. After a burst of work, such as when many entries expire at once or the maximum
+   * size is reduced, a single pass may take a long time and any writer that must wait for it to
+   * catch up is stalled. When a time slice is specified, a pass stops once it has been used up
+   * and the remaining work is continued by a subsequent pass on the {@link #executor}. This bounds
+   * the time that the lock is held at the cost of the cache temporarily exceeding its maximum or
+   * retaining expired entries.
+   * <p>
+   * The time slice is measured by the {@link #ticker}, or by {@link System#nanoTime} if not set.
+   * The remaining work is scheduled promptly only if the executor is asynchronous, and otherwise it
+   * is performed by the subsequent operations on the cache. The expiration of entries by a custom
+   * {@link Expiry} is not divided into slices.
+   *
+   * @param timeSlice the maximum duration of work for each maintenance pass
+   * @return this {@code Caffeine} instance (for chaining)
+   * @throws IllegalArgumentException if {@code timeSlice} is not positive
+   * @throws IllegalStateException if the maintenance time slice was already set
+   * @throws ArithmeticException for durations greater than +/- approximately 292 years
+   */
+  @NonNull
+  public Caffeine<K, V> maintenanceTimeSlice(@NonNull Duration timeSlice) {
+    requireNonNull(timeSlice);
+    requireState(maintenanceTimeSliceNanos == UNSET_INT,
+        "maintenance time slice was already set to %s ns", maintenanceTimeSliceNanos);
+    long nanos = saturatedToNanos(timeSlice);
+    requireArgument(nanos > 0, "maintenance time slice must be positive: %s", timeSlice);
+    this.maintenanceTimeSliceNanos = nanos;
+    return this;
+  }
+
+  long getMaintenanceTimeSliceNanos() {
+    return (maintenanceTimeSliceNanos == UNSET_INT) ? 0L : maintenanceTimeSliceNanos;
+  }
+
+  @NonNull
+  Ticker getMaintenanceTicker() {
+    if (maintenanceTimeSliceNanos == UNSET_INT) {
+      return Ticker.disabledTicker();
+    }
+    return (ticker == null) ? Ticker.systemTicker() : ticker;
+  }
+
   /**
    * Specifies a nanosecond-precision time source for use in determining when entries should be
    * expired or refreshed. By default, {@link System#nanoTime} is used.
@@ -854,6 +1700,8 @@ public final class Caffeine<K, V> {
       @NonNull RemovalListener<? super K1, ? super V1> removalListener) {
     requireState(this.removalListener == null,
         "removal listener was already set to %s", this.removalListener);
+    requireState(this.batchRemovalListener == null,
+        "batch removal listener was already set to %s", this.batchRemovalListener);
 
     @SuppressWarnings("unchecked")
     Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
@@ -863,12 +1711,67 @@ public final class Caffeine<K, V> {
 
   @SuppressWarnings({"unchecked", "rawtypes"})
   @Nullable <K1 extends K, V1 extends V> RemovalListener<K1, V1> getRemovalListener(boolean async) {
+    if (batchRemovalListener != null) {
+      return new RemovalNotificationBatcher<>(
+          (BatchRemovalListener<K1, V1>) batchRemovalListener, getExecutor(), async);
+    }
     RemovalListener<K1, V1> castedListener = (RemovalListener<K1, V1>) removalListener;
     return async && (castedListener != null)
         ? new AsyncRemovalListener(castedListener, getExecutor())
         : castedListener;
   }
 
+  /**
+   * Specifies a listener instance that caches should notify of the entries that were removed for
+   * any {@linkplain RemovalCause reason}, in batches. Rather than submitting a task to the
+   * {@link #executor} for every removal, as is done for a {@link #removalListener}, the removals
+   * are accumulated and a single task delivers them to the listener in chunks. The removals that
+   * occur during the cache's maintenance, such as an eviction or expiration, are delivered when
+   * the maintenance cycle completes, while an explicit removal or replacement is delivered
+   * promptly. This reduces the executor's overhead when a large number of entries are removed in a
+   * burst.
+   * <p>
+   * <b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache builder
+   * reference; instead use the reference this method <i>returns</i>. At runtime, these point to the
+   * same instance, but only the returned reference has the correct generic type information so as
+   * to ensure type safety. For best results, use the standard method-chaining idiom illustrated in
+   * the class documentation above, configuring a builder and building your cache in a single
+   * statement. Failure to heed this advice can result in a {@link ClassCastException} being thrown
+   * by a cache operation at some <i>undefined</i> point in the future.
+   * <p>
+   * <b>Warning:</b> any exception thrown by {@code listener} will <i>not</i> be propagated to the
+   * {@code Cache} user, only logged via a {@link Logger}.
+   * <p>
+   * This feature cannot be used in conjunction with {@link #removalListener}.
+   *
+   * @param batchRemovalListener a listener instance that caches should notify of the entries that
+   *        were removed
+   * @param <K1> the key type of the listener
+   * @param <V1> the value type of the listener
+   * @return the cache builder reference that should be used instead of {@code this} for any
+   *         remaining configuration and cache building
+   * @throws IllegalStateException if a removal listener was already set
+   * @throws NullPointerException if the specified removal listener is null
+   */
+  @NonNull
+  public <K1 extends K, V1 extends V> Caffeine<K1, V1> batchRemovalListener(
+      @NonNull BatchRemovalListener<? super K1, ? super V1> batchRemovalListener) {
+    requireState(this.batchRemovalListener == null,
+        "batch removal listener was already set to %s", this.batchRemovalListener);
+    requireState(this.removalListener == null,
+        "removal listener was already set to %s", this.removalListener);
+
+    @SuppressWarnings("unchecked")
+    Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
+    self.batchRemovalListener = requireNonNull(batchRemovalListener);
+    return self;
+  }
+
+  /** Returns if either a removal listener or a batch removal listener was set. */
+  boolean hasRemovalListener() {
+    return (removalListener != null) || (batchRemovalListener != null);
+  }
+
   /**
    * Specifies a writer instance that caches should notify each time an entry is explicitly created
    * or modified, or removed for any {@linkplain RemovalCause reason}. The writer is not notified
@@ -988,13 +1891,29 @@ public final class Caffeine<K, V> {
   @NonNull
   public <K1 extends K, V1 extends V> Cache<K1, V1> build() {
     requireWeightWithWeigher();
+    requireMaximumWithVictimTier();
     requireNonLoadingCache();
+    requireMaximumWithShards();
+    requireMaximumWithEvictionPolicy();
+    requireMaximumWithWindowClimber();
+    requireMaximumWithDoorkeeper();
+    requireMaximumWithLoadPenalty();
+    requireWeigherWithWeightAwareAdmission();
+    requireMaximumWithHotKeys();
 
     @SuppressWarnings("unchecked")
     Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
-    return isBounded()
-        ? new BoundedLocalCache.BoundedLocalManualCache<>(self)
-        : new UnboundedLocalCache.UnboundedLocalManualCache<>(self);
+    LocalManualCache<K1, V1> cache;
+    if (isSharded()) {
+      cache = new ShardedLocalCache.ShardedLocalManualCache<>(self);
+    } else if (isBounded()) {
+      cache = new BoundedLocalCache.BoundedLocalManualCache<>(self);
+    } else {
+      cache = new UnboundedLocalCache.UnboundedLocalManualCache<>(self);
+    }
+    self.restoreSnapshot(cache.cache(),
+        (key, value) -> cache.cache().put(key, value, /* notifyWriter */ false));
+    return cache;
   }
 
   /**
@@ -1015,12 +1934,35 @@ public final class Caffeine<K, V> {
   public <K1 extends K, V1 extends V> LoadingCache<K1, V1> build(
       @NonNull CacheLoader<? super K1, V1> loader) {
     requireWeightWithWeigher();
+    requireMaximumWithVictimTier();
+    requireRefreshWithBatching();
+    requireExpireAfterWriteWithEarlyRefresh();
+    requireExpireAfterWriteWithStale();
+    requireNegativeCachingWithBackoff();
+    requireMaximumWithShards();
+    requireMaximumWithEvictionPolicy();
+    requireMaximumWithWindowClimber();
+    requireMaximumWithDoorkeeper();
+    requireMaximumWithLoadPenalty();
+    requireWeigherWithWeightAwareAdmission();
+    requireMaximumWithHotKeys();
 
     @SuppressWarnings("unchecked")
     Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
-    return isBounded() || refreshAfterWrite()
-        ? new BoundedLocalCache.BoundedLocalLoadingCache<>(self, loader)
-        : new UnboundedLocalCache.UnboundedLocalLoadingCache<>(self, loader);
+    CacheLoader<? super K1, V1> cacheLoader = cachesNegatives()
+        ? new NegativeCachingLoader<K1, V1>(loader, self)
+        : loader;
+    LocalLoadingCache<K1, V1> cache;
+    if (isSharded()) {
+      cache = new ShardedLocalCache.ShardedLocalLoadingCache<>(self, cacheLoader);
+    } else if (isBounded() || refreshAfterWrite()) {
+      cache = new BoundedLocalCache.BoundedLocalLoadingCache<>(self, cacheLoader);
+    } else {
+      cache = new UnboundedLocalCache.UnboundedLocalLoadingCache<>(self, cacheLoader);
+    }
+    self.restoreSnapshot(cache.cache(),
+        (key, value) -> cache.cache().put(key, value, /* notifyWriter */ false));
+    return cache;
   }
 
   /**
@@ -1036,8 +1978,8 @@ public final class Caffeine<K, V> {
    * This method does not alter the state of this {@code Caffeine} instance, so it can be invoked
    * again to create multiple independent caches.
    * <p>
-   * This construction cannot be used with {@link #weakValues()}, {@link #softValues()}, or
-   * {@link #writer(CacheWriter)}.
+   * This construction cannot be used with {@link #weakValues()}, {@link #softValues()},
+   * {@link #writer(CacheWriter)}, {@link #offHeapVictims}, or {@link #evictionShards}.
    *
    * @param <K1> the key type of the cache
    * @param <V1> the value type of the cache
@@ -1047,14 +1989,26 @@ public final class Caffeine<K, V> {
   public <K1 extends K, V1 extends V> AsyncCache<K1, V1> buildAsync() {
     requireState(valueStrength == null, "Weak or soft values can not be combined with AsyncCache");
     requireState(writer == null, "CacheWriter can not be combined with AsyncCache");
+    requireState(victimSerializer == null, "Off-heap victims can not be combined with AsyncCache");
+    requireState(evictionShards == UNSET_INT,
+        "Eviction shards can not be combined with AsyncCache");
     requireWeightWithWeigher();
     requireNonLoadingCache();
+    requireMaximumWithEvictionPolicy();
+    requireMaximumWithWindowClimber();
+    requireMaximumWithDoorkeeper();
+    requireMaximumWithLoadPenalty();
+    requireWeigherWithWeightAwareAdmission();
+    requireMaximumWithHotKeys();
 
     @SuppressWarnings("unchecked")
     Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
-    return isBounded()
+    LocalAsyncCache<K1, V1> cache = isBounded()
         ? new BoundedLocalCache.BoundedLocalAsyncCache<>(self)
         : new UnboundedLocalCache.UnboundedLocalAsyncCache<>(self);
+    self.restoreSnapshot(cache.cache(),
+        (key, value) -> cache.put(key, CompletableFuture.completedFuture(value)));
+    return cache;
   }
 
   /**
@@ -1067,8 +2021,8 @@ public final class Caffeine<K, V> {
    * This method does not alter the state of this {@code Caffeine} instance, so it can be invoked
    * again to create multiple independent caches.
    * <p>
-   * This construction cannot be used with {@link #weakValues()}, {@link #softValues()}, or
-   * {@link #writer(CacheWriter)}.
+   * This construction cannot be used with {@link #weakValues()}, {@link #softValues()},
+   * {@link #writer(CacheWriter)}, {@link #offHeapVictims}, or {@link #evictionShards}.
    *
    * @param loader the cache loader used to obtain new values
    * @param <K1> the key type of the loader
@@ -1091,8 +2045,8 @@ public final class Caffeine<K, V> {
    * This method does not alter the state of this {@code Caffeine} instance, so it can be invoked
    * again to create multiple independent caches.
    * <p>
-   * This construction cannot be used with {@link #weakValues()}, {@link #softValues()}, or
-   * {@link #writer(CacheWriter)}.
+   * This construction cannot be used with {@link #weakValues()}, {@link #softValues()},
+   * {@link #writer(CacheWriter)}, {@link #offHeapVictims}, or {@link #evictionShards}.
    *
    * @param loader the cache loader used to obtain new values
    * @param <K1> the key type of the loader
@@ -1105,18 +2059,129 @@ public final class Caffeine<K, V> {
     requireState(valueStrength == null,
         "Weak or soft values can not be combined with AsyncLoadingCache");
     requireState(writer == null, "CacheWriter can not be combined with AsyncLoadingCache");
+    requireState(victimSerializer == null,
+        "Off-heap victims can not be combined with AsyncLoadingCache");
+    requireState(evictionShards == UNSET_INT,
+        "Eviction shards can not be combined with AsyncLoadingCache");
     requireWeightWithWeigher();
+    requireRefreshWithBatching();
+    requireExpireAfterWriteWithEarlyRefresh();
+    requireExpireAfterWriteWithStale();
+    requireNegativeCachingWithBackoff();
+    requireMaximumWithEvictionPolicy();
+    requireMaximumWithWindowClimber();
+    requireMaximumWithDoorkeeper();
+    requireMaximumWithLoadPenalty();
+    requireWeigherWithWeightAwareAdmission();
+    requireMaximumWithHotKeys();
     requireNonNull(loader);
 
     @SuppressWarnings("unchecked")
     Caffeine<K1, V1> self = (Caffeine<K1, V1>) this;
-    return isBounded() || refreshAfterWrite()
-        ? new BoundedLocalCache.BoundedLocalAsyncLoadingCache<>(self, loader)
-        : new UnboundedLocalCache.UnboundedLocalAsyncLoadingCache<>(self, loader);
+    AsyncCacheLoader<? super K1, V1> cacheLoader = cachesNegatives()
+        ? new NegativeCachingLoader<K1, V1>(loader, self)
+        : loader;
+    LocalAsyncLoadingCache<K1, V1> cache = isBounded() || refreshAfterWrite()
+        ? new BoundedLocalCache.BoundedLocalAsyncLoadingCache<>(self, cacheLoader)
+        : new UnboundedLocalCache.UnboundedLocalAsyncLoadingCache<>(self, cacheLoader);
+    self.restoreSnapshot(cache.cache(),
+        (key, value) -> cache.put(key, CompletableFuture.completedFuture(value)));
+    return cache;
   }
 
   void requireNonLoadingCache() {
     requireState(refreshAfterWriteNanos == UNSET_INT, "refreshAfterWrite requires a LoadingCache");
+    requireState(maximumRefreshBatchSize == UNSET_INT, "refreshBatching requires a LoadingCache");
+    requireState(earlyRefreshBeta == UNSET_INT,
+        "probabilisticEarlyRefresh requires a LoadingCache");
+    requireState(staleWhileRevalidateNanos == UNSET_INT,
+        "staleWhileRevalidate requires a LoadingCache");
+    requireState(staleIfErrorNanos == UNSET_INT, "staleIfError requires a LoadingCache");
+    requireState(maximumNegativeSize == UNSET_INT, "negativeCaching requires a LoadingCache");
+    requireState(initialBackoffNanos == UNSET_INT, "failureBackoff requires a LoadingCache");
+  }
+
+  void requireMaximumWithShards() {
+    if (evictionShards != UNSET_INT) {
+      requireState(evicts(), "evictionShards requires maximumSize or maximumWeight");
+      requireState(!isSharded() || (getMaximum() >= evictionShards),
+          "maximum (%s) must be at least the number of eviction shards (%s)",
+          getMaximum(), evictionShards);
+    }
+  }
+
+  void requireMaximumWithEvictionPolicy() {
+    requireState((evictionPolicySupplier == null) || evicts(),
+        "evictionPolicy requires maximumSize or maximumWeight");
+  }
+
+  void requireMaximumWithWindowClimber() {
+    if (windowClimber != null) {
+      requireState(evicts(), "windowClimber requires maximumSize or maximumWeight");
+      requireState(evictionPolicySupplier == null,
+          "windowClimber cannot be combined with an evictionPolicy");
+    }
+  }
+
+  void requireMaximumWithDoorkeeper() {
+    if (doorkeeper) {
+      requireState(evicts(), "doorkeeper requires maximumSize or maximumWeight");
+      requireState(evictionPolicySupplier == null,
+          "doorkeeper cannot be combined with an evictionPolicy");
+    }
+    if (blockedFrequencySketch) {
+      requireState(evicts(), "blockedFrequencySketch requires maximumSize or maximumWeight");
+      requireState(evictionPolicySupplier == null,
+          "blockedFrequencySketch cannot be combined with an evictionPolicy");
+    }
+  }
+
+  void requireMaximumWithLoadPenalty() {
+    if (loadPenaltyAdmission) {
+      requireState(evicts(), "loadPenaltyAdmission requires maximumSize or maximumWeight");
+      requireState(isRecordingStats(), "loadPenaltyAdmission requires recordStats");
+      requireState(evictionPolicySupplier == null,
+          "loadPenaltyAdmission cannot be combined with an evictionPolicy");
+    }
+  }
+
+  void requireWeigherWithWeightAwareAdmission() {
+    if (weightAwareAdmission) {
+      requireState(maximumWeight != UNSET_INT, "weightAwareAdmission requires maximumWeight");
+      requireState(evictionPolicySupplier == null,
+          "weightAwareAdmission cannot be combined with an evictionPolicy");
+    }
+  }
+
+  void requireMaximumWithHotKeys() {
+    if (recordsHotKeys()) {
+      requireState(evicts(), "recordHotKeys requires maximumSize or maximumWeight");
+      requireState(keyStrength == null, "recordHotKeys cannot be combined with weakKeys");
+    }
+  }
+
+  void requireRefreshWithBatching() {
+    requireState(!batchesRefreshes() || refreshAfterWrite(),
+        "refreshBatching requires refreshAfterWrite");
+  }
+
+  void requireExpireAfterWriteWithEarlyRefresh() {
+    if (refreshesEarly()) {
+      requireState(expiresAfterWrite(), "probabilisticEarlyRefresh requires expireAfterWrite");
+      requireState(isRecordingStats(), "probabilisticEarlyRefresh requires recordStats");
+    }
+  }
+
+  void requireNegativeCachingWithBackoff() {
+    requireState(!backsOffFailures() || cachesNegatives(),
+        "failureBackoff requires negativeCaching");
+  }
+
+  void requireExpireAfterWriteWithStale() {
+    requireState(!servesStale() || expiresAfterWrite(),
+        "staleWhileRevalidate requires expireAfterWrite");
+    requireState((staleIfErrorNanos == UNSET_INT) || servesStale(),
+        "staleIfError requires staleWhileRevalidate");
   }
 
   void requireWeightWithWeigher() {
@@ -1129,6 +2194,14 @@ public final class Caffeine<K, V> {
     }
   }
 
+  void requireMaximumWithVictimTier() {
+    if (victimSerializer != null) {
+      requireState(evicts(), "off-heap victims requires maximumSize or maximumWeight");
+      requireState(!expiresAfterWrite() && !expiresAfterAccess() && !expiresVariable(),
+          "off-heap victims cannot be combined with expiration");
+    }
+  }
+
   /**
    * Returns the number of nanoseconds of the given duration without throwing or overflowing.
    * <p>
@@ -1136,7 +2209,7 @@ public final class Caffeine<K, V> {
    * {@link Long#MAX_VALUE} or {@link Long#MIN_VALUE}. This behavior can be useful when decomposing
    * a duration in order to call a legacy API which requires a {@code long, TimeUnit} pair.
    */
-  private static long saturatedToNanos(Duration duration) {
+  static long saturatedToNanos(Duration duration) {
     // Using a try/catch seems lazy, but the catch block will rarely get invoked (except for
     // durations longer than approximately +/- 292 years).
     try {
@@ -1164,6 +2237,31 @@ public final class Caffeine<K, V> {
     if (maximumWeight != UNSET_INT) {
       s.append("maximumWeight=").append(maximumWeight).append(", ");
     }
+    if (evictionShards != UNSET_INT) {
+      s.append("evictionShards=").append(evictionShards).append(", ");
+    }
+    if (evictionPolicySupplier != null) {
+      s.append("evictionPolicy, ");
+    }
+    if (windowClimber != null) {
+      s.append("windowClimber=").append(windowClimber.toString().toLowerCase(US)).append(", ");
+    }
+    if (doorkeeper) {
+      s.append("doorkeeper, ");
+    }
+    if (blockedFrequencySketch) {
+      s.append("blockedFrequencySketch, ");
+    }
+    if (hotKeyCapacity != UNSET_INT) {
+      s.append("recordHotKeys=").append(hotKeyCapacity).append('/')
+          .append(hotKeyWindowNanos).append("ns, ");
+    }
+    if (loadPenaltyAdmission) {
+      s.append("loadPenaltyAdmission, ");
+    }
+    if (weightAwareAdmission) {
+      s.append("weightAwareAdmission, ");
+    }
     if (expireAfterWriteNanos != UNSET_INT) {
       s.append("expireAfterWrite=").append(expireAfterWriteNanos).append("ns, ");
     }
@@ -1176,6 +2274,30 @@ public final class Caffeine<K, V> {
     if (refreshAfterWriteNanos != UNSET_INT) {
       s.append("refreshAfterWriteNanos=").append(refreshAfterWriteNanos).append("ns, ");
     }
+    if (maximumRefreshBatchSize != UNSET_INT) {
+      s.append("refreshBatching=").append(maximumRefreshBatchSize).append('/')
+          .append(refreshBatchDelayNanos).append("ns, ");
+    }
+    if (earlyRefreshBeta != UNSET_INT) {
+      s.append("probabilisticEarlyRefresh=").append(earlyRefreshBeta).append(", ");
+    }
+    if (staleWhileRevalidateNanos != UNSET_INT) {
+      s.append("staleWhileRevalidate=").append(staleWhileRevalidateNanos).append("ns, ");
+    }
+    if (staleIfErrorNanos != UNSET_INT) {
+      s.append("staleIfError=").append(staleIfErrorNanos).append("ns, ");
+    }
+    if (maximumNegativeSize != UNSET_INT) {
+      s.append("negativeCaching=").append(maximumNegativeSize).append('/')
+          .append(expireAfterAbsentNanos).append("ns, ");
+    }
+    if (initialBackoffNanos != UNSET_INT) {
+      s.append("failureBackoff=").append(initialBackoffNanos).append('/')
+          .append(maximumBackoffNanos).append("ns, ");
+    }
+    if (maintenanceTimeSliceNanos != UNSET_INT) {
+      s.append("maintenanceTimeSlice=").append(maintenanceTimeSliceNanos).append("ns, ");
+    }
     if (keyStrength != null) {
       s.append("keyStrength=").append(keyStrength.toString().toLowerCase(US)).append(", ");
     }
@@ -1185,9 +2307,18 @@ public final class Caffeine<K, V> {
     if (removalListener != null) {
       s.append("removalListener, ");
     }
+    if (batchRemovalListener != null) {
+      s.append("batchRemovalListener, ");
+    }
     if (writer != null) {
       s.append("writer, ");
     }
+    if (victimSerializer != null) {
+      s.append("offHeapVictims=").append(maximumVictimBytes).append("B, ");
+    }
+    if (snapshotPath != null) {
+      s.append("restoreFrom=").append(snapshotPath).append(", ");
+    }
     if (s.length() > baseLength) {
       s.deleteCharAt(s.length() - 2);
     }
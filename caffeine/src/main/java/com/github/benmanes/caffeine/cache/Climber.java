@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An optimizer that adapts the size of the admission window by walking the hit rate curve. The
+ * climber is sampled once enough requests have been observed and returns the amount to resize the
+ * window by, where a positive amount grows the window and a negative amount shrinks it. These are
+ * ports of the climbers that are evaluated by the simulator. The climbers are invoked only while
+ * holding the eviction lock, so they are not thread-safe.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+abstract class Climber {
+  /** The percent of the maximum size to adapt the window by for the gradient climbers. */
+  static final double GRADIENT_PERCENT_PIVOT = 0.005d;
+  /** The percent of the maximum size to sample before adapting for the gradient climbers. */
+  static final double GRADIENT_PERCENT_SAMPLE = 0.05d;
+  /** The decay rate of the momentum. */
+  static final double BETA_1 = 0.9d;
+  /** The decay rate of the velocity. */
+  static final double BETA_2 = 0.999d;
+  /** The fuzz factor to avoid a division by zero. */
+  static final double EPSILON = 1e-8d;
+
+  final double percentPivot;
+  final double percentSample;
+
+  Climber(double percentPivot, double percentSample) {
+    this.percentPivot = percentPivot;
+    this.percentSample = percentSample;
+  }
+
+  /** Returns the number of requests to sample before adapting, given the maximum size. */
+  final long sampleSize(long maximum) {
+    return Math.max(1L, (long) (percentSample * maximum));
+  }
+
+  /** Returns the base amount to adapt by, given the maximum size. */
+  final double stepSize(long maximum) {
+    return percentPivot * maximum;
+  }
+
+  /**
+   * Returns the amount to adapt the window by.
+   *
+   * @param hitRate the hit rate of the current sample
+   * @param previousHitRate the hit rate of the previous sample
+   * @param maximum the maximum weighted size of the cache
+   * @return the amount to resize the window by
+   */
+  abstract double adjust(double hitRate, double previousHitRate, long maximum);
+
+  /** Returns the change in the miss rate between the samples. */
+  static double gradient(double hitRate, double previousHitRate) {
+    double currentMissRate = (1 - hitRate);
+    double previousMissRate = (1 - previousHitRate);
+    return currentMissRate - previousMissRate;
+  }
+
+  /** Stochastic gradient descent with classical momentum. */
+  static final class Momentum extends Climber {
+    double velocity;
+
+    Momentum() {
+      super(GRADIENT_PERCENT_PIVOT, GRADIENT_PERCENT_SAMPLE);
+    }
+
+    @Override
+    double adjust(double hitRate, double previousHitRate, long maximum) {
+      double gradient = gradient(hitRate, previousHitRate);
+      velocity = (BETA_1 * velocity) + (1 - BETA_1) * gradient;
+      return stepSize(maximum) * velocity;
+    }
+  }
+
+  /** Stochastic gradient descent with Nesterov's accelerated momentum. */
+  static final class Nesterov extends Climber {
+    double velocity;
+
+    Nesterov() {
+      super(GRADIENT_PERCENT_PIVOT, GRADIENT_PERCENT_SAMPLE);
+    }
+
+    @Override
+    double adjust(double hitRate, double previousHitRate, long maximum) {
+      double gradient = gradient(hitRate, previousHitRate);
+      double previousVelocity = velocity;
+      velocity = (BETA_1 * velocity) + stepSize(maximum) * gradient;
+      return -(BETA_1 * previousVelocity) + ((1 + BETA_1) * velocity);
+    }
+  }
+
+  /** Adaptive Moment Estimation, which adds adaptive learning rates to momentum. */
+  static final class Adam extends Climber {
+    double moment;
+    double velocity;
+    int t;
+
+    Adam() {
+      super(GRADIENT_PERCENT_PIVOT, GRADIENT_PERCENT_SAMPLE);
+    }
+
+    @Override
+    double adjust(double hitRate, double previousHitRate, long maximum) {
+      t++;
+      double gradient = gradient(hitRate, previousHitRate);
+      moment = (BETA_1 * moment) + ((1 - BETA_1) * gradient);
+      velocity = (BETA_2 * velocity) + ((1 - BETA_2) * (gradient * gradient));
+
+      double momentBias = moment / (1 - Math.pow(BETA_1, t));
+      double velocityBias = velocity / (1 - Math.pow(BETA_2, t));
+      return (stepSize(maximum) * momentBias) / (Math.sqrt(velocityBias) + EPSILON);
+    }
+  }
+
+  /** Adam with Nesterov's accelerated momentum. */
+  static final class Nadam extends Climber {
+    double moment;
+    double velocity;
+    int t;
+
+    Nadam() {
+      super(GRADIENT_PERCENT_PIVOT, GRADIENT_PERCENT_SAMPLE);
+    }
+
+    @Override
+    double adjust(double hitRate, double previousHitRate, long maximum) {
+      t++;
+      double gradient = gradient(hitRate, previousHitRate);
+      moment = (BETA_1 * moment) + ((1 - BETA_1) * gradient);
+      velocity = (BETA_2 * velocity) + ((1 - BETA_2) * (gradient * gradient));
+
+      double momentBias = moment / (1 - Math.pow(BETA_1, t));
+      double velocityBias = velocity / (1 - Math.pow(BETA_2, t));
+      return (stepSize(maximum) / (Math.sqrt(velocityBias) + EPSILON))
+          * ((BETA_1 * momentBias) + (((1 - BETA_1) / (1 - Math.pow(BETA_1, t))) * gradient));
+    }
+  }
+
+  /** Adam using the maximum of past velocities, which avoids an overly large learning rate. */
+  static final class AmsGrad extends Climber {
+    double maxVelocity;
+    double velocity;
+    double moment;
+
+    AmsGrad() {
+      super(GRADIENT_PERCENT_PIVOT, GRADIENT_PERCENT_SAMPLE);
+    }
+
+    @Override
+    double adjust(double hitRate, double previousHitRate, long maximum) {
+      double gradient = gradient(hitRate, previousHitRate);
+      moment = (BETA_1 * moment) + ((1 - BETA_1) * gradient);
+      velocity = (BETA_2 * velocity) + ((1 - BETA_2) * (gradient * gradient));
+      maxVelocity = Math.max(velocity, maxVelocity);
+      return (stepSize(maximum) * moment) / (Math.sqrt(maxVelocity) + EPSILON);
+    }
+  }
+
+  /**
+   * A hill climber that occasionally accepts a worse configuration, with a probability that cools
+   * off along with the step size, and that restarts when the hit rate drops sharply.
+   */
+  static final class SimulatedAnnealing extends Climber {
+    /** The multiple of the maximum size to sample before adapting. */
+    static final double PERCENT_SAMPLE = 10.0d;
+    /** The rate at which the temperature cools off. */
+    static final double COOL_DOWN_RATE = 0.9d;
+    /** The temperature at which the climber stops adapting. */
+    static final double MIN_TEMPERATURE = 0.00001d;
+    /** The drop in the hit rate that restarts the climber. */
+    static final double RESTART_TOLERANCE = 0.03d;
+
+    boolean increaseWindow;
+    double temperature;
+    double stepSize;
+
+    SimulatedAnnealing() {
+      super(BoundedLocalCache.HILL_CLIMBER_STEP_PERCENT, PERCENT_SAMPLE);
+      temperature = -1.0;
+    }
+
+    @Override
+    double adjust(double hitRate, double previousHitRate, long maximum) {
+      if ((temperature < 0.0) || ((previousHitRate - hitRate) >= RESTART_TOLERANCE)) {
+        stepSize = stepSize(maximum);
+        temperature = 1.0;
+      }
+      if (temperature <= MIN_TEMPERATURE) {
+        return 0.0;
+      }
+
+      double criteria = ThreadLocalRandom.current().nextGaussian();
+      double acceptanceProbability = Math.exp((hitRate - previousHitRate) / temperature);
+      if ((hitRate < previousHitRate) && (acceptanceProbability <= criteria)) {
+        increaseWindow = !increaseWindow;
+        stepSize = Math.max(stepSize - 1, 0);
+      }
+      if (hitRate < previousHitRate) {
+        temperature = COOL_DOWN_RATE * temperature;
+        stepSize = 1 + (stepSize * temperature);
+      }
+      return increaseWindow ? stepSize : -stepSize;
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+/**
+ * An {@link AsyncCacheLoader} that coalesces the loads of individual keys into bulk loads. A
+ * request is buffered until either the batch is full or the oldest request has waited for the
+ * maximum delay, at which point the batch is sent to the delegate as a single
+ * {@link AsyncCacheLoader#asyncLoadAll} call. This allows independent misses, such as by different
+ * request threads, to be served by a single call to the backing resource.
+ * <p>
+ * Each key's future is completed with the value loaded for it, with {@code null} if the delegate
+ * did not return a value for the key, or exceptionally if the bulk load failed. The delay is
+ * enforced by the scheduler, which is usually the one given to {@link Caffeine#scheduler}.
+ * <p>
+ * Usage example:
+ * <pre>{@code
+ *   Scheduler scheduler = Scheduler.systemScheduler();
+ *   AsyncLoadingCache<Key, Graph> cache = Caffeine.newBuilder()
+ *       .scheduler(scheduler)
+ *       .buildAsync(CoalescingBulkLoader.of(
+ *           graphLoader, scheduler, 100, Duration.ofMillis(10)));
+ * }</pre>
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public final class CoalescingBulkLoader<K, V> implements AsyncCacheLoader<K, V> {
+  static final Logger logger = Logger.getLogger(CoalescingBulkLoader.class.getName());
+
+  /*
+   * The pending requests are accumulated in a map so that a key that is requested again before
+   * the batch is sent will share the outstanding future. When the first request is added to an
+   * empty batch, a flush is scheduled to be performed after the delay. A batch is identified by a
+   * sequence number so that a stale scheduled flush does not send a newer batch prematurely. The
+   * cache's pacer is not used because its tolerance of about a second is far coarser than the
+   * delays that are useful for coalescing.
+   */
+
+  final AsyncCacheLoader<K, V> delegate;
+  final int maximumBatchSize;
+  final Scheduler scheduler;
+  final long maximumDelay;
+
+  @GuardedBy("this")
+  Map<K, CompletableFuture<V>> pending;
+  @GuardedBy("this")
+  long batchId;
+
+  CoalescingBulkLoader(AsyncCacheLoader<K, V> delegate, Scheduler scheduler,
+      int maximumBatchSize, long maximumDelay) {
+    this.scheduler = requireNonNull(scheduler);
+    this.delegate = requireNonNull(delegate);
+    this.maximumBatchSize = maximumBatchSize;
+    this.maximumDelay = maximumDelay;
+    this.pending = new LinkedHashMap<>();
+  }
+
+  /**
+   * Returns a loader that coalesces the loads of individual keys into calls to the delegate's
+   * {@link AsyncCacheLoader#asyncLoadAll}.
+   *
+   * @param delegate the loader that retrieves the values in bulk
+   * @param scheduler the scheduler that sends a batch once its maximum delay has elapsed
+   * @param maximumBatchSize the maximum number of keys to load in a single call
+   * @param maximumDelay the maximum duration that a key may wait before its batch is loaded
+   * @param <K> the type of keys
+   * @param <V> the type of values
+   * @return a loader that batches the individual loads
+   * @throws IllegalArgumentException if the delegate does not override {@code asyncLoadAll} or
+   *         {@code loadAll}, if the scheduler is disabled, if the batch size is not positive, or
+   *         if the delay is negative
+   */
+  public static @NonNull <K, V> CoalescingBulkLoader<K, V> of(
+      @NonNull AsyncCacheLoader<K, V> delegate, @NonNull Scheduler scheduler,
+      int maximumBatchSize, @NonNull Duration maximumDelay) {
+    requireArgument(LocalAsyncLoadingCache.canBulkLoad(delegate),
+        "loader must support bulk loading");
+    requireArgument(scheduler != Scheduler.disabledScheduler(),
+        "scheduler is required to bound the delay");
+    requireArgument(maximumBatchSize > 0,
+        "maximum batch size must be positive: %s", maximumBatchSize);
+    requireArgument(!maximumDelay.isNegative(),
+        "maximum delay must not be negative: %s", maximumDelay);
+    return new CoalescingBulkLoader<>(delegate, scheduler,
+        maximumBatchSize, Caffeine.saturatedToNanos(maximumDelay));
+  }
+
+  /** Returns the number of keys waiting to be sent to the delegate. */
+  synchronized int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Returns a future for the key's value, which is loaded as part of a batch. The future completes
+   * with {@code null} if the delegate did not return a value for the key.
+   */
+  @Override
+  public CompletableFuture<V> asyncLoad(K key, Executor executor) {
+    requireNonNull(key);
+    requireNonNull(executor);
+
+    Map<K, CompletableFuture<V>> batch = null;
+    CompletableFuture<V> future;
+    long scheduledId = -1;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        scheduledId = batchId;
+      }
+      future = pending.get(key);
+      if (future == null) {
+        future = new CompletableFuture<>();
+        pending.put(key, future);
+      }
+      if (pending.size() >= maximumBatchSize) {
+        batch = takeBatch();
+      }
+    }
+
+    if (batch != null) {
+      load(batch, executor);
+    } else if (scheduledId >= 0) {
+      long id = scheduledId;
+      try {
+        scheduler.schedule(executor, () -> flush(id, executor),
+            maximumDelay, TimeUnit.NANOSECONDS);
+      } catch (Throwable t) {
+        logger.log(Level.WARNING, "Exception thrown when scheduling a bulk load", t);
+        flush(id, executor);
+      }
+    }
+    return future;
+  }
+
+  /** Loads the keys directly, as they are already a batch. */
+  @Override
+  public CompletableFuture<Map<K, V>> asyncLoadAll(
+      Iterable<? extends K> keys, Executor executor) {
+    return delegate.asyncLoadAll(keys, executor);
+  }
+
+  /** Sends the batch to the delegate if it has not been sent already. */
+  void flush(long id, Executor executor) {
+    Map<K, CompletableFuture<V>> batch;
+    synchronized (this) {
+      if ((id != batchId) || pending.isEmpty()) {
+        return;
+      }
+      batch = takeBatch();
+    }
+    load(batch, executor);
+  }
+
+  /** Removes the pending requests so that subsequent requests are added to a new batch. */
+  @GuardedBy("this")
+  private Map<K, CompletableFuture<V>> takeBatch() {
+    Map<K, CompletableFuture<V>> batch = pending;
+    pending = new LinkedHashMap<>();
+    batchId++;
+    return batch;
+  }
+
+  /** Performs the bulk load and completes each of the batch's futures with its result. */
+  void load(Map<K, CompletableFuture<V>> batch, Executor executor) {
+    try {
+      @SuppressWarnings("NullAway")
+      CompletableFuture<Map<K, V>> result = delegate.asyncLoadAll(
+          Collections.unmodifiableSet(batch.keySet()), executor);
+      result.whenComplete((values, error) -> RefreshBatcher.complete(batch, values, error));
+    } catch (Throwable t) {
+      RefreshBatcher.complete(batch, null, t);
+    }
+  }
+}
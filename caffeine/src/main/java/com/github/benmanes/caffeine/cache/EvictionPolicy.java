@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import org.checkerframework.checker.index.qual.NonNegative;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A page replacement policy that decides which entry to evict when a size-bounded cache exceeds
+ * its maximum, replacing the default Window TinyLfu policy. The policy is informed of the cache's
+ * activity by the maintenance work that replays the read and write buffers, so it observes the
+ * operations in batches and possibly out of order, and is only invoked while the cache holds its
+ * eviction lock. An implementation therefore does not need to be thread-safe, but should be fast
+ * as it delays the maintenance of the cache.
+ * <p>
+ * A read that is dropped by the lossy read buffer is not reported to the policy, and an update
+ * that does not change the entry's weight may be reported as an access rather than as a write.
+ * The policy may retain the history of keys that are no longer present in the cache, such as the
+ * non-resident entries tracked by LIRS or ARC, but must stop selecting a key as a victim once its
+ * removal has been reported.
+ *
+ * @param <K> the type of keys maintained by the policy
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+public interface EvictionPolicy<K> {
+
+  /**
+   * Records that the entry was read.
+   *
+   * @param key the key represented by the entry
+   */
+  void onAccess(@NonNull K key);
+
+  /**
+   * Records that the entry was inserted into the cache or that its weight was changed. An entry
+   * that is already tracked by the policy should be treated as an update.
+   *
+   * @param key the key represented by the entry
+   * @param weight the weight of the entry
+   */
+  void onWrite(@NonNull K key, @NonNegative int weight);
+
+  /**
+   * Records that the entry was removed from the cache, either explicitly, due to expiration, or as
+   * the victim selected by this policy. A removal may be reported for a key that is not tracked
+   * by the policy, such as when the entry was removed before its insertion was replayed.
+   *
+   * @param key the key represented by the entry
+   */
+  void onRemove(@NonNull K key);
+
+  /**
+   * Returns the key of the entry that should be evicted next. The cache reports the removal if the
+   * entry is evicted, or otherwise reports it as written again and stops evicting until its next
+   * maintenance cycle. An entry with a weight of zero cannot be evicted, so the policy should not
+   * select it. A key that is no longer in the cache is reported as removed, and the policy must
+   * then stop selecting it, as the cache abandons the maintenance cycle's evictions and logs a
+   * warning if too many of the selected keys are absent.
+   *
+   * @return the key of the victim, or {@code null} if the policy does not track any entries
+   */
+  @Nullable
+  K selectVictim();
+}
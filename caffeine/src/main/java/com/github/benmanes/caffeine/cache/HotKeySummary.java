@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.checkerframework.checker.index.qual.NonNegative;
+
+/**
+ * A summary of the most frequently occurring elements within a sliding time window. An element's
+ * count is an upper bound of its occurrences that exceeds them by at most the smallest count that
+ * is being tracked.
+ * <p>
+ * This class is not thread-safe and must be guarded by the caller.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+final class HotKeySummary<E> {
+
+  /*
+   * This class maintains the Space-Saving summary [1], which tracks a fixed number of elements with
+   * a counter each. When an element that is not being tracked occurs and the summary is full, the
+   * element with the smallest count is replaced and the newcomer inherits that count plus one. The
+   * elements whose occurrences exceed the total divided by the capacity are guaranteed to be
+   * tracked, which makes it a good fit for finding the heavy hitters in a skewed stream such as a
+   * cache's reads. The counters are kept in a binary min-heap that is indexed by the counter's
+   * position, so that the smallest counter is found in constant time and an increment restores the
+   * heap's order by sifting the counter downward in logarithmic time.
+   *
+   * The window is approximated by two summaries that each cover half of the window. When a half
+   * has elapsed, the current summary becomes the previous one and a new summary is started, so the
+   * reported counts are the sum of both and cover between half of the window and the full window.
+   *
+   * [1] Efficient Computation of Frequent and Top-k Elements in Data Streams
+   * by A. Metwally, D. Agrawal, and A. El Abbadi, ICDT 2005
+   */
+
+  final int capacity;
+  final long halfWindow;
+  final Ticker ticker;
+
+  SpaceSaving<E> previous;
+  SpaceSaving<E> current;
+  long epochStartTime;
+
+  /**
+   * Creates a summary that tracks the given number of elements.
+   *
+   * @param capacity the maximum number of elements that are tracked in each half of the window
+   * @param window the duration of the sliding window, in nanoseconds
+   * @param ticker the time source
+   */
+  HotKeySummary(int capacity, long window, Ticker ticker) {
+    requireArgument(capacity > 0);
+    requireArgument(window > 0);
+    this.ticker = requireNonNull(ticker);
+    this.halfWindow = Math.max(1, window / 2);
+    this.previous = new SpaceSaving<>(capacity);
+    this.current = new SpaceSaving<>(capacity);
+    this.epochStartTime = ticker.read();
+    this.capacity = capacity;
+  }
+
+  /** Records an occurrence of the element. */
+  void increment(E e) {
+    current.increment(requireNonNull(e));
+  }
+
+  /** Starts a new half of the window if the current one has elapsed. */
+  void advance() {
+    long now = ticker.read();
+    long elapsed = now - epochStartTime;
+    if (elapsed < halfWindow) {
+      return;
+    }
+    previous = (elapsed < 2 * halfWindow) ? current : new SpaceSaving<>(capacity);
+    current = new SpaceSaving<>(capacity);
+    epochStartTime = now;
+  }
+
+  /**
+   * Returns the most frequently occurring elements within the window, mapped to their counts and
+   * ordered from the highest to the lowest count.
+   *
+   * @param limit the maximum number of elements to return
+   * @return an unmodifiable map of the elements to their approximate counts
+   */
+  Map<E, Long> top(@NonNegative int limit) {
+    requireArgument(limit >= 0);
+    advance();
+
+    Map<E, Long> counts = new HashMap<>(2 * (previous.size + current.size));
+    previous.addTo(counts);
+    current.addTo(counts);
+
+    List<Map.Entry<E, Long>> entries = new ArrayList<>(counts.entrySet());
+    entries.sort(Map.Entry.<E, Long>comparingByValue().reversed());
+    int size = Math.min(limit, entries.size());
+    Map<E, Long> top = new LinkedHashMap<>(size);
+    for (int i = 0; i < size; i++) {
+      Map.Entry<E, Long> entry = entries.get(i);
+      top.put(entry.getKey(), entry.getValue());
+    }
+    return Collections.unmodifiableMap(top);
+  }
+
+  /** A Space-Saving summary whose counters are ordered by an indexed min-heap. */
+  static final class SpaceSaving<E> {
+    final Map<E, Counter<E>> counters;
+    final Counter<E>[] heap;
+    int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SpaceSaving(int capacity) {
+      this.counters = new HashMap<>();
+      this.heap = new Counter[capacity];
+    }
+
+    /** Increments the element's counter, replacing the smallest counter if not tracked. */
+    void increment(E e) {
+      Counter<E> counter = counters.get(e);
+      if (counter == null) {
+        if (size < heap.length) {
+          counter = new Counter<>(e, size);
+          counter.count = 1;
+          heap[size++] = counter;
+          counters.put(e, counter);
+          siftUp(counter.index);
+          return;
+        }
+        counter = heap[0];
+        counters.remove(counter.element);
+        counter.element = e;
+        counters.put(e, counter);
+      }
+      counter.count++;
+      siftDown(counter.index);
+    }
+
+    /** Adds the counts of the tracked elements to the map. */
+    void addTo(Map<E, Long> counts) {
+      for (int i = 0; i < size; i++) {
+        counts.merge(heap[i].element, heap[i].count, Long::sum);
+      }
+    }
+
+    /** Restores the heap's order after the counter at the index was added. */
+    void siftUp(int index) {
+      Counter<E> counter = heap[index];
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (heap[parent].count <= counter.count) {
+          break;
+        }
+        heap[index] = heap[parent];
+        heap[index].index = index;
+        index = parent;
+      }
+      heap[index] = counter;
+      counter.index = index;
+    }
+
+    /** Restores the heap's order after the counter at the index was incremented. */
+    void siftDown(int index) {
+      Counter<E> counter = heap[index];
+      for (;;) {
+        int child = (2 * index) + 1;
+        if (child >= size) {
+          break;
+        } else if ((child + 1 < size) && (heap[child + 1].count < heap[child].count)) {
+          child++;
+        }
+        if (counter.count <= heap[child].count) {
+          break;
+        }
+        heap[index] = heap[child];
+        heap[index].index = index;
+        index = child;
+      }
+      heap[index] = counter;
+      counter.index = index;
+    }
+  }
+
+  static final class Counter<E> {
+    E element;
+    long count;
+    int index;
+
+    Counter(E element, int index) {
+      this.element = element;
+      this.index = index;
+    }
+  }
+}
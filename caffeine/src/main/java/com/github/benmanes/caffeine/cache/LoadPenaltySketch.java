@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static com.github.benmanes.caffeine.cache.FrequencySketch.indexOf;
+import static com.github.benmanes.caffeine.cache.FrequencySketch.spread;
+
+import org.checkerframework.checker.index.qual.NonNegative;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * A probabilistic map for estimating the cost of loading an element. The cost is recorded on a
+ * logarithmic scale of 4-bits, where each level doubles the load time of the previous one, and an
+ * aging process periodically halves the costs of all elements.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+final class LoadPenaltySketch<E> {
+
+  /*
+   * This class maintains a 4-bit Count-Max sketch, a variant of the CountMinSketch used by the
+   * FrequencySketch, where a counter retains the maximum level that was recorded into it rather
+   * than an increment. An element's estimated level is the minimum of its four counters, which may
+   * be overestimated by a collision but never underestimated. The counters are located by the same
+   * hashing as the FrequencySketch's. The level of a load time is its base-2 logarithm in units of
+   * 2^20 nanoseconds, about a millisecond, so that the levels span from 1ms to 16s and an
+   * element's penalty can be approximated as 2^level. A load that takes less than a millisecond,
+   * such as from a local store, has a level of zero.
+   *
+   * The counters are aged after a sample of recordings, based on the maximum number of entries in
+   * the cache, by decrementing every non-zero counter. This halves the recorded costs so that an
+   * element whose load time improved, or a counter that was inflated by collisions, fades away.
+   */
+
+  static final long ONE_MASK = 0x1111111111111111L;
+  static final int MILLISECOND_SHIFT = 20;
+  static final int MAX_LEVEL = 15;
+
+  int sampleSize;
+  int tableMask;
+  long[] table;
+  int size;
+
+  /**
+   * Creates a lazily initialized load penalty sketch, requiring {@link #ensureCapacity} be called
+   * when the maximum size of the cache has been determined.
+   */
+  @SuppressWarnings("NullAway.Init")
+  public LoadPenaltySketch() {}
+
+  /**
+   * Initializes and increases the capacity of this <tt>LoadPenaltySketch</tt> instance, if
+   * necessary, to ensure that it can accurately estimate the load penalty of elements given the
+   * maximum size of the cache. This operation forgets all previous costs when resizing.
+   *
+   * @param maximumSize the maximum size of the cache
+   */
+  public void ensureCapacity(@NonNegative long maximumSize) {
+    requireArgument(maximumSize >= 0);
+    int maximum = (int) Math.min(maximumSize, Integer.MAX_VALUE >>> 1);
+    int length = Math.max(1, Caffeine.ceilingPowerOfTwo(Math.max(1, maximum)) >>> 2);
+    if ((table != null) && (table.length >= length)) {
+      return;
+    }
+
+    table = new long[length];
+    tableMask = table.length - 1;
+    sampleSize = (maximumSize == 0) ? 10 : (10 * maximum);
+    if (sampleSize <= 0) {
+      sampleSize = Integer.MAX_VALUE;
+    }
+    size = 0;
+  }
+
+  /** Returns if the sketch has not yet been initialized. */
+  public boolean isNotInitialized() {
+    return (table == null);
+  }
+
+  /**
+   * Returns the estimated level of the element's load time, where each level doubles the load
+   * time of the previous one.
+   *
+   * @param e the element to estimate the load penalty of
+   * @return the estimated level of the load time, from zero if unknown to the maximum (15)
+   */
+  @NonNegative
+  public int level(@NonNull E e) {
+    if (isNotInitialized()) {
+      return 0;
+    }
+
+    int hash = spread(e.hashCode());
+    int start = (hash & 3) << 2;
+    int level = MAX_LEVEL;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i, tableMask);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      level = Math.min(level, count);
+    }
+    return level;
+  }
+
+  /**
+   * Records the time that it took to load the element. The recorded costs of all elements will be
+   * periodically halved when the number of recordings exceeds a threshold.
+   *
+   * @param e the element that was loaded
+   * @param loadTime the time that it took to load the element, in nanoseconds
+   */
+  public void record(@NonNull E e, long loadTime) {
+    if (isNotInitialized()) {
+      return;
+    }
+
+    int level = levelOf(loadTime);
+    int hash = spread(e.hashCode());
+    int start = (hash & 3) << 2;
+    for (int i = 0; i < 4; i++) {
+      raiseAt(indexOf(hash, i, tableMask), start + i, level);
+    }
+    if (++size == sampleSize) {
+      reset();
+    }
+  }
+
+  /** Returns the level of the load time, which is its base-2 logarithm in milliseconds. */
+  static int levelOf(long loadTime) {
+    long millis = Math.max(0L, loadTime) >>> MILLISECOND_SHIFT;
+    return Math.min(MAX_LEVEL, Long.SIZE - Long.numberOfLeadingZeros(millis));
+  }
+
+  /**
+   * Raises the specified counter to the level if it is currently lower.
+   *
+   * @param i the table index (16 counters)
+   * @param j the counter to raise
+   * @param level the recorded level
+   */
+  void raiseAt(int i, int j, int level) {
+    int offset = j << 2;
+    long mask = (0xfL << offset);
+    long current = (table[i] & mask) >>> offset;
+    if (current < level) {
+      table[i] = (table[i] & ~mask) | ((long) level << offset);
+    }
+  }
+
+  /** Decrements every non-zero counter, which halves the recorded load times. */
+  void reset() {
+    for (int i = 0; i < table.length; i++) {
+      long value = table[i];
+      long nonZero = (value | (value >>> 1) | (value >>> 2) | (value >>> 3)) & ONE_MASK;
+      table[i] = value - nonZero;
+    }
+    size = (size >>> 1);
+  }
+}
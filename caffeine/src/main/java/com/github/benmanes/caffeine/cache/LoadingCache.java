@@ -16,6 +16,7 @@
 package com.github.benmanes.caffeine.cache;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
@@ -106,4 +107,36 @@ public interface LoadingCache<K, V> extends Cache<K, V> {
    * @throws NullPointerException if the specified key is null
    */
   void refresh(@NonNull K key);
+
+  /**
+   * Loads a new value for each of the {@code keys}, asynchronously, as a single batch. While the
+   * new values are loading the previous values (if any) will continue to be returned by
+   * {@code get(key)} unless they are evicted. A new value replaces the previous value in the cache
+   * only if the entry was not modified while the batch was in flight; otherwise the new value is
+   * discarded. If an exception is thrown while refreshing then the previous values will remain,
+   * <i>and the exception will be logged (using {@link java.util.logging.Logger})</i> and used to
+   * complete the returned future exceptionally.
+   * <p>
+   * Caches loaded by a {@link CacheLoader} that implements {@link CacheLoader#loadAll} will issue a
+   * single request to {@link CacheLoader#asyncLoadAll} for all of the keys, regardless of whether
+   * they are currently present. A key that is absent from the bulk result is treated as if it was
+   * reloaded to {@code null}, so its entry is removed if unchanged. Caches that do not use a loader
+   * with an optimized bulk load implementation will call {@link CacheLoader#asyncReload} or
+   * {@link CacheLoader#asyncLoad} for each key and complete the returned future when all of the
+   * individual reloads have completed.
+   * <p>
+   * Note that duplicate elements in {@code keys}, as determined by {@link Object#equals}, will be
+   * ignored.
+   *
+   * @param keys the keys whose associated values are to be reloaded
+   * @return the future containing an unmodifiable mapping of keys to the new values that were
+   *         stored in this cache
+   * @throws NullPointerException if the specified collection is null or contains a null element
+   */
+  @NonNull
+  default CompletableFuture<Map<@NonNull K, @NonNull V>> refreshAll(
+      @NonNull Iterable<? extends @NonNull K> keys) {
+    // This method was added & implemented in version 2.9.0
+    throw new UnsupportedOperationException();
+  }
 }
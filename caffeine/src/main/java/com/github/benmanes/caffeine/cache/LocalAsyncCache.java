@@ -65,7 +65,7 @@ interface LocalAsyncCache<K, V> extends AsyncCache<K, V> {
 
   @Override
   default @Nullable CompletableFuture<V> getIfPresent(@NonNull Object key) {
-    return cache().getIfPresent(key, /* recordStats */ true);
+    return cache().getIfPresent(key, /* recordStats */ true, /* servesStale */ true);
   }
 
   @Override
@@ -79,19 +79,20 @@ interface LocalAsyncCache<K, V> extends AsyncCache<K, V> {
   @Override
   default CompletableFuture<V> get(K key,
       BiFunction<? super K, Executor, CompletableFuture<V>> mappingFunction) {
-    return get(key, mappingFunction, /* recordStats */ true);
+    return get(key, mappingFunction, /* recordStats */ true, /* servesStale */ true);
   }
 
   @SuppressWarnings({"FutureReturnValueIgnored", "NullAway"})
   default CompletableFuture<V> get(K key,
-      BiFunction<? super K, Executor, CompletableFuture<V>> mappingFunction, boolean recordStats) {
+      BiFunction<? super K, Executor, CompletableFuture<V>> mappingFunction,
+      boolean recordStats, boolean servesStale) {
     long startTime = cache().statsTicker().read();
     @SuppressWarnings({"unchecked", "rawtypes"})
     CompletableFuture<V>[] result = new CompletableFuture[1];
     CompletableFuture<V> future = cache().computeIfAbsent(key, k -> {
       result[0] = mappingFunction.apply(key, cache().executor());
       return requireNonNull(result[0]);
-    }, recordStats, /* recordLoad */ false);
+    }, recordStats, /* recordLoad */ false, servesStale);
     if (result[0] != null) {
       handleCompletion(key, result[0], startTime, /* recordMiss */ false);
     }
@@ -119,7 +120,7 @@ interface LocalAsyncCache<K, V> extends AsyncCache<K, V> {
       if (futures.containsKey(key)) {
         continue;
       }
-      CompletableFuture<V> future = cache().getIfPresent(key, /* recordStats */ false);
+      CompletableFuture<V> future = cache().getIfPresent(key, /* recordStats */ false, /* servesStale */ false);
       if (future == null) {
         CompletableFuture<V> proxy = new CompletableFuture<>();
         future = cache().putIfAbsent(key, proxy);
@@ -206,6 +207,7 @@ interface LocalAsyncCache<K, V> extends AsyncCache<K, V> {
         // update the weight and expiration timestamps
         cache().replace(key, valueFuture, valueFuture);
         cache().statsCounter().recordLoadSuccess(loadTime);
+        cache().recordLoadPenalty(key, loadTime);
         if (recordMiss) {
           cache().statsCounter().recordMisses(1);
         }
@@ -358,7 +360,7 @@ interface LocalAsyncCache<K, V> extends AsyncCache<K, V> {
       CompletableFuture<V> future = asyncCache.cache().computeIfAbsent(key, k -> {
         result[0] = mappingFunction.apply(k);
         return result[0];
-      }, /* recordStats */ false, /* recordLoad */ false);
+      }, /* recordStats */ false, /* recordLoad */ false, /* servesStale */ false);
 
       if (result[0] == null) {
         if ((future != null) && asyncCache.cache().isRecordingStats()) {
@@ -468,7 +470,8 @@ interface LocalAsyncCache<K, V> extends AsyncCache<K, V> {
 
     @Override
     public @Nullable V getIfPresent(Object key) {
-      CompletableFuture<V> future = asyncCache().cache().getIfPresent(key, /* recordStats */ true);
+      CompletableFuture<V> future = asyncCache().cache().getIfPresent(
+          key, /* recordStats */ true, /* servesStale */ true);
       return Async.getIfReady(future);
     }
 
@@ -18,9 +18,14 @@ package com.github.benmanes.caffeine.cache;
 import static java.util.Objects.requireNonNull;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -50,7 +55,10 @@ abstract class LocalAsyncLoadingCache<K, V>
   }
 
   /** Returns whether the supplied cache loader has bulk load functionality. */
-  private static boolean canBulkLoad(AsyncCacheLoader<?, ?> loader) {
+  static boolean canBulkLoad(AsyncCacheLoader<?, ?> loader) {
+    if (loader instanceof NegativeCachingLoader<?, ?>) {
+      return canBulkLoad(((NegativeCachingLoader<?, ?>) loader).delegate);
+    }
     try {
       Class<?> defaultLoaderClass = AsyncCacheLoader.class;
       if (loader instanceof CacheLoader<?, ?>) {
@@ -94,6 +102,12 @@ abstract class LocalAsyncLoadingCache<K, V>
     return composeResult(result);
   }
 
+  @Override
+  public void put(K key, CompletableFuture<V> valueFuture) {
+    LocalAsyncCache.super.put(key, valueFuture);
+    NegativeCachingLoader.discard(loader, key);
+  }
+
   @Override
   public LoadingCache<K, V> synchronous() {
     return (cacheView == null) ? (cacheView = new LoadingCacheView<>(this)) : cacheView;
@@ -128,16 +142,42 @@ abstract class LocalAsyncLoadingCache<K, V>
       return resolve(asyncCache.getAll(keys));
     }
 
+    @Override
+    public void put(K key, V value) {
+      super.put(key, value);
+      NegativeCachingLoader.discard(asyncCache.loader, key);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+      super.invalidate(key);
+      NegativeCachingLoader.discard(asyncCache.loader, key);
+    }
+
+    @Override
+    public void invalidateAll(Iterable<?> keys) {
+      super.invalidateAll(keys);
+      NegativeCachingLoader.discardAll(asyncCache.loader, keys);
+    }
+
+    @Override
+    public void invalidateAll() {
+      super.invalidateAll();
+      NegativeCachingLoader.discardAll(asyncCache.loader);
+    }
+
     @Override
     @SuppressWarnings("FutureReturnValueIgnored")
     public void refresh(K key) {
       requireNonNull(key);
+      NegativeCachingLoader.discard(asyncCache.loader, key);
 
       long[] writeTime = new long[1];
       CompletableFuture<V> oldValueFuture = asyncCache.cache().getIfPresentQuietly(key, writeTime);
       if ((oldValueFuture == null)
           || (oldValueFuture.isDone() && oldValueFuture.isCompletedExceptionally())) {
-        asyncCache.get(key, asyncCache.loader::asyncLoad, /* recordStats */ false);
+        asyncCache.get(key, asyncCache.loader::asyncLoad,
+            /* recordStats */ false, /* servesStale */ false);
         return;
       } else if (!oldValueFuture.isDone()) {
         // no-op if load is pending
@@ -145,45 +185,180 @@ abstract class LocalAsyncLoadingCache<K, V>
       }
 
       oldValueFuture.thenAccept(oldValue -> {
+        boolean[] refreshed = new boolean[1];
         long now = asyncCache.cache().statsTicker().read();
-        CompletableFuture<V> refreshFuture = (oldValue == null)
-            ? asyncCache.loader.asyncLoad(key, asyncCache.cache().executor())
-            : asyncCache.loader.asyncReload(key, oldValue, asyncCache.cache().executor());
+        Object keyReference = asyncCache.cache().referenceKey(key);
+        @SuppressWarnings("unchecked")
+        CompletableFuture<V> refreshFuture = (CompletableFuture<V>) asyncCache.cache().refreshes()
+            .computeIfAbsent(keyReference, k -> {
+              refreshed[0] = true;
+              return (oldValue == null)
+                  ? asyncCache.loader.asyncLoad(key, asyncCache.cache().executor())
+                  : asyncCache.loader.asyncReload(key, oldValue, asyncCache.cache().executor());
+            });
+        if (!refreshed[0]) {
+          // join the in-flight refresh
+          return;
+        }
+
         refreshFuture.whenComplete((newValue, error) -> {
-          long loadTime = asyncCache.cache().statsTicker().read() - now;
-          if (error != null) {
-            asyncCache.cache().statsCounter().recordLoadFailure(loadTime);
-            logger.log(Level.WARNING, "Exception thrown during refresh", error);
-            return;
-          }
+          try {
+            long loadTime = asyncCache.cache().statsTicker().read() - now;
+            if (error != null) {
+              asyncCache.cache().statsCounter().recordLoadFailure(loadTime);
+              logger.log(Level.WARNING, "Exception thrown during refresh", error);
+              return;
+            }
 
-          boolean[] discard = new boolean[1];
-          asyncCache.cache().compute(key, (k, currentValue) -> {
-            if (currentValue == null) {
-              return (newValue == null) ? null : refreshFuture;
-            } else if (currentValue == oldValueFuture) {
-              long expectedWriteTime = writeTime[0];
-              if (asyncCache.cache().hasWriteTime()) {
-                asyncCache.cache().getIfPresentQuietly(key, writeTime);
-              }
-              if (writeTime[0] == expectedWriteTime) {
+            boolean[] discard = new boolean[1];
+            asyncCache.cache().compute(key, (k, currentValue) -> {
+              if (currentValue == null) {
                 return (newValue == null) ? null : refreshFuture;
+              } else if (currentValue == oldValueFuture) {
+                long expectedWriteTime = writeTime[0];
+                if (asyncCache.cache().hasWriteTime()) {
+                  asyncCache.cache().getIfPresentQuietly(key, writeTime);
+                }
+                if (writeTime[0] == expectedWriteTime) {
+                  return (newValue == null) ? null : refreshFuture;
+                }
               }
+              discard[0] = true;
+              return currentValue;
+            }, /* recordMiss */ false, /* recordLoad */ false, /* recordLoadFailure */ true);
+
+            if (discard[0] && asyncCache.cache().hasRemovalListener()) {
+              asyncCache.cache().notifyRemoval(key, refreshFuture, RemovalCause.REPLACED);
+            }
+            if (newValue == null) {
+              asyncCache.cache().statsCounter().recordLoadFailure(loadTime);
+            } else {
+              asyncCache.cache().statsCounter().recordLoadSuccess(loadTime);
+              asyncCache.cache().recordLoadPenalty(key, loadTime);
             }
-            discard[0] = true;
-            return currentValue;
-          }, /* recordMiss */ false, /* recordLoad */ false, /* recordLoadFailure */ true);
+          } finally {
+            asyncCache.cache().refreshes().remove(keyReference, refreshFuture);
+          }
+        });
+      });
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> refreshAll(Iterable<? extends K> keys) {
+      Set<K> keysToLoad = new LinkedHashSet<>();
+      Map<K, V> oldValues = new HashMap<>();
+      Map<K, Long> writeTimes = new HashMap<>();
+      Map<K, CompletableFuture<V>> oldValueFutures = new HashMap<>();
 
-          if (discard[0] && asyncCache.cache().hasRemovalListener()) {
-            asyncCache.cache().notifyRemoval(key, refreshFuture, RemovalCause.REPLACED);
+      long[] writeTime = new long[1];
+      for (K key : keys) {
+        requireNonNull(key);
+        if (keysToLoad.contains(key) || oldValueFutures.containsKey(key)) {
+          continue;
+        }
+        CompletableFuture<V> oldValueFuture =
+            asyncCache.cache().getIfPresentQuietly(key, writeTime);
+        if (oldValueFuture != null) {
+          oldValueFutures.put(key, oldValueFuture);
+          if (!oldValueFuture.isDone()) {
+            // skip if load is pending
+            continue;
           }
-          if (newValue == null) {
-            asyncCache.cache().statsCounter().recordLoadFailure(loadTime);
-          } else {
-            asyncCache.cache().statsCounter().recordLoadSuccess(loadTime);
+          V oldValue = Async.getIfReady(oldValueFuture);
+          if (oldValue != null) {
+            oldValues.put(key, oldValue);
+            writeTimes.put(key, writeTime[0]);
           }
-        });
+        }
+        keysToLoad.add(key);
+      }
+
+      Map<K, CompletableFuture<V>> registered = new LinkedHashMap<>();
+      Map<K, CompletableFuture<V>> joined = LocalLoadingCache.registerRefreshes(
+          asyncCache.cache(), keysToLoad, registered);
+      if (registered.isEmpty()) {
+        return LocalLoadingCache.joinRefreshes(
+            CompletableFuture.completedFuture(Collections.emptyMap()), joined);
+      }
+
+      NegativeCachingLoader.discardAll(asyncCache.loader, registered.keySet());
+      CompletableFuture<Map<K, V>> reloadFuture;
+      Executor executor = asyncCache.cache().executor();
+      long startTime = asyncCache.cache().statsTicker().read();
+      try {
+        reloadFuture = asyncCache.canBulkLoad
+            ? asyncCache.loader.asyncLoadAll(registered.keySet(), executor)
+            : LocalLoadingCache.reloadSequentially(
+                asyncCache.loader, registered.keySet(), oldValues, executor);
+      } catch (Throwable t) {
+        LocalLoadingCache.completeRefreshes(
+            asyncCache.cache(), registered, /* newValues */ null, t);
+        throw t;
+      }
+
+      CompletableFuture<Map<K, V>> refreshed = reloadFuture.handle((newValues, error) -> {
+        long loadTime = asyncCache.cache().statsTicker().read() - startTime;
+        if ((error == null) && (newValues == null)) {
+          error = new NullPointerException("The bulk reload returned a null map");
+        }
+        if (error != null) {
+          logger.log(Level.WARNING, "Exception thrown during refresh", error);
+          asyncCache.cache().statsCounter().recordLoadFailure(loadTime);
+          LocalLoadingCache.completeRefreshes(
+              asyncCache.cache(), registered, /* newValues */ null, error);
+          throw (error instanceof CompletionException)
+              ? (CompletionException) error
+              : new CompletionException(error);
+        }
+        asyncCache.cache().statsCounter().recordLoadSuccess(loadTime);
+
+        Map<K, V> stored = new LinkedHashMap<>(registered.size());
+        for (K key : registered.keySet()) {
+          V newValue = newValues.get(key);
+          Long expectedWriteTime = writeTimes.get(key);
+          boolean replaced = replaceIfUnchanged(key, oldValueFutures.get(key),
+              (expectedWriteTime == null) ? 0L : expectedWriteTime, newValue);
+          if (replaced && (newValue != null)) {
+            stored.put(key, newValue);
+          }
+        }
+        LocalLoadingCache.completeRefreshes(
+            asyncCache.cache(), registered, newValues, /* error */ null);
+        return stored;
       });
+      return LocalLoadingCache.joinRefreshes(refreshed, joined);
+    }
+
+    /**
+     * Stores the reloaded value if the entry was not modified while the reload was in flight, and
+     * otherwise discards it.
+     */
+    boolean replaceIfUnchanged(K key, @Nullable CompletableFuture<V> oldValueFuture,
+        long writeTime, @Nullable V newValue) {
+      long[] currentWriteTime = { writeTime };
+      boolean[] discard = new boolean[1];
+      CompletableFuture<V> newValueFuture = (newValue == null)
+          ? null
+          : CompletableFuture.completedFuture(newValue);
+      asyncCache.cache().compute(key, (k, currentValue) -> {
+        if (currentValue == null) {
+          return newValueFuture;
+        } else if (currentValue == oldValueFuture) {
+          if (asyncCache.cache().hasWriteTime()) {
+            asyncCache.cache().getIfPresentQuietly(key, currentWriteTime);
+          }
+          if (currentWriteTime[0] == writeTime) {
+            return newValueFuture;
+          }
+        }
+        discard[0] = true;
+        return currentValue;
+      }, /* recordMiss */ false, /* recordLoad */ false, /* recordLoadFailure */ true);
+
+      if (discard[0] && (newValueFuture != null) && asyncCache.cache().hasRemovalListener()) {
+        asyncCache.cache().notifyRemoval(key, newValueFuture, RemovalCause.REPLACED);
+      }
+      return !discard[0];
     }
   }
 }
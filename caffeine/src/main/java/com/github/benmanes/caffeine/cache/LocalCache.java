@@ -15,11 +15,19 @@
  */
 package com.github.benmanes.caffeine.cache;
 
+import static java.util.Objects.requireNonNull;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -33,6 +41,7 @@ import com.github.benmanes.caffeine.cache.stats.StatsCounter;
  * @author ben.manes@gmail.com (Ben Manes)
  */
 interface LocalCache<K, V> extends ConcurrentMap<K, V> {
+  Logger logger = Logger.getLogger(LocalCache.class.getName());
 
   /** Returns whether this cache has statistics enabled. */
   boolean isRecordingStats();
@@ -49,6 +58,15 @@ interface LocalCache<K, V> extends ConcurrentMap<K, V> {
   /** Asynchronously sends a removal notification to the listener. */
   void notifyRemoval(@Nullable K key, @Nullable V value, RemovalCause cause);
 
+  /** Returns the {@link CacheWriter} used by this cache. */
+  @NonNull CacheWriter<K, V> writer();
+
+  /** Returns whether the writer overrides {@link CacheWriter#writeAll}. */
+  boolean writesAll();
+
+  /** Returns whether the writer overrides {@link CacheWriter#deleteAll}. */
+  boolean deletesAll();
+
   /** Returns the {@link Executor} used by this cache. */
   @NonNull Executor executor();
 
@@ -61,15 +79,22 @@ interface LocalCache<K, V> extends ConcurrentMap<K, V> {
   /** Returns the {@link Ticker} used by this cache for statistics. */
   @NonNull Ticker statsTicker();
 
+  /** Returns the in-flight refreshes, keyed by the {@link #referenceKey} of the entry. */
+  @NonNull ConcurrentMap<Object, CompletableFuture<?>> refreshes();
+
+  /** Returns the key that identifies the entry, as compared by the cache's key equivalence. */
+  @NonNull Object referenceKey(@NonNull K key);
+
   /** See {@link Cache#estimatedSize()}. */
   long estimatedSize();
 
   /**
-   * See {@link Cache#getIfPresent(Object)}. This method differs by accepting a parameter of whether
-   * to record the hit and miss statistics based on the success of this operation.
+   * See {@link Cache#getIfPresent(Object)}. This method differs by accepting parameters of whether
+   * to record the hit and miss statistics based on the success of this operation, and whether an
+   * entry that expired after write may be served during its stale-while-revalidate grace period.
    */
   @Nullable
-  V getIfPresent(@NonNull Object key, boolean recordStats);
+  V getIfPresent(@NonNull Object key, boolean recordStats, boolean servesStale);
 
   /**
    * See {@link Cache#getIfPresent(Object)}. This method differs by not recording the access with
@@ -89,6 +114,39 @@ interface LocalCache<K, V> extends ConcurrentMap<K, V> {
   @Nullable
   V put(@NonNull K key, @NonNull V value, boolean notifyWriter);
 
+  /**
+   * See {@link ConcurrentMap#remove(Object, Object)}. This method differs by allowing the operation
+   * to not notify the writer when an entry was removed.
+   */
+  boolean remove(@NonNull Object key, @Nullable Object value, boolean notifyWriter);
+
+  /**
+   * Copies the mappings into the cache. If the writer can write in bulk then it is notified of the
+   * changed mappings by a single call prior to their insertion, otherwise of each as it is inserted.
+   */
+  default void putAllWithWriter(Map<? extends K, ? extends V> map) {
+    if (!writesAll()) {
+      map.forEach(this::put);
+      return;
+    }
+
+    // Capture the mappings that change the cache, as an individual write skips the writer when the
+    // value is already present
+    long[] writeTime = new long[1];
+    Map<K, V> changed = new LinkedHashMap<>();
+    map.forEach((key, value) -> {
+      requireNonNull(key);
+      requireNonNull(value);
+      if (getIfPresentQuietly(key, writeTime) != value) {
+        changed.put(key, value);
+      }
+    });
+    if (!changed.isEmpty()) {
+      writer().writeAll(Collections.unmodifiableMap(changed));
+    }
+    map.forEach((key, value) -> put(key, value, /* notifyWriter */ false));
+  }
+
   @Override
   default @Nullable V compute(K key,
       BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
@@ -105,26 +163,60 @@ interface LocalCache<K, V> extends ConcurrentMap<K, V> {
 
   @Override
   default @Nullable V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
-    return computeIfAbsent(key, mappingFunction, /* recordStats */ true, /* recordLoad */ true);
+    return computeIfAbsent(key, mappingFunction, /* recordStats */ true,
+        /* recordLoad */ true, /* servesStale */ false);
   }
 
   /**
    * See {@link ConcurrentMap#computeIfAbsent}. This method differs by accepting parameters
-   * indicating how to record statistics.
+   * indicating how to record statistics, and whether an entry that expired after write may be
+   * served during its stale-while-revalidate grace period instead of being recomputed.
    */
   @Nullable V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction,
-      boolean recordStats, boolean recordLoad);
+      boolean recordStats, boolean recordLoad, boolean servesStale);
 
   /** See {@link Cache#invalidateAll(Iterable)}. */
   default void invalidateAll(Iterable<?> keys) {
+    if (!deletesAll()) {
+      for (Object key : keys) {
+        remove(key);
+      }
+      return;
+    }
+
+    // Capture the live entries so that the writer is notified of their removal in a single call,
+    // while any absent, expired, or collected entry is discarded individually as before. The bulk
+    // removal is not atomic, as an entry is removed afterwards only if it is still mapped to the
+    // value that the writer was given, so a concurrent update is retained.
+    long[] writeTime = new long[1];
+    Map<K, V> present = new LinkedHashMap<>();
     for (Object key : keys) {
-      remove(key);
+      V value = getIfPresentQuietly(key, writeTime);
+      if (value == null) {
+        remove(key);
+      } else {
+        @SuppressWarnings("unchecked")
+        K castKey = (K) key;
+        present.put(castKey, value);
+      }
     }
+    if (present.isEmpty()) {
+      return;
+    }
+
+    writer().deleteAll(Collections.unmodifiableMap(present), RemovalCause.EXPLICIT);
+    present.forEach((key, value) -> remove(key, value, /* notifyWriter */ false));
   }
 
   /** See {@link Cache#cleanUp}. */
   void cleanUp();
 
+  /**
+   * Records the time that it took to load the value for the key, which is used to estimate the
+   * penalty of evicting the entry.
+   */
+  default void recordLoadPenalty(Object key, long loadTime) {}
+
   /** Decorates the remapping function to record statistics if enabled. */
   default <T, R> Function<? super T, ? extends R> statsAware(
       Function<? super T, ? extends R> mappingFunction, boolean recordLoad) {
@@ -147,6 +239,7 @@ interface LocalCache<K, V> extends ConcurrentMap<K, V> {
           statsCounter().recordLoadFailure(loadTime);
         } else {
           statsCounter().recordLoadSuccess(loadTime);
+          recordLoadPenalty(key, loadTime);
         }
       }
       return value;
@@ -192,4 +285,26 @@ interface LocalCache<K, V> extends ConcurrentMap<K, V> {
       return result;
     };
   }
+
+  /** Returns whether the writer overrides {@link CacheWriter#writeAll}, which is reflective. */
+  static boolean hasWriteAll(CacheWriter<?, ?> writer) {
+    return overrides(writer, "writeAll", Map.class);
+  }
+
+  /** Returns whether the writer overrides {@link CacheWriter#deleteAll}, which is reflective. */
+  static boolean hasDeleteAll(CacheWriter<?, ?> writer) {
+    return overrides(writer, "deleteAll", Map.class, RemovalCause.class);
+  }
+
+  /** Returns whether the writer's class overrides the interface's default method. */
+  static boolean overrides(CacheWriter<?, ?> writer, String name, Class<?>... parameterTypes) {
+    try {
+      Method classMethod = writer.getClass().getMethod(name, parameterTypes);
+      Method defaultMethod = CacheWriter.class.getMethod(name, parameterTypes);
+      return !classMethod.equals(defaultMethod);
+    } catch (NoSuchMethodException | SecurityException e) {
+      logger.log(Level.WARNING, "Cannot determine if CacheWriter can bulk write", e);
+      return false;
+    }
+  }
 }
@@ -19,12 +19,14 @@ import static java.util.Objects.requireNonNull;
 
 import java.lang.reflect.Method;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,7 +53,8 @@ interface LocalLoadingCache<K, V> extends LocalManualCache<K, V>, LoadingCache<K
 
   @Override
   default @Nullable V get(K key) {
-    return cache().computeIfAbsent(key, mappingFunction());
+    return cache().computeIfAbsent(key, mappingFunction(),
+        /* recordStats */ true, /* recordLoad */ true, /* servesStale */ true);
   }
 
   @Override
@@ -87,51 +90,271 @@ interface LocalLoadingCache<K, V> extends LocalManualCache<K, V>, LoadingCache<K
     return Collections.unmodifiableMap(result);
   }
 
+  @Override
+  default void put(K key, V value) {
+    cache().put(key, value);
+    NegativeCachingLoader.discard(cacheLoader(), key);
+  }
+
+  @Override
+  default void putAll(Map<? extends K, ? extends V> map) {
+    cache().putAll(map);
+    NegativeCachingLoader.discardAll(cacheLoader(), map.keySet());
+  }
+
+  @Override
+  default void invalidate(Object key) {
+    cache().remove(key);
+    NegativeCachingLoader.discard(cacheLoader(), key);
+  }
+
+  @Override
+  default void invalidateAll(Iterable<?> keys) {
+    cache().invalidateAll(keys);
+    NegativeCachingLoader.discardAll(cacheLoader(), keys);
+  }
+
+  @Override
+  default void invalidateAll() {
+    cache().clear();
+    NegativeCachingLoader.discardAll(cacheLoader());
+  }
+
   @Override
   @SuppressWarnings("FutureReturnValueIgnored")
   default void refresh(K key) {
     requireNonNull(key);
+    NegativeCachingLoader.discard(cacheLoader(), key);
 
     long[] writeTime = new long[1];
+    boolean[] refreshed = new boolean[1];
     long startTime = cache().statsTicker().read();
+    Object keyReference = cache().referenceKey(key);
     V oldValue = cache().getIfPresentQuietly(key, writeTime);
-    CompletableFuture<V> refreshFuture = (oldValue == null)
-        ? cacheLoader().asyncLoad(key, cache().executor())
-        : cacheLoader().asyncReload(key, oldValue, cache().executor());
+    @SuppressWarnings("unchecked")
+    CompletableFuture<V> refreshFuture = (CompletableFuture<V>) cache().refreshes()
+        .computeIfAbsent(keyReference, k -> {
+          refreshed[0] = true;
+          return (oldValue == null)
+              ? cacheLoader().asyncLoad(key, cache().executor())
+              : cacheLoader().asyncReload(key, oldValue, cache().executor());
+        });
+    if (!refreshed[0]) {
+      // join the in-flight refresh
+      return;
+    }
+
     refreshFuture.whenComplete((newValue, error) -> {
+      try {
+        long loadTime = cache().statsTicker().read() - startTime;
+        if (error != null) {
+          logger.log(Level.WARNING, "Exception thrown during refresh", error);
+          cache().statsCounter().recordLoadFailure(loadTime);
+          return;
+        }
+
+        replaceIfUnchanged(key, oldValue, writeTime[0], newValue);
+        if (newValue == null) {
+          cache().statsCounter().recordLoadFailure(loadTime);
+        } else {
+          cache().statsCounter().recordLoadSuccess(loadTime);
+          cache().recordLoadPenalty(key, loadTime);
+        }
+      } finally {
+        cache().refreshes().remove(keyReference, refreshFuture);
+      }
+    });
+  }
+
+  @Override
+  default CompletableFuture<Map<K, V>> refreshAll(Iterable<? extends K> keys) {
+    Set<K> uniqueKeys = new LinkedHashSet<>();
+    for (K key : keys) {
+      uniqueKeys.add(requireNonNull(key));
+    }
+
+    Map<K, CompletableFuture<V>> registered = new LinkedHashMap<>();
+    Map<K, CompletableFuture<V>> joined = registerRefreshes(cache(), uniqueKeys, registered);
+    if (registered.isEmpty()) {
+      return joinRefreshes(CompletableFuture.completedFuture(Collections.emptyMap()), joined);
+    }
+
+    long[] writeTime = new long[1];
+    Map<K, V> oldValues = new HashMap<>();
+    Map<K, Long> writeTimes = new HashMap<>();
+    for (K key : registered.keySet()) {
+      V oldValue = cache().getIfPresentQuietly(key, writeTime);
+      if (oldValue != null) {
+        oldValues.put(key, oldValue);
+        writeTimes.put(key, writeTime[0]);
+      }
+    }
+
+    NegativeCachingLoader.discardAll(cacheLoader(), registered.keySet());
+    CompletableFuture<Map<K, V>> reloadFuture;
+    long startTime = cache().statsTicker().read();
+    try {
+      @SuppressWarnings("unchecked")
+      CacheLoader<K, V> loader = (CacheLoader<K, V>) cacheLoader();
+      reloadFuture = (bulkMappingFunction() == null)
+          ? reloadSequentially(loader, registered.keySet(), oldValues, cache().executor())
+          : loader.asyncLoadAll(registered.keySet(), cache().executor());
+    } catch (Throwable t) {
+      completeRefreshes(cache(), registered, /* newValues */ null, t);
+      throw t;
+    }
+
+    CompletableFuture<Map<K, V>> refreshed = reloadFuture.handle((newValues, error) -> {
       long loadTime = cache().statsTicker().read() - startTime;
+      if ((error == null) && (newValues == null)) {
+        error = new NullPointerException("The bulk reload returned a null map");
+      }
       if (error != null) {
         logger.log(Level.WARNING, "Exception thrown during refresh", error);
         cache().statsCounter().recordLoadFailure(loadTime);
-        return;
+        completeRefreshes(cache(), registered, /* newValues */ null, error);
+        throw (error instanceof CompletionException)
+            ? (CompletionException) error
+            : new CompletionException(error);
       }
+      cache().statsCounter().recordLoadSuccess(loadTime);
 
-      boolean[] discard = new boolean[1];
-      cache().compute(key, (k, currentValue) -> {
-        if (currentValue == null) {
+      Map<K, V> stored = new LinkedHashMap<>(registered.size());
+      for (K key : registered.keySet()) {
+        V newValue = newValues.get(key);
+        Long expectedWriteTime = writeTimes.get(key);
+        boolean replaced = replaceIfUnchanged(key, oldValues.get(key),
+            (expectedWriteTime == null) ? 0L : expectedWriteTime, newValue);
+        if (replaced && (newValue != null)) {
+          stored.put(key, newValue);
+        }
+      }
+      completeRefreshes(cache(), registered, newValues, /* error */ null);
+      return stored;
+    });
+    return joinRefreshes(refreshed, joined);
+  }
+
+  /**
+   * Stores the reloaded value if the entry was not modified while the reload was in flight, and
+   * otherwise discards it.
+   *
+   * @param key the key whose value was reloaded
+   * @param oldValue the value that was reloaded, or null if absent
+   * @param writeTime the write time of the value that was reloaded
+   * @param newValue the reloaded value, or null if the mapping should be removed
+   * @return if the reloaded value was stored
+   */
+  default boolean replaceIfUnchanged(K key,
+      @Nullable V oldValue, long writeTime, @Nullable V newValue) {
+    long[] currentWriteTime = { writeTime };
+    boolean[] discard = new boolean[1];
+    cache().compute(key, (k, currentValue) -> {
+      if (currentValue == null) {
+        return newValue;
+      } else if (currentValue == oldValue) {
+        if (cache().hasWriteTime()) {
+          cache().getIfPresentQuietly(key, currentWriteTime);
+        }
+        if (currentWriteTime[0] == writeTime) {
           return newValue;
-        } else if (currentValue == oldValue) {
-          long expectedWriteTime = writeTime[0];
-          if (cache().hasWriteTime()) {
-            cache().getIfPresentQuietly(key, writeTime);
-          }
-          if (writeTime[0] == expectedWriteTime) {
-            return newValue;
-          }
         }
-        discard[0] = true;
-        return currentValue;
-      }, /* recordMiss */ false, /* recordLoad */ false, /* recordLoadFailure */ true);
+      }
+      discard[0] = true;
+      return currentValue;
+    }, /* recordMiss */ false, /* recordLoad */ false, /* recordLoadFailure */ true);
+
+    if (discard[0] && cache().hasRemovalListener()) {
+      cache().notifyRemoval(key, newValue, RemovalCause.REPLACED);
+    }
+    return !discard[0];
+  }
+
+  /**
+   * Reloads each entry individually and returns a future of the combined results, which fails if
+   * any of the reloads fail.
+   */
+  static <K, V> CompletableFuture<Map<K, V>> reloadSequentially(
+      AsyncCacheLoader<? super K, V> loader, Set<K> keys, Map<K, V> oldValues, Executor executor) {
+    Map<K, CompletableFuture<V>> futures = new LinkedHashMap<>(keys.size());
+    for (K key : keys) {
+      V oldValue = oldValues.get(key);
+      CompletableFuture<V> future = (oldValue == null)
+          ? loader.asyncLoad(key, executor)
+          : loader.asyncReload(key, oldValue, executor);
+      futures.put(key, requireNonNull(future));
+    }
+    return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> {
+          Map<K, V> result = new HashMap<>(futures.size());
+          futures.forEach((key, future) -> {
+            V value = future.join();
+            if (value != null) {
+              result.put(key, value);
+            }
+          });
+          return result;
+        });
+  }
 
-      if (discard[0] && cache().hasRemovalListener()) {
-        cache().notifyRemoval(key, newValue, RemovalCause.REPLACED);
+  /**
+   * Registers an in-flight refresh for each of the keys that is not already being refreshed. The
+   * placeholder futures of the registered keys are added to {@code registered} and the in-flight
+   * refreshes of the remaining keys are returned so that they may be joined.
+   */
+  static <K, V> Map<K, CompletableFuture<V>> registerRefreshes(LocalCache<K, ?> cache,
+      Set<K> keys, Map<K, CompletableFuture<V>> registered) {
+    Map<K, CompletableFuture<V>> joined = new LinkedHashMap<>();
+    for (K key : keys) {
+      CompletableFuture<V> placeholder = new CompletableFuture<>();
+      @SuppressWarnings("unchecked")
+      CompletableFuture<V> inFlight = (CompletableFuture<V>) cache.refreshes()
+          .putIfAbsent(cache.referenceKey(key), placeholder);
+      if (inFlight == null) {
+        registered.put(key, placeholder);
+      } else {
+        joined.put(key, inFlight);
       }
-      if (newValue == null) {
-        cache().statsCounter().recordLoadFailure(loadTime);
+    }
+    return joined;
+  }
+
+  /** Completes the registered placeholder futures and removes them from the in-flight refreshes. */
+  static <K, V> void completeRefreshes(LocalCache<K, ?> cache,
+      Map<K, CompletableFuture<V>> registered,
+      @Nullable Map<K, V> newValues, @Nullable Throwable error) {
+    for (Map.Entry<K, CompletableFuture<V>> entry : registered.entrySet()) {
+      cache.refreshes().remove(cache.referenceKey(entry.getKey()), entry.getValue());
+      if (newValues == null) {
+        entry.getValue().completeExceptionally(requireNonNull(error));
       } else {
-        cache().statsCounter().recordLoadSuccess(loadTime);
+        entry.getValue().complete(newValues.get(entry.getKey()));
       }
-    });
+    }
+  }
+
+  /**
+   * Returns a future of the unmodifiable combination of the values stored by this batch and the
+   * values loaded by the joined in-flight refreshes. A joined refresh that fails or loads a
+   * {@code null} value is omitted, as its failure is handled by the operation that started it.
+   */
+  static <K, V> CompletableFuture<Map<K, V>> joinRefreshes(
+      CompletableFuture<Map<K, V>> refreshed, Map<K, CompletableFuture<V>> joined) {
+    if (joined.isEmpty()) {
+      return refreshed.thenApply(Collections::unmodifiableMap);
+    }
+    CompletableFuture<?>[] futures = joined.values().toArray(new CompletableFuture<?>[0]);
+    return refreshed.thenCombine(CompletableFuture.allOf(futures).handle((r, e) -> null),
+        (stored, ignored) -> {
+          Map<K, V> result = new LinkedHashMap<>(stored);
+          joined.forEach((key, future) -> {
+            V value = Async.getIfReady(future);
+            if (value != null) {
+              result.put(key, value);
+            }
+          });
+          return Collections.unmodifiableMap(result);
+        });
   }
 
   /** Returns a mapping function that adapts to {@link CacheLoader#load}. */
@@ -174,6 +397,10 @@ interface LocalLoadingCache<K, V> extends LocalManualCache<K, V>, LoadingCache<K
 
   /** Returns whether the supplied cache loader has bulk load functionality. */
   static boolean hasLoadAll(CacheLoader<?, ?> loader) {
+    if (loader instanceof NegativeCachingLoader<?, ?>) {
+      AsyncCacheLoader<?, ?> delegate = ((NegativeCachingLoader<?, ?>) loader).delegate;
+      return (delegate instanceof CacheLoader<?, ?>) && hasLoadAll((CacheLoader<?, ?>) delegate);
+    }
     try {
       Method classLoadAll = loader.getClass().getMethod("loadAll", Iterable.class);
       Method defaultLoadAll = CacheLoader.class.getMethod("loadAll", Iterable.class);
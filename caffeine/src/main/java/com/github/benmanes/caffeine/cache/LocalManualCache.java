@@ -54,12 +54,13 @@ interface LocalManualCache<K, V> extends Cache<K, V> {
 
   @Override
   default @Nullable V getIfPresent(Object key) {
-    return cache().getIfPresent(key, /* recordStats */ true);
+    return cache().getIfPresent(key, /* recordStats */ true, /* servesStale */ true);
   }
 
   @Override
   default @Nullable V get(K key, Function<? super K, ? extends V> mappingFunction) {
-    return cache().computeIfAbsent(key, mappingFunction);
+    return cache().computeIfAbsent(key, mappingFunction,
+        /* recordStats */ true, /* recordLoad */ true, /* servesStale */ true);
   }
 
   @Override
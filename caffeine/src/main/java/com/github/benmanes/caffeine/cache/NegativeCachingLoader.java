@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.BoundedLocalCache.MAXIMUM_EXPIRY;
+import static java.util.Objects.requireNonNull;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A loader that remembers the keys whose load returned no value or failed, so that these keys are
+ * not loaded again until their negative entry has expired. The negative entries are held in a
+ * separate cache that is bounded by its own maximum size.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class NegativeCachingLoader<K, V> implements CacheLoader<K, V>, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /*
+   * A negative entry records either that the load returned null, in which case it expires after
+   * the configured duration, or that the load failed. A failure's entry records the number of
+   * consecutive failures and the time when the key may be loaded again. It is retained for the
+   * maximum backoff delay beyond that time so that if the next attempt also fails then its delay
+   * is doubled, rather than restarting from the initial delay. The entries are retained only in
+   * memory, so a serialized cache is recreated with this decorator but without its entries.
+   *
+   * The cache discards a key's negative entry when the key is explicitly written, invalidated, or
+   * refreshed through the Cache and LoadingCache interfaces, so that a value which was created by
+   * other means is observed. A remembered failure is replayed by wrapping it in a new exception,
+   * as the callers may otherwise concurrently modify the shared instance's suppressed exceptions.
+   */
+
+  final AsyncCacheLoader<? super K, V> delegate;
+  final long maximumNegativeSize;
+  final long expireAfterAbsentNanos;
+  final long initialBackoffNanos;
+  final long maximumBackoffNanos;
+
+  final transient Cache<K, NegativeEntry> negatives;
+  final transient Ticker ticker;
+
+  NegativeCachingLoader(AsyncCacheLoader<? super K, V> delegate, Caffeine<?, ?> builder) {
+    this.delegate = requireNonNull(delegate);
+    this.maximumNegativeSize = builder.maximumNegativeSize;
+    this.expireAfterAbsentNanos = Math.min(builder.expireAfterAbsentNanos, MAXIMUM_EXPIRY);
+    this.initialBackoffNanos = builder.backsOffFailures()
+        ? Math.min(builder.initialBackoffNanos, MAXIMUM_EXPIRY)
+        : 0L;
+    this.maximumBackoffNanos = builder.backsOffFailures()
+        ? Math.min(builder.maximumBackoffNanos, MAXIMUM_EXPIRY)
+        : 0L;
+    this.ticker = (builder.ticker == null) ? Ticker.systemTicker() : builder.ticker;
+    this.negatives = Caffeine.newBuilder()
+        .expireAfter(new NegativeExpiry<K>())
+        .maximumSize(maximumNegativeSize)
+        .executor(builder.getExecutor())
+        .ticker(ticker)
+        .build();
+  }
+
+  /** Discards the key's negative entry if the loader remembers the absent or failed loads. */
+  static void discard(AsyncCacheLoader<?, ?> loader, Object key) {
+    if (loader instanceof NegativeCachingLoader<?, ?>) {
+      ((NegativeCachingLoader<?, ?>) loader).negatives.invalidate(key);
+    }
+  }
+
+  /** Discards the keys' negative entries if the loader remembers the absent or failed loads. */
+  static void discardAll(AsyncCacheLoader<?, ?> loader, Iterable<?> keys) {
+    if (loader instanceof NegativeCachingLoader<?, ?>) {
+      ((NegativeCachingLoader<?, ?>) loader).negatives.invalidateAll(keys);
+    }
+  }
+
+  /** Discards all of the negative entries if the loader remembers the absent or failed loads. */
+  static void discardAll(AsyncCacheLoader<?, ?> loader) {
+    if (loader instanceof NegativeCachingLoader<?, ?>) {
+      ((NegativeCachingLoader<?, ?>) loader).negatives.invalidateAll();
+    }
+  }
+
+  /** Returns the number of negative entries that are retained. */
+  long negativeCount() {
+    negatives.cleanUp();
+    return negatives.estimatedSize();
+  }
+
+  @Override
+  public @Nullable V load(K key) throws Exception {
+    NegativeEntry negative = getActive(key);
+    if (negative != null) {
+      return negative.replay();
+    }
+
+    @SuppressWarnings("unchecked")
+    CacheLoader<? super K, V> loader = (CacheLoader<? super K, V>) delegate;
+    V value;
+    try {
+      value = loader.load(key);
+    } catch (Exception e) {
+      recordFailure(key, e);
+      throw e;
+    }
+    record(key, value);
+    return value;
+  }
+
+  @Override
+  public CompletableFuture<V> asyncLoad(K key, Executor executor) {
+    NegativeEntry negative = getActive(key);
+    if (negative != null) {
+      return negative.toFuture();
+    }
+    return delegate.asyncLoad(key, executor).whenComplete((value, error) -> {
+      if (error == null) {
+        record(key, value);
+      } else {
+        recordFailure(key, error);
+      }
+    });
+  }
+
+  @Override
+  public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+    Set<K> keysToLoad = keysToLoad(keys);
+    if (keysToLoad.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    CacheLoader<K, V> loader = (CacheLoader<K, V>) delegate;
+    Map<K, V> result;
+    try {
+      result = loader.loadAll(keysToLoad);
+    } catch (Exception e) {
+      recordFailures(keysToLoad, e);
+      throw e;
+    }
+    recordAll(keysToLoad, result);
+    return result;
+  }
+
+  @Override
+  public CompletableFuture<Map<K, V>> asyncLoadAll(
+      Iterable<? extends K> keys, Executor executor) {
+    Set<K> keysToLoad;
+    try {
+      keysToLoad = keysToLoad(keys);
+    } catch (Exception e) {
+      CompletableFuture<Map<K, V>> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    if (keysToLoad.isEmpty()) {
+      return CompletableFuture.completedFuture(Collections.emptyMap());
+    }
+
+    @SuppressWarnings("unchecked")
+    AsyncCacheLoader<K, V> loader = (AsyncCacheLoader<K, V>) delegate;
+    return loader.asyncLoadAll(keysToLoad, executor).whenComplete((result, error) -> {
+      if (error == null) {
+        recordAll(keysToLoad, result);
+      } else {
+        recordFailures(keysToLoad, error);
+      }
+    });
+  }
+
+  @Override
+  public V reload(K key, V oldValue) throws Exception {
+    @SuppressWarnings("unchecked")
+    CacheLoader<? super K, V> loader = (CacheLoader<? super K, V>) delegate;
+    return loader.reload(key, oldValue);
+  }
+
+  @Override
+  public CompletableFuture<V> asyncReload(K key, V oldValue, Executor executor) {
+    return delegate.asyncReload(key, oldValue, executor);
+  }
+
+  /**
+   * Returns the keys that do not have an active negative entry.
+   *
+   * @throws CompletionException wrapping the most recent failure of a key that is waiting for its
+   *         backoff delay
+   */
+  Set<K> keysToLoad(Iterable<? extends K> keys) {
+    Set<K> keysToLoad = new LinkedHashSet<>();
+    for (K key : keys) {
+      NegativeEntry negative = getActive(key);
+      if (negative == null) {
+        keysToLoad.add(key);
+      } else {
+        negative.replay();
+      }
+    }
+    return keysToLoad;
+  }
+
+  /** Returns the key's negative entry if the key should not be loaded, or null if it should. */
+  @Nullable NegativeEntry getActive(K key) {
+    NegativeEntry negative = negatives.getIfPresent(key);
+    if ((negative == null) || (negative.error == null)) {
+      return negative;
+    }
+    return (ticker.read() - negative.retryTime < 0) ? negative : null;
+  }
+
+  /** Records the outcome of a load that completed normally. */
+  void record(K key, @Nullable V value) {
+    if ((value == null) && (expireAfterAbsentNanos > 0)) {
+      negatives.put(key, new NegativeEntry(null, 0, 0L, expireAfterAbsentNanos));
+    } else {
+      negatives.invalidate(key);
+    }
+  }
+
+  /** Records the outcome of a bulk load that completed normally. */
+  void recordAll(Set<K> keysToLoad, @Nullable Map<K, V> result) {
+    for (K key : keysToLoad) {
+      record(key, (result == null) ? null : result.get(key));
+    }
+  }
+
+  /** Records the failures of a bulk load. */
+  void recordFailures(Set<K> keysToLoad, Throwable error) {
+    for (K key : keysToLoad) {
+      recordFailure(key, error);
+    }
+  }
+
+  /** Records that the load failed, so that the key is not loaded again until its delay elapses. */
+  void recordFailure(K key, Throwable error) {
+    Throwable cause = ((error instanceof CompletionException) && (error.getCause() != null))
+        ? error.getCause()
+        : error;
+    if ((initialBackoffNanos == 0) || !(cause instanceof Exception)) {
+      negatives.invalidate(key);
+      return;
+    }
+    long now = ticker.read();
+    negatives.asMap().compute(key, (k, prior) -> {
+      int failures = ((prior == null) || (prior.error == null))
+          ? 1
+          : Math.min(prior.failures, Integer.MAX_VALUE - 1) + 1;
+      long delay = backoff(failures);
+      return new NegativeEntry((Exception) cause, failures, now + delay,
+          delay + maximumBackoffNanos);
+    });
+  }
+
+  /** Returns the delay after the consecutive failures, which doubles with each failure. */
+  long backoff(int failures) {
+    int shift = failures - 1;
+    if (shift >= Long.numberOfLeadingZeros(initialBackoffNanos) - 1) {
+      return maximumBackoffNanos;
+    }
+    return Math.min(initialBackoffNanos << shift, maximumBackoffNanos);
+  }
+
+  /** A remembered absence or failure of a key's load. */
+  static final class NegativeEntry {
+    @Nullable final Exception error;
+    final long retryTime;
+    final long duration;
+    final int failures;
+
+    NegativeEntry(@Nullable Exception error, int failures, long retryTime, long duration) {
+      this.retryTime = retryTime;
+      this.failures = failures;
+      this.duration = duration;
+      this.error = error;
+    }
+
+    /**
+     * Returns null if the value is absent, or otherwise throws a {@link CompletionException} whose
+     * cause is the failure.
+     */
+    <V> @Nullable V replay() {
+      if (error != null) {
+        throw new CompletionException(error);
+      }
+      return null;
+    }
+
+    /**
+     * Returns a future that completes with null if the value is absent, or otherwise with a
+     * {@link CompletionException} whose cause is the failure.
+     */
+    <V> CompletableFuture<V> toFuture() {
+      CompletableFuture<V> future = new CompletableFuture<>();
+      if (error == null) {
+        future.complete(null);
+      } else {
+        future.completeExceptionally(new CompletionException(error));
+      }
+      return future;
+    }
+  }
+
+  /** Expires each negative entry after the duration that it specifies. */
+  static final class NegativeExpiry<K> implements Expiry<K, NegativeEntry> {
+    @Override
+    public long expireAfterCreate(K key, NegativeEntry negative, long currentTime) {
+      return negative.duration;
+    }
+    @Override
+    public long expireAfterUpdate(K key, NegativeEntry negative,
+        long currentTime, long currentDuration) {
+      return negative.duration;
+    }
+    @Override
+    public long expireAfterRead(K key, NegativeEntry negative,
+        long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
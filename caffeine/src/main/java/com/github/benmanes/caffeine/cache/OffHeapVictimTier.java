@@ -0,0 +1,290 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.nio.ByteBuffer;
+
+import org.checkerframework.checker.index.qual.NonNegative;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+/**
+ * A second-level store for the entries that were evicted from the cache due to its size constraint.
+ * The values are serialized into direct memory so that a much larger number of entries may be
+ * retained without increasing the garbage collector's workload.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+final class OffHeapVictimTier<K, V> {
+
+  /*
+   * The tier is a log-structured store that appends records into a ring of fixed sized slabs. When
+   * the current slab is full then the next slab is recycled, discarding all of the records that it
+   * holds, and becomes the write target. This provides FIFO eviction of the victims with an O(1)
+   * insertion cost and without fragmentation. A record is laid out as a 4-byte length followed by
+   * the serialized value.
+   *
+   * The keys are retained on-heap in an index that maps to the record's address, which is the slab
+   * number in the upper 32-bits and the offset within that slab in the lower 32-bits. The index is
+   * an open-addressed hash table of parallel key and address arrays that uses linear probing and
+   * backward shift deletion, so an entry costs a key reference and an unboxed address in slots
+   * that are at most half full. That is roughly 24 bytes per entry with compressed references, in
+   * addition to the key itself. When a slab is recycled the table is scanned to discard the index
+   * entries that point into it, which is amortized over the slab's worth of writes. A promotion
+   * removes the key from the index, leaving the stale record to be reclaimed when its slab is
+   * recycled.
+   *
+   * The number of indexed entries is bounded so that a tier of many small records cannot grow the
+   * heap without limit. When the bound is reached the oldest slab is recycled early to make room.
+   *
+   * The slabs are allocated lazily as they become the write target so that a lightly used tier
+   * does not reserve its maximum capacity eagerly.
+   */
+
+  /** The maximum size, in bytes, of a slab. */
+  static final int MAXIMUM_SLAB_SIZE = 1 << 22; // 4 MiB
+  /** The number of bytes used by a record's header. */
+  static final int HEADER_SIZE = Integer.BYTES;
+  /** The maximum number of entries that the index retains on-heap. */
+  static final int MAXIMUM_INDEX_SIZE = 1 << 24;
+  /** The initial number of slots in the index. */
+  static final int INITIAL_INDEX_CAPACITY = 16;
+
+  final Serializer<V> serializer;
+  final int maximumIndexSize;
+  final int slabSize;
+
+  @GuardedBy("this")
+  final @Nullable ByteBuffer[] slabs;
+  @GuardedBy("this")
+  @Nullable Object[] keys;
+  @GuardedBy("this")
+  long[] addresses;
+  @GuardedBy("this")
+  int current;
+  @GuardedBy("this")
+  int size;
+
+  OffHeapVictimTier(@NonNegative long maximumBytes, Serializer<V> serializer) {
+    this(maximumBytes, MAXIMUM_INDEX_SIZE, serializer);
+  }
+
+  OffHeapVictimTier(@NonNegative long maximumBytes,
+      @NonNegative int maximumIndexSize, Serializer<V> serializer) {
+    requireArgument(maximumBytes > HEADER_SIZE);
+    requireArgument(maximumIndexSize > 0);
+    this.serializer = requireNonNull(serializer);
+    this.slabSize = (int) Math.min(maximumBytes, MAXIMUM_SLAB_SIZE);
+
+    // Every record holds at least its header, so the slabs can never index more than this
+    this.maximumIndexSize = (int) Math.min(maximumIndexSize, maximumBytes / HEADER_SIZE);
+
+    int slabCount = (int) Math.min(Integer.MAX_VALUE, (maximumBytes + slabSize - 1) / slabSize);
+    this.slabs = new ByteBuffer[slabCount];
+    this.keys = new Object[INITIAL_INDEX_CAPACITY];
+    this.addresses = new long[INITIAL_INDEX_CAPACITY];
+  }
+
+  /** Returns the approximate number of entries held by the tier. */
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Stores the victim, possibly discarding the oldest entries to make room for it.
+   *
+   * @param key the key of the evicted entry
+   * @param value the value of the evicted entry
+   * @return if the entry was retained
+   */
+  boolean offer(K key, V value) {
+    byte[] bytes = serializer.serialize(value);
+    int recordSize = HEADER_SIZE + bytes.length;
+    if ((recordSize < 0) || (recordSize > slabSize)) {
+      return false;
+    }
+
+    synchronized (this) {
+      ByteBuffer slab = slabs[current];
+      if (slab == null) {
+        slab = recycle(current);
+      } else if (slab.remaining() < recordSize) {
+        slab = recycle((current + 1) % slabs.length);
+      }
+      remove(key);
+      while (size >= maximumIndexSize) {
+        slab = recycle((current + 1) % slabs.length);
+      }
+      long address = (((long) current) << 32) | slab.position();
+      slab.putInt(bytes.length).put(bytes);
+      insert(key, address);
+    }
+    return true;
+  }
+
+  /**
+   * Removes and returns the victim's value so that it may be promoted back into the cache.
+   *
+   * @param key the key whose associated value is to be returned
+   * @return the value to which the specified key is mapped, or {@code null} if absent
+   */
+  @Nullable V poll(Object key) {
+    byte[] bytes;
+    synchronized (this) {
+      int slot = indexOf(key);
+      if (slot < 0) {
+        return null;
+      }
+      long address = addresses[slot];
+      delete(slot);
+
+      ByteBuffer slab = requireNonNull(slabs[(int) (address >>> 32)]);
+      int offset = (int) address;
+      bytes = new byte[slab.getInt(offset)];
+      ByteBuffer record = slab.duplicate();
+      record.position(offset + HEADER_SIZE);
+      record.get(bytes);
+    }
+    return serializer.deserialize(bytes);
+  }
+
+  /** Discards the victim, if present, because the cache's mapping has superseded it. */
+  synchronized void invalidate(Object key) {
+    remove(key);
+  }
+
+  /** Discards all of the victims. */
+  synchronized void clear() {
+    keys = new Object[INITIAL_INDEX_CAPACITY];
+    addresses = new long[INITIAL_INDEX_CAPACITY];
+    size = 0;
+    for (ByteBuffer slab : slabs) {
+      if (slab != null) {
+        slab.clear();
+      }
+    }
+  }
+
+  /** Discards the contents of the slab and returns it as the target for subsequent writes. */
+  @GuardedBy("this")
+  private ByteBuffer recycle(int slabIndex) {
+    for (int i = 0; i < keys.length;) {
+      // A deletion shifts a later entry into the slot, so it is examined again
+      if ((keys[i] != null) && ((int) (addresses[i] >>> 32) == slabIndex)) {
+        delete(i);
+      } else {
+        i++;
+      }
+    }
+
+    ByteBuffer slab = slabs[slabIndex];
+    if (slab == null) {
+      slab = ByteBuffer.allocateDirect(slabSize);
+      slabs[slabIndex] = slab;
+    } else {
+      slab.clear();
+    }
+    current = slabIndex;
+    return slab;
+  }
+
+  /** Returns the slot that holds the key, or {@code -1} if absent. */
+  @GuardedBy("this")
+  private int indexOf(Object key) {
+    int mask = keys.length - 1;
+    for (int i = spread(key.hashCode()) & mask; keys[i] != null; i = (i + 1) & mask) {
+      if (key.equals(keys[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Removes the key from the index, if present. */
+  @GuardedBy("this")
+  private void remove(Object key) {
+    int slot = indexOf(key);
+    if (slot >= 0) {
+      delete(slot);
+    }
+  }
+
+  /** Adds the absent key to the index, growing the table to keep it at most half full. */
+  @GuardedBy("this")
+  private void insert(Object key, long address) {
+    if ((2 * (size + 1)) > keys.length) {
+      resize(2 * keys.length);
+    }
+    int mask = keys.length - 1;
+    int i = spread(key.hashCode()) & mask;
+    while (keys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    addresses[i] = address;
+    size++;
+  }
+
+  /** Empties the slot and shifts the entries that probed past it back towards their home slot. */
+  @GuardedBy("this")
+  private void delete(int slot) {
+    int mask = keys.length - 1;
+    int hole = slot;
+    for (int i = (hole + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+      int home = spread(keys[i].hashCode()) & mask;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        keys[hole] = keys[i];
+        addresses[hole] = addresses[i];
+        hole = i;
+      }
+    }
+    keys[hole] = null;
+    size--;
+  }
+
+  /** Rehashes the entries into a table of the given number of slots. */
+  @GuardedBy("this")
+  private void resize(int capacity) {
+    @Nullable Object[] oldKeys = keys;
+    long[] oldAddresses = addresses;
+    keys = new Object[capacity];
+    addresses = new long[capacity];
+
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object key = oldKeys[j];
+      if (key != null) {
+        int i = spread(key.hashCode()) & mask;
+        while (keys[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        addresses[i] = oldAddresses[j];
+      }
+    }
+  }
+
+  /** Applies a supplemental hash function to defend against a poor quality hash. */
+  static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
@@ -15,11 +15,14 @@
  */
 package com.github.benmanes.caffeine.cache;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.checkerframework.checker.index.qual.NonNegative;
@@ -61,6 +64,46 @@ public interface Policy<K, V> {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Returns an unmodifiable snapshot {@link Map} view of the in-flight refresh operations. A
+   * refresh that is started by {@link LoadingCache#refresh}, {@link LoadingCache#refreshAll}, or an
+   * automatic refresh due to {@link Caffeine#refreshAfterWrite} is shared by the other refresh
+   * operations for the same key, which join the in-flight future rather than loading again.
+   *
+   * @return a snapshot view of the in-flight refresh operations
+   */
+  @NonNull
+  default Map<@NonNull K, @NonNull CompletableFuture<V>> refreshes() {
+    // This method was added & implemented in version 2.9.0
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Writes the cache's entries to a memory-mapped file so that a new cache may be warmed by
+   * {@link Caffeine#restoreFrom}. The entries are written from the hottest to the coldest, as
+   * determined by the size-based eviction policy when used, or by the access order if the cache
+   * expires after access. A size-bounded cache also writes its popularity history so that the
+   * restored cache does not have to relearn which entries are worth retaining. The file is
+   * replaced only after the snapshot was written successfully.
+   * <p>
+   * The snapshot captures the entries at a point in time and is not a consistent view if the cache
+   * is concurrently modified. The file is limited to 2 GiB, so when the entries would exceed this
+   * limit the coldest ones are omitted. Beware that obtaining the mappings is <em>NOT</em> a
+   * constant-time operation.
+   *
+   * @param path the file to write the snapshot to
+   * @param keySerializer the serializer used to convert the keys to their binary form
+   * @param valueSerializer the serializer used to convert the values to their binary form
+   * @return the number of entries written
+   * @throws IOException if an I/O error occurs while writing the file
+   * @throws NullPointerException if any of the arguments are null
+   */
+  default long snapshotTo(@NonNull Path path, @NonNull Serializer<K> keySerializer,
+      @NonNull Serializer<V> valueSerializer) throws IOException {
+    // This method was added & implemented in version 2.9.0
+    throw new UnsupportedOperationException();
+  }
+
   /**
    * Returns access to perform operations based on the maximum size or maximum weight eviction
    * policy. If the cache was not constructed with a size-based bound or the implementation does
@@ -131,6 +174,19 @@ public interface Policy<K, V> {
   @NonNull
   Optional<Expiration<K, V>> refreshAfterWrite();
 
+  /**
+   * Returns access to the keys that were read most frequently within a recent time window. If the
+   * cache was not constructed with {@link Caffeine#recordHotKeys} or the implementation does not
+   * support these operations, an empty {@link Optional} is returned.
+   *
+   * @return access to the most frequently read keys if they are being recorded
+   */
+  @NonNull
+  default Optional<HotKeys<K>> hotKeys() {
+    // This method was added & implemented in version 2.9.0
+    return Optional.empty();
+  }
+
   /** The low-level operations for a cache with a size-based eviction policy. */
   interface Eviction<K, V> {
 
@@ -222,6 +278,28 @@ public interface Policy<K, V> {
     Map<@NonNull K, @NonNull V> hottest(@NonNegative int limit);
   }
 
+  /** The operations for a cache that records the keys that are read most frequently. */
+  interface HotKeys<K> {
+
+    /**
+     * Returns an unmodifiable snapshot {@link Map} of the keys that were read most frequently
+     * within the recent time window, mapped to their approximate number of reads. The order of
+     * iteration is from the most to the least frequently read key. A key's count may overestimate
+     * its reads by up to the count of the least frequently read key that is being tracked, and the
+     * window is approximated by the reads since the start of the previous half of the window.
+     * <p>
+     * The keys are tracked by a summary of a fixed size that is updated as the reads are applied to
+     * the eviction policy, so obtaining the snapshot requires only copying that summary. A key may
+     * be reported even if it is no longer present in the cache.
+     *
+     * @param limit the maximum size of the returned map (use {@link Integer#MAX_VALUE} to disregard
+     *        the limit)
+     * @return a snapshot of the most frequently read keys, from the hottest to the coldest
+     */
+    @NonNull
+    Map<@NonNull K, @NonNull Long> top(@NonNegative int limit);
+  }
+
   /** The low-level operations for a cache with a fixed expiration policy. */
   interface Expiration<K, V> { // To be renamed FixedExpiration in version 3.0.0
 
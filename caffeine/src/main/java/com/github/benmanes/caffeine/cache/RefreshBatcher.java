@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.checkerframework.checker.index.qual.NonNegative;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.github.benmanes.caffeine.cache.BoundedLocalCache.BoundedLocalAsyncLoadingCache;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+/**
+ * Coalesces the automatic refreshes of individual entries into bulk loads. A reload request is
+ * buffered until either the batch is full or the oldest request has waited for the maximum delay,
+ * at which point the batch is sent to the loader as a single {@link CacheLoader#asyncLoadAll}
+ * call.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+final class RefreshBatcher<K, V> {
+  static final Logger logger = Logger.getLogger(RefreshBatcher.class.getName());
+
+  /*
+   * The pending requests are accumulated in a map so that a key that is requested again before
+   * the batch is sent will share the outstanding future. When the first request is added to an
+   * empty batch, a flush is scheduled to be performed after the delay. As the scheduler is
+   * optional, the cache's maintenance will also send a batch whose delay has elapsed. A batch is
+   * identified by a sequence number so that a stale scheduled flush does not send a newer batch
+   * prematurely.
+   */
+
+  final CacheLoader<K, V> loader;
+  final Scheduler scheduler;
+  final Executor executor;
+  final long maximumDelay;
+  final int maximumSize;
+
+  @GuardedBy("this")
+  Map<K, CompletableFuture<V>> pending;
+  @GuardedBy("this")
+  long startTime;
+  @GuardedBy("this")
+  long batchId;
+
+  RefreshBatcher(CacheLoader<K, V> loader, Executor executor, Scheduler scheduler,
+      @NonNegative int maximumSize, @NonNegative long maximumDelay) {
+    requireArgument(maximumSize > 0);
+    requireArgument(maximumDelay >= 0);
+    this.scheduler = requireNonNull(scheduler);
+    this.executor = requireNonNull(executor);
+    this.loader = requireNonNull(loader);
+    this.pending = new LinkedHashMap<>();
+    this.maximumDelay = maximumDelay;
+    this.maximumSize = maximumSize;
+  }
+
+  /** Returns whether the loader can load the batched keys in a single call. */
+  static boolean canBulkLoad(CacheLoader<?, ?> loader) {
+    return (loader instanceof BoundedLocalAsyncLoadingCache.AsyncLoader<?, ?>)
+        ? LocalAsyncLoadingCache.canBulkLoad(
+            ((BoundedLocalAsyncLoadingCache.AsyncLoader<?, ?>) loader).loader)
+        : LocalAsyncLoadingCache.canBulkLoad(loader);
+  }
+
+  /** Returns the number of reloads waiting to be sent to the loader. */
+  synchronized int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Returns a future for the key's new value, which is loaded as part of a batch. The future
+   * completes with {@code null} if the loader did not return a value for the key.
+   *
+   * @param key the key whose value should be reloaded
+   * @param now the current time, in nanoseconds
+   * @return the future that will be completed with the reloaded value
+   */
+  CompletableFuture<V> reload(K key, long now) {
+    Map<K, CompletableFuture<V>> batch = null;
+    CompletableFuture<V> future;
+    long scheduledId = -1;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        startTime = now;
+        scheduledId = batchId;
+      }
+      future = pending.get(key);
+      if (future == null) {
+        future = new CompletableFuture<>();
+        pending.put(key, future);
+      }
+      if ((pending.size() >= maximumSize) || ((now - startTime) >= maximumDelay)) {
+        batch = takeBatch();
+      }
+    }
+
+    if (batch != null) {
+      load(batch);
+    } else if (scheduledId >= 0) {
+      long id = scheduledId;
+      scheduler.schedule(executor, () -> flush(id), maximumDelay, TimeUnit.NANOSECONDS);
+    }
+    return future;
+  }
+
+  /**
+   * Sends the pending batch to the loader if its oldest request has waited for the maximum delay.
+   *
+   * @param now the current time, in nanoseconds
+   */
+  void flushIfDue(long now) {
+    Map<K, CompletableFuture<V>> batch;
+    synchronized (this) {
+      if (pending.isEmpty() || ((now - startTime) < maximumDelay)) {
+        return;
+      }
+      batch = takeBatch();
+    }
+    try {
+      executor.execute(() -> load(batch));
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Exception thrown when submitting refresh batch", t);
+      load(batch);
+    }
+  }
+
+  /** Sends the batch to the loader if it has not been sent already. */
+  void flush(long id) {
+    Map<K, CompletableFuture<V>> batch;
+    synchronized (this) {
+      if ((id != batchId) || pending.isEmpty()) {
+        return;
+      }
+      batch = takeBatch();
+    }
+    load(batch);
+  }
+
+  /** Removes the pending requests so that subsequent requests are added to a new batch. */
+  @GuardedBy("this")
+  private Map<K, CompletableFuture<V>> takeBatch() {
+    Map<K, CompletableFuture<V>> batch = pending;
+    pending = new LinkedHashMap<>();
+    batchId++;
+    return batch;
+  }
+
+  /** Performs the bulk load and completes each of the batch's futures with its result. */
+  void load(Map<K, CompletableFuture<V>> batch) {
+    try {
+      @SuppressWarnings("NullAway")
+      CompletableFuture<Map<K, V>> result = loader.asyncLoadAll(batch.keySet(), executor);
+      result.whenComplete((values, error) -> complete(batch, values, error));
+    } catch (Throwable t) {
+      complete(batch, null, t);
+    }
+  }
+
+  /** Completes the futures with the loaded values or with the failure. */
+  static <K, V> void complete(Map<K, CompletableFuture<V>> batch,
+      @Nullable Map<K, V> values, @Nullable Throwable error) {
+    Throwable failure = ((values == null) && (error == null))
+        ? new NullPointerException("asyncLoadAll returned a null map")
+        : error;
+    for (Map.Entry<K, CompletableFuture<V>> entry : batch.entrySet()) {
+      if ((failure == null) && (values != null)) {
+        entry.getValue().complete(values.get(entry.getKey()));
+      } else {
+        entry.getValue().completeExceptionally(failure);
+      }
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A notification of the removal of a single entry, as delivered to a {@link BatchRemovalListener}.
+ * The key and/or value may be {@code null} if they were already garbage collected.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public final class RemovalNotification<K, V> extends SimpleImmutableEntry<K, V> {
+  private static final long serialVersionUID = 1L;
+
+  private final RemovalCause cause;
+
+  private RemovalNotification(@Nullable K key, @Nullable V value, RemovalCause cause) {
+    super(key, value);
+    this.cause = requireNonNull(cause);
+  }
+
+  /**
+   * Returns a notification of the removal of the entry for the specified reason.
+   *
+   * @param key the key represented by this entry, or {@code null} if collected
+   * @param value the value represented by this entry, or {@code null} if collected
+   * @param cause the reason for which the entry was removed
+   * @param <K> the type of the key
+   * @param <V> the type of the value
+   * @return a notification of the entry's removal
+   */
+  @NonNull
+  public static <K, V> RemovalNotification<K, V> of(
+      @Nullable K key, @Nullable V value, @NonNull RemovalCause cause) {
+    return new RemovalNotification<>(key, value, cause);
+  }
+
+  /**
+   * Returns the reason for which the entry was removed.
+   *
+   * @return the reason for which the entry was removed
+   */
+  @NonNull
+  public RemovalCause getCause() {
+    return cause;
+  }
+
+  /**
+   * Returns {@code true} if there was an automatic removal due to eviction (the cause is neither
+   * {@link RemovalCause#EXPLICIT} nor {@link RemovalCause#REPLACED}).
+   *
+   * @return if the entry was automatically removed due to eviction
+   */
+  public boolean wasEvicted() {
+    return cause.wasEvicted();
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Accumulates the removal notifications of a cache so that they are delivered to a
+ * {@link BatchRemovalListener} in chunks by a single task. This adapts the batch listener to the
+ * cache's {@link RemovalListener} so that the existing notification sites are unchanged, while the
+ * cache may defer the delivery until the end of a maintenance cycle.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+final class RemovalNotificationBatcher<K, V> implements RemovalListener<K, V>, Runnable,
+    Serializable {
+  static final Logger logger = Logger.getLogger(RemovalNotificationBatcher.class.getName());
+  private static final long serialVersionUID = 1L;
+
+  /** The maximum number of notifications to deliver to the listener in a single call. */
+  static final int MAXIMUM_BATCH_SIZE = 1_000;
+
+  /*
+   * A notification is appended to a queue and the delivery task is scheduled only if it is not
+   * already pending, so that a burst of removals is delivered by a single task. The task clears
+   * the flag after draining and then checks the queue again, so a notification that raced with the
+   * end of the delivery schedules a new task rather than being stranded. The executor and the queue
+   * are transient, as a deserialized instance is only used to recreate the builder's listener.
+   */
+
+  final BatchRemovalListener<K, V> delegate;
+  final transient AtomicBoolean scheduled;
+  final transient Queue<RemovalNotification<K, V>> pending;
+  final transient Executor executor;
+  final boolean async;
+
+  RemovalNotificationBatcher(BatchRemovalListener<K, V> delegate,
+      Executor executor, boolean async) {
+    this.pending = new ConcurrentLinkedQueue<>();
+    this.delegate = requireNonNull(delegate);
+    this.executor = requireNonNull(executor);
+    this.scheduled = new AtomicBoolean();
+    this.async = async;
+  }
+
+  /** Records the removal and schedules its delivery. */
+  @Override
+  public void onRemoval(@Nullable K key, @Nullable V value, RemovalCause cause) {
+    add(key, value, cause);
+    schedule();
+  }
+
+  /**
+   * Records the removal to be delivered by the next scheduled task. If the cache is asynchronous
+   * then the value is the future, which is recorded once it completes successfully.
+   */
+  @SuppressWarnings({"FutureReturnValueIgnored", "unchecked"})
+  void add(@Nullable K key, @Nullable V value, RemovalCause cause) {
+    if (!async) {
+      pending.add(RemovalNotification.of(key, value, cause));
+    } else if (value != null) {
+      CompletableFuture<Object> future = (CompletableFuture<Object>) value;
+      if (Async.isReady(future)) {
+        pending.add(RemovalNotification.of(key, (V) future.join(), cause));
+      } else {
+        future.thenAccept(result -> {
+          if (result != null) {
+            pending.add(RemovalNotification.of(key, (V) result, cause));
+            schedule();
+          }
+        });
+      }
+    }
+  }
+
+  /** Schedules the delivery of the recorded notifications, if not already pending. */
+  void schedule() {
+    if (pending.isEmpty() || !scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(this);
+    } catch (Throwable t) {
+      logger.log(Level.SEVERE, "Exception thrown when submitting removal listener", t);
+      run();
+    }
+  }
+
+  /** Delivers the recorded notifications and reschedules if more were recorded concurrently. */
+  @Override
+  public void run() {
+    try {
+      drain();
+    } finally {
+      scheduled.set(false);
+    }
+    schedule();
+  }
+
+  /** Delivers the recorded notifications to the listener in chunks until none remain. */
+  void drain() {
+    List<RemovalNotification<K, V>> batch = new ArrayList<>();
+    for (;;) {
+      RemovalNotification<K, V> notification = pending.poll();
+      if (notification != null) {
+        batch.add(notification);
+      }
+      if ((notification == null) || (batch.size() == MAXIMUM_BATCH_SIZE)) {
+        if (batch.isEmpty()) {
+          return;
+        }
+        deliver(batch);
+        batch = new ArrayList<>();
+      }
+    }
+  }
+
+  /** Notifies the listener of the removals, logging any exception that it throws. */
+  void deliver(List<RemovalNotification<K, V>> batch) {
+    try {
+      delegate.onRemoval(batch);
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Exception thrown by removal listener", t);
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.github.benmanes.caffeine.cache;
 import static com.github.benmanes.caffeine.cache.Caffeine.UNSET_INT;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -43,6 +44,7 @@ final class SerializationProxy<K, V> implements Serializable {
   long expiresAfterAccessNanos;
   long maximumSize = UNSET_INT;
   long maximumWeight = UNSET_INT;
+  int evictionShards = UNSET_INT;
 
   @Nullable Ticker ticker;
   @Nullable Expiry<?, ?> expiry;
@@ -67,6 +69,9 @@ final class SerializationProxy<K, V> implements Serializable {
       builder.maximumWeight(maximumWeight);
       builder.weigher((Weigher<Object, Object>) weigher);
     }
+    if (evictionShards != UNSET_INT) {
+      builder.evictionShards(evictionShards);
+    }
     if (expiry != null) {
       builder.expireAfter(expiry);
     }
@@ -88,17 +93,32 @@ final class SerializationProxy<K, V> implements Serializable {
     if (softValues) {
       builder.softValues();
     }
-    if (removalListener != null) {
+    if (removalListener instanceof RemovalNotificationBatcher<?, ?>) {
+      builder.batchRemovalListener((BatchRemovalListener<Object, Object>)
+          ((RemovalNotificationBatcher<?, ?>) removalListener).delegate);
+    } else if (removalListener != null) {
       builder.removalListener((RemovalListener<Object, Object>) removalListener);
     }
     if ((writer != null) && (writer != CacheWriter.disabledWriter())) {
       builder.writer((CacheWriter<Object, Object>) writer);
     }
+    if (loader instanceof NegativeCachingLoader<?, ?>) {
+      NegativeCachingLoader<?, ?> negative = (NegativeCachingLoader<?, ?>) loader;
+      builder.negativeCaching(negative.maximumNegativeSize,
+          Duration.ofNanos(negative.expireAfterAbsentNanos));
+      if (negative.initialBackoffNanos > 0) {
+        builder.failureBackoff(Duration.ofNanos(negative.initialBackoffNanos),
+            Duration.ofNanos(negative.maximumBackoffNanos));
+      }
+    }
     return builder;
   }
 
   Object readResolve() {
     Caffeine<Object, Object> builder = recreateCaffeine();
+    AsyncCacheLoader<?, ?> loader = (this.loader instanceof NegativeCachingLoader<?, ?>)
+        ? ((NegativeCachingLoader<?, ?>) this.loader).delegate
+        : this.loader;
     if (async) {
       if (loader == null) {
         return builder.buildAsync();
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Converts an object to and from its binary form so that it may be stored outside of the Java
+ * heap. An implementation must be thread-safe and the round trip must produce an object that is
+ * equivalent to the original.
+ *
+ * @param <T> the type of objects to convert
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+public interface Serializer<T> {
+
+  /**
+   * Returns the binary representation of the object.
+   *
+   * @param object the object to serialize
+   * @return the serialized form of the object
+   */
+  byte @NonNull [] serialize(@NonNull T object);
+
+  /**
+   * Returns the object reconstructed from its binary representation.
+   *
+   * @param bytes the serialized form of the object
+   * @return the deserialized object
+   */
+  @NonNull
+  T deserialize(byte @NonNull [] bytes);
+}
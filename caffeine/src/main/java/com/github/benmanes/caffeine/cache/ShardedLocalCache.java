@@ -0,0 +1,862 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static com.github.benmanes.caffeine.cache.Caffeine.requireState;
+import static com.github.benmanes.caffeine.cache.Caffeine.shareOf;
+import static com.github.benmanes.caffeine.cache.LocalLoadingCache.newBulkMappingFunction;
+import static com.github.benmanes.caffeine.cache.LocalLoadingCache.newMappingFunction;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.github.benmanes.caffeine.cache.BoundedLocalCache.BoundedPolicy;
+import com.github.benmanes.caffeine.cache.BoundedLocalCache.SnapshotIterator;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+
+/**
+ * A size-bounded cache that is partitioned into independently maintained shards in order to
+ * spread the eviction policy's maintenance across multiple locks. Each key is assigned to a shard
+ * by its hash and the shard is a complete {@link BoundedLocalCache} that is bounded by its share
+ * of the maximum, while the statistics and in-flight refreshes are shared across all of the
+ * shards.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+final class ShardedLocalCache<K, V> extends AbstractMap<K, V> implements LocalCache<K, V> {
+
+  /*
+   * A key is mapped to its shard by scrambling the hash that the shard's hash table will use and
+   * then reducing the result into the shard range using a multiply-shift. The scrambling ensures
+   * that the shard selection is independent of the bits that select the hash table's bin. The
+   * lookup key is used so that a cache with weak keys assigns the shard by identity, consistent
+   * with how the shard itself compares the keys.
+   */
+
+  static final int SPREAD = 0x9E3779B9;
+
+  final BoundedLocalCache<K, V>[] shards;
+
+  @Nullable Set<K> keySet;
+  @Nullable Collection<V> values;
+  @Nullable Set<Entry<K, V>> entrySet;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  ShardedLocalCache(Caffeine<K, V> builder, @Nullable CacheLoader<? super K, V> loader) {
+    StatsCounter statsCounter = builder.getStatsCounterSupplier().get();
+    ConcurrentMap<Object, CompletableFuture<?>> refreshes = new ConcurrentHashMap<>();
+    shards = new BoundedLocalCache[builder.evictionShards];
+    for (int i = 0; i < shards.length; i++) {
+      Caffeine<K, V> shardBuilder = builder.newShardBuilder(i, statsCounter);
+      shards[i] = LocalCacheFactory.newBoundedLocalCache(shardBuilder, loader, /* async */ false);
+      shards[i].refreshes = refreshes;
+    }
+  }
+
+  /** Returns the index of the shard that the key is assigned to. */
+  int indexOf(Object key) {
+    int hash = shards[0].nodeFactory.newLookupKey(requireNonNull(key)).hashCode() * SPREAD;
+    return (int) (((hash & 0xFFFFFFFFL) * shards.length) >>> 32);
+  }
+
+  /** Returns the shard that the key is assigned to. */
+  BoundedLocalCache<K, V> shardFor(Object key) {
+    return shards[indexOf(key)];
+  }
+
+  /** Returns the sum of the shards' maximums. */
+  long maximum() {
+    long maximum = 0L;
+    for (BoundedLocalCache<K, V> shard : shards) {
+      maximum += shard.maximum();
+    }
+    return maximum;
+  }
+
+  /* --------------- Shared Configuration --------------- */
+
+  @Override
+  public boolean isRecordingStats() {
+    return shards[0].isRecordingStats();
+  }
+
+  @Override
+  public StatsCounter statsCounter() {
+    return shards[0].statsCounter();
+  }
+
+  @Override
+  public boolean hasRemovalListener() {
+    return shards[0].hasRemovalListener();
+  }
+
+  @Override
+  public RemovalListener<K, V> removalListener() {
+    return shards[0].removalListener();
+  }
+
+  @Override
+  public void notifyRemoval(@Nullable K key, @Nullable V value, RemovalCause cause) {
+    shards[0].notifyRemoval(key, value, cause);
+  }
+
+  @Override
+  public CacheWriter<K, V> writer() {
+    return shards[0].writer();
+  }
+
+  @Override
+  public boolean writesAll() {
+    return shards[0].writesAll();
+  }
+
+  @Override
+  public boolean deletesAll() {
+    return shards[0].deletesAll();
+  }
+
+  @Override
+  public Executor executor() {
+    return shards[0].executor();
+  }
+
+  @Override
+  public boolean hasWriteTime() {
+    return shards[0].hasWriteTime();
+  }
+
+  @Override
+  public Ticker expirationTicker() {
+    return shards[0].expirationTicker();
+  }
+
+  @Override
+  public Ticker statsTicker() {
+    return shards[0].statsTicker();
+  }
+
+  @Override
+  public ConcurrentMap<Object, CompletableFuture<?>> refreshes() {
+    return shards[0].refreshes();
+  }
+
+  @Override
+  public Object referenceKey(K key) {
+    return shards[0].referenceKey(key);
+  }
+
+  /* --------------- Keyed Operations --------------- */
+
+  @Override
+  public @Nullable V getIfPresent(Object key, boolean recordStats, boolean servesStale) {
+    return shardFor(key).getIfPresent(key, recordStats, servesStale);
+  }
+
+  @Override
+  public @Nullable V getIfPresentQuietly(Object key, long[/* 1 */] writeTime) {
+    return shardFor(key).getIfPresentQuietly(key, writeTime);
+  }
+
+  @Override
+  public Map<K, V> getAllPresent(Iterable<?> keys) {
+    Set<Object> uniqueKeys = new LinkedHashSet<>();
+    for (Object key : keys) {
+      uniqueKeys.add(key);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    List<Object>[] keysByShard = new List[shards.length];
+    for (Object key : uniqueKeys) {
+      int index = indexOf(key);
+      if (keysByShard[index] == null) {
+        keysByShard[index] = new ArrayList<>();
+      }
+      keysByShard[index].add(key);
+    }
+    Map<Object, V> found = new HashMap<>(uniqueKeys.size());
+    for (int i = 0; i < shards.length; i++) {
+      if (keysByShard[i] != null) {
+        found.putAll(shards[i].getAllPresent(keysByShard[i]));
+      }
+    }
+
+    Map<K, V> result = new LinkedHashMap<>(found.size());
+    for (Object key : uniqueKeys) {
+      V value = found.get(key);
+      if (value != null) {
+        @SuppressWarnings("unchecked")
+        K castedKey = (K) key;
+        result.put(castedKey, value);
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return shardFor(key).containsKey(key);
+  }
+
+  @Override
+  public @Nullable V get(Object key) {
+    return shardFor(key).get(key);
+  }
+
+  @Override
+  public @Nullable V put(K key, V value) {
+    return shardFor(key).put(key, value);
+  }
+
+  @Override
+  public @Nullable V put(K key, V value, boolean notifyWriter) {
+    return shardFor(key).put(key, value, notifyWriter);
+  }
+
+  @Override
+  public @Nullable V putIfAbsent(K key, V value) {
+    return shardFor(key).putIfAbsent(key, value);
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> map) {
+    putAllWithWriter(map);
+  }
+
+  @Override
+  public @Nullable V remove(Object key) {
+    return shardFor(key).remove(key);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    return shardFor(key).remove(key, value);
+  }
+
+  @Override
+  public boolean remove(Object key, @Nullable Object value, boolean notifyWriter) {
+    return shardFor(key).remove(key, value, notifyWriter);
+  }
+
+  @Override
+  public @Nullable V replace(K key, V value) {
+    return shardFor(key).replace(key, value);
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    return shardFor(key).replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public @Nullable V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction,
+      boolean recordMiss, boolean recordLoad, boolean recordLoadFailure) {
+    return shardFor(key).compute(key, remappingFunction,
+        recordMiss, recordLoad, recordLoadFailure);
+  }
+
+  @Override
+  public @Nullable V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction,
+      boolean recordStats, boolean recordLoad, boolean servesStale) {
+    return shardFor(key).computeIfAbsent(
+        key, mappingFunction, recordStats, recordLoad, servesStale);
+  }
+
+  @Override
+  public @Nullable V computeIfPresent(K key,
+      BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    return shardFor(key).computeIfPresent(key, remappingFunction);
+  }
+
+  @Override
+  public @Nullable V merge(K key, V value,
+      BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    return shardFor(key).merge(key, value, remappingFunction);
+  }
+
+  /* --------------- Aggregate Operations --------------- */
+
+  @Override
+  public boolean isEmpty() {
+    for (BoundedLocalCache<K, V> shard : shards) {
+      if (!shard.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return (int) Math.min(estimatedSize(), Integer.MAX_VALUE);
+  }
+
+  @Override
+  public long estimatedSize() {
+    long size = 0L;
+    for (BoundedLocalCache<K, V> shard : shards) {
+      size += shard.estimatedSize();
+    }
+    return size;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    requireNonNull(value);
+    for (BoundedLocalCache<K, V> shard : shards) {
+      if (shard.containsValue(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+    requireNonNull(function);
+    for (BoundedLocalCache<K, V> shard : shards) {
+      shard.replaceAll(function);
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (BoundedLocalCache<K, V> shard : shards) {
+      shard.clear();
+    }
+  }
+
+  @Override
+  public void cleanUp() {
+    for (BoundedLocalCache<K, V> shard : shards) {
+      shard.cleanUp();
+    }
+  }
+
+  @Override
+  public void recordLoadPenalty(Object key, long loadTime) {
+    shardFor(key).recordLoadPenalty(key, loadTime);
+  }
+
+  @Override
+  public Set<K> keySet() {
+    final Set<K> ks = keySet;
+    return (ks == null) ? (keySet = new KeySetView()) : ks;
+  }
+
+  @Override
+  public Collection<V> values() {
+    final Collection<V> vs = values;
+    return (vs == null) ? (values = new ValuesView()) : vs;
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    final Set<Entry<K, V>> es = entrySet;
+    return (es == null) ? (entrySet = new EntrySetView()) : es;
+  }
+
+  /** An adapter to safely externalize the keys. */
+  final class KeySetView extends AbstractSet<K> {
+    @Override public int size() {
+      return ShardedLocalCache.this.size();
+    }
+    @Override public void clear() {
+      ShardedLocalCache.this.clear();
+    }
+    @Override public boolean contains(Object obj) {
+      return containsKey(obj);
+    }
+    @Override public boolean remove(Object obj) {
+      return (ShardedLocalCache.this.remove(obj) != null);
+    }
+    @Override public Iterator<K> iterator() {
+      return new ShardedIterator<>(shard -> shard.keySet().iterator());
+    }
+  }
+
+  /** An adapter to safely externalize the values. */
+  final class ValuesView extends AbstractCollection<V> {
+    @Override public int size() {
+      return ShardedLocalCache.this.size();
+    }
+    @Override public void clear() {
+      ShardedLocalCache.this.clear();
+    }
+    @Override public boolean contains(Object obj) {
+      return containsValue(obj);
+    }
+    @Override public Iterator<V> iterator() {
+      return new ShardedIterator<>(shard -> shard.values().iterator());
+    }
+  }
+
+  /** An adapter to safely externalize the entries. */
+  final class EntrySetView extends AbstractSet<Entry<K, V>> {
+    @Override public int size() {
+      return ShardedLocalCache.this.size();
+    }
+    @Override public void clear() {
+      ShardedLocalCache.this.clear();
+    }
+    @Override public boolean contains(Object obj) {
+      if (!(obj instanceof Entry<?, ?>)) {
+        return false;
+      }
+      Object key = ((Entry<?, ?>) obj).getKey();
+      return (key != null) && shardFor(key).entrySet().contains(obj);
+    }
+    @Override public boolean remove(Object obj) {
+      if (!(obj instanceof Entry<?, ?>)) {
+        return false;
+      }
+      Object key = ((Entry<?, ?>) obj).getKey();
+      return (key != null) && shardFor(key).entrySet().remove(obj);
+    }
+    @Override public Iterator<Entry<K, V>> iterator() {
+      return new ShardedIterator<>(shard -> shard.entrySet().iterator());
+    }
+  }
+
+  /** An iterator that traverses each of the shards in turn. */
+  final class ShardedIterator<E> implements Iterator<E> {
+    final Function<BoundedLocalCache<K, V>, Iterator<E>> iteratorFunction;
+
+    Iterator<E> current;
+    @Nullable Iterator<E> removalIterator;
+    int index;
+
+    ShardedIterator(Function<BoundedLocalCache<K, V>, Iterator<E>> iteratorFunction) {
+      this.iteratorFunction = iteratorFunction;
+      this.current = Collections.emptyIterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!current.hasNext() && (index < shards.length)) {
+        current = iteratorFunction.apply(shards[index++]);
+      }
+      return current.hasNext();
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      removalIterator = current;
+      return current.next();
+    }
+
+    @Override
+    public void remove() {
+      requireState(removalIterator != null);
+      removalIterator.remove();
+      removalIterator = null;
+    }
+  }
+
+  /** An iterator that takes an element from each of the iterators in turn. */
+  static final class InterleavingIterator<E> implements Iterator<E> {
+    final List<Iterator<? extends E>> iterators;
+
+    int index;
+
+    InterleavingIterator(List<Iterator<? extends E>> iterators) {
+      this.iterators = new ArrayList<>(iterators);
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!iterators.isEmpty()) {
+        if (index >= iterators.size()) {
+          index = 0;
+        }
+        if (iterators.get(index).hasNext()) {
+          return true;
+        }
+        iterators.remove(index);
+      }
+      return false;
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return iterators.get(index++).next();
+    }
+  }
+
+  /* --------------- Manual Cache --------------- */
+
+  static class ShardedLocalManualCache<K, V> implements LocalManualCache<K, V>, Serializable {
+    private static final long serialVersionUID = 1;
+
+    final ShardedLocalCache<K, V> cache;
+    final boolean isWeighted;
+
+    @Nullable Policy<K, V> policy;
+
+    ShardedLocalManualCache(Caffeine<K, V> builder) {
+      this(builder, null);
+    }
+
+    ShardedLocalManualCache(Caffeine<K, V> builder, @Nullable CacheLoader<? super K, V> loader) {
+      cache = new ShardedLocalCache<>(builder, loader);
+      isWeighted = builder.isWeighted();
+    }
+
+    @Override
+    public ShardedLocalCache<K, V> cache() {
+      return cache;
+    }
+
+    @Override
+    public Policy<K, V> policy() {
+      return (policy == null)
+          ? (policy = new ShardedPolicy<>(cache, isWeighted))
+          : policy;
+    }
+
+    @SuppressWarnings("UnusedVariable")
+    private void readObject(ObjectInputStream stream) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+    }
+
+    Object writeReplace() {
+      SerializationProxy<K, V> proxy =
+          BoundedLocalCache.makeSerializationProxy(cache.shards[0], isWeighted);
+      if (isWeighted) {
+        proxy.maximumWeight = cache.maximum();
+      } else {
+        proxy.maximumSize = cache.maximum();
+      }
+      proxy.evictionShards = cache.shards.length;
+      return proxy;
+    }
+  }
+
+  /* --------------- Loading Cache --------------- */
+
+  static final class ShardedLocalLoadingCache<K, V>
+      extends ShardedLocalManualCache<K, V> implements LocalLoadingCache<K, V> {
+    private static final long serialVersionUID = 1;
+
+    final Function<K, V> mappingFunction;
+    @Nullable final Function<Iterable<? extends K>, Map<K, V>> bulkMappingFunction;
+
+    ShardedLocalLoadingCache(Caffeine<K, V> builder, CacheLoader<? super K, V> loader) {
+      super(builder, requireNonNull(loader));
+      mappingFunction = newMappingFunction(loader);
+      bulkMappingFunction = newBulkMappingFunction(loader);
+    }
+
+    @Override
+    @SuppressWarnings("NullAway")
+    public CacheLoader<? super K, V> cacheLoader() {
+      return cache.shards[0].cacheLoader;
+    }
+
+    @Override
+    public Function<K, V> mappingFunction() {
+      return mappingFunction;
+    }
+
+    @Override
+    public @Nullable Function<Iterable<? extends K>, Map<K, V>> bulkMappingFunction() {
+      return bulkMappingFunction;
+    }
+
+    @SuppressWarnings("UnusedVariable")
+    private void readObject(ObjectInputStream stream) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+    }
+
+    @Override
+    Object writeReplace() {
+      @SuppressWarnings("unchecked")
+      SerializationProxy<K, V> proxy = (SerializationProxy<K, V>) super.writeReplace();
+      if (cache.shards[0].refreshAfterWrite()) {
+        proxy.refreshAfterWriteNanos = cache.shards[0].refreshAfterWriteNanos();
+      }
+      proxy.loader = cache.shards[0].cacheLoader;
+      return proxy;
+    }
+  }
+
+  /* --------------- Policy --------------- */
+
+  /**
+   * A view of the shards' policies. The keyed operations are delegated to the key's shard, the
+   * configuration is applied to every shard, and the orderings are approximated by taking an
+   * entry from each shard's ordering in turn.
+   */
+  static final class ShardedPolicy<K, V> implements Policy<K, V> {
+    final ShardedLocalCache<K, V> cache;
+    final Policy<K, V>[] policies;
+    final boolean isWeighted;
+
+    @Nullable Optional<Eviction<K, V>> eviction;
+    @Nullable Optional<Expiration<K, V>> refreshes;
+    @Nullable Optional<Expiration<K, V>> afterWrite;
+    @Nullable Optional<Expiration<K, V>> afterAccess;
+    @Nullable Optional<VarExpiration<K, V>> variable;
+    @Nullable Optional<HotKeys<K>> hotKeys;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ShardedPolicy(ShardedLocalCache<K, V> cache, boolean isWeighted) {
+      this.policies = new Policy[cache.shards.length];
+      for (int i = 0; i < policies.length; i++) {
+        policies[i] = new BoundedPolicy<>(cache.shards[i], Function.identity(), isWeighted);
+      }
+      this.isWeighted = isWeighted;
+      this.cache = cache;
+    }
+
+    /** Returns the policy of the shard that the key is assigned to. */
+    Policy<K, V> policyFor(Object key) {
+      return policies[cache.indexOf(key)];
+    }
+
+    /** Returns a snapshot that takes an entry from each of the shards' snapshots in turn. */
+    Map<K, V> interleave(int limit, IntFunction<Map<K, V>> snapshot) {
+      requireArgument(limit >= 0);
+      List<Iterator<? extends Entry<K, V>>> iterators = new ArrayList<>(policies.length);
+      for (int i = 0; i < policies.length; i++) {
+        iterators.add(snapshot.apply(i).entrySet().iterator());
+      }
+      Map<K, V> map = new LinkedHashMap<>();
+      Iterator<Entry<K, V>> entries = new InterleavingIterator<>(iterators);
+      while ((map.size() < limit) && entries.hasNext()) {
+        Entry<K, V> entry = entries.next();
+        map.put(entry.getKey(), entry.getValue());
+      }
+      return Collections.unmodifiableMap(map);
+    }
+
+    /** Returns the hottest keys across the shards, which each track a disjoint set of keys. */
+    Map<K, Long> hottestKeys(int limit) {
+      requireArgument(limit >= 0);
+      List<Entry<K, Long>> counts = new ArrayList<>();
+      for (Policy<K, V> policy : policies) {
+        counts.addAll(policy.hotKeys().get().top(limit).entrySet());
+      }
+      counts.sort(Entry.<K, Long>comparingByValue().reversed());
+      Map<K, Long> map = new LinkedHashMap<>();
+      for (int i = 0; i < Math.min(limit, counts.size()); i++) {
+        map.put(counts.get(i).getKey(), counts.get(i).getValue());
+      }
+      return Collections.unmodifiableMap(map);
+    }
+
+    @Override public boolean isRecordingStats() {
+      return cache.isRecordingStats();
+    }
+    @Override public @Nullable V getIfPresentQuietly(Object key) {
+      return policyFor(key).getIfPresentQuietly(key);
+    }
+    @Override public Map<K, CompletableFuture<V>> refreshes() {
+      return policies[0].refreshes();
+    }
+    @Override public long snapshotTo(Path path,
+        Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+      List<Iterator<? extends Entry<K, V>>> iterators = new ArrayList<>(cache.shards.length);
+      List<@Nullable FrequencySketch<?>> sketches = new ArrayList<>(cache.shards.length);
+      for (BoundedLocalCache<K, V> shard : cache.shards) {
+        iterators.add(new SnapshotIterator<>(shard, Function.identity()));
+        sketches.add(shard.copyOfFrequencySketch());
+      }
+      return CacheSnapshot.write(path, new InterleavingIterator<>(iterators),
+          sketches, keySerializer, valueSerializer);
+    }
+    @Override public Optional<Eviction<K, V>> eviction() {
+      return (eviction == null)
+          ? (eviction = Optional.of(new ShardedEviction()))
+          : eviction;
+    }
+    @Override public Optional<Expiration<K, V>> expireAfterAccess() {
+      if (!policies[0].expireAfterAccess().isPresent()) {
+        return Optional.empty();
+      }
+      return (afterAccess == null)
+          ? (afterAccess = Optional.of(new ShardedExpiration(p -> p.expireAfterAccess().get())))
+          : afterAccess;
+    }
+    @Override public Optional<Expiration<K, V>> expireAfterWrite() {
+      if (!policies[0].expireAfterWrite().isPresent()) {
+        return Optional.empty();
+      }
+      return (afterWrite == null)
+          ? (afterWrite = Optional.of(new ShardedExpiration(p -> p.expireAfterWrite().get())))
+          : afterWrite;
+    }
+    @Override public Optional<VarExpiration<K, V>> expireVariably() {
+      if (!policies[0].expireVariably().isPresent()) {
+        return Optional.empty();
+      }
+      return (variable == null)
+          ? (variable = Optional.of(new ShardedVarExpiration()))
+          : variable;
+    }
+    @Override public Optional<Expiration<K, V>> refreshAfterWrite() {
+      if (!policies[0].refreshAfterWrite().isPresent()) {
+        return Optional.empty();
+      }
+      return (refreshes == null)
+          ? (refreshes = Optional.of(new ShardedExpiration(p -> p.refreshAfterWrite().get())))
+          : refreshes;
+    }
+    @Override public Optional<HotKeys<K>> hotKeys() {
+      if (!policies[0].hotKeys().isPresent()) {
+        return Optional.empty();
+      }
+      return (hotKeys == null)
+          ? (hotKeys = Optional.of(this::hottestKeys))
+          : hotKeys;
+    }
+
+    final class ShardedEviction implements Eviction<K, V> {
+      Eviction<K, V> evictionOf(int index) {
+        return policies[index].eviction().get();
+      }
+      @Override public boolean isWeighted() {
+        return isWeighted;
+      }
+      @Override public OptionalInt weightOf(K key) {
+        return evictionOf(cache.indexOf(key)).weightOf(key);
+      }
+      @Override public OptionalLong weightedSize() {
+        if (!isWeighted) {
+          return OptionalLong.empty();
+        }
+        long weightedSize = 0L;
+        for (int i = 0; i < policies.length; i++) {
+          weightedSize += evictionOf(i).weightedSize().orElse(0L);
+        }
+        return OptionalLong.of(weightedSize);
+      }
+      @Override public long getMaximum() {
+        long maximum = 0L;
+        for (int i = 0; i < policies.length; i++) {
+          maximum += evictionOf(i).getMaximum();
+        }
+        return maximum;
+      }
+      @Override public void setMaximum(long maximum) {
+        requireArgument(maximum >= policies.length,
+            "maximum must be at least the number of shards: %s", maximum);
+        for (int i = 0; i < policies.length; i++) {
+          evictionOf(i).setMaximum(shareOf(maximum, i, policies.length));
+        }
+      }
+      @Override public Map<K, V> coldest(int limit) {
+        return interleave(limit, i -> evictionOf(i).coldest(limit));
+      }
+      @Override public Map<K, V> hottest(int limit) {
+        return interleave(limit, i -> evictionOf(i).hottest(limit));
+      }
+    }
+
+    @SuppressWarnings("PreferJavaTimeOverload")
+    final class ShardedExpiration implements Expiration<K, V> {
+      final Function<Policy<K, V>, Expiration<K, V>> expirationFunction;
+
+      ShardedExpiration(Function<Policy<K, V>, Expiration<K, V>> expirationFunction) {
+        this.expirationFunction = expirationFunction;
+      }
+
+      Expiration<K, V> expirationOf(int index) {
+        return expirationFunction.apply(policies[index]);
+      }
+      @Override public OptionalLong ageOf(K key, TimeUnit unit) {
+        return expirationOf(cache.indexOf(key)).ageOf(key, unit);
+      }
+      @Override public long getExpiresAfter(TimeUnit unit) {
+        return expirationOf(0).getExpiresAfter(unit);
+      }
+      @Override public void setExpiresAfter(long duration, TimeUnit unit) {
+        requireArgument(duration >= 0);
+        for (int i = 0; i < policies.length; i++) {
+          expirationOf(i).setExpiresAfter(duration, unit);
+        }
+      }
+      @Override public Map<K, V> oldest(int limit) {
+        return interleave(limit, i -> expirationOf(i).oldest(limit));
+      }
+      @Override public Map<K, V> youngest(int limit) {
+        return interleave(limit, i -> expirationOf(i).youngest(limit));
+      }
+    }
+
+    @SuppressWarnings("PreferJavaTimeOverload")
+    final class ShardedVarExpiration implements VarExpiration<K, V> {
+      VarExpiration<K, V> expirationOf(int index) {
+        return policies[index].expireVariably().get();
+      }
+      @Override public OptionalLong getExpiresAfter(K key, TimeUnit unit) {
+        return expirationOf(cache.indexOf(key)).getExpiresAfter(key, unit);
+      }
+      @Override public void setExpiresAfter(K key, long duration, TimeUnit unit) {
+        expirationOf(cache.indexOf(key)).setExpiresAfter(key, duration, unit);
+      }
+      @Override public boolean putIfAbsent(K key, V value, long duration, TimeUnit unit) {
+        return expirationOf(cache.indexOf(key)).putIfAbsent(key, value, duration, unit);
+      }
+      @Override public void put(K key, V value, long duration, TimeUnit unit) {
+        expirationOf(cache.indexOf(key)).put(key, value, duration, unit);
+      }
+      @Override public Map<K, V> oldest(int limit) {
+        return interleave(limit, i -> expirationOf(i).oldest(limit));
+      }
+      @Override public Map<K, V> youngest(int limit) {
+        return interleave(limit, i -> expirationOf(i).youngest(limit));
+      }
+    }
+  }
+}
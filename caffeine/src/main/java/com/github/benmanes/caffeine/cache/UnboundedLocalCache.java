@@ -19,10 +19,13 @@ import static com.github.benmanes.caffeine.cache.LocalLoadingCache.newBulkMappin
 import static com.github.benmanes.caffeine.cache.LocalLoadingCache.newMappingFunction;
 import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.AbstractCollection;
+import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Collections;
@@ -59,12 +62,15 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
   final StatsCounter statsCounter;
   final boolean isRecordingStats;
   final CacheWriter<K, V> writer;
+  final boolean writesAll;
+  final boolean deletesAll;
   final Executor executor;
   final Ticker ticker;
 
   transient @Nullable Set<K> keySet;
   transient @Nullable Collection<V> values;
   transient @Nullable Set<Entry<K, V>> entrySet;
+  transient volatile @Nullable ConcurrentMap<Object, CompletableFuture<?>> refreshes;
 
   UnboundedLocalCache(Caffeine<? super K, ? super V> builder, boolean async) {
     this.data = new ConcurrentHashMap<>(builder.getInitialCapacity());
@@ -72,6 +78,8 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
     this.removalListener = builder.getRemovalListener(async);
     this.isRecordingStats = builder.isRecordingStats();
     this.writer = builder.getCacheWriter();
+    this.writesAll = LocalCache.hasWriteAll(writer);
+    this.deletesAll = LocalCache.hasDeleteAll(writer);
     this.executor = builder.getExecutor();
     this.ticker = builder.getTicker();
   }
@@ -84,7 +92,7 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
   /* --------------- Cache --------------- */
 
   @Override
-  public @Nullable V getIfPresent(Object key, boolean recordStats) {
+  public @Nullable V getIfPresent(Object key, boolean recordStats, boolean servesStale) {
     V value = data.get(key);
 
     if (recordStats) {
@@ -154,9 +162,28 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
   @Override
   public void notifyRemoval(@Nullable K key, @Nullable V value, RemovalCause cause) {
     requireNonNull(removalListener(), "Notification should be guarded with a check");
+    if (removalListener() instanceof RemovalNotificationBatcher<?, ?>) {
+      removalListener().onRemoval(key, value, cause);
+      return;
+    }
     executor.execute(() -> removalListener().onRemoval(key, value, cause));
   }
 
+  @Override
+  public CacheWriter<K, V> writer() {
+    return writer;
+  }
+
+  @Override
+  public boolean writesAll() {
+    return writesAll;
+  }
+
+  @Override
+  public boolean deletesAll() {
+    return deletesAll;
+  }
+
   @Override
   public boolean isRecordingStats() {
     return isRecordingStats;
@@ -177,6 +204,25 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
     return ticker;
   }
 
+  @Override
+  public ConcurrentMap<Object, CompletableFuture<?>> refreshes() {
+    ConcurrentMap<Object, CompletableFuture<?>> pending = refreshes;
+    if (pending == null) {
+      synchronized (this) {
+        pending = refreshes;
+        if (pending == null) {
+          refreshes = pending = new ConcurrentHashMap<>();
+        }
+      }
+    }
+    return pending;
+  }
+
+  @Override
+  public Object referenceKey(K key) {
+    return key;
+  }
+
   /* --------------- JDK8+ Map extensions --------------- */
 
   @Override
@@ -218,7 +264,7 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
 
   @Override
   public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction,
-      boolean recordStats, boolean recordLoad) {
+      boolean recordStats, boolean recordLoad, boolean servesStale) {
     requireNonNull(mappingFunction);
 
     // optimistic fast path due to computeIfAbsent always locking
@@ -358,7 +404,7 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
 
   @Override
   public @Nullable V get(Object key) {
-    return getIfPresent(key, /* recordStats */ false);
+    return getIfPresent(key, /* recordStats */ false, /* servesStale */ false);
   }
 
   @Override
@@ -411,7 +457,7 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
       data.putAll(map);
       return;
     }
-    map.forEach(this::put);
+    putAllWithWriter(map);
   }
 
   @Override
@@ -440,6 +486,11 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
 
   @Override
   public boolean remove(Object key, Object value) {
+    return remove(key, value, /* notifyWriter */ true);
+  }
+
+  @Override
+  public boolean remove(Object key, @Nullable Object value, boolean notifyWriter) {
     if (value == null) {
       requireNonNull(key);
       return false;
@@ -452,7 +503,9 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
 
     data.computeIfPresent(castKey, (k, v) -> {
       if (v.equals(value)) {
-        writer.delete(castKey, v, RemovalCause.EXPLICIT);
+        if (notifyWriter) {
+          writer.delete(castKey, v, RemovalCause.EXPLICIT);
+        }
         oldValue[0] = v;
         return null;
       }
@@ -903,6 +956,25 @@ final class UnboundedLocalCache<K, V> implements LocalCache<K, V> {
     @Override public V getIfPresentQuietly(Object key) {
       return transformer.apply(cache.data.get(key));
     }
+    @Override public Map<K, CompletableFuture<V>> refreshes() {
+      ConcurrentMap<Object, CompletableFuture<?>> pending = cache.refreshes;
+      if ((pending == null) || pending.isEmpty()) {
+        return Collections.emptyMap();
+      }
+      @SuppressWarnings("unchecked")
+      Map<K, CompletableFuture<V>> inFlight = (Map<K, CompletableFuture<V>>) (Object) pending;
+      return Collections.unmodifiableMap(new LinkedHashMap<>(inFlight));
+    }
+    @Override public long snapshotTo(Path path,
+        Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+      Iterator<Map.Entry<K, V>> entries = cache.data.entrySet().stream()
+          .<Map.Entry<K, V>>map(entry -> new AbstractMap.SimpleImmutableEntry<>(
+              entry.getKey(), transformer.apply(entry.getValue())))
+          .filter(entry -> entry.getValue() != null)
+          .iterator();
+      return CacheSnapshot.write(path, entries,
+          Collections.emptyList(), keySerializer, valueSerializer);
+    }
     @Override public Optional<Eviction<K, V>> eviction() {
       return Optional.empty();
     }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The strategy used by a size-bounded cache to adapt the size of its admission window, which
+ * balances the eviction policy between favoring recency and favoring frequency. The cache samples
+ * its hit rate and periodically resizes the window in the direction that the strategy estimates
+ * will improve it. The default {@link #HILL_CLIMBER} is a good choice for most workloads, while the
+ * alternatives may converge faster or more stably on workloads whose characteristics shift, as
+ * evaluated by the simulator.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+public enum WindowClimber {
+
+  /**
+   * A hill climber that steps in the direction that last improved the hit rate, using a step size
+   * that decays over time and restarts when the hit rate changes sharply.
+   */
+  HILL_CLIMBER {
+    @Override @Nullable Climber newInstance() {
+      return null;
+    }
+  },
+
+  /**
+   * A hill climber that occasionally accepts a worse configuration in order to escape a local
+   * optimum, with a probability that cools off until the climber settles.
+   */
+  SIMULATED_ANNEALING {
+    @Override Climber newInstance() {
+      return new Climber.SimulatedAnnealing();
+    }
+  },
+
+  /** Stochastic gradient descent with classical momentum. */
+  MOMENTUM {
+    @Override Climber newInstance() {
+      return new Climber.Momentum();
+    }
+  },
+
+  /** Stochastic gradient descent with Nesterov's accelerated momentum. */
+  NESTEROV {
+    @Override Climber newInstance() {
+      return new Climber.Nesterov();
+    }
+  },
+
+  /** Adaptive Moment Estimation, which adapts the step size based on the history of gradients. */
+  ADAM {
+    @Override Climber newInstance() {
+      return new Climber.Adam();
+    }
+  },
+
+  /** Adaptive Moment Estimation with Nesterov's accelerated momentum. */
+  NADAM {
+    @Override Climber newInstance() {
+      return new Climber.Nadam();
+    }
+  },
+
+  /**
+   * Adaptive Moment Estimation that uses the maximum of the past squared gradients, which avoids
+   * overly large steps when the gradients are small.
+   */
+  AMSGRAD {
+    @Override Climber newInstance() {
+      return new Climber.AmsGrad();
+    }
+  };
+
+  /** Returns a new climber, or {@code null} if the cache's built-in hill climber is used. */
+  @Nullable
+  abstract Climber newInstance();
+}
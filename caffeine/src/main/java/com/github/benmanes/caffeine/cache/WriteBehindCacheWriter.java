@@ -0,0 +1,409 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.Caffeine.requireArgument;
+import static com.github.benmanes.caffeine.cache.Caffeine.requireState;
+import static java.util.Objects.requireNonNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+/**
+ * A {@link CacheWriter} that moves the writes to the external resource off of the caller's thread
+ * by buffering them and periodically writing them in batches. The writes to the same key that
+ * occur while it is buffered are coalesced into a single value, so that the resource receives at
+ * most one write per key per batch. The buffer is flushed when it holds the maximum batch size or
+ * when its oldest write has waited for the buffer time, whichever occurs first.
+ * <p>
+ * The buffer is bounded. When the number of buffered keys reaches the maximum, the writing thread
+ * flushes the buffer itself, so that callers are slowed to the rate that the resource can accept
+ * rather than the buffer growing without limit. The batches are written one at a time and in the
+ * order that they were buffered, so a later value is never overwritten by an earlier one.
+ * <p>
+ * An explicit removal is buffered as a deletion that replaces any pending write of the key, so
+ * that a removed entry is not resurrected by a later flush. Removals due to eviction are not
+ * propagated, as the entry still exists in the external resource. If a batch fails then the
+ * failure is logged and its writes are discarded.
+ * <p>
+ * Usage example:
+ * <pre>{@code
+ *   Scheduler scheduler = Scheduler.systemScheduler();
+ *   Cache<Key, Graph> cache = Caffeine.newBuilder()
+ *       .scheduler(scheduler)
+ *       .writer(WriteBehindCacheWriter.<Key, Graph>newBuilder()
+ *           .writeAction(graphs -> database.upsert(graphs))
+ *           .bufferTime(Duration.ofSeconds(1))
+ *           .scheduler(scheduler)
+ *           .build())
+ *       .build();
+ * }</pre>
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public final class WriteBehindCacheWriter<K, V> implements CacheWriter<K, V> {
+  static final Logger logger = Logger.getLogger(WriteBehindCacheWriter.class.getName());
+
+  static final int DEFAULT_MAXIMUM_BATCH_SIZE = 1_000;
+  static final int DEFAULT_MAXIMUM_PENDING = 10_000;
+
+  /** A placeholder for a buffered deletion. */
+  static final Object DELETED = new Object();
+
+  /*
+   * The buffered writes are accumulated in a map so that a key that is written again before the
+   * buffer is flushed is coalesced with its pending value. When the first write is added to an
+   * empty buffer, a flush is scheduled to be performed after the buffer time. A flush is performed
+   * under the flush lock and takes the buffer only once the lock is acquired, so the batches are
+   * written in the order that they were buffered. A buffer is identified by a sequence number so
+   * that a stale scheduled flush does not write a newer buffer prematurely.
+   */
+
+  final Consumer<? super Map<K, V>> writeAction;
+  final Consumer<? super Set<K>> deleteAction;
+  final BinaryOperator<V> coalescer;
+  final ReentrantLock flushLock;
+  final int maximumBatchSize;
+  final Scheduler scheduler;
+  final int maximumPending;
+  final Executor executor;
+  final long bufferTime;
+
+  @GuardedBy("this")
+  Map<K, Object> pending;
+  @GuardedBy("this")
+  boolean flushSubmitted;
+  @GuardedBy("this")
+  long bufferId;
+
+  WriteBehindCacheWriter(Builder<K, V> builder) {
+    this.writeAction = requireNonNull(builder.writeAction);
+    this.deleteAction = builder.deleteAction;
+    this.maximumBatchSize = builder.maximumBatchSize;
+    this.maximumPending = builder.maximumPending;
+    this.bufferTime = builder.bufferTime;
+    this.coalescer = builder.coalescer;
+    this.scheduler = requireNonNull(builder.scheduler);
+    this.executor = builder.executor;
+    this.flushLock = new ReentrantLock();
+    this.pending = new LinkedHashMap<>();
+  }
+
+  /**
+   * Returns a new builder for a write-behind writer.
+   *
+   * @param <K> the type of keys
+   * @param <V> the type of values
+   * @return a new builder
+   */
+  public static @NonNull <K, V> Builder<K, V> newBuilder() {
+    return new Builder<>();
+  }
+
+  /** Buffers the write, coalescing it with the key's pending value if present. */
+  @Override
+  public void write(K key, V value) {
+    requireNonNull(key);
+    requireNonNull(value);
+    buffer(key, value);
+  }
+
+  /** Buffers the deletion if the entry was explicitly removed, replacing any pending write. */
+  @Override
+  public void delete(K key, @Nullable V value, RemovalCause cause) {
+    if (cause == RemovalCause.EXPLICIT) {
+      buffer(key, DELETED);
+    }
+  }
+
+  /** Returns the number of keys waiting to be written. */
+  public synchronized int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Writes the pending changes to the external resource on the calling thread. This may be used
+   * to ensure that the buffered writes are not lost when the application shuts down.
+   */
+  public void flush() {
+    flush(/* bufferId */ -1L);
+  }
+
+  /** Adds the change to the buffer and schedules or performs a flush depending on its size. */
+  @SuppressWarnings("unchecked")
+  void buffer(K key, Object change) {
+    boolean submit = false;
+    long scheduledId = -1;
+    int size;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        scheduledId = bufferId;
+      }
+      Object prior = pending.get(key);
+      pending.put(key, ((prior == null) || (prior == DELETED) || (change == DELETED))
+          ? change
+          : requireNonNull(coalescer.apply((V) prior, (V) change)));
+      size = pending.size();
+      if ((size >= maximumBatchSize) && !flushSubmitted) {
+        flushSubmitted = submit = true;
+      }
+    }
+
+    if (size >= maximumPending) {
+      flush();
+    } else if (submit) {
+      submitFlush(-1L);
+    } else if (scheduledId >= 0) {
+      long id = scheduledId;
+      try {
+        scheduler.schedule(executor, () -> flush(id), bufferTime, TimeUnit.NANOSECONDS);
+      } catch (Throwable t) {
+        logger.log(Level.WARNING, "Exception thrown when scheduling a write-behind flush", t);
+        submitFlush(id);
+      }
+    }
+  }
+
+  /** Flushes the buffer on the executor, or on the calling thread if the executor rejects it. */
+  void submitFlush(long id) {
+    try {
+      executor.execute(() -> flush(id));
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Exception thrown when submitting a write-behind flush", t);
+      flush(id);
+    }
+  }
+
+  /**
+   * Writes the buffered changes if the buffer has not been flushed already. A negative identifier
+   * flushes the buffer unconditionally.
+   */
+  void flush(long id) {
+    flushLock.lock();
+    try {
+      Map<K, Object> batch;
+      synchronized (this) {
+        if (pending.isEmpty() || ((id >= 0) && (id != bufferId))) {
+          return;
+        }
+        batch = pending;
+        pending = new LinkedHashMap<>();
+        flushSubmitted = false;
+        bufferId++;
+      }
+      write(batch);
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /** Writes the batch to the external resource in chunks of up to the maximum batch size. */
+  @GuardedBy("flushLock")
+  @SuppressWarnings("unchecked")
+  void write(Map<K, Object> batch) {
+    List<K> keys = new ArrayList<>(batch.keySet());
+    for (int i = 0; i < keys.size(); i += maximumBatchSize) {
+      Map<K, V> writes = new LinkedHashMap<>();
+      Set<K> deletes = new LinkedHashSet<>();
+      for (K key : keys.subList(i, Math.min(keys.size(), i + maximumBatchSize))) {
+        Object value = batch.get(key);
+        if (value == DELETED) {
+          deletes.add(key);
+        } else {
+          writes.put(key, (V) value);
+        }
+      }
+      try {
+        if (!writes.isEmpty()) {
+          writeAction.accept(Collections.unmodifiableMap(writes));
+        }
+        if (!deletes.isEmpty()) {
+          deleteAction.accept(Collections.unmodifiableSet(deletes));
+        }
+      } catch (Throwable t) {
+        logger.log(Level.WARNING, "Exception thrown when writing behind", t);
+      }
+    }
+  }
+
+  /**
+   * A builder of {@link WriteBehindCacheWriter} instances. The write action, buffer time, and
+   * scheduler must be specified.
+   *
+   * @param <K> the type of keys
+   * @param <V> the type of values
+   */
+  public static final class Builder<K, V> {
+    @Nullable Consumer<? super Map<K, V>> writeAction;
+    Consumer<? super Set<K>> deleteAction;
+    BinaryOperator<V> coalescer;
+    @Nullable Scheduler scheduler;
+    Executor executor;
+    int maximumBatchSize;
+    int maximumPending;
+    long bufferTime;
+
+    Builder() {
+      maximumBatchSize = DEFAULT_MAXIMUM_BATCH_SIZE;
+      maximumPending = DEFAULT_MAXIMUM_PENDING;
+      executor = ForkJoinPool.commonPool();
+      coalescer = (oldValue, newValue) -> newValue;
+      deleteAction = keys -> {};
+      bufferTime = -1;
+    }
+
+    /**
+     * Specifies the action that writes a batch of entries to the external resource.
+     *
+     * @param writeAction the action that writes the coalesced values of the keys
+     * @return this builder instance
+     */
+    public @NonNull Builder<K, V> writeAction(@NonNull Consumer<? super Map<K, V>> writeAction) {
+      requireState(this.writeAction == null, "write action was already set");
+      this.writeAction = requireNonNull(writeAction);
+      return this;
+    }
+
+    /**
+     * Specifies the action that deletes a batch of explicitly removed keys from the external
+     * resource. By default the deletions only discard the pending writes of the keys.
+     *
+     * @param deleteAction the action that deletes the keys
+     * @return this builder instance
+     */
+    public @NonNull Builder<K, V> deleteAction(@NonNull Consumer<? super Set<K>> deleteAction) {
+      this.deleteAction = requireNonNull(deleteAction);
+      return this;
+    }
+
+    /**
+     * Specifies how a write is combined with the key's pending value. By default the most recent
+     * value is retained.
+     *
+     * @param coalescer the function that is given the pending and new values, in that order
+     * @return this builder instance
+     */
+    public @NonNull Builder<K, V> coalesce(@NonNull BinaryOperator<V> coalescer) {
+      this.coalescer = requireNonNull(coalescer);
+      return this;
+    }
+
+    /**
+     * Specifies the maximum duration that a write may be buffered before it is written.
+     *
+     * @param bufferTime the maximum duration to buffer a write
+     * @return this builder instance
+     * @throws IllegalArgumentException if the duration is negative
+     */
+    public @NonNull Builder<K, V> bufferTime(@NonNull Duration bufferTime) {
+      requireArgument(!bufferTime.isNegative(),
+          "buffer time must not be negative: %s", bufferTime);
+      this.bufferTime = Caffeine.saturatedToNanos(bufferTime);
+      return this;
+    }
+
+    /**
+     * Specifies the maximum number of keys that are written by a single action. A full buffer is
+     * flushed without waiting for the buffer time.
+     *
+     * @param maximumBatchSize the maximum number of keys to write at once
+     * @return this builder instance
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public @NonNull Builder<K, V> maximumBatchSize(int maximumBatchSize) {
+      requireArgument(maximumBatchSize > 0,
+          "maximum batch size must be positive: %s", maximumBatchSize);
+      this.maximumBatchSize = maximumBatchSize;
+      return this;
+    }
+
+    /**
+     * Specifies the maximum number of keys that may be buffered before the writing thread must
+     * flush the buffer itself.
+     *
+     * @param maximumPending the maximum number of buffered keys
+     * @return this builder instance
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public @NonNull Builder<K, V> maximumPending(int maximumPending) {
+      requireArgument(maximumPending > 0,
+          "maximum pending must be positive: %s", maximumPending);
+      this.maximumPending = maximumPending;
+      return this;
+    }
+
+    /**
+     * Specifies the scheduler that flushes the buffer once the buffer time has elapsed. This is
+     * usually the scheduler given to {@link Caffeine#scheduler}.
+     *
+     * @param scheduler the scheduler that flushes the buffer
+     * @return this builder instance
+     * @throws IllegalArgumentException if the scheduler is disabled
+     */
+    public @NonNull Builder<K, V> scheduler(@NonNull Scheduler scheduler) {
+      requireArgument(scheduler != Scheduler.disabledScheduler(),
+          "scheduler is required to bound the buffer time");
+      this.scheduler = requireNonNull(scheduler);
+      return this;
+    }
+
+    /**
+     * Specifies the executor that writes the batches. By default, {@link ForkJoinPool#commonPool()}
+     * is used, which is also the cache's default executor.
+     *
+     * @param executor the executor that writes the batches
+     * @return this builder instance
+     */
+    public @NonNull Builder<K, V> executor(@NonNull Executor executor) {
+      this.executor = requireNonNull(executor);
+      return this;
+    }
+
+    /**
+     * Returns a write-behind writer with the settings of this builder.
+     *
+     * @return a new writer
+     * @throws IllegalStateException if the write action, buffer time, or scheduler was not set
+     */
+    public @NonNull WriteBehindCacheWriter<K, V> build() {
+      requireState(writeAction != null, "write action must be set");
+      requireState(bufferTime >= 0, "buffer time must be set");
+      requireState(scheduler != null, "scheduler must be set");
+      return new WriteBehindCacheWriter<>(this);
+    }
+  }
+}
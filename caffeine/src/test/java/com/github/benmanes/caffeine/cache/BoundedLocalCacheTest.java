@@ -187,6 +187,54 @@ public final class BoundedLocalCacheTest {
     assertThat(Math.max(0, map.weightedSize()), is(BoundedLocalCache.MAXIMUM_CAPACITY));
   }
 
+  @Test
+  public void putWeighted_pendingWrites() {
+    Cache<Integer, Integer> cache = Caffeine.newBuilder()
+        .weigher((Integer key, Integer value) -> value)
+        .maximumWeight(100)
+        .executor(task -> {})
+        .build();
+    BoundedLocalCache<Integer, Integer> map = asBoundedLocalCache(cache);
+
+    cache.put(1, 5);
+    Node<Integer, Integer> node = map.data.get(map.nodeFactory.newLookupKey(1));
+    assertThat(map.writeBuffer().peek(), is(node));
+
+    cache.put(1, 7);
+    cache.put(2, 3);
+    cache.invalidate(2);
+    cache.cleanUp();
+    assertThat(map.weightedSize(), is(7L));
+    assertThat(node.getPolicyWeight(), is(7));
+
+    cache.invalidate(1);
+    cache.cleanUp();
+    assertThat(map.weightedSize(), is(0L));
+  }
+
+  @Test
+  public void updateWeight_mainProtected() {
+    Cache<Integer, Integer> cache = Caffeine.newBuilder()
+        .weigher((Integer key, Integer value) -> value)
+        .executor(CacheExecutor.DIRECT.create())
+        .maximumWeight(100)
+        .build();
+    BoundedLocalCache<Integer, Integer> map = asBoundedLocalCache(cache);
+    map.frequencySketch().ensureCapacity(100);
+    map.setWindowMaximum(0L);
+
+    cache.put(1, 5);
+    cache.getIfPresent(1);
+    cache.cleanUp();
+    Node<Integer, Integer> node = map.data.get(map.nodeFactory.newLookupKey(1));
+    assertThat(node.inMainProtected(), is(true));
+    assertThat(map.mainProtectedWeightedSize(), is(5L));
+
+    cache.put(1, 8);
+    assertThat(map.mainProtectedWeightedSize(), is(8L));
+    assertThat(map.weightedSize(), is(8L));
+  }
+
   @Test(dataProvider = "caches")
   @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
       population = Population.EMPTY, maximumSize = Maximum.ONE)
@@ -471,7 +519,8 @@ public final class BoundedLocalCacheTest {
     BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
 
     boolean[] ran = new boolean[1];
-    localCache.afterWrite(() -> ran[0] = true);
+    Runnable task = () -> ran[0] = true;
+    localCache.afterWrite(task);
     assertThat(ran[0], is(true));
 
     assertThat(localCache.writeBuffer().size(), is(0));
@@ -0,0 +1,588 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.BoundedLocalCacheTest.asBoundedLocalCache;
+import static com.github.benmanes.caffeine.cache.ShardedLocalCacheTest.asSharded;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.BoundedLocalCache.SnapshotIterator;
+import com.github.benmanes.caffeine.cache.OffHeapVictimTierTest.IntegerSerializer;
+import com.github.benmanes.caffeine.cache.Policy.Eviction;
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.ReferenceType;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class CacheSnapshotTest {
+  final Serializer<Integer> serializer = new IntegerSerializer();
+
+  @Test
+  public void writeAndRead() throws IOException {
+    Path path = newSnapshotPath();
+    Map<Integer, Integer> entries = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      entries.put(i, -i);
+    }
+    long written = CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.emptyList(), serializer, serializer);
+    assertThat(written, is(100L));
+
+    List<Integer> keys = new ArrayList<>();
+    long count = CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, sketch -> {}, (key, value) -> {
+          assertThat(value, is(-key));
+          keys.add(key);
+        });
+    assertThat(count, is(100L));
+    for (int i = 0; i < keys.size(); i++) {
+      assertThat(keys.get(i), is(99 - i));
+    }
+  }
+
+  @Test
+  public void read_limit() throws IOException {
+    Path path = newSnapshotPath();
+    Map<Integer, Integer> entries = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      entries.put(i, -i);
+    }
+    CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.emptyList(), serializer, serializer);
+
+    List<Integer> keys = new ArrayList<>();
+    long count = CacheSnapshot.read(path, 10,
+        serializer, serializer, sketch -> {}, (key, value) -> keys.add(key));
+    assertThat(count, is(10L));
+    for (int i = 0; i < keys.size(); i++) {
+      assertThat(keys.get(i), is(9 - i));
+    }
+  }
+
+  @Test
+  public void write_multipleRegions() throws IOException {
+    Path path = newSnapshotPath();
+    byte[] large = new byte[CacheSnapshot.REGION_SIZE];
+    Serializer<byte[]> bytes = new Serializer<byte[]>() {
+      @Override public byte[] serialize(byte[] object) {
+        return object;
+      }
+      @Override public byte[] deserialize(byte[] data) {
+        return data;
+      }
+    };
+    Map<Integer, byte[]> entries = new LinkedHashMap<>();
+    for (int i = 0; i < 3; i++) {
+      entries.put(i, large);
+    }
+    assertThat(CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.emptyList(), serializer, bytes), is(3L));
+
+    long count = CacheSnapshot.read(path, Long.MAX_VALUE, serializer, bytes, sketch -> {},
+        (key, value) -> assertThat(value.length, is(large.length)));
+    assertThat(count, is(3L));
+  }
+
+  @Test
+  public void write_replace() throws IOException {
+    Path path = newSnapshotPath();
+    Map<Integer, Integer> entries = new LinkedHashMap<>();
+    entries.put(1, 1);
+    CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.emptyList(), serializer, serializer);
+    entries.put(2, 2);
+    CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.emptyList(), serializer, serializer);
+
+    Map<Integer, Integer> restored = new LinkedHashMap<>();
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, sketch -> {}, restored::put);
+    assertThat(restored, is(entries));
+  }
+
+  @Test
+  public void writeAndRead_sketch() throws IOException {
+    Path path = newSnapshotPath();
+    FrequencySketch<Integer> sketch = new FrequencySketch<>();
+    sketch.ensureCapacity(64);
+    for (int i = 0; i < 10; i++) {
+      sketch.increment(1);
+    }
+    Map<Integer, Integer> entries = new LinkedHashMap<>();
+    entries.put(1, 1);
+    CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.singletonList(sketch), serializer, serializer);
+
+    List<FrequencySketch<?>> restored = new ArrayList<>();
+    Map<Integer, Integer> restoredEntries = new LinkedHashMap<>();
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, restored::addAll, restoredEntries::put);
+    assertThat(restoredEntries, is(entries));
+    assertThat(restored.size(), is(1));
+
+    @SuppressWarnings("unchecked")
+    FrequencySketch<Integer> copy = (FrequencySketch<Integer>) restored.get(0);
+    assertThat(copy.table, is(sketch.table));
+    assertThat(copy.sampleSize, is(sketch.sampleSize));
+    assertThat(copy.size, is(sketch.size));
+    assertThat(copy.frequency(1), is(sketch.frequency(1)));
+  }
+
+  @Test
+  public void writeAndRead_uninitializedSketch() throws IOException {
+    Path path = newSnapshotPath();
+    CacheSnapshot.write(path, Collections.<Entry<Integer, Integer>>emptyIterator(),
+        Collections.singletonList(new FrequencySketch<>()), serializer, serializer);
+
+    List<FrequencySketch<?>> restored = new ArrayList<>();
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, restored::addAll, (key, value) -> {});
+    assertThat(restored.isEmpty(), is(true));
+  }
+
+  @Test
+  public void writeAndRead_sketchConfiguration() throws IOException {
+    Path path = newSnapshotPath();
+    FrequencySketch<Integer> doorkeeper = new FrequencySketch<>(/* doorkeeper */ true);
+    doorkeeper.ensureCapacity(64);
+    FrequencySketch<Integer> blocked = new FrequencySketch<>(
+        /* doorkeeper */ false, /* blockedLayout */ true);
+    blocked.ensureCapacity(FrequencySketch.BLOCKED_LAYOUT_THRESHOLD);
+    blocked.increment(1);
+    CacheSnapshot.write(path, Collections.<Entry<Integer, Integer>>emptyIterator(),
+        Arrays.asList(doorkeeper, blocked), serializer, serializer);
+
+    List<FrequencySketch<?>> restored = new ArrayList<>();
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, restored::addAll, (key, value) -> {});
+    assertThat(restored.get(0).hasDoorkeeper, is(true));
+    assertThat(restored.get(0).blocked, is(false));
+    assertThat(restored.get(1).hasDoorkeeper, is(false));
+    assertThat(restored.get(1).blocked, is(true));
+
+    @SuppressWarnings("unchecked")
+    FrequencySketch<Integer> copy = (FrequencySketch<Integer>) restored.get(1);
+    assertThat(copy.frequency(1), is(blocked.frequency(1)));
+    assertThat(doorkeeper.restore(restored.get(0)), is(true));
+    assertThat(doorkeeper.restore(restored.get(1)), is(false));
+  }
+
+  @Test
+  public void writeAndRead_shardedSketches() throws IOException {
+    Path path = newSnapshotPath();
+    FrequencySketch<Integer> sketch = new FrequencySketch<>();
+    sketch.ensureCapacity(64);
+    sketch.increment(1);
+    CacheSnapshot.write(path, Collections.<Entry<Integer, Integer>>emptyIterator(),
+        Arrays.asList(null, sketch), serializer, serializer);
+
+    List<FrequencySketch<?>> restored = new ArrayList<>();
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, restored::addAll, (key, value) -> {});
+    assertThat(restored.size(), is(2));
+    assertThat(restored.get(0), is(nullValue()));
+    assertThat(restored.get(1).table, is(sketch.table));
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void read_invalid() throws IOException {
+    Path path = newSnapshotPath();
+    Files.write(path, new byte[CacheSnapshot.HEADER_SIZE]);
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, sketch -> {}, (key, value) -> {});
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void read_truncated() throws IOException {
+    Path path = newSnapshotPath();
+    Map<Integer, Integer> entries = new LinkedHashMap<>();
+    entries.put(1, 1);
+    CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.emptyList(), serializer, serializer);
+
+    byte[] bytes = Files.readAllBytes(path);
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    Files.write(path, truncated);
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, sketch -> {}, (key, value) -> {});
+  }
+
+
+  /* --------------- Cache --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = { Maximum.DISABLED, Maximum.ONE_FIFTY }, weigher = CacheWeigher.DEFAULT,
+      keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    assertThat(cache.policy().snapshotTo(path, serializer, serializer), is(100L));
+
+    Cache<Integer, Integer> restored = builder.restoreFrom(path, serializer, serializer).build();
+    assertThat(restored.asMap(), is(cache.asMap()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.UNREACHABLE, weigher = CacheWeigher.DEFAULT,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG)
+  public void cache_snapshot_hottestOrder(Cache<Integer, Integer> cache, CacheContext context,
+      Eviction<Integer, Integer> eviction) throws IOException {
+    Path path = newSnapshotPath();
+    int count = (5 * BoundedLocalCache.SNAPSHOT_BATCH_SIZE) / 2;
+    for (int i = 0; i < count; i++) {
+      cache.put(i, -i);
+    }
+    eviction.setMaximum(count + BoundedLocalCache.SNAPSHOT_BATCH_SIZE);
+    cache.cleanUp();
+    for (int i = 0; i < count; i += 3) {
+      cache.getIfPresent(i);
+    }
+    cache.cleanUp();
+    BoundedLocalCache<Integer, Integer> map = asBoundedLocalCache(cache);
+    assertThat(map.accessOrderProtectedDeque().isEmpty(), is(false));
+    assertThat(map.accessOrderProbationDeque().isEmpty(), is(false));
+
+    assertThat(cache.policy().snapshotTo(path, serializer, serializer), is((long) count));
+    List<Integer> keys = new ArrayList<>();
+    CacheSnapshot.read(path, Long.MAX_VALUE,
+        serializer, serializer, sketch -> {}, (key, value) -> keys.add(key));
+    Collections.reverse(keys);
+    assertThat(keys, is(new ArrayList<>(eviction.hottest(Integer.MAX_VALUE).keySet())));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.UNREACHABLE, weigher = CacheWeigher.DEFAULT,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG)
+  public void cache_snapshot_nextRemovedBetweenBatches(
+      Cache<Integer, Integer> cache, CacheContext context) {
+    BoundedLocalCache<Integer, Integer> map = asBoundedLocalCache(cache);
+    Set<Integer> keys = new HashSet<>();
+    SnapshotIterator<Integer, Integer> iterator = populateAndConsumeBatch(cache, map, keys);
+
+    Integer removed = iterator.window.next.getKey();
+    cache.invalidate(removed);
+    cache.cleanUp();
+
+    drain(iterator, keys);
+    assertThat(keys.contains(removed), is(false));
+    assertThat(keys, is(cache.asMap().keySet()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.UNREACHABLE, weigher = CacheWeigher.DEFAULT,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG)
+  public void cache_snapshot_lastRemovedBetweenBatches(
+      Cache<Integer, Integer> cache, CacheContext context) {
+    BoundedLocalCache<Integer, Integer> map = asBoundedLocalCache(cache);
+    Set<Integer> keys = new HashSet<>();
+    SnapshotIterator<Integer, Integer> iterator = populateAndConsumeBatch(cache, map, keys);
+
+    Integer removed = iterator.window.last.getKey();
+    cache.invalidate(removed);
+    cache.cleanUp();
+
+    drain(iterator, keys);
+    assertThat(keys.contains(removed), is(true));
+    assertThat(keys.size(), is(cache.asMap().size() + 1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.UNREACHABLE, weigher = CacheWeigher.DEFAULT,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG)
+  public void cache_snapshot_addedBetweenBatches(
+      Cache<Integer, Integer> cache, CacheContext context) {
+    BoundedLocalCache<Integer, Integer> map = asBoundedLocalCache(cache);
+    Set<Integer> keys = new HashSet<>();
+    SnapshotIterator<Integer, Integer> iterator = populateAndConsumeBatch(cache, map, keys);
+    long size = cache.estimatedSize();
+
+    for (int i = 0; i < BoundedLocalCache.SNAPSHOT_BATCH_SIZE; i++) {
+      cache.put(-i - 1, i);
+    }
+    cache.cleanUp();
+
+    drain(iterator, keys);
+    assertThat(keys.size(), is((int) size));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT,
+      keys = ReferenceType.STRONG, values = ReferenceType.STRONG)
+  public void cache_snapshot_retainsHottest(Cache<Integer, Integer> cache,
+      CacheContext context) throws IOException {
+    Path path = newSnapshotPath();
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    cache.cleanUp();
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 10; j++) {
+        cache.getIfPresent(i);
+      }
+    }
+    cache.cleanUp();
+    cache.policy().snapshotTo(path, serializer, serializer);
+
+    Map<Integer, Integer> hottest = new LinkedHashMap<>();
+    CacheSnapshot.read(path, 50, serializer, serializer, sketch -> {}, hottest::put);
+    assertThat(hottest.size(), is(50));
+    for (int i = 0; i < 10; i++) {
+      assertThat(hottest.get(i), is(-i));
+    }
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_frequencies(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    cache.cleanUp();
+    for (int i = 0; i < 10; i++) {
+      cache.getIfPresent(1);
+    }
+    cache.cleanUp();
+    cache.policy().snapshotTo(path, serializer, serializer);
+
+    BoundedLocalCache<Integer, Integer> original = asBoundedLocalCache(cache);
+    BoundedLocalCache<Integer, Integer> restored = asBoundedLocalCache(
+        builder.restoreFrom(path, serializer, serializer).build());
+
+    // the replayed insertions are recorded on top of the restored history
+    assertThat(restored.frequencySketch().frequency(1),
+        is(greaterThanOrEqualTo(original.frequencySketch().frequency(1))));
+    assertThat(restored.frequencySketch().frequency(1),
+        is(greaterThan(restored.frequencySketch().frequency(50))));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT,
+      keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_smallerMaximum(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    Map<Integer, Integer> entries = new LinkedHashMap<>();
+    for (int i = 0; i < 1_000; i++) {
+      entries.put(i, -i);
+    }
+    CacheSnapshot.write(path, entries.entrySet().iterator(),
+        Collections.emptyList(), serializer, serializer);
+
+    Cache<Integer, Integer> restored = builder.restoreFrom(path, serializer, serializer).build();
+    restored.cleanUp();
+    assertThat(restored.estimatedSize(), is(Maximum.TEN.max()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_sharded(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    Cache<Integer, Integer> sharded = builder.evictionShards(2).build();
+    for (int i = 0; i < 100; i++) {
+      sharded.put(i, -i);
+    }
+    for (int i = 0; i < 10; i++) {
+      sharded.getIfPresent(1);
+    }
+    sharded.cleanUp();
+    assertThat(sharded.policy().snapshotTo(path, serializer, serializer),
+        is(sharded.estimatedSize()));
+
+    Cache<Integer, Integer> restored = builder.restoreFrom(path, serializer, serializer).build();
+    assertThat(restored.asMap(), is(sharded.asMap()));
+
+    int frequency = asSharded(restored).shardFor(1).frequencySketch().frequency(1);
+    assertThat(frequency, is(greaterThanOrEqualTo(
+        asSharded(sharded).shardFor(1).frequencySketch().frequency(1))));
+    assertThat(frequency, is(greaterThan(1)));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT,
+      keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_differentShards(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    Cache<Integer, Integer> sharded = builder.evictionShards(2).build();
+    for (int i = 0; i < 10; i++) {
+      sharded.put(i, -i);
+    }
+    sharded.policy().snapshotTo(path, serializer, serializer);
+
+    Cache<Integer, Integer> restored = Caffeine.newBuilder()
+        .restoreFrom(path, serializer, serializer)
+        .executor(context.executor())
+        .maximumSize(100)
+        .build();
+    assertThat(restored.asMap(), is(sharded.asMap()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_differentDoorkeeper(Cache<Integer, Integer> cache,
+      CacheContext context, Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    cache.cleanUp();
+    for (int i = 0; i < 10; i++) {
+      cache.getIfPresent(1);
+    }
+    cache.cleanUp();
+    cache.policy().snapshotTo(path, serializer, serializer);
+
+    Cache<Integer, Integer> restored = builder.doorkeeper()
+        .restoreFrom(path, serializer, serializer).build();
+    assertThat(restored.getIfPresent(1), is(-1));
+    restored.cleanUp();
+
+    // only the replayed insertion and the read were recorded, as the history was rejected
+    assertThat(asBoundedLocalCache(restored).frequencySketch().frequency(1),
+        is(lessThan(asBoundedLocalCache(cache).frequencySketch().frequency(1))));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      compute = Compute.ASYNC, keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_async(AsyncCache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    cache.synchronous().put(1, -1);
+    assertThat(cache.synchronous().policy().snapshotTo(path, serializer, serializer), is(1L));
+
+    AsyncCache<Integer, Integer> restored =
+        builder.restoreFrom(path, serializer, serializer).buildAsync();
+    assertThat(restored.synchronous().getIfPresent(1), is(-1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_absent(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    Cache<Integer, Integer> restored = builder.restoreFrom(path, serializer, serializer).build();
+    assertThat(restored.estimatedSize(), is(0L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      keys = ReferenceType.STRONG, values = ReferenceType.STRONG,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_restore_invalid(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) throws IOException {
+    Path path = newSnapshotPath();
+    Files.write(path, new byte[] { 1, 2, 3 });
+    Cache<Integer, Integer> restored = builder.restoreFrom(path, serializer, serializer).build();
+    assertThat(restored.getIfPresent(1), is(nullValue()));
+  }
+
+  /** Returns a snapshot iterator that has consumed its first batch of the populated cache. */
+  static SnapshotIterator<Integer, Integer> populateAndConsumeBatch(Cache<Integer, Integer> cache,
+      BoundedLocalCache<Integer, Integer> map, Set<Integer> keys) {
+    for (int i = 0; i < (3 * BoundedLocalCache.SNAPSHOT_BATCH_SIZE); i++) {
+      cache.put(i, -i);
+    }
+    SnapshotIterator<Integer, Integer> iterator =
+        new SnapshotIterator<>(map, Function.identity());
+    for (int i = 0; i < BoundedLocalCache.SNAPSHOT_BATCH_SIZE; i++) {
+      keys.add(iterator.next().getKey());
+    }
+    assertThat(keys.size(), is(BoundedLocalCache.SNAPSHOT_BATCH_SIZE));
+    return iterator;
+  }
+
+  /** Adds the keys that the iterator emits, asserting that none were emitted before. */
+  static void drain(SnapshotIterator<Integer, Integer> iterator, Set<Integer> keys) {
+    while (iterator.hasNext()) {
+      Integer key = iterator.next().getKey();
+      assertThat(keys.add(key), is(true));
+    }
+  }
+
+  /** Returns a path in a new temporary directory, which are both deleted when the JVM exits. */
+  static Path newSnapshotPath() throws IOException {
+    Path directory = Files.createTempDirectory("snapshot");
+    Path path = directory.resolve("cache.snapshot");
+    directory.toFile().deleteOnExit();
+    path.toFile().deleteOnExit();
+    return path;
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.ReferenceType;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Writer;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * The test cases for the {@link CacheWriter#writeAll} and {@link CacheWriter#deleteAll} bulk
+ * operations.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class CacheWriterBulkTest {
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, writer = Writer.MOCKITO)
+  public void putAll_writeAll(Cache<Integer, Integer> cache, CacheContext context) {
+    Map<Integer, Integer> entries = entries(10);
+    cache.putAll(entries);
+
+    verify(context.cacheWriter()).writeAll(entries);
+    assertThat(cache.asMap(), is(entries));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.FULL,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, writer = Writer.MOCKITO)
+  public void putAll_writeAll_unchanged(Cache<Integer, Integer> cache, CacheContext context) {
+    Map<Integer, Integer> entries = new HashMap<>(context.original());
+    entries.put(context.absentKey(), context.absentValue());
+    cache.putAll(entries);
+
+    verify(context.cacheWriter()).writeAll(
+        ImmutableMap.of(context.absentKey(), context.absentValue()));
+    assertThat(cache.asMap(), is(entries));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, writer = Writer.MOCKITO)
+  public void putAll_writeAll_throws(Cache<Integer, Integer> cache, CacheContext context) {
+    doThrow(IllegalStateException.class).when(context.cacheWriter()).writeAll(any());
+    try {
+      cache.putAll(entries(10));
+      throw new AssertionError();
+    } catch (IllegalStateException expected) {}
+    assertThat(cache.estimatedSize(), is(0L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG,
+      writer = { Writer.DISABLED, Writer.EXCEPTIONAL })
+  public void defaultWriter(Cache<Integer, Integer> cache, CacheContext context) {
+    LocalCache<Integer, Integer> localCache = ((LocalManualCache<Integer, Integer>) cache).cache();
+    assertThat(localCache.writesAll(), is(false));
+    assertThat(localCache.deletesAll(), is(false));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.FULL,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, writer = Writer.MOCKITO)
+  public void invalidateAll_deleteAll(Cache<Integer, Integer> cache, CacheContext context) {
+    List<Integer> keys = Arrays.asList(context.firstKey(), context.lastKey(), context.absentKey());
+    cache.invalidateAll(keys);
+
+    Map<Integer, Integer> expected = Maps.filterKeys(context.original(), keys::contains);
+    verify(context.cacheWriter()).deleteAll(expected, RemovalCause.EXPLICIT);
+    assertThat(cache.estimatedSize(), is(context.initialSize() - expected.size()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.FULL,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, writer = Writer.MOCKITO)
+  public void invalidateAll_deleteAll_throws(Cache<Integer, Integer> cache, CacheContext context) {
+    doThrow(IllegalStateException.class).when(context.cacheWriter()).deleteAll(any(), any());
+    try {
+      cache.invalidateAll(Arrays.asList(context.firstKey(), context.lastKey()));
+      throw new AssertionError();
+    } catch (IllegalStateException expected) {}
+    assertThat(cache.asMap(), is(context.original()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.FULL,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, writer = Writer.MOCKITO)
+  public void invalidateAll_concurrentUpdate(Cache<Integer, Integer> cache, CacheContext context) {
+    Integer updated = context.firstKey();
+    doAnswer(invocation -> {
+      cache.put(updated, context.absentValue());
+      return null;
+    }).when(context.cacheWriter()).deleteAll(any(), any());
+
+    // The bulk removal is not atomic, so the concurrently updated entry is retained
+    cache.invalidateAll(Arrays.asList(updated, context.lastKey()));
+    assertThat(cache.getIfPresent(updated), is(context.absentValue()));
+    assertThat(cache.asMap().containsKey(context.lastKey()), is(false));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      compute = Compute.SYNC, keys = ReferenceType.STRONG, writer = Writer.MOCKITO)
+  public void invalidateAll_absent(Cache<Integer, Integer> cache, CacheContext context) {
+    cache.invalidateAll(Arrays.asList(1, 2, 3));
+    verify(context.cacheWriter(), never()).deleteAll(any(), any());
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, writer = Writer.MOCKITO, refreshAfterWrite = Expire.DISABLED)
+  public void sharded(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(2).build();
+    Map<Integer, Integer> entries = entries(10);
+    sharded.putAll(entries);
+    verify(context.cacheWriter()).writeAll(entries);
+
+    sharded.invalidateAll(Arrays.asList(1, 2));
+    verify(context.cacheWriter()).deleteAll(
+        ImmutableMap.of(1, -1, 2, -2), RemovalCause.EXPLICIT);
+    assertThat(sharded.estimatedSize(), is(8L));
+  }
+
+  static Map<Integer, Integer> entries(int count) {
+    Map<Integer, Integer> entries = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      entries.put(i, -i);
+    }
+    return entries;
+  }
+}
@@ -16,12 +16,14 @@
 package com.github.benmanes.caffeine.cache;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.verify;
 
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
@@ -33,6 +35,7 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.github.benmanes.caffeine.cache.EvictionPolicyTest.FifoPolicy;
 import com.github.benmanes.caffeine.cache.Policy.Eviction;
 import com.github.benmanes.caffeine.cache.Policy.Expiration;
 import com.github.benmanes.caffeine.cache.stats.StatsCounter;
@@ -50,6 +53,7 @@ public final class CaffeineTest {
   @Mock Expiry<Object, Object> expiry;
   @Mock CacheLoader<Object, Object> loader;
   @Mock CacheWriter<Object, Object> writer;
+  @Mock Serializer<Object> serializer;
 
   AutoCloseable mocks;
 
@@ -717,4 +721,740 @@ public final class CaffeineTest {
     assertThat(builder.getCacheWriter(), is(writer));
     builder.build();
   }
+
+  /* --------------- offHeapVictims --------------- */
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void offHeapVictims_null() {
+    Caffeine.newBuilder().offHeapVictims(1024, null);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void offHeapVictims_zero() {
+    Caffeine.newBuilder().offHeapVictims(0, serializer);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void offHeapVictims_twice() {
+    Caffeine.newBuilder().offHeapVictims(1024, serializer).offHeapVictims(1024, serializer);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void offHeapVictims_weakKeys() {
+    Caffeine.newBuilder().offHeapVictims(1024, serializer).weakKeys();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void offHeapVictims_noMaximum() {
+    Caffeine.newBuilder().offHeapVictims(1024, serializer).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void offHeapVictims_expireAfterWrite() {
+    Caffeine.newBuilder().maximumSize(1).offHeapVictims(1024, serializer)
+        .expireAfterWrite(1, TimeUnit.MINUTES).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void offHeapVictims_expireAfterAccess() {
+    Caffeine.newBuilder().maximumSize(1).offHeapVictims(1024, serializer)
+        .expireAfterAccess(1, TimeUnit.MINUTES).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void offHeapVictims_async() {
+    Caffeine.newBuilder().maximumSize(1).offHeapVictims(1024, serializer).buildAsync();
+  }
+
+  @Test
+  public void offHeapVictims() {
+    Caffeine<?, ?> builder = Caffeine.newBuilder().maximumSize(1).offHeapVictims(1024, serializer);
+    assertThat(builder.hasVictimTier(), is(true));
+    assertThat(builder.newVictimTier(), is(not(nullValue())));
+    builder.build();
+  }
+
+  /* --------------- refreshBatching --------------- */
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void refreshBatching_null() {
+    Caffeine.newBuilder().refreshBatching(1, null);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void refreshBatching_zero() {
+    Caffeine.newBuilder().refreshBatching(0, Duration.ZERO);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void refreshBatching_negativeDelay() {
+    Caffeine.newBuilder().refreshBatching(1, Duration.ofMillis(-1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void refreshBatching_twice() {
+    Caffeine.newBuilder().refreshBatching(1, Duration.ZERO).refreshBatching(1, Duration.ZERO);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void refreshBatching_noCacheLoader() {
+    Caffeine.newBuilder().refreshAfterWrite(Duration.ofMillis(1))
+        .refreshBatching(1, Duration.ZERO).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void refreshBatching_noRefresh() {
+    Caffeine.newBuilder().refreshBatching(1, Duration.ZERO).build(loader);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void refreshBatching_noRefresh_async() {
+    Caffeine.newBuilder().refreshBatching(1, Duration.ZERO).buildAsync(loader);
+  }
+
+  @Test
+  public void refreshBatching() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .refreshAfterWrite(Duration.ofMillis(1)).refreshBatching(10, Duration.ofMillis(5));
+    assertThat(builder.batchesRefreshes(), is(true));
+    assertThat(builder.newRefreshBatcher(loader), is(not(nullValue())));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().toString())));
+    builder.build(loader);
+    builder.buildAsync(loader);
+  }
+
+  /* --------------- restoreFrom --------------- */
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void restoreFrom_nullPath() {
+    Caffeine.newBuilder().restoreFrom(null, serializer, serializer);
+  }
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void restoreFrom_nullKeySerializer() {
+    Caffeine.newBuilder().restoreFrom(Paths.get("snapshot"), null, serializer);
+  }
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void restoreFrom_nullValueSerializer() {
+    Caffeine.newBuilder().restoreFrom(Paths.get("snapshot"), serializer, null);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void restoreFrom_twice() {
+    Caffeine.newBuilder()
+        .restoreFrom(Paths.get("snapshot"), serializer, serializer)
+        .restoreFrom(Paths.get("snapshot"), serializer, serializer);
+  }
+
+  @Test
+  public void restoreFrom() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .restoreFrom(Paths.get("snapshot"), serializer, serializer);
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().toString())));
+  }
+
+  /* --------------- evictionShards --------------- */
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void evictionShards_zero() {
+    Caffeine.newBuilder().evictionShards(0);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionShards_twice() {
+    Caffeine.newBuilder().evictionShards(2).evictionShards(2);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionShards_noMaximum() {
+    Caffeine.newBuilder().evictionShards(2).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionShards_exceedsMaximum() {
+    Caffeine.newBuilder().evictionShards(4).maximumSize(3).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionShards_exceedsMaximumWeight() {
+    Caffeine.newBuilder().evictionShards(4).maximumWeight(3).weigher((k, v) -> 1).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionShards_async() {
+    Caffeine.newBuilder().evictionShards(2).maximumSize(10).buildAsync();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionShards_asyncLoader() {
+    Caffeine.newBuilder().evictionShards(2).maximumSize(10).buildAsync(loader);
+  }
+
+  @Test
+  public void evictionShards() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder().evictionShards(2).maximumSize(10);
+    assertThat(builder.isSharded(), is(true));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().maximumSize(10).toString())));
+    builder.build();
+    builder.build(loader);
+  }
+
+  /* --------------- evictionPolicy --------------- */
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void evictionPolicy_null() {
+    Caffeine.newBuilder().evictionPolicy(null);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionPolicy_twice() {
+    Caffeine.newBuilder()
+        .evictionPolicy(FifoPolicy::new)
+        .evictionPolicy(FifoPolicy::new);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionPolicy_weakKeys() {
+    Caffeine.newBuilder().evictionPolicy(FifoPolicy::new).weakKeys();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionPolicy_afterWeakKeys() {
+    Caffeine.newBuilder().weakKeys().evictionPolicy(FifoPolicy::new);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionPolicy_noMaximum() {
+    Caffeine.newBuilder().evictionPolicy(FifoPolicy::new).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void evictionPolicy_noMaximum_async() {
+    Caffeine.newBuilder().evictionPolicy(FifoPolicy::new).buildAsync();
+  }
+
+  @Test
+  public void evictionPolicy() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .evictionPolicy(FifoPolicy::new).maximumSize(10);
+    assertThat(builder.newEvictionPolicy(), is(instanceOf(FifoPolicy.class)));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().maximumSize(10).toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
+
+  /* --------------- windowClimber --------------- */
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void windowClimber_null() {
+    Caffeine.newBuilder().windowClimber(null);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void windowClimber_twice() {
+    Caffeine.newBuilder()
+        .windowClimber(WindowClimber.ADAM)
+        .windowClimber(WindowClimber.ADAM);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void windowClimber_noMaximum() {
+    Caffeine.newBuilder().windowClimber(WindowClimber.ADAM).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void windowClimber_evictionPolicy() {
+    Caffeine.newBuilder()
+        .windowClimber(WindowClimber.ADAM)
+        .evictionPolicy(FifoPolicy::new)
+        .maximumSize(10)
+        .build();
+  }
+
+  @Test
+  public void windowClimber_hillClimber() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .windowClimber(WindowClimber.HILL_CLIMBER).maximumSize(10);
+    assertThat(builder.newClimber(), is(nullValue()));
+    builder.build();
+  }
+
+  @Test
+  public void windowClimber() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .windowClimber(WindowClimber.NADAM).maximumSize(10);
+    assertThat(builder.newClimber(), is(instanceOf(Climber.Nadam.class)));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().maximumSize(10).toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
+
+  /* --------------- doorkeeper --------------- */
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void doorkeeper_twice() {
+    Caffeine.newBuilder().doorkeeper().doorkeeper();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void doorkeeper_noMaximum() {
+    Caffeine.newBuilder().doorkeeper().build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void doorkeeper_evictionPolicy() {
+    Caffeine.newBuilder()
+        .evictionPolicy(FifoPolicy::new)
+        .doorkeeper()
+        .maximumSize(10)
+        .build();
+  }
+
+  @Test
+  public void doorkeeper() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder().doorkeeper().maximumSize(10);
+    assertThat(builder.hasDoorkeeper(), is(true));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().maximumSize(10).toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
+
+  /* --------------- blockedFrequencySketch --------------- */
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void blockedFrequencySketch_twice() {
+    Caffeine.newBuilder().blockedFrequencySketch().blockedFrequencySketch();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void blockedFrequencySketch_noMaximum() {
+    Caffeine.newBuilder().blockedFrequencySketch().build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void blockedFrequencySketch_evictionPolicy() {
+    Caffeine.newBuilder().evictionPolicy(FifoPolicy::new)
+        .blockedFrequencySketch().maximumSize(10).build();
+  }
+
+  @Test
+  public void blockedFrequencySketch() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .blockedFrequencySketch().maximumSize(10);
+    assertThat(builder.hasBlockedFrequencySketch(), is(true));
+    assertThat(Caffeine.newBuilder().hasBlockedFrequencySketch(), is(false));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().maximumSize(10).toString())));
+    builder.build();
+  }
+
+  /* --------------- loadPenaltyAdmission --------------- */
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void loadPenaltyAdmission_twice() {
+    Caffeine.newBuilder().loadPenaltyAdmission().loadPenaltyAdmission();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void loadPenaltyAdmission_noMaximum() {
+    Caffeine.newBuilder().loadPenaltyAdmission().recordStats().build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void loadPenaltyAdmission_noStats() {
+    Caffeine.newBuilder().loadPenaltyAdmission().maximumSize(10).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void loadPenaltyAdmission_evictionPolicy() {
+    Caffeine.newBuilder()
+        .evictionPolicy(FifoPolicy::new)
+        .loadPenaltyAdmission()
+        .maximumSize(10)
+        .recordStats()
+        .build();
+  }
+
+  @Test
+  public void loadPenaltyAdmission() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .loadPenaltyAdmission().maximumSize(10).recordStats();
+    assertThat(builder.hasLoadPenaltyAdmission(), is(true));
+    assertThat(builder.toString(),
+        is(not(Caffeine.newBuilder().maximumSize(10).recordStats().toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
+
+  /* --------------- weightAwareAdmission --------------- */
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void weightAwareAdmission_twice() {
+    Caffeine.newBuilder().weightAwareAdmission().weightAwareAdmission();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void weightAwareAdmission_noMaximum() {
+    Caffeine.newBuilder().weightAwareAdmission().build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void weightAwareAdmission_maximumSize() {
+    Caffeine.newBuilder().weightAwareAdmission().maximumSize(10).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void weightAwareAdmission_evictionPolicy() {
+    Caffeine.newBuilder()
+        .evictionPolicy(FifoPolicy::new)
+        .weightAwareAdmission()
+        .maximumWeight(10)
+        .weigher(Weigher.singletonWeigher())
+        .build();
+  }
+
+  @Test
+  public void weightAwareAdmission() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .weightAwareAdmission().maximumWeight(10).weigher(Weigher.singletonWeigher());
+    assertThat(builder.hasWeightAwareAdmission(), is(true));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder()
+        .maximumWeight(10).weigher(Weigher.singletonWeigher()).toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
+
+  /* --------------- maintenanceTimeSlice --------------- */
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void maintenanceTimeSlice_null() {
+    Caffeine.newBuilder().maintenanceTimeSlice(null);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void maintenanceTimeSlice_zero() {
+    Caffeine.newBuilder().maintenanceTimeSlice(Duration.ZERO);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void maintenanceTimeSlice_negative() {
+    Caffeine.newBuilder().maintenanceTimeSlice(Duration.ofMillis(-1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void maintenanceTimeSlice_twice() {
+    Caffeine.newBuilder()
+        .maintenanceTimeSlice(Duration.ofMillis(1))
+        .maintenanceTimeSlice(Duration.ofMillis(1));
+  }
+
+  @Test
+  public void maintenanceTimeSlice() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .maintenanceTimeSlice(Duration.ofMillis(1)).maximumSize(10);
+    assertThat(builder.getMaintenanceTimeSliceNanos(), is(TimeUnit.MILLISECONDS.toNanos(1)));
+    assertThat(builder.getMaintenanceTicker(), is(Ticker.systemTicker()));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().maximumSize(10).toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
+
+  /* --------------- batchRemovalListener --------------- */
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void batchRemovalListener_null() {
+    Caffeine.newBuilder().batchRemovalListener(null);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void batchRemovalListener_twice() {
+    Caffeine.newBuilder().batchRemovalListener(list -> {}).batchRemovalListener(list -> {});
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void batchRemovalListener_removalListener() {
+    Caffeine.newBuilder().removalListener((k, v, c) -> {}).batchRemovalListener(list -> {});
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void removalListener_batchRemovalListener() {
+    Caffeine.newBuilder().batchRemovalListener(list -> {}).removalListener((k, v, c) -> {});
+  }
+
+  @Test
+  public void batchRemovalListener() {
+    BatchRemovalListener<Object, Object> listener = list -> {};
+    Caffeine<Object, Object> builder = Caffeine.newBuilder().batchRemovalListener(listener);
+    assertThat(builder.hasRemovalListener(), is(true));
+    assertThat(builder.getRemovalListener(false), is(instanceOf(RemovalNotificationBatcher.class)));
+    assertThat(builder.getRemovalListener(true), is(instanceOf(RemovalNotificationBatcher.class)));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
+
+  /* --------------- probabilisticEarlyRefresh --------------- */
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void probabilisticEarlyRefresh_zero() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(0.0);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void probabilisticEarlyRefresh_nan() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(Double.NaN);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void probabilisticEarlyRefresh_infinite() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(Double.POSITIVE_INFINITY);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void probabilisticEarlyRefresh_twice() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(1.0).probabilisticEarlyRefresh(1.0);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void probabilisticEarlyRefresh_noExpiration() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(1.0).recordStats().build(loader);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void probabilisticEarlyRefresh_noStats() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(1.0)
+        .expireAfterWrite(Duration.ofMinutes(1)).build(loader);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void probabilisticEarlyRefresh_noLoader() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(1.0)
+        .expireAfterWrite(Duration.ofMinutes(1)).recordStats().build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void probabilisticEarlyRefresh_noAsyncLoader() {
+    Caffeine.newBuilder().probabilisticEarlyRefresh(1.0)
+        .expireAfterWrite(Duration.ofMinutes(1)).recordStats().buildAsync();
+  }
+
+  @Test
+  public void probabilisticEarlyRefresh() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder().probabilisticEarlyRefresh(2.0)
+        .expireAfterWrite(Duration.ofMinutes(1)).recordStats();
+    assertThat(builder.getEarlyRefreshBeta(), is(2.0));
+    assertThat(Caffeine.newBuilder().getEarlyRefreshBeta(), is(0.0));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder()
+        .expireAfterWrite(Duration.ofMinutes(1)).recordStats().toString())));
+    builder.build(loader);
+    builder.buildAsync(loader);
+  }
+
+  /* --------------- staleWhileRevalidate --------------- */
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void staleWhileRevalidate_zero() {
+    Caffeine.newBuilder().staleWhileRevalidate(Duration.ZERO);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void staleWhileRevalidate_twice() {
+    Caffeine.newBuilder().staleWhileRevalidate(Duration.ofSeconds(1))
+        .staleWhileRevalidate(Duration.ofSeconds(1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void staleWhileRevalidate_noExpiration() {
+    Caffeine.newBuilder().staleWhileRevalidate(Duration.ofSeconds(1)).build(loader);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void staleWhileRevalidate_noLoader() {
+    Caffeine.newBuilder().staleWhileRevalidate(Duration.ofSeconds(1))
+        .expireAfterWrite(Duration.ofMinutes(1)).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void staleWhileRevalidate_noAsyncLoader() {
+    Caffeine.newBuilder().staleWhileRevalidate(Duration.ofSeconds(1))
+        .expireAfterWrite(Duration.ofMinutes(1)).buildAsync();
+  }
+
+  @Test
+  public void staleWhileRevalidate() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .staleWhileRevalidate(Duration.ofSeconds(1)).expireAfterWrite(Duration.ofMinutes(1));
+    assertThat(builder.getStaleWhileRevalidateNanos(), is(TimeUnit.SECONDS.toNanos(1)));
+    assertThat(Caffeine.newBuilder().getStaleWhileRevalidateNanos(), is(0L));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder()
+        .expireAfterWrite(Duration.ofMinutes(1)).toString())));
+    builder.build(loader);
+    builder.buildAsync(loader);
+  }
+
+  /* --------------- staleIfError --------------- */
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void staleIfError_negative() {
+    Caffeine.newBuilder().staleIfError(Duration.ofSeconds(-1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void staleIfError_twice() {
+    Caffeine.newBuilder().staleIfError(Duration.ofSeconds(1))
+        .staleIfError(Duration.ofSeconds(1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void staleIfError_noStaleWhileRevalidate() {
+    Caffeine.newBuilder().staleIfError(Duration.ofMinutes(1))
+        .expireAfterWrite(Duration.ofMinutes(1)).build(loader);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void staleIfError_noLoader() {
+    Caffeine.newBuilder().staleIfError(Duration.ofMinutes(1))
+        .staleWhileRevalidate(Duration.ofSeconds(1))
+        .expireAfterWrite(Duration.ofMinutes(1)).build();
+  }
+
+  @Test
+  public void staleIfError() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .staleIfError(Duration.ofMinutes(1)).staleWhileRevalidate(Duration.ofSeconds(1))
+        .expireAfterWrite(Duration.ofMinutes(1));
+    assertThat(builder.getStaleIfErrorNanos(), is(TimeUnit.MINUTES.toNanos(1)));
+    assertThat(Caffeine.newBuilder().getStaleIfErrorNanos(), is(0L));
+    builder.build(loader);
+    builder.buildAsync(loader);
+  }
+
+  /* --------------- negativeCaching --------------- */
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void negativeCaching_zeroSize() {
+    Caffeine.newBuilder().negativeCaching(0, Duration.ofMinutes(1));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void negativeCaching_negativeDuration() {
+    Caffeine.newBuilder().negativeCaching(10, Duration.ofMinutes(-1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void negativeCaching_twice() {
+    Caffeine.newBuilder().negativeCaching(10, Duration.ofMinutes(1))
+        .negativeCaching(10, Duration.ofMinutes(1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void negativeCaching_noLoader() {
+    Caffeine.newBuilder().negativeCaching(10, Duration.ofMinutes(1)).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void negativeCaching_noAsyncLoader() {
+    Caffeine.newBuilder().negativeCaching(10, Duration.ofMinutes(1)).buildAsync();
+  }
+
+  @Test
+  public void negativeCaching() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .negativeCaching(10, Duration.ofMinutes(1));
+    assertThat(builder.cachesNegatives(), is(true));
+    assertThat(Caffeine.newBuilder().cachesNegatives(), is(false));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().toString())));
+    assertThat(((LocalLoadingCache<?, ?>) builder.build(loader)).cacheLoader(),
+        is(instanceOf(NegativeCachingLoader.class)));
+    builder.buildAsync(loader);
+  }
+
+  /* --------------- failureBackoff --------------- */
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void failureBackoff_zero() {
+    Caffeine.newBuilder().failureBackoff(Duration.ZERO, Duration.ofMinutes(1));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void failureBackoff_maximumBelowInitial() {
+    Caffeine.newBuilder().failureBackoff(Duration.ofMinutes(1), Duration.ofSeconds(1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void failureBackoff_twice() {
+    Caffeine.newBuilder().failureBackoff(Duration.ofSeconds(1), Duration.ofMinutes(1))
+        .failureBackoff(Duration.ofSeconds(1), Duration.ofMinutes(1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void failureBackoff_noNegativeCaching() {
+    Caffeine.newBuilder().failureBackoff(Duration.ofSeconds(1), Duration.ofMinutes(1))
+        .build(loader);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void failureBackoff_noLoader() {
+    Caffeine.newBuilder().failureBackoff(Duration.ofSeconds(1), Duration.ofMinutes(1))
+        .negativeCaching(10, Duration.ofMinutes(1)).build();
+  }
+
+  @Test
+  public void failureBackoff() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .failureBackoff(Duration.ofSeconds(1), Duration.ofMinutes(1))
+        .negativeCaching(10, Duration.ofMinutes(1));
+    assertThat(builder.backsOffFailures(), is(true));
+    assertThat(Caffeine.newBuilder().backsOffFailures(), is(false));
+    builder.build(loader);
+    builder.buildAsync(loader);
+  }
+
+  /* --------------- recordHotKeys --------------- */
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void recordHotKeys_zeroCapacity() {
+    Caffeine.newBuilder().recordHotKeys(0, Duration.ofMinutes(1));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void recordHotKeys_zeroWindow() {
+    Caffeine.newBuilder().recordHotKeys(10, Duration.ZERO);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void recordHotKeys_twice() {
+    Caffeine.newBuilder().recordHotKeys(10, Duration.ofMinutes(1))
+        .recordHotKeys(10, Duration.ofMinutes(1));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void recordHotKeys_noMaximum() {
+    Caffeine.newBuilder().recordHotKeys(10, Duration.ofMinutes(1)).build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void recordHotKeys_weakKeys() {
+    Caffeine.newBuilder().recordHotKeys(10, Duration.ofMinutes(1))
+        .maximumSize(10).weakKeys().build();
+  }
+
+  @Test
+  public void recordHotKeys() {
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .recordHotKeys(10, Duration.ofMinutes(1)).maximumSize(10);
+    assertThat(builder.recordsHotKeys(), is(true));
+    assertThat(Caffeine.newBuilder().recordsHotKeys(), is(false));
+    assertThat(builder.toString(), is(not(Caffeine.newBuilder().maximumSize(10).toString())));
+    builder.build();
+    builder.build(loader);
+    builder.buildAsync();
+  }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.BoundedLocalCacheTest.asBoundedLocalCache;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * The test cases for the strategies that adapt the size of the admission window.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class ClimberTest {
+
+  @Test(dataProvider = "gradientClimbers", dataProviderClass = ClimberTest.class)
+  public void sampleSize(WindowClimber type) {
+    Climber climber = type.newInstance();
+    assertThat(climber.sampleSize(0), is(1L));
+    assertThat(climber.sampleSize(1_000), is(50L));
+  }
+
+  @Test(dataProvider = "gradientClimbers", dataProviderClass = ClimberTest.class)
+  public void adjust_followsGradient(WindowClimber type) {
+    Climber climber = type.newInstance();
+    assertThat(climber.adjust(0.4, 0.5, 1_000), is(greaterThan(0.0)));
+
+    Climber other = type.newInstance();
+    assertThat(other.adjust(0.5, 0.4, 1_000), is(lessThan(0.0)));
+  }
+
+  @Test
+  public void simulatedAnnealing_cools() {
+    Climber.SimulatedAnnealing climber = new Climber.SimulatedAnnealing();
+    assertThat(climber.sampleSize(1_000), is(10_000L));
+    assertThat(Math.abs(climber.adjust(0.5, 0.0, 1_000)), is(62.5));
+
+    climber.adjust(0.49, 0.5, 1_000);
+    assertThat(climber.temperature, is(lessThan(1.0)));
+
+    climber.temperature = Climber.SimulatedAnnealing.MIN_TEMPERATURE;
+    assertThat(climber.adjust(0.48, 0.49, 1_000), is(0.0));
+
+    // a sharp drop in the hit rate restarts the search
+    assertThat(climber.adjust(0.40, 0.48, 1_000), is(not(0.0)));
+    assertThat(climber.temperature, is(lessThan(1.0)));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.TEN, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void cache_adaptsWindow(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    BoundedLocalCache<Integer, Integer> climbing = asBoundedLocalCache(
+        builder.windowClimber(WindowClimber.ADAM).build());
+    // The entries are weighted so that the gradient's step is at least one unit of the maximum
+    long windowMaximum = climbing.windowMaximum();
+    int count = (int) (2 * context.maximumSize());
+    for (int i = 0; i < count; i++) {
+      climbing.put(i, -i);
+    }
+    Integer hot = count - 1;
+    for (int i = 0; i < 100; i++) {
+      climbing.getIfPresent(hot, /* recordStats */ false, /* servesStale */ false);
+    }
+    climbing.cleanUp();
+    assertThat(climbing.climber, is(not((Climber) null)));
+    assertThat(climbing.windowMaximum(), is(not(windowMaximum)));
+  }
+
+  @DataProvider(name = "gradientClimbers")
+  public Object[][] providesGradientClimbers() {
+    return new Object[][] {
+      { WindowClimber.MOMENTUM }, { WindowClimber.NESTEROV }, { WindowClimber.ADAM },
+      { WindowClimber.NADAM }, { WindowClimber.AMSGRAD },
+    };
+  }
+}
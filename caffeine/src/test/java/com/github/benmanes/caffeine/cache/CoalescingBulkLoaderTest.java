@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+public final class CoalescingBulkLoaderTest {
+  final Queue<Runnable> scheduled = new ArrayDeque<>();
+  final List<List<Integer>> batches = new ArrayList<>();
+  final Scheduler scheduler = (executor, command, delay, unit) -> {
+    scheduled.add(command);
+    return DisabledFuture.INSTANCE;
+  };
+  final Executor executor = Runnable::run;
+
+  @BeforeMethod
+  public void beforeMethod() {
+    scheduled.clear();
+    batches.clear();
+  }
+
+  @Test
+  public void load_byDelay() {
+    CoalescingBulkLoader<Integer, Integer> loader = coalescing(negate(), 10);
+    CompletableFuture<Integer> first = loader.asyncLoad(1, executor);
+    CompletableFuture<Integer> second = loader.asyncLoad(2, executor);
+    assertThat(loader.asyncLoad(1, executor), is(first));
+    assertThat(loader.pendingCount(), is(2));
+    assertThat(scheduled.size(), is(1));
+    assertThat(batches.isEmpty(), is(true));
+
+    scheduled.poll().run();
+    assertThat(batches, contains(Arrays.asList(1, 2)));
+    assertThat(first.join(), is(-1));
+    assertThat(second.join(), is(-2));
+    assertThat(loader.pendingCount(), is(0));
+  }
+
+  @Test
+  public void load_bySize() {
+    CoalescingBulkLoader<Integer, Integer> loader = coalescing(negate(), 3);
+    List<CompletableFuture<Integer>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(loader.asyncLoad(i, executor));
+    }
+    assertThat(batches, contains(Arrays.asList(0, 1, 2)));
+    for (int i = 0; i < 3; i++) {
+      assertThat(futures.get(i).join(), is(-i));
+    }
+
+    // the stale flush does not send the next batch early
+    CompletableFuture<Integer> next = loader.asyncLoad(3, executor);
+    scheduled.poll().run();
+    assertThat(next.isDone(), is(false));
+    assertThat(loader.pendingCount(), is(1));
+
+    scheduled.poll().run();
+    assertThat(next.join(), is(-3));
+  }
+
+  @Test
+  public void load_absent() {
+    CoalescingBulkLoader<Integer, Integer> loader = coalescing(new BulkLoader() {
+      @Override public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+        super.loadAll(keys);
+        return Collections.singletonMap(1, -1);
+      }
+    }, 2);
+    CompletableFuture<Integer> present = loader.asyncLoad(1, executor);
+    CompletableFuture<Integer> absent = loader.asyncLoad(2, executor);
+    assertThat(present.join(), is(-1));
+    assertThat(absent.join(), is(nullValue()));
+  }
+
+  @Test
+  public void load_failure() {
+    IllegalStateException failure = new IllegalStateException();
+    CoalescingBulkLoader<Integer, Integer> loader = coalescing(new BulkLoader() {
+      @Override public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+        super.loadAll(keys);
+        throw failure;
+      }
+    }, 2);
+    CompletableFuture<Integer> first = loader.asyncLoad(1, executor);
+    CompletableFuture<Integer> second = loader.asyncLoad(2, executor);
+    for (CompletableFuture<Integer> future : Arrays.asList(first, second)) {
+      assertThat(future.isCompletedExceptionally(), is(true));
+      try {
+        future.join();
+        throw new AssertionError();
+      } catch (CompletionException e) {
+        assertThat(e.getCause(), is(failure));
+      }
+    }
+  }
+
+  @Test
+  public void load_schedulerThrows() {
+    CoalescingBulkLoader<Integer, Integer> loader = new CoalescingBulkLoader<>(negate(),
+        (executor, command, delay, unit) -> { throw new IllegalStateException(); }, 10, 0L);
+    assertThat(loader.asyncLoad(1, executor).join(), is(-1));
+  }
+
+  @Test
+  public void cache_coalescesMisses() {
+    AsyncLoadingCache<Integer, Integer> cache = Caffeine.newBuilder()
+        .executor(executor)
+        .scheduler(scheduler)
+        .buildAsync(coalescing(negate(), 10));
+    CompletableFuture<Integer> first = cache.get(1);
+    CompletableFuture<Integer> second = cache.get(2);
+    assertThat(first.isDone(), is(false));
+
+    scheduled.forEach(Runnable::run);
+    assertThat(batches, contains(Arrays.asList(1, 2)));
+    assertThat(first.join(), is(-1));
+    assertThat(second.join(), is(-2));
+    assertThat(cache.synchronous().estimatedSize(), is(2L));
+  }
+
+  @Test
+  public void of() {
+    AsyncCacheLoader<Integer, Integer> loader = CoalescingBulkLoader.of(
+        negate(), scheduler, 10, Duration.ofMillis(5));
+    assertThat(loader, is(instanceOf(CoalescingBulkLoader.class)));
+    assertThat(((CoalescingBulkLoader<?, ?>) loader).maximumDelay, is(5_000_000L));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void of_noBulkLoad() {
+    CoalescingBulkLoader.of((Integer key, Executor executor) ->
+        CompletableFuture.completedFuture(key), scheduler, 10, Duration.ofMillis(5));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void of_disabledScheduler() {
+    CoalescingBulkLoader.of(negate(), Scheduler.disabledScheduler(), 10, Duration.ofMillis(5));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void of_batchSize() {
+    CoalescingBulkLoader.of(negate(), scheduler, 0, Duration.ofMillis(5));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void of_delay() {
+    CoalescingBulkLoader.of(negate(), scheduler, 10, Duration.ofMillis(-5));
+  }
+
+  CoalescingBulkLoader<Integer, Integer> coalescing(
+      CacheLoader<Integer, Integer> loader, int maximumBatchSize) {
+    return new CoalescingBulkLoader<>(loader, scheduler, maximumBatchSize, 1L);
+  }
+
+  CacheLoader<Integer, Integer> negate() {
+    return new BulkLoader();
+  }
+
+  class BulkLoader implements CacheLoader<Integer, Integer> {
+    @Override public Integer load(Integer key) {
+      throw new AssertionError();
+    }
+    @Override public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+      List<Integer> batch = new ArrayList<>();
+      Map<Integer, Integer> result = new HashMap<>();
+      for (Integer key : keys) {
+        batch.add(key);
+        result.put(key, -key);
+      }
+      batches.add(batch);
+      return result;
+    }
+  }
+}
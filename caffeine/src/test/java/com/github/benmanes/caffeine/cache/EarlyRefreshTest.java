@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.EarlyRefresh;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Stats;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+import com.google.common.testing.FakeTicker;
+
+/**
+ * The test cases for loading caches that reload an entry ahead of its expiration.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class EarlyRefreshTest {
+  static final long LOAD_TIME = TimeUnit.SECONDS.toNanos(1);
+  static final long EXPIRY = Expire.ONE_MINUTE.timeNanos();
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, probabilisticEarlyRefresh = EarlyRefresh.ONE,
+      stats = Stats.ENABLED)
+  public void refresh_farFromExpiry(CacheContext context) {
+    CountingLoader loader = new CountingLoader(context.ticker());
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    context.ticker().advance(EXPIRY / 2);
+    for (int i = 0; i < 1_000; i++) {
+      assertThat(cache.get(1), is(1));
+    }
+    assertThat(loader.reloads, is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, probabilisticEarlyRefresh = EarlyRefresh.ONE,
+      stats = Stats.ENABLED)
+  public void refresh_nearExpiry(CacheContext context) {
+    CountingLoader loader = new CountingLoader(context.ticker());
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    advanceToExpiry(cache, context);
+    assertThat(cache.get(1), is(1));
+    assertThat(loader.reloads, is(1));
+    assertThat(cache.get(1), is(2));
+
+    // the entry's lifetime restarts from the reload
+    context.ticker().advance(EXPIRY / 2);
+    assertThat(cache.get(1), is(2));
+    assertThat(loader.loads, is(1));
+    assertThat(loader.reloads, is(1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, probabilisticEarlyRefresh = EarlyRefresh.ONE,
+      stats = Stats.ENABLED)
+  public void refresh_noLoadTime(CacheContext context) {
+    CountingLoader loader = new CountingLoader(context.ticker());
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    cache.put(1, 1);
+
+    advanceToExpiry(cache, context);
+    assertThat(cache.get(1), is(1));
+    assertThat(loader.reloads, is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, probabilisticEarlyRefresh = EarlyRefresh.ONE,
+      stats = Stats.ENABLED)
+  public void refresh_expiresWhileInFlight(CacheContext context) {
+    CompletableFuture<Integer> reload = new CompletableFuture<>();
+    CountingLoader loader = new CountingLoader(context.ticker()) {
+      @Override public CompletableFuture<Integer> asyncReload(
+          Integer key, Integer oldValue, Executor executor) {
+        reloads++;
+        return reload;
+      }
+    };
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    advanceToExpiry(cache, context);
+    assertThat(cache.getIfPresent(1), is(1));
+    assertThat(loader.reloads, is(1));
+
+    context.ticker().advance(1);
+    assertThat(cache.getIfPresent(1), is(nullValue()));
+
+    reload.complete(2);
+    assertThat(cache.getIfPresent(1), is(2));
+  }
+
+  /** Advances the time to just before the entry expires. */
+  static void advanceToExpiry(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    long age = cache.policy().expireAfterWrite().get()
+        .ageOf(1, TimeUnit.NANOSECONDS).getAsLong();
+    context.ticker().advance(EXPIRY - age - 1);
+  }
+
+  static class CountingLoader implements CacheLoader<Integer, Integer> {
+    final FakeTicker ticker;
+
+    int loads;
+    int reloads;
+
+    CountingLoader(FakeTicker ticker) {
+      this.ticker = ticker;
+    }
+
+    @Override public Integer load(Integer key) {
+      loads++;
+      ticker.advance(LOAD_TIME);
+      return key;
+    }
+    @Override public Integer reload(Integer key, Integer oldValue) {
+      reloads++;
+      ticker.advance(LOAD_TIME);
+      return oldValue + 1;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExecutor;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.ReferenceType;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * The test cases for a custom {@link EvictionPolicy}. The cache under test is built from the
+ * specification's builder, as the policy replaces the cache's own page replacement policy.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class EvictionPolicyTest {
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED)
+  public void evict_selectedVictims(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    FifoPolicy<Integer> policy = new FifoPolicy<>();
+    Cache<Integer, Integer> fifo = builder.evictionPolicy(() -> policy).build();
+    for (int i = 0; i < 10; i++) {
+      fifo.put(i, -i);
+    }
+    for (int i = 0; i < 10; i++) {
+      fifo.getIfPresent(0);
+    }
+    fifo.put(10, -10);
+    fifo.put(11, -11);
+
+    // a frequency-based policy would have retained the popular entry
+    assertThat(fifo.getIfPresent(0), is(nullValue()));
+    assertThat(fifo.getIfPresent(1), is(nullValue()));
+    assertThat(fifo.estimatedSize(), is(10L));
+    assertThat(policy.weights.keySet(), contains(2, 3, 4, 5, 6, 7, 8, 9, 10, 11));
+    assertThat(policy.accesses, is(10));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED)
+  public void remove_reported(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    FifoPolicy<Integer> policy = new FifoPolicy<>();
+    Cache<Integer, Integer> fifo = builder.evictionPolicy(() -> policy).build();
+    fifo.put(1, 1);
+    fifo.put(2, 2);
+    fifo.put(3, 3);
+    fifo.invalidate(1);
+    fifo.asMap().remove(2, 2);
+    fifo.asMap().computeIfPresent(3, (key, value) -> null);
+    assertThat(policy.weights.isEmpty(), is(true));
+
+    fifo.put(4, 4);
+    fifo.invalidateAll();
+    assertThat(policy.weights.isEmpty(), is(true));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED,
+      executor = CacheExecutor.DEFAULT)
+  public void remove_reinserted(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    FifoPolicy<Integer> policy = new FifoPolicy<>();
+    Cache<Integer, Integer> fifo = builder
+        .evictionPolicy(() -> policy)
+        .executor(task -> {})
+        .build();
+    fifo.put(1, 1);
+    fifo.invalidate(1);
+    fifo.put(1, 2);
+    fifo.cleanUp();
+
+    // the removal is not reported as the key was mapped to a new entry
+    assertThat(policy.weights.keySet(), contains(1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED)
+  public void selectVictim_absent(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    int[] selected = new int[1];
+    Cache<Integer, Integer> fifo = builder
+        .evictionPolicy(() -> new FifoPolicy<Integer>() {
+          @Override public void onRemove(Integer key) {}
+          @Override public Integer selectVictim() {
+            selected[0]++;
+            return context.absentKey();
+          }
+        })
+        .build();
+    for (int i = 0; i < 11; i++) {
+      fifo.put(i, -i);
+    }
+    fifo.cleanUp();
+
+    // the misbehaving policy is abandoned rather than spinning, so the cache remains over capacity
+    int passes = selected[0] / (BoundedLocalCache.EVICTION_POLICY_ABSENT_LIMIT + 1);
+    assertThat(passes, is(greaterThan(0)));
+    assertThat(selected[0], is(passes * (BoundedLocalCache.EVICTION_POLICY_ABSENT_LIMIT + 1)));
+    assertThat(fifo.estimatedSize(), is(11L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED)
+  public void selectVictim_absentBelowLimit(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    int[] absent = { BoundedLocalCache.EVICTION_POLICY_ABSENT_LIMIT };
+    FifoPolicy<Integer> policy = new FifoPolicy<Integer>() {
+      @Override public Integer selectVictim() {
+        return (absent[0]-- > 0) ? context.absentKey() : super.selectVictim();
+      }
+    };
+    Cache<Integer, Integer> fifo = builder.evictionPolicy(() -> policy).build();
+    for (int i = 0; i < 11; i++) {
+      fifo.put(i, -i);
+    }
+
+    // the absent victims are forgotten until a present one is selected within the pass
+    assertThat(fifo.getIfPresent(0), is(nullValue()));
+    assertThat(fifo.estimatedSize(), is(10L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.VALUE, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED)
+  public void weighted(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    FifoPolicy<Integer> policy = new FifoPolicy<>();
+    Cache<Integer, Integer> fifo = builder.evictionPolicy(() -> policy).build();
+    fifo.put(1, 3);
+    fifo.put(2, 4);
+    assertThat(policy.weights.get(1), is(3));
+
+    fifo.put(1, 5);
+    assertThat(policy.weights.get(1), is(5));
+
+    fifo.put(3, 2);
+    assertThat(fifo.asMap().keySet(), contains(1, 3));
+    assertThat(fifo.policy().eviction().get().weightedSize().getAsLong(), is(7L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.VALUE, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED)
+  public void weighted_zeroWeight(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    FifoPolicy<Integer> policy = new FifoPolicy<>();
+    Cache<Integer, Integer> fifo = builder.evictionPolicy(() -> policy).build();
+    fifo.put(1, 0);
+    fifo.put(2, 11);
+    assertThat(fifo.getIfPresent(2), is(11));
+
+    // the entry that could not be evicted was reported as written, so the next victim differs
+    fifo.cleanUp();
+    assertThat(fifo.getIfPresent(1), is(0));
+    assertThat(fifo.getIfPresent(2), is(nullValue()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      keys = ReferenceType.STRONG, refreshAfterWrite = Expire.DISABLED)
+  public void sharded(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    List<FifoPolicy<Integer>> policies = new ArrayList<>();
+    Cache<Integer, Integer> fifo = builder
+        .evictionPolicy(() -> {
+          FifoPolicy<Integer> policy = new FifoPolicy<>();
+          policies.add(policy);
+          return policy;
+        })
+        .evictionShards(4)
+        .build();
+    for (int i = 0; i < 100; i++) {
+      fifo.put(i, i);
+    }
+    assertThat(policies.size(), is(4));
+
+    int tracked = 0;
+    for (FifoPolicy<Integer> policy : policies) {
+      tracked += policy.weights.size();
+    }
+    assertThat(tracked, is(100));
+  }
+
+  /** A policy that evicts the entries in the order that they were written. */
+  static class FifoPolicy<K> implements EvictionPolicy<K> {
+    final Map<K, Integer> weights = new LinkedHashMap<>();
+    int accesses;
+
+    @Override public void onAccess(K key) {
+      accesses++;
+    }
+    @Override public void onWrite(K key, int weight) {
+      weights.remove(key);
+      weights.put(key, weight);
+    }
+    @Override public void onRemove(K key) {
+      weights.remove(key);
+    }
+    @Override public K selectVictim() {
+      Iterator<K> keys = weights.keySet().iterator();
+      return keys.hasNext() ? keys.next() : null;
+    }
+  }
+}
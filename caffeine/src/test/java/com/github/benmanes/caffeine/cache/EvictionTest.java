@@ -125,6 +125,29 @@ public final class EvictionTest {
     });
   }
 
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = {CacheWeigher.DEFAULT, CacheWeigher.TEN})
+  public void evict_afterInvalidate(Cache<Integer, Integer> cache, CacheContext context,
+      Eviction<Integer, Integer> eviction) {
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    cache.cleanUp();
+    assertThat(cache.estimatedSize(), is(Maximum.TEN.max()));
+
+    // the removals release only the weight that the policy accounted for
+    cache.invalidateAll();
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    cache.cleanUp();
+    assertThat(cache.estimatedSize(), is(Maximum.TEN.max()));
+    if (eviction.isWeighted()) {
+      assertThat(eviction.weightedSize().getAsLong(), is(context.maximumWeight()));
+    }
+  }
+
   @Test(dataProvider = "caches")
   @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
       initialCapacity = InitialCapacity.EXCESSIVE, maximumSize = Maximum.TEN,
@@ -20,6 +20,7 @@ import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -116,8 +117,117 @@ public final class FrequencySketchTest {
   }
 
   @Test
-  public void heavyHitters() {
-    FrequencySketch<Double> sketch = makeSketch(512);
+  public void reset_incremental() {
+    FrequencySketch<Integer> sketch = makeSketch(FrequencySketch.INCREMENTAL_RESET_THRESHOLD);
+    for (int i = 0; i < 10; i++) {
+      sketch.increment(item);
+    }
+    sketch.size = sketch.sampleSize - 1;
+    sketch.increment(-item);
+    assertThat(sketch.resetRemaining, is(sketch.table.length));
+    assertThat(sketch.size, is(sketch.sampleSize / 2));
+
+    int additions = 0;
+    for (int i = 0; sketch.resetRemaining > 0; i++) {
+      int size = sketch.size;
+      sketch.increment(i);
+      additions += (sketch.size - size);
+    }
+    assertThat(additions, lessThanOrEqualTo(sketch.table.length));
+    assertThat(sketch.frequency(item), is(5));
+    assertThat(sketch.size, lessThanOrEqualTo((sketch.sampleSize / 2) + additions));
+  }
+
+  @Test
+  public void reset_incremental_copy() {
+    FrequencySketch<Integer> sketch = makeSketch(FrequencySketch.INCREMENTAL_RESET_THRESHOLD);
+    for (int i = 0; i < 10; i++) {
+      sketch.increment(item);
+    }
+    sketch.size = sketch.sampleSize - 1;
+    sketch.increment(-item);
+
+    FrequencySketch<Integer> copy = sketch.copy();
+    assertThat(copy.resetRemaining, is(0));
+    assertThat(copy.frequency(item), is(5));
+    assertThat(sketch.resetRemaining, is(sketch.table.length));
+  }
+
+  @Test
+  public void ensureCapacity_doorkeeper() {
+    FrequencySketch<Integer> sketch = makeSketch(512, /* doorkeeper */ true);
+    assertThat(sketch.table.length, is(128));
+    assertThat(sketch.doorkeeper.length, is(256));
+    assertThat(sketch.sampleSize, is(10 * 512));
+    assertThat(sketch.capacity(), is(512));
+
+    long[] table = sketch.table;
+    sketch.ensureCapacity(300);
+    assertThat(sketch.table, is(sameInstance(table)));
+  }
+
+  @Test
+  public void ensureCapacity_blocked() {
+    FrequencySketch<Integer> sketch = makeBlockedSketch(FrequencySketch.BLOCKED_LAYOUT_THRESHOLD);
+    assertThat(sketch.blocked, is(true));
+    assertThat(sketch.blockMask, is((sketch.table.length / 8) - 1));
+    assertThat(makeBlockedSketch(512).blocked, is(false));
+  }
+
+  @Test
+  public void ensureCapacity_classicByDefault() {
+    FrequencySketch<Integer> sketch = makeSketch(FrequencySketch.BLOCKED_LAYOUT_THRESHOLD);
+    assertThat(sketch.blocked, is(false));
+  }
+
+  @Test
+  public void increment_blocked() {
+    FrequencySketch<Integer> sketch = makeBlockedSketch(FrequencySketch.BLOCKED_LAYOUT_THRESHOLD);
+    sketch.increment(item);
+
+    int block = (FrequencySketch.spread(item.hashCode()) & sketch.blockMask) << 3;
+    for (int i = 0; i < sketch.table.length; i++) {
+      boolean inBlock = (i >= block) && (i < block + 8);
+      if (!inBlock) {
+        assertThat(sketch.table[i], is(0L));
+      }
+    }
+    assertThat(sketch.frequency(item), is(1));
+  }
+
+  @Test
+  public void increment_doorkeeper() {
+    FrequencySketch<Integer> sketch = makeSketch(512, /* doorkeeper */ true);
+    sketch.increment(item);
+    assertThat(sketch.frequency(item), is(1));
+    assertThat(sketch.size, is(1));
+    for (long slot : sketch.table) {
+      assertThat(slot, is(0L));
+    }
+
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(item);
+    }
+    assertThat(sketch.frequency(item), is(15));
+  }
+
+  @Test
+  public void reset_doorkeeper() {
+    FrequencySketch<Integer> sketch = makeSketch(512, /* doorkeeper */ true);
+    sketch.increment(item);
+    sketch.increment(item);
+    sketch.increment(item);
+    sketch.reset();
+
+    assertThat(sketch.frequency(item), is(1));
+    for (long slot : sketch.doorkeeper) {
+      assertThat(slot, is(0L));
+    }
+  }
+
+  @Test(dataProvider = "heavyHitters")
+  public void heavyHitters(int maximumSize, boolean doorkeeper, boolean blocked) {
+    FrequencySketch<Double> sketch = makeSketch(maximumSize, doorkeeper, blocked);
     for (int i = 100; i < 100_000; i++) {
       sketch.increment((double) i);
     }
@@ -145,13 +255,91 @@ public final class FrequencySketchTest {
     }
   }
 
+  @Test
+  public void copy() {
+    FrequencySketch<Integer> sketch = makeSketch(64);
+    sketch.increment(1);
+    FrequencySketch<Integer> copy = sketch.copy();
+    sketch.increment(1);
+
+    assertThat(copy.frequency(1), is(1));
+    assertThat(copy.size, is(1));
+    assertThat(sketch.frequency(1), is(2));
+  }
+
+  @Test
+  public void restore() {
+    FrequencySketch<Integer> sketch = makeSketch(64);
+    sketch.increment(1);
+    sketch.increment(1);
+
+    FrequencySketch<Integer> restored = makeSketch(64);
+    assertThat(restored.restore(sketch), is(true));
+    assertThat(restored.frequency(1), is(2));
+    assertThat(restored.size, is(sketch.size));
+  }
+
+  @Test
+  public void restore_differentWidth() {
+    FrequencySketch<Integer> sketch = makeSketch(64);
+    sketch.increment(1);
+
+    FrequencySketch<Integer> restored = makeSketch(1024);
+    assertThat(restored.restore(sketch), is(false));
+    assertThat(restored.frequency(1), is(0));
+    assertThat(new FrequencySketch<Integer>().restore(sketch), is(false));
+  }
+
+  @Test
+  public void restore_differentDoorkeeper() {
+    // a doorkeeper reduces the table to a quarter of the width, so the lengths are made to match
+    FrequencySketch<Integer> sketch = makeSketch(256, /* doorkeeper */ true);
+    FrequencySketch<Integer> restored = makeSketch(64);
+    assertThat(restored.table.length, is(sketch.table.length));
+    assertThat(restored.restore(sketch), is(false));
+    assertThat(sketch.restore(restored), is(false));
+  }
+
+  @Test
+  public void restore_differentLayout() {
+    FrequencySketch<Integer> sketch = makeBlockedSketch(FrequencySketch.BLOCKED_LAYOUT_THRESHOLD);
+    FrequencySketch<Integer> restored = makeSketch(FrequencySketch.BLOCKED_LAYOUT_THRESHOLD);
+    assertThat(restored.restore(sketch), is(false));
+    assertThat(sketch.restore(restored), is(false));
+    assertThat(sketch.restore(sketch.copy()), is(true));
+  }
+
   @DataProvider(name = "sketch")
   public Object[][] providesSketch() {
-    return new Object[][] {{ makeSketch(512) }};
+    return new Object[][] {
+      { makeSketch(512) }, { makeBlockedSketch(FrequencySketch.BLOCKED_LAYOUT_THRESHOLD) }};
+  }
+
+  @DataProvider(name = "heavyHitters")
+  public Object[][] providesHeavyHitters() {
+    return new Object[][] {
+      { 512, false, false }, { 512, true, false },
+      { FrequencySketch.BLOCKED_LAYOUT_THRESHOLD, false, false },
+      { FrequencySketch.BLOCKED_LAYOUT_THRESHOLD, false, true },
+      { 4 * FrequencySketch.BLOCKED_LAYOUT_THRESHOLD, true, true },
+    };
   }
 
   private static <E> FrequencySketch<E> makeSketch(long maximumSize) {
-    FrequencySketch<E> sketch = new FrequencySketch<>();
+    return makeSketch(maximumSize, /* doorkeeper */ false);
+  }
+
+  private static <E> FrequencySketch<E> makeBlockedSketch(long maximumSize) {
+    return makeSketch(maximumSize, /* doorkeeper */ false, /* blocked */ true);
+  }
+
+  private static <E> FrequencySketch<E> makeSketch(long maximumSize, boolean doorkeeper) {
+    return makeSketch(maximumSize, doorkeeper, /* blocked */ false);
+  }
+
+  private static <E> FrequencySketch<E> makeSketch(
+      long maximumSize, boolean doorkeeper, boolean blocked) {
+    FrequencySketch<E> sketch = new FrequencySketch<>(doorkeeper, blocked);
     sketch.ensureCapacity(maximumSize);
     return sketch;
   }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.aMapWithSize;
+import static org.hamcrest.Matchers.anEmptyMap;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.Policy.HotKeys;
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.HotKeyRecording;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+import com.google.common.testing.FakeTicker;
+
+/**
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class HotKeySummaryTest {
+  static final long WINDOW = HotKeyRecording.TEN.windowNanos();
+
+  @Test
+  public void top_empty() {
+    HotKeySummary<Integer> summary = new HotKeySummary<>(10, WINDOW, Ticker.disabledTicker());
+    assertThat(summary.top(10), is(anEmptyMap()));
+  }
+
+  @Test
+  public void top_exact() {
+    HotKeySummary<Integer> summary = new HotKeySummary<>(10, WINDOW, Ticker.disabledTicker());
+    for (int i = 1; i <= 5; i++) {
+      for (int j = 0; j < i; j++) {
+        summary.increment(i);
+      }
+    }
+    assertThat(summary.top(3).keySet(), contains(5, 4, 3));
+    assertThat(summary.top(3), hasEntry(5, 5L));
+    assertThat(summary.top(Integer.MAX_VALUE), is(aMapWithSize(5)));
+    assertThat(summary.top(0), is(anEmptyMap()));
+  }
+
+  @Test
+  public void top_heavyHitters() {
+    Random random = new Random(42);
+    HotKeySummary<Integer> summary = new HotKeySummary<>(16, WINDOW, Ticker.disabledTicker());
+    for (int i = 0; i < 100_000; i++) {
+      int key = (random.nextInt(10) < 3) ? (i % 3) : (3 + random.nextInt(100_000));
+      summary.increment(key);
+    }
+
+    Map<Integer, Long> top = summary.top(3);
+    assertThat(top.keySet().containsAll(Arrays.asList(0, 1, 2)), is(true));
+    for (long count : top.values()) {
+      assertThat(count, is(greaterThanOrEqualTo(9_000L)));
+    }
+  }
+
+  @Test
+  public void increment_replacesMinimum() {
+    HotKeySummary<Integer> summary = new HotKeySummary<>(2, WINDOW, Ticker.disabledTicker());
+    summary.increment(1);
+    summary.increment(1);
+    summary.increment(2);
+
+    // the newcomer inherits the smallest count, which overestimates its occurrences
+    summary.increment(3);
+    assertThat(summary.top(2).keySet(), contains(1, 3));
+    assertThat(summary.top(2), hasEntry(3, 2L));
+  }
+
+  @Test
+  public void window_slides() {
+    FakeTicker ticker = new FakeTicker();
+    HotKeySummary<Integer> summary = new HotKeySummary<>(10, WINDOW, ticker::read);
+    summary.increment(1);
+
+    ticker.advance(WINDOW / 2);
+    summary.advance();
+    summary.increment(2);
+    assertThat(summary.top(10).keySet(), contains(1, 2));
+
+    ticker.advance(WINDOW / 2);
+    assertThat(summary.top(10).keySet(), contains(2));
+
+    ticker.advance(WINDOW);
+    assertThat(summary.top(10), is(anEmptyMap()));
+  }
+
+  /* --------------- Policy --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine)
+  public void policy_absent(Cache<Integer, Integer> cache) {
+    assertThat(cache.policy().hotKeys().isPresent(), is(false));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, recordHotKeys = HotKeyRecording.TEN)
+  public void policy_top(Cache<Integer, Integer> cache, CacheContext context) {
+    HotKeys<Integer> hotKeys = cache.policy().hotKeys().get();
+    assertThat(cache.policy().hotKeys().get(), is(hotKeys));
+    readAll(cache);
+
+    assertThat(hotKeys.top(3).keySet(), contains(9, 8, 7));
+    assertThat(hotKeys.top(3), hasEntry(9, 10L));
+
+    context.ticker().advance(2 * WINDOW);
+    assertThat(hotKeys.top(3), is(anEmptyMap()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT,
+      refreshAfterWrite = Expire.DISABLED, recordHotKeys = HotKeyRecording.TEN)
+  public void policy_sharded(Caffeine<Object, Object> builder) {
+    Cache<Integer, Integer> cache = builder.evictionShards(2).build();
+    readAll(cache);
+
+    HotKeys<Integer> hotKeys = cache.policy().hotKeys().get();
+    assertThat(hotKeys.top(3).keySet(), contains(9, 8, 7));
+    assertThat(hotKeys.top(Integer.MAX_VALUE), is(aMapWithSize(10)));
+  }
+
+  /** Reads each key in [0, 10) one more time than the key's value. */
+  static void readAll(Cache<Integer, Integer> cache) {
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, i);
+      for (int j = 0; j <= i; j++) {
+        cache.getIfPresent(i);
+      }
+    }
+  }
+}
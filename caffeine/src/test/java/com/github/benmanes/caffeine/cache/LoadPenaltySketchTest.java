@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.BoundedLocalCacheTest.asBoundedLocalCache;
+import static com.github.benmanes.caffeine.cache.ShardedLocalCacheTest.asSharded;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.LoadPenalty;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Stats;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * The test cases for weighting the admission of a candidate by the time taken to load it.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class LoadPenaltySketchTest {
+  final Integer item = ThreadLocalRandom.current().nextInt();
+
+  @Test
+  public void level_uninitialized() {
+    LoadPenaltySketch<Integer> sketch = new LoadPenaltySketch<>();
+    sketch.record(item, TimeUnit.SECONDS.toNanos(1));
+    assertThat(sketch.level(item), is(0));
+  }
+
+  @Test
+  public void levelOf() {
+    assertThat(LoadPenaltySketch.levelOf(-1), is(0));
+    assertThat(LoadPenaltySketch.levelOf(0), is(0));
+    assertThat(LoadPenaltySketch.levelOf(TimeUnit.MICROSECONDS.toNanos(500)), is(0));
+    assertThat(LoadPenaltySketch.levelOf((1L << 20) - 1), is(0));
+    assertThat(LoadPenaltySketch.levelOf(1L << 20), is(1));
+    assertThat(LoadPenaltySketch.levelOf((1L << 21) - 1), is(1));
+    assertThat(LoadPenaltySketch.levelOf(1L << 21), is(2));
+    assertThat(LoadPenaltySketch.levelOf(TimeUnit.MILLISECONDS.toNanos(10)), is(4));
+    assertThat(LoadPenaltySketch.levelOf(TimeUnit.MILLISECONDS.toNanos(100)), is(7));
+    assertThat(LoadPenaltySketch.levelOf(TimeUnit.SECONDS.toNanos(1)), is(10));
+    assertThat(LoadPenaltySketch.levelOf((1L << 34) - 1), is(14));
+    assertThat(LoadPenaltySketch.levelOf(1L << 34), is(15));
+    assertThat(LoadPenaltySketch.levelOf(TimeUnit.SECONDS.toNanos(30)), is(15));
+    assertThat(LoadPenaltySketch.levelOf(Long.MAX_VALUE), is(15));
+  }
+
+  @Test
+  public void record_retainsMaximum() {
+    LoadPenaltySketch<Integer> sketch = makeSketch(512);
+    sketch.record(item, 1L << 23);
+    assertThat(sketch.level(item), is(4));
+
+    sketch.record(item, 1L << 20);
+    assertThat(sketch.level(item), is(4));
+
+    sketch.record(item, 1L << 30);
+    assertThat(sketch.level(item), is(11));
+    assertThat(sketch.level(item + 1), is(0));
+  }
+
+  @Test
+  public void reset() {
+    LoadPenaltySketch<Integer> sketch = makeSketch(64);
+    sketch.record(item, 1L << 23);
+    for (int i = 1; i < sketch.sampleSize; i++) {
+      sketch.record(-i, 0);
+    }
+    assertThat(sketch.level(item), is(3));
+    assertThat(sketch.size, is(sketch.sampleSize / 2));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      stats = Stats.ENABLED, loadPenaltyAdmission = LoadPenalty.ENABLED)
+  public void load_recordsPenalty(Cache<Integer, Integer> cache, CacheContext context) {
+    // The load time is measured by the system ticker, so the load must take at least a millisecond
+    cache.get(context.absentKey(), key -> {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+      return context.absentValue();
+    });
+    cache.cleanUp();
+
+    BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
+    assertThat(localCache.loadPenalties.level(context.absentKey()), is(greaterThan(0)));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      stats = Stats.ENABLED, loadPenaltyAdmission = LoadPenalty.ENABLED)
+  public void admit_weighsLoadTime(Cache<Integer, Integer> cache, CacheContext context) {
+    Iterator<Integer> keys = context.absentKeys().iterator();
+    Integer expensive = keys.next();
+    Integer cheap = keys.next();
+
+    BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
+    localCache.recordLoadPenalty(expensive, TimeUnit.MILLISECONDS.toNanos(100));
+    localCache.recordLoadPenalty(cheap, TimeUnit.MICROSECONDS.toNanos(2));
+    localCache.frequencySketch().increment(expensive);
+    localCache.frequencySketch().increment(cheap);
+    cache.cleanUp();
+
+    assertThat(localCache.loadPenalties.level(expensive),
+        is(greaterThan(localCache.loadPenalties.level(cheap))));
+    assertThat(localCache.frequencySketch().frequency(expensive),
+        is(localCache.frequencySketch().frequency(cheap)));
+    assertThat(localCache.admit(expensive, cheap), is(true));
+    assertThat(localCache.admit(cheap, expensive), is(false));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      stats = Stats.ENABLED, loadPenaltyAdmission = LoadPenalty.ENABLED)
+  public void admit_boundedWeight(Cache<Integer, Integer> cache, CacheContext context) {
+    Iterator<Integer> keys = context.absentKeys().iterator();
+    Integer expensive = keys.next();
+    Integer hot = keys.next();
+
+    BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
+    localCache.recordLoadPenalty(expensive, TimeUnit.SECONDS.toNanos(30));
+    localCache.frequencySketch().increment(expensive);
+    for (int i = 0; i < 10; i++) {
+      localCache.frequencySketch().increment(hot);
+    }
+    cache.cleanUp();
+
+    assertThat(localCache.loadPenalties.level(expensive), is(LoadPenaltySketch.MAX_LEVEL));
+    assertThat(localCache.admit(expensive, hot), is(false));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      stats = Stats.ENABLED, loadPenaltyAdmission = LoadPenalty.ENABLED)
+  public void record_buffered(Cache<Integer, Integer> cache, CacheContext context) {
+    BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
+    cache.cleanUp();
+
+    localCache.recordLoadPenalty(context.absentKey(), TimeUnit.SECONDS.toNanos(1));
+    assertThat(localCache.loadPenalties.level(context.absentKey()), is(0));
+    assertThat(localCache.writeBuffer().isEmpty(), is(false));
+    assertThat(localCache.drainStatus(), is(BoundedLocalCache.REQUIRED));
+
+    cache.cleanUp();
+    assertThat(localCache.loadPenalties.level(context.absentKey()), is(10));
+    assertThat(localCache.writeBuffer().isEmpty(), is(true));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      stats = Stats.ENABLED, loadPenaltyAdmission = LoadPenalty.ENABLED)
+  public void record_fullBuffer(Cache<Integer, Integer> cache, CacheContext context) {
+    BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
+    Runnable task = () -> {};
+    while (localCache.writeBuffer().offer(task)) {}
+
+    localCache.recordLoadPenalty(context.absentKey(), TimeUnit.SECONDS.toNanos(1));
+    while (!localCache.writeBuffer().isEmpty()) {
+      cache.cleanUp();
+    }
+    assertThat(localCache.loadPenalties.level(context.absentKey()), is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      stats = Stats.ENABLED, loadPenaltyAdmission = LoadPenalty.ENABLED,
+      refreshAfterWrite = Expire.DISABLED)
+  public void record_sharded(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    ShardedLocalCache<Integer, Integer> sharded = asSharded(builder.evictionShards(2).build());
+    sharded.putAll(context.original());
+    sharded.cleanUp();
+
+    sharded.recordLoadPenalty(context.absentKey(), TimeUnit.SECONDS.toNanos(1));
+    sharded.cleanUp();
+    for (BoundedLocalCache<Integer, Integer> shard : sharded.shards) {
+      int level = (shard == sharded.shardFor(context.absentKey())) ? 10 : 0;
+      assertThat(shard.loadPenalties.level(context.absentKey()), is(level));
+    }
+  }
+
+  private static <E> LoadPenaltySketch<E> makeSketch(long maximumSize) {
+    LoadPenaltySketch<E> sketch = new LoadPenaltySketch<>();
+    sketch.ensureCapacity(maximumSize);
+    return sketch;
+  }
+}
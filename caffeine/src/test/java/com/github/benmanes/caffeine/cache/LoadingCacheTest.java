@@ -43,6 +43,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.testng.annotations.Listeners;
@@ -518,6 +519,182 @@ public final class LoadingCacheTest {
     assertThat(context, both(hasLoadSuccessCount(1)).and(hasLoadFailureCount(0)));
   }
 
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine,
+      population = Population.EMPTY, executor = CacheExecutor.THREADED)
+  public void refresh_deduplicate(CacheContext context) {
+    AtomicBoolean refresh = new AtomicBoolean();
+    AtomicInteger loads = new AtomicInteger();
+    Integer key = context.absentKey();
+    LoadingCache<Integer, Integer> cache = context.build(k -> {
+      loads.incrementAndGet();
+      await().untilTrue(refresh);
+      return -k;
+    });
+
+    cache.put(key, key);
+    cache.refresh(key);
+    cache.refresh(key);
+    assertThat(cache.policy().refreshes().keySet(), is(ImmutableSet.of(key)));
+
+    refresh.set(true);
+    await().until(() -> cache.policy().refreshes().isEmpty());
+    assertThat(cache.getIfPresent(key), is(-key));
+    assertThat(loads.get(), is(1));
+  }
+
+  @CheckNoWriter
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine)
+  public void refreshes_empty(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    assertThat(cache.policy().refreshes().isEmpty(), is(true));
+  }
+
+  /* --------------- refreshAll --------------- */
+
+  @CheckNoWriter
+  @CacheSpec(implementation = Implementation.Caffeine)
+  @Test(dataProvider = "caches", expectedExceptions = NullPointerException.class)
+  public void refreshAll_null(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    cache.refreshAll(null);
+  }
+
+  @CheckNoWriter
+  @CacheSpec(implementation = Implementation.Caffeine)
+  @Test(dataProvider = "caches", expectedExceptions = NullPointerException.class)
+  public void refreshAll_nullKey(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    cache.refreshAll(Collections.singletonList(null));
+  }
+
+  @CheckNoWriter
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine,
+      loader = { Loader.NEGATIVE, Loader.BULK_NEGATIVE },
+      removalListener = { Listener.DEFAULT, Listener.REJECTING })
+  public void refreshAll_absent(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    Map<Integer, Integer> result = cache.refreshAll(context.absentKeys()).join();
+    int count = context.absentKeys().size();
+    assertThat(result.size(), is(count));
+    assertThat(cache.estimatedSize(), is(context.initialSize() + count));
+    assertThat(context, both(hasMissCount(0)).and(hasHitCount(0)));
+    assertThat(context, both(hasLoadSuccessCount(1)).and(hasLoadFailureCount(0)));
+
+    for (Integer key : context.absentKeys()) {
+      assertThat(result.get(key), is(-key));
+      assertThat(cache.getIfPresent(key), is(-key));
+    }
+  }
+
+  @CheckNoWriter
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine,
+      loader = { Loader.IDENTITY, Loader.BULK_IDENTITY },
+      population = { Population.SINGLETON, Population.PARTIAL, Population.FULL })
+  public void refreshAll_present(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    Map<Integer, Integer> result = cache.refreshAll(context.firstMiddleLastKeys()).join();
+    int count = context.firstMiddleLastKeys().size();
+    assertThat(result.size(), is(count));
+    for (Integer key : context.firstMiddleLastKeys()) {
+      assertThat(result.get(key), is(key));
+      assertThat(cache.getIfPresent(key), is(key));
+    }
+    assertThat(cache.estimatedSize(), is(context.initialSize()));
+    assertThat(cache, hasRemovalNotifications(context, count, RemovalCause.REPLACED));
+    assertThat(context, both(hasLoadSuccessCount(1)).and(hasLoadFailureCount(0)));
+  }
+
+  @CheckNoWriter
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, executor = CacheExecutor.DIRECT,
+      loader = Loader.BULK_NULL,
+      population = { Population.SINGLETON, Population.PARTIAL, Population.FULL })
+  public void refreshAll_nullMap(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    CompletableFuture<?> future = cache.refreshAll(context.firstMiddleLastKeys());
+    assertThat(future.isCompletedExceptionally(), is(true));
+    assertThat(cache.estimatedSize(), is(context.initialSize()));
+    assertThat(context, both(hasLoadSuccessCount(0)).and(hasLoadFailureCount(1)));
+  }
+
+  @CheckNoWriter
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, executor = CacheExecutor.DIRECT,
+      loader = { Loader.EXCEPTIONAL, Loader.BULK_EXCEPTIONAL },
+      removalListener = { Listener.DEFAULT, Listener.REJECTING },
+      population = { Population.SINGLETON, Population.PARTIAL, Population.FULL })
+  public void refreshAll_failure(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    // Should retain the stale entries and fail the batch
+    CompletableFuture<?> future = cache.refreshAll(context.firstMiddleLastKeys());
+    assertThat(future.isCompletedExceptionally(), is(true));
+    for (Integer key : context.firstMiddleLastKeys()) {
+      assertThat(cache.getIfPresent(key), is(context.original().get(key)));
+    }
+    assertThat(cache.estimatedSize(), is(context.initialSize()));
+    assertThat(context, both(hasLoadSuccessCount(0)).and(hasLoadFailureCount(1)));
+  }
+
+  @CheckNoWriter
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, loader = Loader.BULK_NEGATIVE_EXCEEDS,
+      population = { Population.SINGLETON, Population.PARTIAL, Population.FULL })
+  public void refreshAll_exceeds(LoadingCache<Integer, Integer> cache, CacheContext context) {
+    Map<Integer, Integer> result = cache.refreshAll(context.firstMiddleLastKeys()).join();
+    assertThat(result.keySet(), is(equalTo(context.firstMiddleLastKeys())));
+    assertThat(cache.estimatedSize(), is(context.initialSize()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      executor = CacheExecutor.THREADED, removalListener = Listener.CONSUMING)
+  public void refreshAll_conflict(CacheContext context) {
+    AtomicBoolean refresh = new AtomicBoolean();
+    Integer key = context.absentKey();
+    Integer original = 1;
+    Integer updated = 2;
+    Integer refreshed = 3;
+    LoadingCache<Integer, Integer> cache = context.build(k -> {
+      await().untilTrue(refresh);
+      return refreshed;
+    });
+
+    cache.put(key, original);
+    CompletableFuture<Map<Integer, Integer>> future = cache.refreshAll(ImmutableList.of(key));
+    assertThat(cache.asMap().put(key, updated), is(original));
+
+    refresh.set(true);
+    assertThat(future.join(), is(equalTo(ImmutableMap.of())));
+    await().until(() -> context.consumedNotifications().size(), is(2));
+    List<Integer> removed = context.consumedNotifications().stream()
+        .map(RemovalNotification::getValue).collect(toList());
+
+    assertThat(cache.getIfPresent(key), is(updated));
+    assertThat(removed, containsInAnyOrder(original, refreshed));
+    assertThat(cache, hasRemovalNotifications(context, 2, RemovalCause.REPLACED));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine,
+      population = Population.EMPTY, executor = CacheExecutor.THREADED)
+  public void refreshAll_joinsRefresh(CacheContext context) {
+    AtomicBoolean refresh = new AtomicBoolean();
+    AtomicInteger loads = new AtomicInteger();
+    Integer key = context.absentKey();
+    LoadingCache<Integer, Integer> cache = context.build(k -> {
+      loads.incrementAndGet();
+      await().untilTrue(refresh);
+      return -k;
+    });
+
+    cache.put(key, key);
+    cache.refresh(key);
+    CompletableFuture<Map<Integer, Integer>> future = cache.refreshAll(ImmutableList.of(key));
+
+    refresh.set(true);
+    assertThat(future.join(), is(equalTo(ImmutableMap.of(key, -key))));
+    await().until(() -> cache.policy().refreshes().isEmpty());
+    assertThat(cache.getIfPresent(key), is(-key));
+    assertThat(loads.get(), is(1));
+  }
+
   /* --------------- CacheLoader --------------- */
 
   @Test(expectedExceptions = UnsupportedOperationException.class)
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Backoff;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.NegativeCache;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * The test cases for loading caches that remember the absent and failed loads.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class NegativeCachingTest {
+
+  /* --------------- absent --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE)
+  public void absent(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(nullValue()));
+    assertThat(cache.get(1), is(nullValue()));
+    assertThat(loader.loads, contains(1));
+
+    context.ticker().advance(1, TimeUnit.MINUTES);
+    loader.values.put(1, -1);
+    assertThat(cache.get(1), is(-1));
+    assertThat(loader.loads, contains(1, 1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.IMMEDIATELY)
+  public void absent_notRemembered(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(nullValue()));
+    assertThat(cache.get(1), is(nullValue()));
+    assertThat(loader.loads, contains(1, 1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE)
+  public void absent_maximumSize(CacheContext context) {
+    LoadingCache<Integer, Integer> cache = context.build(new RecordingLoader());
+    long maximum = context.negativeCaching().maximumSize();
+    for (int i = 0; i < 2 * maximum; i++) {
+      assertThat(cache.get(i), is(nullValue()));
+    }
+    assertThat(negatives(cache).negativeCount(), is(maximum));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE)
+  public void getAll(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader() {
+      @Override public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+        Map<Integer, Integer> result = new HashMap<>();
+        for (Integer key : keys) {
+          Integer value = load(key);
+          if (value != null) {
+            result.put(key, value);
+          }
+        }
+        return result;
+      }
+    };
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    loader.values.put(2, -2);
+    assertThat(cache.getAll(Arrays.asList(1, 2)), is(loader.values));
+    assertThat(cache.getAll(Arrays.asList(1, 2, 3)), is(loader.values));
+    assertThat(loader.loads, contains(1, 2, 3));
+  }
+
+  /* --------------- failure --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE)
+  public void failure_notRemembered(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    loader.failure = new IllegalStateException();
+    assertFails(cache, loader.failure);
+    assertFails(cache, loader.failure);
+    assertThat(loader.loads, contains(1, 1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE, failureBackoff = Backoff.ONE_SECOND)
+  public void failure_backoff(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    long initialDelay = context.failureBackoff().initialDelayNanos();
+    long maximumDelay = context.failureBackoff().maximumDelayNanos();
+
+    IllegalStateException first = loader.failure = new IllegalStateException();
+    assertFails(cache, first);
+
+    loader.failure = new IllegalStateException();
+    context.ticker().advance(initialDelay - 1);
+    assertFails(cache, first);
+    assertThat(loader.loads.size(), is(1));
+
+    // the delay doubles after each consecutive failure, up to the maximum
+    long[] delays = { initialDelay, 2 * initialDelay, maximumDelay, maximumDelay };
+    for (int i = 1; i < delays.length; i++) {
+      IllegalStateException latest = loader.failure;
+      context.ticker().advance(1);
+      assertFails(cache, latest);
+      assertThat(loader.loads.size(), is(i + 1));
+
+      loader.failure = new IllegalStateException();
+      context.ticker().advance(delays[i] - 1);
+      assertFails(cache, latest);
+      assertThat(loader.loads.size(), is(i + 1));
+    }
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE, failureBackoff = Backoff.ONE_SECOND)
+  public void failure_recovers(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    loader.failure = new IllegalStateException();
+    assertFails(cache, loader.failure);
+
+    context.ticker().advance(context.failureBackoff().initialDelayNanos());
+    loader.failure = null;
+    loader.values.put(1, -1);
+    assertThat(cache.get(1), is(-1));
+    assertThat(negatives(cache).negativeCount(), is(0L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE, failureBackoff = Backoff.ONE_SECOND,
+      compute = Compute.SYNC)
+  public void failure_replayWrapped(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    loader.failure = new IllegalStateException();
+    assertFails(cache, loader.failure);
+
+    CompletionException[] replayed = new CompletionException[2];
+    for (int i = 0; i < replayed.length; i++) {
+      try {
+        cache.get(1);
+        throw new AssertionError();
+      } catch (CompletionException e) {
+        assertThat(e.getCause(), is(sameInstance(loader.failure)));
+        replayed[i] = e;
+      }
+    }
+    assertThat(replayed[0], is(not(sameInstance(replayed[1]))));
+  }
+
+  /* --------------- discard --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE)
+  public void put_discards(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(nullValue()));
+
+    cache.put(1, -1);
+    cache.invalidate(1);
+    loader.values.put(1, -2);
+    assertThat(cache.get(1), is(-2));
+    assertThat(loader.loads, contains(1, 1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE, compute = Compute.ASYNC)
+  public void put_async_discards(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    AsyncLoadingCache<Integer, Integer> cache = context.buildAsync(loader);
+    assertThat(cache.get(1).join(), is(nullValue()));
+
+    cache.put(1, CompletableFuture.completedFuture(-1));
+    cache.synchronous().invalidate(1);
+    loader.values.put(1, -2);
+    assertThat(cache.get(1).join(), is(-2));
+    assertThat(loader.loads, contains(1, 1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE, failureBackoff = Backoff.ONE_SECOND)
+  public void invalidate_discards(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    loader.failure = new IllegalStateException();
+    assertFails(cache, loader.failure);
+    loader.failure = null;
+    assertThat(cache.get(2), is(nullValue()));
+    cache.invalidate(1);
+    cache.invalidateAll(Arrays.asList(2));
+    assertThat(negatives(cache).negativeCount(), is(0L));
+
+    assertThat(cache.get(3), is(nullValue()));
+    cache.invalidateAll();
+    assertThat(negatives(cache).negativeCount(), is(0L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE)
+  public void refresh_discards(CacheContext context) {
+    RecordingLoader loader = new RecordingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(nullValue()));
+    assertThat(cache.get(2), is(nullValue()));
+
+    loader.values.put(1, -1);
+    loader.values.put(2, -2);
+    cache.refresh(1);
+    cache.refreshAll(Arrays.asList(2)).join();
+    assertThat(cache.getIfPresent(1), is(-1));
+    assertThat(cache.getIfPresent(2), is(-2));
+    assertThat(negatives(cache).negativeCount(), is(0L));
+  }
+
+  /* --------------- bulk --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      negativeCaching = NegativeCache.ONE_MINUTE)
+  public void bulkDetection(Caffeine<Object, Object> builder, CacheContext context) {
+    assertThat(LocalLoadingCache.hasLoadAll(
+        new NegativeCachingLoader<>(new RecordingLoader(), builder)), is(false));
+    assertThat(LocalAsyncLoadingCache.canBulkLoad(
+        new NegativeCachingLoader<>(new RecordingLoader(), builder)), is(false));
+  }
+
+  /** Returns the loader that remembers the absent and failed loads. */
+  static NegativeCachingLoader<?, ?> negatives(LoadingCache<?, ?> cache) {
+    AsyncCacheLoader<?, ?> loader = (cache instanceof LocalLoadingCache<?, ?>)
+        ? ((LocalLoadingCache<?, ?>) cache).cacheLoader()
+        : ((LocalAsyncLoadingCache.LoadingCacheView<?, ?>) cache).asyncCache().loader;
+    return (NegativeCachingLoader<?, ?>) loader;
+  }
+
+  /** Asserts that the load fails with the expected exception, which is wrapped when replayed. */
+  static void assertFails(LoadingCache<Integer, Integer> cache, Exception expected) {
+    try {
+      cache.get(1);
+      throw new AssertionError();
+    } catch (IllegalStateException e) {
+      assertThat(e, is(sameInstance(expected)));
+    } catch (CompletionException e) {
+      assertThat(e.getCause(), is(sameInstance(expected)));
+    }
+  }
+
+  /** A loader that records the keys that it loads and fails if a failure is set. */
+  static class RecordingLoader implements CacheLoader<Integer, Integer> {
+    final Map<Integer, Integer> values = new HashMap<>();
+    final List<Integer> loads = new ArrayList<>();
+
+    @Nullable IllegalStateException failure;
+
+    @Override public Integer load(Integer key) {
+      loads.add(key);
+      if (failure != null) {
+        throw failure;
+      }
+      return values.get(key);
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.BoundedLocalCacheTest.asBoundedLocalCache;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.ByteBuffer;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.Policy.Eviction;
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.VictimTier;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class OffHeapVictimTierTest {
+  static final int RECORD_SIZE = OffHeapVictimTier.HEADER_SIZE + Integer.BYTES;
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void construct_tooSmall() {
+    new OffHeapVictimTier<>(OffHeapVictimTier.HEADER_SIZE, new IntegerSerializer());
+  }
+
+  @Test
+  public void construct_lazy() {
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        4L * OffHeapVictimTier.MAXIMUM_SLAB_SIZE, new IntegerSerializer());
+    assertThat(tier.slabSize, is(OffHeapVictimTier.MAXIMUM_SLAB_SIZE));
+    assertThat(tier.slabs.length, is(4));
+    for (ByteBuffer slab : tier.slabs) {
+      assertThat(slab, is(nullValue()));
+    }
+  }
+
+  @Test
+  public void offer_poll() {
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        1024, new IntegerSerializer());
+    for (int i = 0; i < 10; i++) {
+      assertThat(tier.offer(i, -i), is(true));
+    }
+    assertThat(tier.size(), is(10));
+    for (int i = 0; i < 10; i++) {
+      assertThat(tier.poll(i), is(-i));
+      assertThat(tier.poll(i), is(nullValue()));
+    }
+    assertThat(tier.size(), is(0));
+  }
+
+  @Test
+  public void offer_replace() {
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        1024, new IntegerSerializer());
+    tier.offer(1, 1);
+    tier.offer(1, 2);
+    assertThat(tier.size(), is(1));
+    assertThat(tier.poll(1), is(2));
+  }
+
+  @Test
+  public void offer_tooLarge() {
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        RECORD_SIZE - 1, new IntegerSerializer());
+    assertThat(tier.offer(1, 1), is(false));
+    assertThat(tier.poll(1), is(nullValue()));
+  }
+
+  @Test
+  public void offer_recycle() {
+    int recordsPerSlab = 4;
+    long maximumBytes = 2L * recordsPerSlab * RECORD_SIZE;
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        maximumBytes, new IntegerSerializer());
+
+    int count = 3 * recordsPerSlab;
+    for (int i = 0; i < count; i++) {
+      tier.offer(i, i);
+    }
+    assertThat(tier.size(), is(lessThan(count)));
+    for (int i = 0; i < recordsPerSlab; i++) {
+      assertThat(tier.poll(i), is(nullValue()));
+    }
+    for (int i = count - recordsPerSlab; i < count; i++) {
+      assertThat(tier.poll(i), is(i));
+    }
+  }
+
+  @Test
+  public void invalidate() {
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        1024, new IntegerSerializer());
+    tier.offer(1, 1);
+    tier.invalidate(1);
+    assertThat(tier.poll(1), is(nullValue()));
+  }
+
+  @Test
+  public void clear() {
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        1024, new IntegerSerializer());
+    tier.offer(1, 1);
+    tier.clear();
+    assertThat(tier.size(), is(0));
+    assertThat(tier.poll(1), is(nullValue()));
+  }
+
+  @Test
+  public void offer_collisions() {
+    OffHeapVictimTier<Collider, Integer> tier = new OffHeapVictimTier<>(
+        1024, new IntegerSerializer());
+    for (int i = 0; i < 50; i++) {
+      tier.offer(new Collider(i), i);
+    }
+    for (int i = 0; i < 50; i += 2) {
+      assertThat(tier.poll(new Collider(i)), is(i));
+    }
+    assertThat(tier.size(), is(25));
+    for (int i = 1; i < 50; i += 2) {
+      assertThat(tier.poll(new Collider(i)), is(i));
+    }
+    assertThat(tier.size(), is(0));
+  }
+
+  @Test
+  public void offer_maximumIndexSize() {
+    int recordsPerSlab = 4;
+    long maximumBytes = 4L * recordsPerSlab * RECORD_SIZE;
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        maximumBytes, /* maximumIndexSize */ 6, new IntegerSerializer());
+    for (int i = 0; i < 100; i++) {
+      tier.offer(i, i);
+      assertThat(tier.size(), is(lessThanOrEqualTo(6)));
+    }
+    assertThat(tier.poll(99), is(99));
+    assertThat(tier.poll(0), is(nullValue()));
+  }
+
+  @Test
+  public void construct_boundsIndexByBytes() {
+    OffHeapVictimTier<Integer, Integer> tier = new OffHeapVictimTier<>(
+        1024, new IntegerSerializer());
+    assertThat(tier.maximumIndexSize, is(1024 / OffHeapVictimTier.HEADER_SIZE));
+  }
+
+  /* --------------- Cache --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT,
+      offHeapVictims = VictimTier.ONE_KIBIBYTE)
+  public void cache_promote(Cache<Integer, Integer> cache, CacheContext context) {
+    for (int i = 0; i < 50; i++) {
+      cache.put(i, -i);
+    }
+    cache.cleanUp();
+    assertThat(cache.estimatedSize(), is(Maximum.TEN.max()));
+
+    for (int i = 0; i < 50; i++) {
+      assertThat(cache.getIfPresent(i), is(-i));
+    }
+    assertThat(cache.get(0, key -> { throw new AssertionError(); }), is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE, weigher = CacheWeigher.DEFAULT,
+      offHeapVictims = VictimTier.ONE_KIBIBYTE)
+  public void cache_invalidate(Cache<Integer, Integer> cache, CacheContext context) {
+    cache.put(1, 1);
+    cache.put(2, 2);
+    cache.cleanUp();
+
+    cache.invalidate(1);
+    cache.invalidate(2);
+    assertThat(cache.getIfPresent(1), is(nullValue()));
+    assertThat(cache.getIfPresent(2), is(nullValue()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE, weigher = CacheWeigher.DEFAULT,
+      offHeapVictims = VictimTier.ONE_KIBIBYTE)
+  public void cache_putIfAbsent(Cache<Integer, Integer> cache, CacheContext context,
+      Eviction<Integer, Integer> eviction) {
+    cache.put(1, 1);
+    cache.put(2, 2);
+    cache.cleanUp();
+
+    BoundedLocalCache<Integer, Integer> map = asBoundedLocalCache(cache);
+    int victim = map.containsKey(1) ? 2 : 1;
+    assertThat(map.victimTier.size(), is(1));
+    eviction.setMaximum(10);
+    assertThat(cache.asMap().putIfAbsent(victim, 3), is(nullValue()));
+    assertThat(map.victimTier.size(), is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE, weigher = CacheWeigher.DEFAULT,
+      offHeapVictims = VictimTier.UNSERIALIZABLE)
+  public void cache_serializerFails(Cache<Integer, Integer> cache, CacheContext context) {
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, i);
+    }
+    cache.cleanUp();
+    assertThat(cache.estimatedSize(), is(1L));
+    assertThat(cache.getIfPresent(0), is(nullValue()));
+  }
+
+  /** A key whose hash collides with many others, so that lookups probe past their home slot. */
+  static final class Collider {
+    final int id;
+
+    Collider(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof Collider) && (((Collider) o).id == id);
+    }
+
+    @Override
+    public int hashCode() {
+      return id % 3;
+    }
+  }
+
+  static class IntegerSerializer implements Serializer<Integer> {
+    @Override public byte[] serialize(Integer value) {
+      return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+    }
+    @Override public Integer deserialize(byte[] bytes) {
+      return ByteBuffer.wrap(bytes).getInt();
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+public final class RefreshBatcherTest {
+
+  @Test
+  public void canBulkLoad() {
+    assertThat(RefreshBatcher.canBulkLoad(new BatchLoader()), is(true));
+    assertThat(RefreshBatcher.canBulkLoad(key -> key), is(false));
+  }
+
+  @Test
+  public void reload_maximumSize() {
+    BatchLoader loader = new BatchLoader();
+    RefreshBatcher<Integer, Integer> batcher = newBatcher(loader, 2, Long.MAX_VALUE);
+
+    CompletableFuture<Integer> first = batcher.reload(1, 0L);
+    assertThat(first.isDone(), is(false));
+    assertThat(batcher.pendingCount(), is(1));
+
+    CompletableFuture<Integer> second = batcher.reload(2, 0L);
+    assertThat(loader.batches, contains(keys(1, 2)));
+    assertThat(batcher.pendingCount(), is(0));
+    assertThat(first.join(), is(-1));
+    assertThat(second.join(), is(-2));
+  }
+
+  @Test
+  public void reload_maximumDelay() {
+    BatchLoader loader = new BatchLoader();
+    RefreshBatcher<Integer, Integer> batcher = newBatcher(loader, 10, 5L);
+
+    CompletableFuture<Integer> first = batcher.reload(1, 0L);
+    CompletableFuture<Integer> second = batcher.reload(2, 5L);
+    assertThat(loader.batches, contains(keys(1, 2)));
+    assertThat(first.join(), is(-1));
+    assertThat(second.join(), is(-2));
+  }
+
+  @Test
+  public void reload_sameKey() {
+    BatchLoader loader = new BatchLoader();
+    RefreshBatcher<Integer, Integer> batcher = newBatcher(loader, 10, Long.MAX_VALUE);
+
+    CompletableFuture<Integer> first = batcher.reload(1, 0L);
+    assertThat(batcher.reload(1, 0L), is(sameInstance(first)));
+    assertThat(batcher.pendingCount(), is(1));
+  }
+
+  @Test
+  public void reload_absent() {
+    BatchLoader loader = new BatchLoader();
+    loader.absent = true;
+    RefreshBatcher<Integer, Integer> batcher = newBatcher(loader, 1, Long.MAX_VALUE);
+    assertThat(batcher.reload(1, 0L).join(), is(nullValue()));
+  }
+
+  @Test
+  public void reload_failure() {
+    RefreshBatcher<Integer, Integer> batcher = newBatcher(new BatchLoader() {
+      @Override public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+        throw new IllegalStateException();
+      }
+    }, 1, Long.MAX_VALUE);
+    assertThat(batcher.reload(1, 0L).isCompletedExceptionally(), is(true));
+  }
+
+  @Test
+  public void reload_nullMap() {
+    RefreshBatcher<Integer, Integer> batcher = newBatcher(new BatchLoader() {
+      @Override public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+        return null;
+      }
+    }, 1, Long.MAX_VALUE);
+    assertThat(batcher.reload(1, 0L).isCompletedExceptionally(), is(true));
+  }
+
+  @Test
+  public void flushIfDue() {
+    BatchLoader loader = new BatchLoader();
+    RefreshBatcher<Integer, Integer> batcher = newBatcher(loader, 10, 5L);
+
+    CompletableFuture<Integer> future = batcher.reload(1, 0L);
+    batcher.flushIfDue(4L);
+    assertThat(future.isDone(), is(false));
+
+    batcher.flushIfDue(5L);
+    assertThat(future.join(), is(-1));
+    assertThat(loader.batches, contains(keys(1)));
+  }
+
+  @Test
+  public void flush_scheduled() {
+    List<Runnable> tasks = new ArrayList<>();
+    BatchLoader loader = new BatchLoader();
+    RefreshBatcher<Integer, Integer> batcher = new RefreshBatcher<>(loader, Runnable::run,
+        (executor, command, delay, unit) -> {
+          tasks.add(command);
+          return new CompletableFuture<>();
+        }, 10, 5L);
+
+    CompletableFuture<Integer> first = batcher.reload(1, 0L);
+    assertThat(tasks.size(), is(1));
+    tasks.get(0).run();
+    assertThat(first.join(), is(-1));
+
+    // a stale task does not flush the next batch prematurely
+    CompletableFuture<Integer> second = batcher.reload(2, 10L);
+    tasks.get(0).run();
+    assertThat(second.isDone(), is(false));
+    tasks.get(1).run();
+    assertThat(second.join(), is(-2));
+    assertThat(loader.batches, contains(keys(1), keys(2)));
+  }
+
+  @Test
+  public void cache_refresh() {
+    AtomicLong ticker = new AtomicLong();
+    BatchLoader loader = new BatchLoader();
+    LoadingCache<Integer, Integer> cache = Caffeine.newBuilder()
+        .refreshAfterWrite(Duration.ofNanos(1))
+        .refreshBatching(2, Duration.ofDays(1))
+        .executor(Runnable::run)
+        .ticker(ticker::get)
+        .build(loader);
+    cache.put(1, 1);
+    cache.put(2, 2);
+    cache.put(3, 3);
+
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertThat(cache.get(1), is(1));
+    assertThat(loader.batches.isEmpty(), is(true));
+    assertThat(cache.get(2), is(2));
+    assertThat(loader.batches, contains(keys(1, 2)));
+    assertThat(cache.getIfPresent(1), is(-1));
+    assertThat(cache.getIfPresent(2), is(-2));
+    assertThat(cache.getIfPresent(3), is(3));
+  }
+
+  static RefreshBatcher<Integer, Integer> newBatcher(
+      BatchLoader loader, int maximumSize, long maximumDelay) {
+    return new RefreshBatcher<>(loader, Runnable::run,
+        Scheduler.disabledScheduler(), maximumSize, maximumDelay);
+  }
+
+  static List<Integer> keys(Integer... keys) {
+    List<Integer> list = new ArrayList<>();
+    for (Integer key : keys) {
+      list.add(key);
+    }
+    return list;
+  }
+
+  static class BatchLoader implements CacheLoader<Integer, Integer> {
+    final List<List<Integer>> batches = new ArrayList<>();
+    boolean absent;
+
+    @Override public Integer load(Integer key) {
+      return -key;
+    }
+    @Override public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+      List<Integer> batch = new ArrayList<>();
+      Map<Integer, Integer> result = new HashMap<>();
+      for (Integer key : keys) {
+        batch.add(key);
+        if (!absent) {
+          result.put(key, -key);
+        }
+      }
+      batches.add(batch);
+      return result;
+    }
+  }
+}
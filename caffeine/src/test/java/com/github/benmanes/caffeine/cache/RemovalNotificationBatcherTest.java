@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+public final class RemovalNotificationBatcherTest {
+  final List<List<RemovalNotification<Integer, Integer>>> batches = new ArrayList<>();
+  final BatchRemovalListener<Integer, Integer> listener = batches::add;
+  final AtomicInteger deliveries = new AtomicInteger();
+  final Executor executor = task -> {
+    if (task instanceof RemovalNotificationBatcher<?, ?>) {
+      deliveries.incrementAndGet();
+    }
+    task.run();
+  };
+
+  @BeforeMethod
+  public void beforeMethod() {
+    deliveries.set(0);
+    batches.clear();
+  }
+
+  @Test
+  public void evict_singleDelivery() {
+    Cache<Integer, Integer> cache = Caffeine.newBuilder()
+        .batchRemovalListener(listener)
+        .executor(executor)
+        .maximumSize(2_500)
+        .build();
+    for (int i = 0; i < 2_500; i++) {
+      cache.put(i, -i);
+    }
+    assertThat(deliveries.get(), is(0));
+
+    cache.policy().eviction().get().setMaximum(0);
+    assertThat(deliveries.get(), is(1));
+    assertThat(batchSizes(), contains(1_000, 1_000, 500));
+    for (List<RemovalNotification<Integer, Integer>> batch : batches) {
+      for (RemovalNotification<Integer, Integer> notification : batch) {
+        assertThat(notification.getValue(), is(-notification.getKey()));
+        assertThat(notification.getCause(), is(RemovalCause.SIZE));
+        assertThat(notification.wasEvicted(), is(true));
+      }
+    }
+  }
+
+  @Test
+  public void invalidateAll_singleDelivery() {
+    Cache<Integer, Integer> cache = Caffeine.newBuilder()
+        .batchRemovalListener(listener)
+        .executor(executor)
+        .maximumSize(5_000)
+        .build();
+    for (int i = 0; i < 1_500; i++) {
+      cache.put(i, -i);
+    }
+    cache.invalidateAll();
+    assertThat(deliveries.get(), is(1));
+    assertThat(batchSizes(), contains(1_000, 500));
+    assertThat(batches.get(0).get(0).getCause(), is(RemovalCause.EXPLICIT));
+  }
+
+  @Test
+  public void invalidate_deliveredPromptly() {
+    Cache<Integer, Integer> cache = Caffeine.newBuilder()
+        .batchRemovalListener(listener)
+        .executor(executor)
+        .build();
+    cache.put(1, -1);
+    cache.put(1, -2);
+    cache.invalidate(1);
+    assertThat(deliveries.get(), is(2));
+    assertThat(batches.get(0), contains(RemovalNotification.of(1, -1, RemovalCause.REPLACED)));
+    assertThat(batches.get(1), contains(RemovalNotification.of(1, -2, RemovalCause.EXPLICIT)));
+  }
+
+  @Test
+  public void unbounded_coalesces() {
+    Queue<Runnable> tasks = new ArrayDeque<>();
+    Cache<Integer, Integer> cache = Caffeine.newBuilder()
+        .batchRemovalListener(listener)
+        .executor(tasks::add)
+        .build();
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    cache.invalidateAll();
+    assertThat(tasks.size(), is(1));
+
+    tasks.poll().run();
+    assertThat(batchSizes(), contains(100));
+    assertThat(tasks.isEmpty(), is(true));
+  }
+
+  @Test
+  public void async_unwrapsValue() {
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    AsyncCache<Integer, Integer> cache = Caffeine.newBuilder()
+        .batchRemovalListener(listener)
+        .executor(executor)
+        .maximumSize(10)
+        .buildAsync();
+    cache.put(1, CompletableFuture.completedFuture(-1));
+    cache.put(2, future);
+    cache.synchronous().invalidateAll();
+    assertThat(batches.get(0), contains(RemovalNotification.of(1, -1, RemovalCause.EXPLICIT)));
+
+    future.complete(-2);
+    assertThat(batches.get(1), contains(RemovalNotification.of(2, -2, RemovalCause.EXPLICIT)));
+  }
+
+  @Test
+  public void listener_throws() {
+    AtomicInteger calls = new AtomicInteger();
+    Cache<Integer, Integer> cache = Caffeine.newBuilder()
+        .batchRemovalListener((List<RemovalNotification<Integer, Integer>> notifications) -> {
+          calls.incrementAndGet();
+          throw new IllegalStateException();
+        })
+        .executor(executor)
+        .build();
+    cache.put(1, 1);
+    cache.invalidate(1);
+    cache.put(2, 2);
+    cache.invalidate(2);
+    assertThat(calls.get(), is(2));
+  }
+
+  private List<Integer> batchSizes() {
+    return batches.stream().map(List::size).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.Policy.Eviction;
+import com.github.benmanes.caffeine.cache.ShardedLocalCache.ShardedLocalManualCache;
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExpiry;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Stats;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * The test cases for a cache that is partitioned into independently evicting shards. The cache
+ * under test is built from the specification's builder with the number of shards to use.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class ShardedLocalCacheTest {
+
+  @Test
+  public void shareOf() {
+    long total = 0;
+    for (int i = 0; i < 3; i++) {
+      total += Caffeine.shareOf(10, i, 3);
+    }
+    assertThat(total, is(10L));
+    assertThat(Caffeine.shareOf(10, 0, 3), is(4L));
+    assertThat(Caffeine.shareOf(10, 2, 3), is(3L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void build(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    ShardedLocalCache<Integer, Integer> sharded = asSharded(builder.evictionShards(4).build());
+    assertThat(sharded.shards.length, is(4));
+    assertThat(sharded.maximum(), is(context.maximumSize()));
+    for (int i = 0; i < sharded.shards.length; i++) {
+      BoundedLocalCache<Integer, Integer> shard = sharded.shards[i];
+      assertThat(shard.maximum(), is(Caffeine.shareOf(context.maximumSize(), i, 4)));
+      assertThat(shard.refreshes(), is(sharded.refreshes()));
+    }
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void build_singleShard(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> single = builder.evictionShards(1).build();
+    assertThat(single instanceof BoundedLocalCache.BoundedLocalManualCache<?, ?>, is(true));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.TEN, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void build_minimumMaximum(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    ShardedLocalCache<Integer, Integer> sharded = asSharded(builder.evictionShards(10).build());
+    for (BoundedLocalCache<?, ?> shard : sharded.shards) {
+      assertThat(shard.maximum(), is(1L));
+    }
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void indexOf_stable(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    ShardedLocalCache<Integer, Integer> sharded = asSharded(builder.evictionShards(8).build());
+    Set<Integer> used = new HashSet<>();
+    for (int i = 0; i < 1_000; i++) {
+      // A weak key is hashed by its identity, so the same instance is used
+      Integer key = i;
+      int index = sharded.indexOf(key);
+      assertThat(index, is(sharded.indexOf(key)));
+      assertThat(index, lessThanOrEqualTo(7));
+      used.add(index);
+    }
+    assertThat(used.size(), is(8));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void putAndGet(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(4).build();
+    for (int i = 0; i < 20; i++) {
+      sharded.put(i, -i);
+    }
+    assertThat(sharded.estimatedSize(), is(20L));
+    for (int i = 0; i < 20; i++) {
+      assertThat(sharded.getIfPresent(i), is(-i));
+    }
+    assertThat(sharded.get(100, key -> -key), is(-100));
+
+    Map<Integer, Integer> present = sharded.getAllPresent(Arrays.asList(3, 1, 2, 500));
+    assertThat(present.keySet().toString(), is("[3, 1, 2]"));
+
+    sharded.invalidate(1);
+    assertThat(sharded.getIfPresent(1), is(nullValue()));
+    sharded.invalidateAll();
+    assertThat(sharded.estimatedSize(), is(0L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void evict(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    ShardedLocalCache<Integer, Integer> sharded = asSharded(builder.evictionShards(4).build());
+    for (int i = 0; i < 1_000; i++) {
+      sharded.put(i, -i);
+    }
+    sharded.cleanUp();
+    assertThat(sharded.estimatedSize(), lessThanOrEqualTo(context.maximumSize()));
+    for (BoundedLocalCache<Integer, Integer> shard : sharded.shards) {
+      assertThat(shard.estimatedSize(), lessThanOrEqualTo(shard.maximum()));
+    }
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void asMap_iterator(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(4).build();
+    for (int i = 0; i < 20; i++) {
+      sharded.put(i, -i);
+    }
+    ConcurrentMap<Integer, Integer> map = sharded.asMap();
+    assertThat(map.size(), is(20));
+    assertThat(map.keySet().size(), is(20));
+    assertThat(map.values().contains(-10), is(true));
+    assertThat(map.entrySet().contains(new SimpleImmutableEntry<>(10, -10)), is(true));
+    assertThat(map.entrySet().contains(new SimpleImmutableEntry<>(10, 10)), is(false));
+
+    Set<Integer> keys = new HashSet<>();
+    for (Iterator<Integer> i = map.keySet().iterator(); i.hasNext();) {
+      Integer key = i.next();
+      keys.add(key);
+      if ((key % 2) == 0) {
+        i.remove();
+      }
+    }
+    assertThat(keys.size(), is(20));
+    assertThat(map.size(), is(10));
+    assertThat(map.containsKey(2), is(false));
+    assertThat(map.containsKey(3), is(true));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC)
+  public void loading(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    LoadingCache<Integer, Integer> sharded = builder.evictionShards(4).build(key -> -key);
+    assertThat(sharded.get(1), is(-1));
+    assertThat(sharded.getAll(Arrays.asList(1, 2, 3)).size(), is(3));
+
+    sharded.put(4, 4);
+    sharded.refresh(4);
+    assertThat(sharded.getIfPresent(4), is(-4));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED, stats = Stats.ENABLED)
+  public void stats(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(4).build();
+    for (int i = 0; i < 10; i++) {
+      sharded.put(i, i);
+    }
+    for (int i = 0; i < 20; i++) {
+      sharded.getIfPresent(i);
+    }
+    assertThat(sharded.stats().hitCount(), is(10L));
+    assertThat(sharded.stats().missCount(), is(10L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void policy_eviction(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(4).build();
+    for (int i = 0; i < 100; i++) {
+      sharded.put(i, -i);
+    }
+    Eviction<Integer, Integer> eviction = sharded.policy().eviction().get();
+    assertThat(eviction.isWeighted(), is(false));
+    assertThat(eviction.getMaximum(), is(context.maximumSize()));
+    assertThat(eviction.hottest(10).size(), is(10));
+    assertThat(eviction.coldest(200).size(), is(100));
+
+    eviction.setMaximum(20);
+    assertThat(eviction.getMaximum(), is(20L));
+    assertThat(sharded.estimatedSize(), lessThanOrEqualTo(20L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void policy_setMaximum_belowShards(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(4).build();
+    Eviction<Integer, Integer> eviction = sharded.policy().eviction().get();
+    try {
+      eviction.setMaximum(3);
+      throw new AssertionError();
+    } catch (IllegalArgumentException expected) {}
+    assertThat(eviction.getMaximum(), is(context.maximumSize()));
+
+    eviction.setMaximum(4);
+    assertThat(eviction.getMaximum(), is(4L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.VALUE, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED)
+  public void policy_weighted(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(2).build();
+    sharded.put(1, 5);
+    sharded.put(2, 7);
+    Eviction<Integer, Integer> eviction = sharded.policy().eviction().get();
+    assertThat(eviction.isWeighted(), is(true));
+    assertThat(eviction.weightOf(2).getAsInt(), is(7));
+    assertThat(eviction.weightedSize().getAsLong(), is(12L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT, compute = Compute.SYNC,
+      refreshAfterWrite = Expire.DISABLED, expireAfterWrite = Expire.ONE_MINUTE,
+      expireAfterAccess = Expire.DISABLED, expiry = CacheExpiry.DISABLED)
+  public void policy_expiration(Cache<Integer, Integer> cache, CacheContext context,
+      Caffeine<Integer, Integer> builder) {
+    Cache<Integer, Integer> sharded = builder.evictionShards(4).build();
+    sharded.put(1, 1);
+    sharded.put(2, 2);
+    Policy.Expiration<Integer, Integer> expiration = sharded.policy().expireAfterWrite().get();
+    assertThat(expiration.getExpiresAfter(TimeUnit.MINUTES), is(1L));
+    assertThat(expiration.oldest(10).size(), is(2));
+
+    expiration.setExpiresAfter(2, TimeUnit.MINUTES);
+    assertThat(expiration.getExpiresAfter(TimeUnit.MINUTES), is(2L));
+    assertThat(sharded.policy().expireAfterAccess().isPresent(), is(false));
+  }
+
+  static ShardedLocalCache<Integer, Integer> asSharded(Cache<Integer, Integer> cache) {
+    return ((ShardedLocalManualCache<Integer, Integer>) cache).cache();
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Grace;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * The test cases for loading caches that serve an expired entry while it is reloaded.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class StaleWhileRevalidateTest {
+  static final long EXPIRY = Expire.ONE_MINUTE.timeNanos();
+  static final long GRACE = Grace.TEN_SECONDS.timeNanos();
+  static final long MAXIMUM_STALENESS = Grace.FIVE_MINUTES.timeNanos();
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void get_fresh(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    context.ticker().advance(EXPIRY - 1);
+    assertThat(cache.get(1), is(1));
+    assertThat(loader.reloads, is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void get_stale(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    context.ticker().advance(EXPIRY);
+    assertThat(cache.get(1), is(1));
+    assertThat(loader.reloads, is(1));
+    assertThat(cache.get(1), is(2));
+    assertThat(loader.loads, is(1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void getIfPresent_stale(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    cache.put(1, 1);
+
+    context.ticker().advance(EXPIRY + GRACE - 1);
+    assertThat(cache.getIfPresent(1), is(1));
+    assertThat(cache.getIfPresent(1), is(2));
+    assertThat(loader.reloads, is(1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void views_stale(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    cache.put(1, 1);
+
+    context.ticker().advance(EXPIRY + 1);
+    assertThat(cache.asMap().containsKey(1), is(false));
+    assertThat(cache.asMap().get(1), is(nullValue()));
+    assertThat(cache.asMap().keySet().iterator().hasNext(), is(false));
+    assertThat(cache.getAllPresent(Collections.singletonList(1)).isEmpty(), is(true));
+    assertThat(cache.policy().expireAfterWrite().get()
+        .ageOf(1, TimeUnit.NANOSECONDS).isPresent(), is(false));
+    assertThat(cache.policy().expireAfterWrite().get().oldest(10).isEmpty(), is(true));
+    assertThat(loader.reloads, is(0));
+
+    // the entry is retained for the grace period so that a retrieval may serve and reload it
+    assertThat(cache.getIfPresent(1), is(1));
+    assertThat(loader.reloads, is(1));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void computeIfAbsent_stale(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    cache.put(1, 1);
+
+    context.ticker().advance(EXPIRY + 1);
+    assertThat(cache.asMap().computeIfAbsent(1, key -> -key), is(-1));
+    assertThat(cache.getIfPresent(1), is(-1));
+    assertThat(loader.reloads, is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void get_staleWhileInFlight(CacheContext context) {
+    CompletableFuture<Integer> reload = new CompletableFuture<>();
+    CountingLoader loader = new CountingLoader() {
+      @Override public CompletableFuture<Integer> asyncReload(
+          Integer key, Integer oldValue, Executor executor) {
+        reloads++;
+        return reload;
+      }
+    };
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    context.ticker().advance(EXPIRY);
+    for (int i = 0; i < 10; i++) {
+      assertThat(cache.get(1), is(1));
+    }
+    assertThat(loader.reloads, is(1));
+
+    reload.complete(2);
+    assertThat(cache.get(1), is(2));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void get_pastGracePeriod(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    context.ticker().advance(EXPIRY + GRACE);
+    assertThat(cache.getIfPresent(1), is(nullValue()));
+    assertThat(cache.get(1), is(1));
+    assertThat(loader.loads, is(2));
+    assertThat(loader.reloads, is(0));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.DEFAULT,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void get_sharded(Caffeine<Object, Object> builder, CacheContext context) {
+    LoadingCache<Integer, Integer> cache = builder.evictionShards(2).build(new CountingLoader());
+    assertThat(cache.get(1), is(1));
+
+    context.ticker().advance(EXPIRY);
+    assertThat(cache.get(1), is(1));
+    assertThat(cache.get(1), is(2));
+  }
+
+  /* --------------- reload failures --------------- */
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS)
+  public void reloadFails_noStaleIfError(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    loader.failing = true;
+    context.ticker().advance(EXPIRY);
+    assertThat(cache.get(1), is(1));
+    assertThat(loader.reloads, is(1));
+
+    context.ticker().advance(GRACE);
+    assertThat(cache.getIfPresent(1), is(nullValue()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS,
+      staleIfError = Grace.FIVE_MINUTES)
+  public void reloadFails_staleIfError(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    loader.failing = true;
+    context.ticker().advance(EXPIRY);
+    assertThat(cache.get(1), is(1));
+
+    // the stale value is served past the grace period, while each read retries the reload
+    context.ticker().advance(MAXIMUM_STALENESS - 1);
+    assertThat(cache.getIfPresent(1), is(1));
+    assertThat(loader.reloads, is(2));
+
+    context.ticker().advance(1);
+    assertThat(cache.getIfPresent(1), is(nullValue()));
+
+    cache.cleanUp();
+    assertThat(cache.estimatedSize(), is(0L));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS,
+      staleIfError = Grace.FIVE_MINUTES)
+  public void reloadRecovers_staleIfError(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    loader.failing = true;
+    context.ticker().advance(EXPIRY);
+    assertThat(cache.get(1), is(1));
+
+    loader.failing = false;
+    context.ticker().advance(GRACE);
+    assertThat(cache.get(1), is(1));
+    assertThat(cache.get(1), is(2));
+
+    // the entry's lifetime restarts from the reload and the failure no longer applies
+    context.ticker().advance(EXPIRY + GRACE);
+    assertThat(cache.getIfPresent(1), is(nullValue()));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(implementation = Implementation.Caffeine, population = Population.EMPTY,
+      expireAfterWrite = Expire.ONE_MINUTE, staleWhileRevalidate = Grace.TEN_SECONDS,
+      staleIfError = Grace.FIVE_MINUTES)
+  public void replaced_staleIfError(CacheContext context) {
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<Integer, Integer> cache = context.build(loader);
+    assertThat(cache.get(1), is(1));
+
+    loader.failing = true;
+    context.ticker().advance(EXPIRY);
+    assertThat(cache.get(1), is(1));
+
+    // a new value is not served past its grace period due to the prior value's failure
+    cache.put(1, 3);
+    context.ticker().advance(EXPIRY + GRACE);
+    assertThat(cache.getIfPresent(1), is(nullValue()));
+  }
+
+  static class CountingLoader implements CacheLoader<Integer, Integer> {
+    boolean failing;
+    int reloads;
+    int loads;
+
+    @Override public Integer load(Integer key) {
+      loads++;
+      return key;
+    }
+    @Override public Integer reload(Integer key, Integer oldValue) {
+      reloads++;
+      if (failing) {
+        throw new IllegalStateException();
+      }
+      return oldValue + 1;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static com.github.benmanes.caffeine.cache.BLCHeader.DrainStatusRef.IDLE;
+import static com.github.benmanes.caffeine.cache.BLCHeader.DrainStatusRef.REQUIRED;
+import static com.github.benmanes.caffeine.testing.Awaits.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.Policy.Eviction;
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExecutor;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.TimeSlice;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+import com.github.benmanes.caffeine.cache.testing.TrackingExecutor;
+
+/**
+ * The test cases for the maintenance work yielding once its time slice is exhausted.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class TimeSlicedMaintenanceTest {
+
+  static BoundedLocalCache<Integer, Integer> asBoundedLocalCache(Cache<Integer, Integer> cache) {
+    return (BoundedLocalCache<Integer, Integer>) cache.asMap();
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      maintenanceTimeSlice = TimeSlice.TEN_MILLISECONDS)
+  public void evict_yields(Cache<Integer, Integer> cache,
+      CacheContext context, Eviction<Integer, Integer> eviction) {
+    BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
+    context.ticker().setAutoIncrementStep(1, TimeUnit.MILLISECONDS);
+    eviction.setMaximum(0);
+    assertThat(cache.estimatedSize(), is(greaterThan(0L)));
+    assertThat(localCache.drainStatus(), is(REQUIRED));
+
+    int passes = 0;
+    while (cache.estimatedSize() > 0) {
+      cache.cleanUp();
+      passes++;
+    }
+    assertThat(passes, is(greaterThan(1)));
+    assertThat(localCache.drainStatus(), is(IDLE));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, expireAfterWrite = Expire.ONE_MINUTE,
+      maintenanceTimeSlice = TimeSlice.TEN_MILLISECONDS)
+  public void expire_yields(Cache<Integer, Integer> cache, CacheContext context) {
+    context.ticker().advance(2, TimeUnit.MINUTES);
+    context.ticker().setAutoIncrementStep(1, TimeUnit.MILLISECONDS);
+    cache.cleanUp();
+    assertThat(cache.estimatedSize(), is(greaterThan(0L)));
+
+    while (cache.estimatedSize() > 0) {
+      cache.cleanUp();
+    }
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      maintenanceTimeSlice = TimeSlice.TEN_MILLISECONDS, executor = CacheExecutor.THREADED)
+  public void reschedules(Cache<Integer, Integer> cache,
+      CacheContext context, Eviction<Integer, Integer> eviction) {
+    TrackingExecutor executor = (TrackingExecutor) context.executor();
+    cache.cleanUp();
+    await().until(() -> executor.submitted() == executor.completed());
+    int submitted = executor.submitted();
+
+    context.ticker().setAutoIncrementStep(1, TimeUnit.MILLISECONDS);
+    eviction.setMaximum(0);
+    await().until(() -> cache.estimatedSize() == 0);
+    assertThat(executor.submitted() - submitted, is(greaterThan(1)));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.FULL, maximumSize = Maximum.FULL, weigher = CacheWeigher.DEFAULT,
+      expireAfterWrite = Expire.ONE_MINUTE)
+  public void unbounded(Cache<Integer, Integer> cache,
+      CacheContext context, Eviction<Integer, Integer> eviction) {
+    context.ticker().setAutoIncrementStep(1, TimeUnit.MILLISECONDS);
+    eviction.setMaximum(0);
+    assertThat(cache.estimatedSize(), is(0L));
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.github.benmanes.caffeine.cache.testing.CacheContext;
+import com.github.benmanes.caffeine.cache.testing.CacheProvider;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.WeightAdmission;
+import com.github.benmanes.caffeine.cache.testing.CacheValidationListener;
+
+/**
+ * The test cases for admitting a candidate relative to all of the victims that it displaces.
+ *
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+@Listeners(CacheValidationListener.class)
+@Test(dataProviderClass = CacheProvider.class)
+public final class WeightAwareAdmissionTest {
+  static final Integer CANDIDATE = 1_000;
+  static final int CANDIDATE_WEIGHT = 20;
+  static final int WEIGHT = 8;
+
+  static BoundedLocalCache<Integer, Integer> asBoundedLocalCache(Cache<Integer, Integer> cache) {
+    return (BoundedLocalCache<Integer, Integer>) cache.asMap();
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.EMPTY, maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.VALUE,
+      weightAwareAdmission = WeightAdmission.ENABLED)
+  public void admitByWeight_rarelyUsedVictims(Cache<Integer, Integer> cache) {
+    BoundedLocalCache<Integer, Integer> localCache = populate(cache);
+    increment(localCache, CANDIDATE, 5);
+
+    Node<Integer, Integer> candidate = localCache.data.get(CANDIDATE);
+    Node<Integer, Integer> victim = localCache.accessOrderProbationDeque().peekFirst();
+    assertThat(localCache.admit(CANDIDATE, victim.getKey()), is(true));
+    assertThat(localCache.admitByWeight(candidate, CANDIDATE, victim), is(true));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.EMPTY, maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.VALUE,
+      weightAwareAdmission = WeightAdmission.ENABLED)
+  public void admitByWeight_popularVictims(Cache<Integer, Integer> cache) {
+    BoundedLocalCache<Integer, Integer> localCache = populate(cache);
+    increment(localCache, CANDIDATE, 2);
+    for (int i = 0; i < 10; i++) {
+      increment(localCache, i, 2);
+    }
+
+    Node<Integer, Integer> candidate = localCache.data.get(CANDIDATE);
+    Node<Integer, Integer> victim = localCache.accessOrderProbationDeque().peekFirst();
+    assertThat(localCache.admit(CANDIDATE, victim.getKey()), is(true));
+    assertThat(localCache.admitByWeight(candidate, CANDIDATE, victim), is(false));
+  }
+
+  @Test(dataProvider = "caches")
+  @CacheSpec(compute = Compute.SYNC, implementation = Implementation.Caffeine,
+      population = Population.EMPTY, maximumSize = Maximum.ONE_FIFTY, weigher = CacheWeigher.VALUE,
+      weightAwareAdmission = { WeightAdmission.DISABLED, WeightAdmission.ENABLED })
+  public void evict(Cache<Integer, Integer> cache, CacheContext context) {
+    BoundedLocalCache<Integer, Integer> localCache = asBoundedLocalCache(cache);
+    int count = (int) (Maximum.ONE_FIFTY.max() / WEIGHT);
+    for (int i = 0; i < count; i++) {
+      cache.put(i, WEIGHT);
+    }
+    for (int i = 0; i < count; i++) {
+      increment(localCache, i, 3);
+    }
+    increment(localCache, CANDIDATE, 4);
+
+    // the candidate is used more often than each victim, but not more than the two it displaces
+    cache.put(CANDIDATE, CANDIDATE_WEIGHT);
+    assertThat(cache.asMap().containsKey(CANDIDATE), is(!context.isWeightAware()));
+    assertThat(cache.estimatedSize(), is(context.isWeightAware() ? count : (count - 1L)));
+  }
+
+  /** Returns the cache of ten light entries followed by a heavy one that displaces three. */
+  private static BoundedLocalCache<Integer, Integer> populate(Cache<Integer, Integer> cache) {
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, WEIGHT);
+    }
+    cache.put(CANDIDATE, CANDIDATE_WEIGHT);
+    cache.cleanUp();
+    return asBoundedLocalCache(cache);
+  }
+
+  private static void increment(BoundedLocalCache<Integer, Integer> cache, Integer key, int times) {
+    for (int i = 0; i < times; i++) {
+      cache.frequencySketch().increment(key);
+    }
+  }
+}
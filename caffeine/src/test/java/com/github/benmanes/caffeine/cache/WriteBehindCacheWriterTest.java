@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.benmanes.caffeine.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author ben.manes@gmail.com (Ben Manes)
+ */
+public final class WriteBehindCacheWriterTest {
+  final Queue<Runnable> scheduled = new ArrayDeque<>();
+  final Queue<Runnable> submitted = new ArrayDeque<>();
+  final List<Map<Integer, Integer>> writes = new ArrayList<>();
+  final List<Set<Integer>> deletes = new ArrayList<>();
+  final Scheduler scheduler = (executor, command, delay, unit) -> {
+    scheduled.add(command);
+    return DisabledFuture.INSTANCE;
+  };
+  final Executor executor = submitted::add;
+
+  @BeforeMethod
+  public void beforeMethod() {
+    scheduled.clear();
+    submitted.clear();
+    writes.clear();
+    deletes.clear();
+  }
+
+  @Test
+  public void flush_byTime() {
+    Cache<Integer, Integer> cache = Caffeine.newBuilder().writer(builder().build()).build();
+    cache.put(1, -1);
+    cache.put(2, -2);
+    assertThat(scheduled.size(), is(1));
+    assertThat(writes.isEmpty(), is(true));
+
+    scheduled.poll().run();
+    assertThat(writes, contains(map(1, -1, 2, -2)));
+  }
+
+  @Test
+  public void flush_bySize() {
+    WriteBehindCacheWriter<Integer, Integer> writer = builder().maximumBatchSize(3).build();
+    Cache<Integer, Integer> cache = Caffeine.newBuilder().writer(writer).build();
+    for (int i = 0; i < 4; i++) {
+      cache.put(i, -i);
+    }
+    assertThat(submitted.size(), is(1));
+    assertThat(writer.pendingCount(), is(4));
+
+    submitted.poll().run();
+    assertThat(writes, contains(map(0, 0, 1, -1, 2, -2), map(3, -3)));
+
+    // the stale scheduled flush does not write the next buffer early
+    cache.put(5, -5);
+    scheduled.poll().run();
+    assertThat(writer.pendingCount(), is(1));
+  }
+
+  @Test
+  public void coalesce() {
+    WriteBehindCacheWriter<Integer, Integer> writer = builder().coalesce(Integer::sum).build();
+    Cache<Integer, Integer> cache = Caffeine.newBuilder().writer(writer).build();
+    cache.put(1, 1);
+    cache.put(1, 2);
+    cache.put(1, 3);
+    assertThat(scheduled.size(), is(1));
+
+    writer.flush();
+    assertThat(writes, contains(map(1, 6)));
+  }
+
+  @Test
+  public void delete_replacesWrite() {
+    WriteBehindCacheWriter<Integer, Integer> writer = builder().build();
+    Cache<Integer, Integer> cache = Caffeine.newBuilder().writer(writer).build();
+    cache.put(1, -1);
+    cache.put(2, -2);
+    cache.invalidate(1);
+
+    writer.flush();
+    assertThat(writes, contains(map(2, -2)));
+    assertThat(deletes, contains(Collections.singleton(1)));
+  }
+
+  @Test
+  public void delete_evictionIgnored() {
+    WriteBehindCacheWriter<Integer, Integer> writer = builder().build();
+    writer.delete(1, -1, RemovalCause.SIZE);
+    assertThat(writer.pendingCount(), is(0));
+  }
+
+  @Test
+  public void backpressure() {
+    WriteBehindCacheWriter<Integer, Integer> writer = builder()
+        .maximumBatchSize(2).maximumPending(3).build();
+    Cache<Integer, Integer> cache = Caffeine.newBuilder().writer(writer).build();
+    for (int i = 0; i < 3; i++) {
+      cache.put(i, -i);
+    }
+    assertThat(writer.pendingCount(), is(0));
+    assertThat(writes, contains(map(0, 0, 1, -1), map(2, -2)));
+  }
+
+  @Test
+  public void writeAction_throws() {
+    WriteBehindCacheWriter<Integer, Integer> writer = builder().build();
+    WriteBehindCacheWriter<Integer, Integer> failing = WriteBehindCacheWriter
+        .<Integer, Integer>newBuilder()
+        .writeAction(entries -> { throw new IllegalStateException(); })
+        .bufferTime(Duration.ofSeconds(1))
+        .scheduler(scheduler)
+        .executor(executor)
+        .build();
+    failing.write(1, -1);
+    failing.flush();
+    assertThat(failing.pendingCount(), is(0));
+
+    writer.write(2, -2);
+    writer.flush();
+    assertThat(writes, contains(map(2, -2)));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void build_noWriteAction() {
+    WriteBehindCacheWriter.newBuilder()
+        .bufferTime(Duration.ofSeconds(1))
+        .scheduler(scheduler)
+        .build();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void build_noScheduler() {
+    WriteBehindCacheWriter.<Integer, Integer>newBuilder()
+        .bufferTime(Duration.ofSeconds(1))
+        .writeAction(writes::add)
+        .build();
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void scheduler_disabled() {
+    WriteBehindCacheWriter.newBuilder().scheduler(Scheduler.disabledScheduler());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void maximumBatchSize_zero() {
+    WriteBehindCacheWriter.newBuilder().maximumBatchSize(0);
+  }
+
+  WriteBehindCacheWriter.Builder<Integer, Integer> builder() {
+    return WriteBehindCacheWriter.<Integer, Integer>newBuilder()
+        .bufferTime(Duration.ofSeconds(1))
+        .deleteAction(deletes::add)
+        .writeAction(writes::add)
+        .scheduler(scheduler)
+        .executor(executor);
+  }
+
+  static Map<Integer, Integer> map(Integer... keyValues) {
+    Map<Integer, Integer> map = new HashMap<>();
+    List<Integer> list = Arrays.asList(keyValues);
+    for (int i = 0; i < list.size(); i += 2) {
+      map.put(list.get(i), list.get(i + 1));
+    }
+    return map;
+  }
+}
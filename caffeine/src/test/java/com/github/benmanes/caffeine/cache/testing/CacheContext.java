@@ -47,21 +47,30 @@ import com.github.benmanes.caffeine.cache.RemovalListener;
 import com.github.benmanes.caffeine.cache.Scheduler;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Advance;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Backoff;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExecutor;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExpiry;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheScheduler;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.EarlyRefresh;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expiration;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Grace;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.HotKeyRecording;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.InitialCapacity;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Listener;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.LoadPenalty;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Loader;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.NegativeCache;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.ReferenceType;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Stats;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.TimeSlice;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.VictimTier;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.WeightAdmission;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Writer;
 import com.github.benmanes.caffeine.cache.testing.GuavaCacheFromContext.GuavaLoadingCache;
 import com.github.benmanes.caffeine.cache.testing.GuavaCacheFromContext.SingleLoader;
@@ -80,17 +89,26 @@ public final class CacheContext {
   final RemovalListener<Integer, Integer> removalListener;
   final CacheWriter<Integer, Integer> cacheWriter;
   final InitialCapacity initialCapacity;
+  final EarlyRefresh earlyRefresh;
+  final Grace staleWhileRevalidate;
+  final Grace staleIfError;
+  final TimeSlice timeSlice;
+  final HotKeyRecording hotKeys;
+  final VictimTier victimTier;
   final Expiry<Integer, Integer> expiry;
   final Map<Integer, Integer> original;
   final Implementation implementation;
   final CacheScheduler cacheScheduler;
   final Listener removalListenerType;
+  final NegativeCache negativeCache;
   final CacheExecutor cacheExecutor;
   final ReferenceType valueStrength;
   final ReferenceType keyStrength;
   final CacheExpiry expiryType;
   final Population population;
   final CacheWeigher weigher;
+  final WeightAdmission weightAdmission;
+  final LoadPenalty loadPenalty;
   final Maximum maximumSize;
   final Scheduler scheduler;
   final Expire afterAccess;
@@ -100,6 +118,7 @@ public final class CacheContext {
   final FakeTicker ticker;
   final Compute compute;
   final Advance advance;
+  final Backoff backoff;
   final Expire refresh;
   final Loader loader;
   final Writer writer;
@@ -124,18 +143,31 @@ public final class CacheContext {
   Map<Integer, Integer> absent;
 
   public CacheContext(InitialCapacity initialCapacity, Stats stats, CacheWeigher weigher,
-      Maximum maximumSize, CacheExpiry expiryType, Expire afterAccess, Expire afterWrite,
-      Expire refresh, Advance advance, ReferenceType keyStrength, ReferenceType valueStrength,
-      CacheExecutor cacheExecutor, CacheScheduler cacheScheduler, Listener removalListenerType,
-      Population population, boolean isLoading, boolean isAsyncLoading, Compute compute,
-      Loader loader, Writer writer, Implementation implementation, CacheSpec cacheSpec) {
+      WeightAdmission weightAdmission, LoadPenalty loadPenalty, Maximum maximumSize,
+      CacheExpiry expiryType,
+      Expire afterAccess, Expire afterWrite, Expire refresh, EarlyRefresh earlyRefresh,
+      Grace staleWhileRevalidate, Grace staleIfError, TimeSlice timeSlice, HotKeyRecording hotKeys,
+      VictimTier victimTier, Advance advance, ReferenceType keyStrength,
+      ReferenceType valueStrength, CacheExecutor cacheExecutor, CacheScheduler cacheScheduler,
+      Listener removalListenerType, Population population, boolean isLoading,
+      boolean isAsyncLoading, Compute compute, Loader loader, Writer writer,
+      NegativeCache negativeCache, Backoff backoff, Implementation implementation,
+      CacheSpec cacheSpec) {
     this.initialCapacity = requireNonNull(initialCapacity);
     this.stats = requireNonNull(stats);
     this.weigher = requireNonNull(weigher);
+    this.weightAdmission = requireNonNull(weightAdmission);
+    this.loadPenalty = requireNonNull(loadPenalty);
     this.maximumSize = requireNonNull(maximumSize);
     this.afterAccess = requireNonNull(afterAccess);
     this.afterWrite = requireNonNull(afterWrite);
     this.refresh = requireNonNull(refresh);
+    this.earlyRefresh = requireNonNull(earlyRefresh);
+    this.staleWhileRevalidate = requireNonNull(staleWhileRevalidate);
+    this.staleIfError = requireNonNull(staleIfError);
+    this.timeSlice = requireNonNull(timeSlice);
+    this.hotKeys = requireNonNull(hotKeys);
+    this.victimTier = requireNonNull(victimTier);
     this.advance = requireNonNull(advance);
     this.keyStrength = requireNonNull(keyStrength);
     this.valueStrength = requireNonNull(valueStrength);
@@ -150,6 +182,8 @@ public final class CacheContext {
     this.isAsyncLoading = isAsyncLoading;
     this.writer = requireNonNull(writer);
     this.cacheWriter = writer.create();
+    this.negativeCache = requireNonNull(negativeCache);
+    this.backoff = requireNonNull(backoff);
     this.ticker = new SerializableFakeTicker();
     this.implementation = requireNonNull(implementation);
     this.original = new LinkedHashMap<>();
@@ -265,6 +299,14 @@ public final class CacheContext {
     return (weigher != CacheWeigher.DEFAULT);
   }
 
+  public boolean isWeightAware() {
+    return (weightAdmission == WeightAdmission.ENABLED);
+  }
+
+  public boolean admitsByLoadPenalty() {
+    return (loadPenalty == LoadPenalty.ENABLED);
+  }
+
   public boolean isZeroWeighted() {
     return (weigher == CacheWeigher.ZERO);
   }
@@ -281,6 +323,50 @@ public final class CacheContext {
     return refresh;
   }
 
+  public boolean refreshesEarly() {
+    return (earlyRefresh != EarlyRefresh.DISABLED);
+  }
+
+  public EarlyRefresh probabilisticEarlyRefresh() {
+    return earlyRefresh;
+  }
+
+  public boolean servesStale() {
+    return (staleWhileRevalidate != Grace.DISABLED);
+  }
+
+  public Grace staleWhileRevalidate() {
+    return staleWhileRevalidate;
+  }
+
+  public Grace staleIfError() {
+    return staleIfError;
+  }
+
+  public boolean isTimeSliced() {
+    return (timeSlice != TimeSlice.DISABLED);
+  }
+
+  public TimeSlice maintenanceTimeSlice() {
+    return timeSlice;
+  }
+
+  public boolean recordsHotKeys() {
+    return (hotKeys != HotKeyRecording.DISABLED);
+  }
+
+  public HotKeyRecording recordHotKeys() {
+    return hotKeys;
+  }
+
+  public boolean hasVictimTier() {
+    return (victimTier != VictimTier.DISABLED);
+  }
+
+  public VictimTier offHeapVictims() {
+    return victimTier;
+  }
+
   /** The initial entries in the cache, iterable in insertion order. */
   public Map<Integer, Integer> original() {
     initialSize(); // lazy initialize
@@ -343,6 +429,18 @@ public final class CacheContext {
     }
   }
 
+  public boolean cachesNegatives() {
+    return (negativeCache != NegativeCache.DISABLED);
+  }
+
+  public NegativeCache negativeCaching() {
+    return negativeCache;
+  }
+
+  public Backoff failureBackoff() {
+    return backoff;
+  }
+
   public Listener removalListenerType() {
     return removalListenerType;
   }
@@ -472,17 +570,27 @@ public final class CacheContext {
         .add("population", population)
         .add("maximumSize", maximumSize)
         .add("weigher", weigher)
+        .add("weightAwareAdmission", weightAdmission)
+        .add("loadPenaltyAdmission", loadPenalty)
         .add("expiry", expiryType)
         .add("expiryTime", expiryTime)
         .add("afterAccess", afterAccess)
         .add("afterWrite", afterWrite)
         .add("refreshAfterWrite", refresh)
+        .add("earlyRefresh", earlyRefresh)
+        .add("staleWhileRevalidate", staleWhileRevalidate)
+        .add("staleIfError", staleIfError)
+        .add("maintenanceTimeSlice", timeSlice)
+        .add("recordHotKeys", hotKeys)
+        .add("offHeapVictims", victimTier)
         .add("keyStrength", keyStrength)
         .add("valueStrength", valueStrength)
         .add("compute", compute)
         .add("loader", loader)
         .add("isAsyncLoading", isAsyncLoading)
         .add("writer", writer)
+        .add("negativeCaching", negativeCache)
+        .add("failureBackoff", backoff)
         .add("cacheExecutor", cacheExecutor)
         .add("cacheScheduler", cacheScheduler)
         .add("removalListener", removalListenerType)
@@ -27,20 +27,29 @@ import java.util.stream.Stream;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Advance;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Backoff;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExecutor;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExpiry;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheScheduler;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Compute;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.EarlyRefresh;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Grace;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.HotKeyRecording;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Implementation;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.InitialCapacity;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Listener;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.LoadPenalty;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Loader;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.NegativeCache;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Population;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.ReferenceType;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Stats;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.TimeSlice;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.VictimTier;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.WeightAdmission;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Writer;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -117,11 +126,19 @@ final class CacheGenerator {
         ImmutableSet.copyOf(cacheSpec.initialCapacity()),
         ImmutableSet.copyOf(statistics),
         ImmutableSet.copyOf(cacheSpec.weigher()),
+        ImmutableSet.copyOf(cacheSpec.weightAwareAdmission()),
+        ImmutableSet.copyOf(cacheSpec.loadPenaltyAdmission()),
         ImmutableSet.copyOf(cacheSpec.maximumSize()),
         ImmutableSet.copyOf(cacheSpec.expiry()),
         ImmutableSet.copyOf(cacheSpec.expireAfterAccess()),
         ImmutableSet.copyOf(cacheSpec.expireAfterWrite()),
         ImmutableSet.copyOf(cacheSpec.refreshAfterWrite()),
+        ImmutableSet.copyOf(cacheSpec.probabilisticEarlyRefresh()),
+        ImmutableSet.copyOf(cacheSpec.staleWhileRevalidate()),
+        ImmutableSet.copyOf(cacheSpec.staleIfError()),
+        ImmutableSet.copyOf(cacheSpec.maintenanceTimeSlice()),
+        ImmutableSet.copyOf(cacheSpec.recordHotKeys()),
+        ImmutableSet.copyOf(cacheSpec.offHeapVictims()),
         ImmutableSet.copyOf(cacheSpec.advanceOnPopulation()),
         ImmutableSet.copyOf(keys),
         ImmutableSet.copyOf(values),
@@ -134,6 +151,8 @@ final class CacheGenerator {
         ImmutableSet.copyOf(computations),
         ImmutableSet.copyOf(cacheSpec.loader()),
         ImmutableSet.copyOf(cacheSpec.writer()),
+        ImmutableSet.copyOf(cacheSpec.negativeCaching()),
+        ImmutableSet.copyOf(cacheSpec.failureBackoff()),
         ImmutableSet.copyOf(implementations));
   }
 
@@ -154,11 +173,19 @@ final class CacheGenerator {
         (InitialCapacity) combination.get(index++),
         (Stats) combination.get(index++),
         (CacheWeigher) combination.get(index++),
+        (WeightAdmission) combination.get(index++),
+        (LoadPenalty) combination.get(index++),
         (Maximum) combination.get(index++),
         (CacheExpiry) combination.get(index++),
         (Expire) combination.get(index++),
         (Expire) combination.get(index++),
         (Expire) combination.get(index++),
+        (EarlyRefresh) combination.get(index++),
+        (Grace) combination.get(index++),
+        (Grace) combination.get(index++),
+        (TimeSlice) combination.get(index++),
+        (HotKeyRecording) combination.get(index++),
+        (VictimTier) combination.get(index++),
         (Advance) combination.get(index++),
         (ReferenceType) combination.get(index++),
         (ReferenceType) combination.get(index++),
@@ -171,6 +198,8 @@ final class CacheGenerator {
         (Compute) combination.get(index++),
         (Loader) combination.get(index++),
         (Writer) combination.get(index++),
+        (NegativeCache) combination.get(index++),
+        (Backoff) combination.get(index++),
         (Implementation) combination.get(index++),
         cacheSpec);
   }
@@ -182,7 +211,29 @@ final class CacheGenerator {
     boolean asyncLoaderIncompatible = context.isAsyncLoading()
         && (!context.isAsync() || !context.isLoading());
     boolean refreshIncompatible = context.refreshes() && !context.isLoading();
+    boolean earlyRefreshIncompatible = context.refreshesEarly()
+        && ((context.implementation() != Implementation.Caffeine) || !context.isLoading()
+            || !context.expiresAfterWrite() || !context.isRecordingStats());
+    boolean staleIncompatible = context.servesStale()
+        && ((context.implementation() != Implementation.Caffeine) || !context.isLoading()
+            || !context.expiresAfterWrite());
+    boolean staleIfErrorIncompatible = (context.staleIfError() != Grace.DISABLED)
+        && !context.servesStale();
+    boolean timeSliceIncompatible = context.isTimeSliced()
+        && (context.implementation() != Implementation.Caffeine);
+    boolean hotKeysIncompatible = context.recordsHotKeys()
+        && ((context.implementation() != Implementation.Caffeine) || context.isUnbounded()
+            || !context.isStrongKeys());
+    boolean victimTierIncompatible = context.hasVictimTier()
+        && ((context.implementation() != Implementation.Caffeine) || context.isUnbounded()
+            || context.isAsync() || !context.isStrongKeys() || context.expiresAfterAccess()
+            || context.expiresAfterWrite() || context.expiresVariably());
     boolean weigherIncompatible = context.isUnbounded() && context.isWeighted();
+    boolean weightAdmissionIncompatible = context.isWeightAware()
+        && ((context.implementation() != Implementation.Caffeine) || !context.isWeighted());
+    boolean loadPenaltyIncompatible = context.admitsByLoadPenalty()
+        && ((context.implementation() != Implementation.Caffeine) || context.isUnbounded()
+            || !context.isRecordingStats());
     boolean referenceIncompatible = cacheSpec.requiresWeakOrSoft()
         && context.isStrongKeys() && context.isStrongValues();
     boolean expiryIncompatible = (context.expiryType() != CacheExpiry.DISABLED)
@@ -193,11 +244,19 @@ final class CacheGenerator {
         && !Arrays.stream(cacheSpec.mustExpireWithAnyOf()).anyMatch(context::expires);
     boolean schedulerIgnored = (context.cacheScheduler != CacheScheduler.DEFAULT)
         && !context.expires();
+    boolean negativeIncompatible = context.cachesNegatives()
+        && ((context.implementation() != Implementation.Caffeine) || !context.isLoading());
+    boolean backoffIncompatible = (context.failureBackoff() != Backoff.DISABLED)
+        && !context.cachesNegatives();
 
     boolean skip = asyncIncompatible || asyncLoaderIncompatible
-        || refreshIncompatible || weigherIncompatible
+        || refreshIncompatible || earlyRefreshIncompatible || weigherIncompatible
         || expiryIncompatible || expirationIncompatible
-        || referenceIncompatible
+        || referenceIncompatible || staleIncompatible || staleIfErrorIncompatible
+        || timeSliceIncompatible || weightAdmissionIncompatible || loadPenaltyIncompatible
+        || hotKeysIncompatible
+        || victimTierIncompatible
+        || negativeIncompatible || backoffIncompatible
         || schedulerIgnored;
     return !skip;
   }
@@ -27,6 +27,7 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -51,6 +52,7 @@ import com.github.benmanes.caffeine.cache.Expiry;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.github.benmanes.caffeine.cache.RemovalListener;
 import com.github.benmanes.caffeine.cache.Scheduler;
+import com.github.benmanes.caffeine.cache.Serializer;
 import com.github.benmanes.caffeine.cache.Weigher;
 import com.github.benmanes.caffeine.cache.testing.RemovalListeners.ConsumingRemovalListener;
 import com.google.common.collect.Iterables;
@@ -234,6 +236,34 @@ public @interface CacheSpec {
     }
   }
 
+  /* --------------- Weight aware admission --------------- */
+
+  /** The weight aware admission setting, which requires a weigher and a maximum weight. */
+  WeightAdmission[] weightAwareAdmission() default {
+    WeightAdmission.DISABLED
+  };
+
+  enum WeightAdmission {
+    /** A flag indicating that a candidate is admitted by its frequency relative to one victim. */
+    DISABLED,
+    /** A flag indicating that a candidate is admitted relative to all of the displaced victims. */
+    ENABLED
+  }
+
+  /* --------------- Load penalty admission --------------- */
+
+  /** The load penalty admission setting, which requires a maximum and recording statistics. */
+  LoadPenalty[] loadPenaltyAdmission() default {
+    LoadPenalty.DISABLED
+  };
+
+  enum LoadPenalty {
+    /** A flag indicating that a candidate is admitted by its frequency alone. */
+    DISABLED,
+    /** A flag indicating that a candidate's frequency is weighted by the time to load it. */
+    ENABLED
+  }
+
   /* --------------- Expiration --------------- */
 
   /** Indicates that the combination must have any of the expiration settings. */
@@ -595,11 +625,14 @@ public @interface CacheSpec {
         return CacheWriter.disabledWriter();
       }
     },
-    /** A writer that records interactions. */
+    /**
+     * A writer that records interactions. The bulk operations call the default implementations,
+     * which notify each entry individually, as the mock is seen as overriding them.
+     */
     MOCKITO {
       @Override public <K, V> CacheWriter<K, V> create() {
         @SuppressWarnings("unchecked")
-        CacheWriter<K, V> mock = Mockito.mock(CacheWriter.class);
+        CacheWriter<K, V> mock = Mockito.mock(CacheWriter.class, Mockito.CALLS_REAL_METHODS);
         return mock;
       }
     },
@@ -688,6 +721,223 @@ public @interface CacheSpec {
     }
   }
 
+  /* --------------- Early refresh --------------- */
+
+  /** The probabilistic early refresh setting, each resulting in a new combination. */
+  EarlyRefresh[] probabilisticEarlyRefresh() default {
+    EarlyRefresh.DISABLED
+  };
+
+  /** The scaling factors of the load time when deciding to reload ahead of the expiration. */
+  enum EarlyRefresh {
+    /** A flag indicating that entries are not reloaded ahead of their expiration. */
+    DISABLED(0.0),
+    /** A configuration where the load time is scaled by the recommended factor of one. */
+    ONE(1.0);
+
+    private final double beta;
+
+    private EarlyRefresh(double beta) {
+      this.beta = beta;
+    }
+
+    public double beta() {
+      return beta;
+    }
+  }
+
+  /* --------------- Stale while revalidate --------------- */
+
+  /** The grace period to serve an expired entry while it is reloaded, each a new combination. */
+  Grace[] staleWhileRevalidate() default {
+    Grace.DISABLED
+  };
+
+  /** The maximum staleness while the reloads fail, which requires a grace period. */
+  Grace[] staleIfError() default {
+    Grace.DISABLED
+  };
+
+  /** The durations that an expired entry may continue to be served. */
+  enum Grace {
+    /** A flag indicating that an expired entry is not served. */
+    DISABLED(Long.MIN_VALUE),
+    /** A configuration where an expired entry is served for ten seconds. */
+    TEN_SECONDS(TimeUnit.SECONDS.toNanos(10L)),
+    /** A configuration where an expired entry is served for five minutes. */
+    FIVE_MINUTES(TimeUnit.MINUTES.toNanos(5L));
+
+    private final long timeNanos;
+
+    private Grace(long timeNanos) {
+      this.timeNanos = timeNanos;
+    }
+
+    public long timeNanos() {
+      return timeNanos;
+    }
+  }
+
+  /* --------------- Maintenance time slice --------------- */
+
+  /** The maximum duration of each maintenance pass, each resulting in a new combination. */
+  TimeSlice[] maintenanceTimeSlice() default {
+    TimeSlice.DISABLED
+  };
+
+  /** The durations that a maintenance pass may run for before yielding. */
+  enum TimeSlice {
+    /** A flag indicating that a maintenance pass drains all of the pending work. */
+    DISABLED(Long.MIN_VALUE),
+    /** A configuration where a maintenance pass yields after ten milliseconds. */
+    TEN_MILLISECONDS(TimeUnit.MILLISECONDS.toNanos(10L));
+
+    private final long timeNanos;
+
+    private TimeSlice(long timeNanos) {
+      this.timeNanos = timeNanos;
+    }
+
+    public long timeNanos() {
+      return timeNanos;
+    }
+  }
+
+  /* --------------- Hot keys --------------- */
+
+  /** The hot key recording setting, which requires a maximum and strong keys. */
+  HotKeyRecording[] recordHotKeys() default {
+    HotKeyRecording.DISABLED
+  };
+
+  /** The number of keys tracked and the window that their occurrences are counted over. */
+  enum HotKeyRecording {
+    /** A flag indicating that the most frequently used keys are not recorded. */
+    DISABLED(0, Long.MIN_VALUE),
+    /** A configuration that tracks ten keys over a one minute window. */
+    TEN(10, TimeUnit.MINUTES.toNanos(1L));
+
+    private final int capacity;
+    private final long windowNanos;
+
+    private HotKeyRecording(int capacity, long windowNanos) {
+      this.capacity = capacity;
+      this.windowNanos = windowNanos;
+    }
+
+    public int capacity() {
+      return capacity;
+    }
+
+    public long windowNanos() {
+      return windowNanos;
+    }
+  }
+
+  /* --------------- Off-heap victims --------------- */
+
+  /** The off-heap victim tier setting, which requires a maximum, strong keys, and no expiration. */
+  VictimTier[] offHeapVictims() default {
+    VictimTier.DISABLED
+  };
+
+  /** The direct memory budgets of the tier that retains the size-evicted values. */
+  enum VictimTier implements Serializer<Integer> {
+    /** A flag indicating that the evicted entries are discarded. */
+    DISABLED(0L),
+    /** A configuration where the evicted values are retained in up to one kibibyte. */
+    ONE_KIBIBYTE(1024L),
+    /** A configuration where the evicted values fail to be serialized. */
+    UNSERIALIZABLE(1024L) {
+      @Override
+      public byte[] serialize(Integer value) {
+        throw new IllegalStateException();
+      }
+    };
+
+    private final long maximumBytes;
+
+    private VictimTier(long maximumBytes) {
+      this.maximumBytes = maximumBytes;
+    }
+
+    public long maximumBytes() {
+      return maximumBytes;
+    }
+
+    @Override
+    public byte[] serialize(Integer value) {
+      return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+    }
+
+    @Override
+    public Integer deserialize(byte[] bytes) {
+      return ByteBuffer.wrap(bytes).getInt();
+    }
+  }
+
+  /* --------------- Negative caching --------------- */
+
+  /** The negative caching setting, each resulting in a new combination. */
+  NegativeCache[] negativeCaching() default {
+    NegativeCache.DISABLED
+  };
+
+  /** The negative caching configurations. */
+  enum NegativeCache {
+    /** A flag indicating that the absent and failed loads are not remembered. */
+    DISABLED(0L, Expire.DISABLED),
+    /** A configuration where the absent loads are not remembered, but the failures may be. */
+    IMMEDIATELY(Maximum.TEN.max(), Expire.IMMEDIATELY),
+    /** A configuration where up to 10 absent loads are remembered for a minute. */
+    ONE_MINUTE(Maximum.TEN.max(), Expire.ONE_MINUTE);
+
+    private final long maximumSize;
+    private final Expire duration;
+
+    private NegativeCache(long maximumSize, Expire duration) {
+      this.maximumSize = maximumSize;
+      this.duration = duration;
+    }
+
+    public long maximumSize() {
+      return maximumSize;
+    }
+
+    public long timeNanos() {
+      return duration.timeNanos();
+    }
+  }
+
+  /** The failure backoff setting, which requires negative caching. */
+  Backoff[] failureBackoff() default {
+    Backoff.DISABLED
+  };
+
+  /** The delays before a failed load is attempted again. */
+  enum Backoff {
+    /** A flag indicating that the failed loads are not remembered. */
+    DISABLED(Long.MIN_VALUE, Long.MIN_VALUE),
+    /** A configuration where the delay starts at one second and doubles up to three seconds. */
+    ONE_SECOND(TimeUnit.SECONDS.toNanos(1L), TimeUnit.SECONDS.toNanos(3L));
+
+    private final long initialDelayNanos;
+    private final long maximumDelayNanos;
+
+    private Backoff(long initialDelayNanos, long maximumDelayNanos) {
+      this.initialDelayNanos = initialDelayNanos;
+      this.maximumDelayNanos = maximumDelayNanos;
+    }
+
+    public long initialDelayNanos() {
+      return initialDelayNanos;
+    }
+
+    public long maximumDelayNanos() {
+      return maximumDelayNanos;
+    }
+  }
+
   /* --------------- Populated --------------- */
 
   /**
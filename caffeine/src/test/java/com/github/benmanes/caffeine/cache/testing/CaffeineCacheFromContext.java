@@ -16,17 +16,20 @@
 package com.github.benmanes.caffeine.cache.testing;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Reset;
 import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Backoff;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExecutor;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheExpiry;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheScheduler;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.CacheWeigher;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Expire;
+import com.github.benmanes.caffeine.cache.testing.CacheSpec.Grace;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.InitialCapacity;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Listener;
 import com.github.benmanes.caffeine.cache.testing.CacheSpec.Maximum;
@@ -59,6 +62,12 @@ public final class CaffeineCacheFromContext {
       } else {
         builder.weigher(context.weigher);
         builder.maximumWeight(context.maximumWeight());
+        if (context.isWeightAware()) {
+          builder.weightAwareAdmission();
+        }
+      }
+      if (context.admitsByLoadPenalty()) {
+        builder.loadPenaltyAdmission();
       }
     }
     if (context.expiryType() != CacheExpiry.DISABLED) {
@@ -73,7 +82,35 @@ public final class CaffeineCacheFromContext {
     if (context.refresh != Expire.DISABLED) {
       builder.refreshAfterWrite(context.refresh.timeNanos(), TimeUnit.NANOSECONDS);
     }
-    if (context.expires() || context.refreshes()) {
+    if (context.refreshesEarly()) {
+      builder.probabilisticEarlyRefresh(context.probabilisticEarlyRefresh().beta());
+    }
+    if (context.servesStale()) {
+      builder.staleWhileRevalidate(Duration.ofNanos(context.staleWhileRevalidate().timeNanos()));
+    }
+    if (context.staleIfError() != Grace.DISABLED) {
+      builder.staleIfError(Duration.ofNanos(context.staleIfError().timeNanos()));
+    }
+    if (context.isTimeSliced()) {
+      builder.maintenanceTimeSlice(Duration.ofNanos(context.maintenanceTimeSlice().timeNanos()));
+    }
+    if (context.recordsHotKeys()) {
+      builder.recordHotKeys(context.recordHotKeys().capacity(),
+          Duration.ofNanos(context.recordHotKeys().windowNanos()));
+    }
+    if (context.hasVictimTier()) {
+      builder.offHeapVictims(context.offHeapVictims().maximumBytes(), context.offHeapVictims());
+    }
+    if (context.cachesNegatives()) {
+      builder.negativeCaching(context.negativeCaching().maximumSize(),
+          Duration.ofNanos(context.negativeCaching().timeNanos()));
+    }
+    if (context.failureBackoff() != Backoff.DISABLED) {
+      builder.failureBackoff(Duration.ofNanos(context.failureBackoff().initialDelayNanos()),
+          Duration.ofNanos(context.failureBackoff().maximumDelayNanos()));
+    }
+    if (context.expires() || context.refreshes() || context.cachesNegatives()
+        || context.isTimeSliced() || context.recordsHotKeys() || context.admitsByLoadPenalty()) {
       SerializableTicker ticker = context.ticker()::read;
       builder.ticker(ticker);
     }
@@ -35,7 +35,9 @@ public abstract class CountMin4 implements Frequency {
   static final long RESET_MASK = 0x7777777777777777L;
 
   protected final boolean conservative;
+  protected final boolean blocked;
 
+  protected int blockMask;
   protected int tableMask;
   protected long[] table;
   protected int step = 1;
@@ -47,6 +49,7 @@ public abstract class CountMin4 implements Frequency {
   protected CountMin4(Config config) {
     BasicSettings settings = new BasicSettings(config);
     conservative = settings.tinyLfu().conservative();
+    blocked = settings.tinyLfu().countMin4().blocked();
 
     double countersMultiplier = settings.tinyLfu().countMin4().countersMultiplier();
     long counters = (long) (countersMultiplier * settings.maximumSize());
@@ -68,8 +71,10 @@ public abstract class CountMin4 implements Frequency {
       return;
     }
 
-    table = new long[(maximum == 0) ? 1 : IntMath.ceilingPowerOfTwo(maximum)];
+    int length = (maximum == 0) ? 1 : IntMath.ceilingPowerOfTwo(maximum);
+    table = new long[blocked ? Math.max(8, length) : length];
     tableMask = Math.max(0, table.length - 1);
+    blockMask = (table.length >>> 3) - 1;
   }
 
   /**
@@ -81,11 +86,10 @@ public abstract class CountMin4 implements Frequency {
   @Override
   public int frequency(long e) {
     int hash = spread(Long.hashCode(e));
-    int start = (hash & 3) << 2;
     int frequency = Integer.MAX_VALUE;
     for (int i = 0; i < 4; i++) {
-      int index = indexOf(hash, i);
-      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      int index = slotOf(hash, i);
+      int count = (int) ((table[index] >>> (counterOf(hash, i) << 2)) & 0xfL);
       frequency = Math.min(frequency, count);
     }
     return frequency;
@@ -110,18 +114,17 @@ public abstract class CountMin4 implements Frequency {
   /** Increments all of the associated counters. */
   void regularIncrement(long e) {
     int hash = spread(Long.hashCode(e));
-    int start = (hash & 3) << 2;
 
     // Loop unrolling improves throughput by 5m ops/s
-    int index0 = indexOf(hash, 0);
-    int index1 = indexOf(hash, 1);
-    int index2 = indexOf(hash, 2);
-    int index3 = indexOf(hash, 3);
+    int index0 = slotOf(hash, 0);
+    int index1 = slotOf(hash, 1);
+    int index2 = slotOf(hash, 2);
+    int index3 = slotOf(hash, 3);
 
-    boolean added = incrementAt(index0, start, step);
-    added |= incrementAt(index1, start + 1, step);
-    added |= incrementAt(index2, start + 2, step);
-    added |= incrementAt(index3, start + 3, step);
+    boolean added = incrementAt(index0, counterOf(hash, 0), step);
+    added |= incrementAt(index1, counterOf(hash, 1), step);
+    added |= incrementAt(index2, counterOf(hash, 2), step);
+    added |= incrementAt(index3, counterOf(hash, 3), step);
 
     tryReset(added);
   }
@@ -129,14 +132,13 @@ public abstract class CountMin4 implements Frequency {
   /** Increments the associated counters that are at the observed minimum. */
   void conservativeIncrement(long e) {
     int hash = spread(Long.hashCode(e));
-    int start = (hash & 3) << 2;
 
     int[] index = new int[4];
     int[] count = new int[4];
     int min = Integer.MAX_VALUE;
     for (int i = 0; i < 4; i++) {
-      index[i] = indexOf(hash, i);
-      count[i] = (int) ((table[index[i]] >>> ((start + i) << 2)) & 0xfL);
+      index[i] = slotOf(hash, i);
+      count[i] = (int) ((table[index[i]] >>> (counterOf(hash, i) << 2)) & 0xfL);
       min = Math.min(min, count[i]);
     }
 
@@ -147,7 +149,7 @@ public abstract class CountMin4 implements Frequency {
 
     for (int i = 0; i < 4; i++) {
       if (count[i] == min) {
-        incrementAt(index[i], start + i, step);
+        incrementAt(index[i], counterOf(hash, i), step);
       }
     }
     tryReset(true);
@@ -176,6 +178,36 @@ public abstract class CountMin4 implements Frequency {
     return false;
   }
 
+  /**
+   * Returns the table index for the counter at the specified depth. If the layout is blocked then
+   * all of the element's counters reside within the same 64-byte block of eight table indexes.
+   *
+   * @param hash the element's hash
+   * @param i the counter depth
+   * @return the table index
+   */
+  int slotOf(int hash, int i) {
+    if (!blocked) {
+      return indexOf(hash, i);
+    }
+    int block = (hash & blockMask) << 3;
+    int offset = (rehash(hash) >>> (i << 3)) & 1;
+    return block + offset + (i << 1);
+  }
+
+  /**
+   * Returns the position of the counter at the specified depth within its table index.
+   *
+   * @param hash the element's hash
+   * @param i the counter depth
+   * @return the counter's position (16 counters per table index)
+   */
+  int counterOf(int hash, int i) {
+    return blocked
+        ? (rehash(hash) >>> ((i << 3) + 1)) & 15
+        : ((hash & 3) << 2) + i;
+  }
+
   /**
    * Returns the table index for the counter at the specified depth.
    *
@@ -198,4 +230,11 @@ public abstract class CountMin4 implements Frequency {
     x = ((x >>> 16) ^ x) * 0x45d9f3b;
     return (x >>> 16) ^ x;
   }
+
+  /** Applies a supplemental hash function to select the counters within a block. */
+  static int rehash(int x) {
+    x *= 0x31848bab;
+    x ^= x >>> 14;
+    return x;
+  }
 }
@@ -42,7 +42,7 @@ public final class CaffeinePolicy implements Policy {
 
   public CaffeinePolicy(Config config, Set<Characteristic> characteristics) {
     policyStats = new PolicyStats("product.Caffeine");
-    BasicSettings settings = new BasicSettings(config);
+    CaffeineSettings settings = new CaffeineSettings(config);
     Caffeine<Long, AccessEvent> builder = Caffeine.newBuilder()
         .removalListener((Long key, AccessEvent value, RemovalCause cause) ->
             policyStats.recordEviction())
@@ -50,6 +50,9 @@ public final class CaffeinePolicy implements Policy {
     if (characteristics.contains(WEIGHTED)) {
       builder.maximumWeight(settings.maximumSize());
       builder.weigher((key, value) -> value.weight());
+      if (settings.weightAwareAdmission()) {
+        builder.weightAwareAdmission();
+      }
     } else {
       builder.maximumSize(settings.maximumSize());
       builder.initialCapacity(Ints.saturatedCast(settings.maximumSize()));
@@ -84,4 +87,13 @@ public final class CaffeinePolicy implements Policy {
   public PolicyStats stats() {
     return policyStats;
   }
+
+  static final class CaffeineSettings extends BasicSettings {
+    public CaffeineSettings(Config config) {
+      super(config);
+    }
+    public boolean weightAwareAdmission() {
+      return config().getBoolean("caffeine.weight-aware-admission");
+    }
+  }
 }